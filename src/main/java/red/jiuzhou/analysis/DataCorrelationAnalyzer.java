@@ -4,8 +4,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.function.IntFunction;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 /**
  * 数据关联性分析器
@@ -27,6 +27,7 @@ import java.util.stream.Collectors;
  *   <li>游戏领域知识增强(识别常见属性模式)</li>
  *   <li>生成策划友好的中文洞察提示</li>
  *   <li>支持多维度数据关联分析</li>
+ *   <li>基于 {@link NumericColumns} 的列式计算：数值只解析一次，全部统计在 double[] 上完成</li>
  * </ul>
  *
  * <p><b>使用示例:</b>
@@ -276,16 +277,67 @@ public class DataCorrelationAnalyzer {
     public static FieldCorrelation analyzeCorrelation(
             String field1Name, List<Double> values1,
             String field2Name, List<Double> values2) {
+        return analyzeCorrelation(field1Name, toArray(values1), field2Name, toArray(values2));
+    }
+
+    /**
+     * 计算两个数值列的相关性（按行对齐，NaN 表示缺失，只使用两列都有值的行）
+     */
+    public static FieldCorrelation analyzeCorrelation(
+            String field1Name, double[] values1,
+            String field2Name, double[] values2) {
 
-        if (values1.size() != values2.size() || values1.isEmpty()) {
+        if (values1.length != values2.length || values1.length == 0) {
             return new FieldCorrelation(field1Name, field2Name, 0,
                 CorrelationType.NO_CORRELATION, "数据不足或维度不匹配");
         }
 
         // 计算皮尔逊相关系数
-        double correlation = calculatePearsonCorrelation(values1, values2);
+        double correlation = NumericColumns.pearson(values1, values2);
+        return classifyCorrelation(field1Name, values1, field2Name, values2, correlation);
+    }
 
-        // 判断相关性类型
+    /**
+     * 一次计算所有数值列两两之间的相关性，返回相关系数绝对值超过阈值的结果
+     *
+     * @param threshold 相关系数绝对值阈值
+     * @param limit     最多返回的结果数，超出时保留相关性最强的
+     * @return 按列顺序排列的相关性
+     */
+    public static List<FieldCorrelation> analyzeCorrelations(NumericColumns columns, double threshold, int limit) {
+        double[][] matrix = columns.correlationMatrix();
+        int m = columns.getColumnCount();
+
+        List<int[]> pairs = new ArrayList<>();
+        for (int i = 0; i < m; i++) {
+            for (int j = i + 1; j < m; j++) {
+                if (Math.abs(matrix[i][j]) > threshold) {
+                    pairs.add(new int[]{i, j});
+                }
+            }
+        }
+        if (pairs.size() > limit) {
+            pairs.sort((a, b) -> Double.compare(Math.abs(matrix[b[0]][b[1]]), Math.abs(matrix[a[0]][a[1]])));
+            pairs = new ArrayList<>(pairs.subList(0, limit));
+            pairs.sort((a, b) -> a[0] != b[0] ? Integer.compare(a[0], b[0]) : Integer.compare(a[1], b[1]));
+        }
+
+        List<FieldCorrelation> result = new ArrayList<>(pairs.size());
+        for (int[] pair : pairs) {
+            result.add(classifyCorrelation(
+                columns.getFieldName(pair[0]), columns.getColumn(pair[0]),
+                columns.getFieldName(pair[1]), columns.getColumn(pair[1]),
+                matrix[pair[0]][pair[1]]));
+        }
+        return result;
+    }
+
+    /**
+     * 根据相关系数判断相关性类型并生成提示
+     */
+    private static FieldCorrelation classifyCorrelation(String field1Name, double[] values1,
+                                                        String field2Name, double[] values2,
+                                                        double correlation) {
         CorrelationType type;
         String insight;
 
@@ -317,71 +369,78 @@ public class DataCorrelationAnalyzer {
     }
 
     /**
-     * 计算皮尔逊相关系数
+     * 检测是否为幂次增长
      */
-    private static double calculatePearsonCorrelation(List<Double> x, List<Double> y) {
-        int n = x.size();
-        double sumX = 0, sumY = 0, sumXY = 0, sumX2 = 0, sumY2 = 0;
-
-        for (int i = 0; i < n; i++) {
-            sumX += x.get(i);
-            sumY += y.get(i);
-            sumXY += x.get(i) * y.get(i);
-            sumX2 += x.get(i) * x.get(i);
-            sumY2 += y.get(i) * y.get(i);
+    private static boolean detectPowerGrowth(double[] x, double[] y) {
+        // 简化判断：取前10个两列都有值的点，计算增长率的变化
+        double[] px = new double[10];
+        double[] py = new double[10];
+        int points = 0;
+        for (int i = 0; i < x.length && points < 10; i++) {
+            if (!Double.isNaN(x[i]) && !Double.isNaN(y[i])) {
+                px[points] = x[i];
+                py[points] = y[i];
+                points++;
+            }
         }
+        if (points < 5) return false;
 
-        double numerator = n * sumXY - sumX * sumY;
-        double denominator = Math.sqrt((n * sumX2 - sumX * sumX) * (n * sumY2 - sumY * sumY));
-
-        if (denominator == 0) return 0;
-        return numerator / denominator;
-    }
-
-    /**
-     * 检测是否为幂次增长
-     */
-    private static boolean detectPowerGrowth(List<Double> x, List<Double> y) {
-        // 简化判断：计算增长率的变化
-        if (x.size() < 5) return false;
-
-        List<Double> growthRates = new ArrayList<>();
-        for (int i = 1; i < Math.min(x.size(), 10); i++) {
-            double dx = x.get(i) - x.get(i - 1);
-            double dy = y.get(i) - y.get(i - 1);
+        double[] growthRates = new double[points - 1];
+        int rates = 0;
+        for (int i = 1; i < points; i++) {
+            double dx = px[i] - px[i - 1];
+            double dy = py[i] - py[i - 1];
             if (dx > 0) {
-                growthRates.add(dy / dx);
+                growthRates[rates++] = dy / dx;
             }
         }
 
-        if (growthRates.size() < 3) return false;
+        if (rates < 3) return false;
 
         // 如果增长率持续增加，可能是幂次增长
         int increasing = 0;
-        for (int i = 1; i < growthRates.size(); i++) {
-            if (growthRates.get(i) > growthRates.get(i - 1) * 1.1) {
+        for (int i = 1; i < rates; i++) {
+            if (growthRates[i] > growthRates[i - 1] * 1.1) {
                 increasing++;
             }
         }
 
-        return increasing >= growthRates.size() * 0.6;
+        return increasing >= rates * 0.6;
     }
 
     /**
      * 分析数值分布特征
      */
     public static DistributionProfile analyzeDistribution(String fieldName, List<Double> values) {
-        if (values.isEmpty()) {
+        return analyzeDistribution(fieldName, toArray(values));
+    }
+
+    /**
+     * 分析数值列的分布特征（NaN 视为缺失）
+     */
+    public static DistributionProfile analyzeDistribution(String fieldName, double[] values) {
+        return analyzeSortedDistribution(fieldName, NumericColumns.sortValid(values));
+    }
+
+    /**
+     * 分析数值列的分布特征，复用列的排序结果
+     */
+    public static DistributionProfile analyzeDistribution(NumericColumns columns, int column) {
+        return analyzeSortedDistribution(columns.getFieldName(column), columns.sortedValues(column));
+    }
+
+    private static DistributionProfile analyzeSortedDistribution(String fieldName, double[] sorted) {
+        if (sorted.length == 0) {
             return new DistributionProfile(fieldName, DistributionType.DISCRETE, 0, 0,
                 "数据为空", Collections.emptyList());
         }
 
-        // 排序并计算统计量
-        List<Double> sorted = new ArrayList<>(values);
-        Collections.sort(sorted);
-
-        double mean = sorted.stream().mapToDouble(Double::doubleValue).average().orElse(0);
-        double median = sorted.get(sorted.size() / 2);
+        // 计算统计量
+        double sum = 0;
+        for (double v : sorted) {
+            sum += v;
+        }
+        double mean = sum / sorted.length;
 
         // 计算偏度
         double skewness = calculateSkewness(sorted, mean);
@@ -422,16 +481,17 @@ public class DataCorrelationAnalyzer {
     /**
      * 计算偏度
      */
-    private static double calculateSkewness(List<Double> sorted, double mean) {
+    private static double calculateSkewness(double[] sorted, double mean) {
         double m3 = 0;
         double m2 = 0;
         for (double v : sorted) {
             double diff = v - mean;
-            m3 += Math.pow(diff, 3);
-            m2 += Math.pow(diff, 2);
+            double diff2 = diff * diff;
+            m3 += diff2 * diff;
+            m2 += diff2;
         }
-        m3 /= sorted.size();
-        m2 /= sorted.size();
+        m3 /= sorted.length;
+        m2 /= sorted.length;
 
         if (m2 == 0) return 0;
         return m3 / Math.pow(m2, 1.5);
@@ -440,15 +500,15 @@ public class DataCorrelationAnalyzer {
     /**
      * 计算均匀度
      */
-    private static double calculateEvenness(List<Double> sorted) {
-        if (sorted.size() < 2) return 1.0;
+    private static double calculateEvenness(double[] sorted) {
+        if (sorted.length < 2) return 1.0;
 
         // 将数据分成10个区间，计算分布均匀度
-        int buckets = Math.min(10, sorted.size());
+        int buckets = Math.min(10, sorted.length);
         int[] counts = new int[buckets];
 
-        double min = sorted.get(0);
-        double max = sorted.get(sorted.size() - 1);
+        double min = sorted[0];
+        double max = sorted[sorted.length - 1];
         double range = max - min;
 
         if (range == 0) return 1.0;
@@ -459,7 +519,7 @@ public class DataCorrelationAnalyzer {
         }
 
         // 计算基尼系数的变体
-        double expectedCount = sorted.size() / (double) buckets;
+        double expectedCount = sorted.length / (double) buckets;
         double variance = 0;
         for (int count : counts) {
             variance += Math.pow(count - expectedCount, 2);
@@ -473,24 +533,24 @@ public class DataCorrelationAnalyzer {
     /**
      * 检测数值间隙
      */
-    private static List<GapInfo> detectGaps(List<Double> sorted) {
+    private static List<GapInfo> detectGaps(double[] sorted) {
         List<GapInfo> gaps = new ArrayList<>();
-        if (sorted.size() < 2) return gaps;
+        if (sorted.length < 2) return gaps;
 
         // 计算平均间距
-        List<Double> diffs = new ArrayList<>();
-        for (int i = 1; i < sorted.size(); i++) {
-            diffs.add(sorted.get(i) - sorted.get(i - 1));
+        double diffSum = 0;
+        for (int i = 1; i < sorted.length; i++) {
+            diffSum += sorted[i] - sorted[i - 1];
         }
 
-        double avgDiff = diffs.stream().mapToDouble(Double::doubleValue).average().orElse(0);
+        double avgDiff = diffSum / (sorted.length - 1);
         double threshold = avgDiff * 3; // 超过平均间距3倍视为间隙
 
-        for (int i = 1; i < sorted.size(); i++) {
-            double diff = sorted.get(i) - sorted.get(i - 1);
+        for (int i = 1; i < sorted.length; i++) {
+            double diff = sorted[i] - sorted[i - 1];
             if (diff > threshold && diff > 1) {
-                gaps.add(new GapInfo(sorted.get(i - 1), sorted.get(i),
-                    String.format("%.1f ~ %.1f 之间缺少数值", sorted.get(i - 1), sorted.get(i))));
+                gaps.add(new GapInfo(sorted[i - 1], sorted[i],
+                    String.format("%.1f ~ %.1f 之间缺少数值", sorted[i - 1], sorted[i])));
             }
         }
 
@@ -500,14 +560,19 @@ public class DataCorrelationAnalyzer {
     /**
      * 检测是否符合幂律分布
      */
-    private static boolean detectPowerLawDistribution(List<Double> sorted) {
-        if (sorted.size() < 10) return false;
+    private static boolean detectPowerLawDistribution(double[] sorted) {
+        if (sorted.length < 10) return false;
 
         // 检查是否少数高值占据大部分
-        int topCount = sorted.size() / 10; // 前10%
-        double topSum = sorted.subList(sorted.size() - topCount, sorted.size())
-                .stream().mapToDouble(Double::doubleValue).sum();
-        double totalSum = sorted.stream().mapToDouble(Double::doubleValue).sum();
+        int topCount = sorted.length / 10; // 前10%
+        double topSum = 0;
+        double totalSum = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            totalSum += sorted[i];
+            if (i >= sorted.length - topCount) {
+                topSum += sorted[i];
+            }
+        }
 
         // 如果前10%的和占总和的50%以上，认为是幂律分布
         return topSum / totalSum > 0.5;
@@ -522,68 +587,86 @@ public class DataCorrelationAnalyzer {
 
         List<BalanceIssue> issues = new ArrayList<>();
 
-        // 检测异常值
         for (Map.Entry<String, List<Map<String, String>>> entry : records.entrySet()) {
             String fieldName = entry.getKey();
-            List<Double> numericValues = extractNumericValues(entry.getValue(), fieldName);
-
-            if (numericValues.size() < 5) continue;
-
-            List<Double> sorted = new ArrayList<>(numericValues);
-            Collections.sort(sorted);
-
-            // 检测极端异常值
-            double q1 = sorted.get(sorted.size() / 4);
-            double q3 = sorted.get(sorted.size() * 3 / 4);
-            double iqr = q3 - q1;
-            double lowerBound = q1 - 3 * iqr;
-            double upperBound = q3 + 3 * iqr;
-
-            List<String> outliers = new ArrayList<>();
-            for (int i = 0; i < entry.getValue().size(); i++) {
-                Map<String, String> record = entry.getValue().get(i);
-                try {
-                    double value = Double.parseDouble(record.getOrDefault(fieldName, "0"));
-                    if (value < lowerBound || value > upperBound) {
-                        String id = record.getOrDefault(idField, "记录" + i);
-                        outliers.add(String.format("%s (值: %.2f)", id, value));
-                    }
-                } catch (NumberFormatException ignored) {
+            List<Map<String, String>> fieldRecords = entry.getValue();
+            NumericColumns columns = NumericColumns.fromRecords(
+                fieldRecords, Collections.singletonList(fieldName), 1);
+            if (columns.getColumnCount() == 1) {
+                BalanceIssue issue = detectOutliers(columns, 0, row -> fieldRecords.get(row).getOrDefault(idField, "记录" + row));
+                if (issue != null) {
+                    issues.add(issue);
                 }
             }
+        }
 
-            if (!outliers.isEmpty() && outliers.size() <= 5) {
-                issues.add(new BalanceIssue(
-                    "极端异常值",
-                    Severity.WARNING,
-                    String.format("%s 存在 %d 个极端异常值，可能是配置错误或刻意设计",
-                        fieldName, outliers.size()),
-                    "检查这些数值是否合理，或考虑调整到正常范围",
-                    outliers.subList(0, Math.min(3, outliers.size()))
-                ));
+        return issues;
+    }
+
+    /**
+     * 检测平衡性问题（列式数据）
+     *
+     * @param rowIds 每行的标识，用于展示受影响记录
+     */
+    public static List<BalanceIssue> detectBalanceIssues(NumericColumns columns, String[] rowIds) {
+        List<BalanceIssue> issues = new ArrayList<>();
+        for (int c = 0; c < columns.getColumnCount(); c++) {
+            BalanceIssue issue = detectOutliers(columns, c, row -> rowIds[row]);
+            if (issue != null) {
+                issues.add(issue);
             }
         }
-
         return issues;
     }
 
     /**
-     * 提取数值列表
+     * 检测单列的极端异常值（四分位距的3倍之外）
      */
-    private static List<Double> extractNumericValues(List<Map<String, String>> records, String fieldName) {
-        return records.stream()
-            .map(record -> record.get(fieldName))
-            .filter(Objects::nonNull)
-            .map(String::trim)
-            .filter(s -> !s.isEmpty())
-            .map(s -> {
-                try {
-                    return Double.parseDouble(s);
-                } catch (NumberFormatException e) {
+    private static BalanceIssue detectOutliers(NumericColumns columns, int column,
+                                               IntFunction<String> idOf) {
+        double[] sorted = columns.sortedValues(column);
+        if (sorted.length < 5) return null;
+
+        // 检测极端异常值
+        double q1 = sorted[sorted.length / 4];
+        double q3 = sorted[sorted.length * 3 / 4];
+        double iqr = q3 - q1;
+        double lowerBound = q1 - 3 * iqr;
+        double upperBound = q3 + 3 * iqr;
+
+        String fieldName = columns.getFieldName(column);
+        double[] values = columns.getColumn(column);
+        List<String> outliers = new ArrayList<>();
+        for (int row = 0; row < values.length; row++) {
+            double value = values[row];
+            if (value < lowerBound || value > upperBound) {
+                outliers.add(String.format("%s (值: %.2f)", idOf.apply(row), value));
+                if (outliers.size() > 5) {
+                    // 超过5个时不报告，无需继续统计
                     return null;
                 }
-            })
-            .filter(Objects::nonNull)
-            .collect(Collectors.toList());
+            }
+        }
+
+        if (outliers.isEmpty()) {
+            return null;
+        }
+        return new BalanceIssue(
+            "极端异常值",
+            Severity.WARNING,
+            String.format("%s 存在 %d 个极端异常值，可能是配置错误或刻意设计",
+                fieldName, outliers.size()),
+            "检查这些数值是否合理，或考虑调整到正常范围",
+            outliers.subList(0, Math.min(3, outliers.size()))
+        );
+    }
+
+    private static double[] toArray(List<Double> values) {
+        double[] array = new double[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            Double value = values.get(i);
+            array[i] = value == null ? Double.NaN : value;
+        }
+        return array;
     }
-}
\ No newline at end of file
+}
@@ -2,9 +2,15 @@ package red.jiuzhou.analysis;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
 import red.jiuzhou.relationship.XmlRelationshipAnalyzer;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
@@ -20,6 +26,13 @@ import java.util.stream.Collectors;
  *   <li>级联操作建议 - 提供删除/修改的建议操作步骤</li>
  * </ul>
  *
+ * <p>传递影响范围（{@link #getImpactedTables} / {@link #getImpactCount}）由 {@link ReachabilityIndex} 预先计算，
+ * 查询时不再遍历关系图。
+ *
+ * <p>传入 {@link JdbcTemplate} 的重载会在已导入的数据库表中核实引用：每张引用表一条
+ * {@code SELECT 字段, COUNT(*) ... WHERE 字段 IN (...) GROUP BY 字段} 查询（多个引用字段 UNION ALL 合并），
+ * 各表并发执行，报告中带有真实引用行数和样例行主键。批量检查几百个ID也只需要一轮查询。
+ *
  * <p><b>使用示例:</b>
  * <pre>{@code
  * ImpactAnalyzer analyzer = new ImpactAnalyzer(relationships);
@@ -34,6 +47,12 @@ public class ImpactAnalyzer {
 
     private static final Logger log = LoggerFactory.getLogger(ImpactAnalyzer.class);
 
+    // 数据库核实：每条 IN 查询的值个数、每个值保留的样例行数、并发查询线程数
+    private static final int VALUE_BATCH_SIZE = 500;
+    private static final int SAMPLE_KEY_LIMIT = 5;
+    private static final int QUERY_THREADS = 4;
+    private static final AtomicInteger QUERY_THREAD_COUNTER = new AtomicInteger();
+
     /**
      * 重复字符串（Java 8兼容）
      */
@@ -51,9 +70,13 @@ public class ImpactAnalyzer {
     // 正向索引：sourceTable -> targetTable -> relationships
     private final Map<String, Map<String, List<Relationship>>> forwardIndex;
 
+    // 影响可达性：targetTable -> 直接或间接引用它的表
+    private final ReachabilityIndex<String> impactIndex;
+
     public ImpactAnalyzer(List<XmlRelationshipAnalyzer.Relationship> xmlRelationships) {
         this.reverseIndex = new HashMap<>();
         this.forwardIndex = new HashMap<>();
+        this.impactIndex = new ReachabilityIndex<>();
         buildIndexes(xmlRelationships);
     }
 
@@ -79,9 +102,30 @@ public class ImpactAnalyzer {
             forwardIndex.computeIfAbsent(sourceTable, k -> new HashMap<>())
                        .computeIfAbsent(targetTable, k -> new ArrayList<>())
                        .add(relationship);
+
+            if (!sourceTable.equals(targetTable)) {
+                impactIndex.addEdge(targetTable, sourceTable);
+            }
         }
     }
 
+    /**
+     * 修改或删除该表数据时，直接或间接受影响的所有表
+     *
+     * @param tableName 表名
+     * @return 受影响的表
+     */
+    public Set<String> getImpactedTables(String tableName) {
+        return impactIndex.reachableFrom(tableName);
+    }
+
+    /**
+     * 直接或间接受影响的表数量（索引查询，适合在每个树节点上显示）
+     */
+    public int getImpactCount(String tableName) {
+        return impactIndex.countReachableFrom(tableName);
+    }
+
     /**
      * 从文件路径提取表名
      */
@@ -230,6 +274,343 @@ public class ImpactAnalyzer {
         return report;
     }
 
+    // ========== 数据库核实 ==========
+
+    /**
+     * 分析删除影响，并在数据库中核实引用行数
+     *
+     * @param jdbcTemplate 已导入XML数据的数据库
+     * @return 影响报告，引用带有实际行数与样例主键
+     */
+    public ImpactReport analyzeDeleteImpact(String tableName, String fieldName, String value,
+                                            JdbcTemplate jdbcTemplate) {
+        return analyzeDeleteImpact(tableName, fieldName, Collections.singletonList(value), jdbcTemplate).get(value);
+    }
+
+    /**
+     * 批量分析删除影响（例如批量删除物品前），所有值共用一轮查询
+     *
+     * @return 值 -> 影响报告，顺序与传入顺序一致
+     */
+    public Map<String, ImpactReport> analyzeDeleteImpact(String tableName, String fieldName,
+                                                         Collection<String> values, JdbcTemplate jdbcTemplate) {
+        Map<String, String> changes = new LinkedHashMap<>();
+        for (String value : values) {
+            changes.put(value, null);
+        }
+        return verifyImpact(ImpactType.DELETE, tableName, fieldName, changes, jdbcTemplate);
+    }
+
+    /**
+     * 分析修改影响，并在数据库中核实引用行数
+     */
+    public ImpactReport analyzeUpdateImpact(String tableName, String fieldName, String oldValue,
+                                            String newValue, JdbcTemplate jdbcTemplate) {
+        return analyzeUpdateImpact(tableName, fieldName,
+                Collections.singletonMap(oldValue, newValue), jdbcTemplate).get(oldValue);
+    }
+
+    /**
+     * 批量分析修改影响，所有值共用一轮查询
+     *
+     * @param changes 旧值 -> 新值
+     * @return 旧值 -> 影响报告
+     */
+    public Map<String, ImpactReport> analyzeUpdateImpact(String tableName, String fieldName,
+                                                         Map<String, String> changes, JdbcTemplate jdbcTemplate) {
+        return verifyImpact(ImpactType.UPDATE, tableName, fieldName, new LinkedHashMap<>(changes), jdbcTemplate);
+    }
+
+    private Map<String, ImpactReport> verifyImpact(ImpactType type, String tableName, String fieldName,
+                                                   Map<String, String> changes, JdbcTemplate jdbcTemplate) {
+        long start = System.currentTimeMillis();
+        List<String> values = new ArrayList<>(changes.keySet());
+
+        // 候选引用：引用表 -> 关系
+        Map<String, List<Relationship>> candidates = new LinkedHashMap<>();
+        Map<String, List<Relationship>> references = reverseIndex.get(tableName);
+        if (references != null) {
+            for (Map.Entry<String, List<Relationship>> entry : references.entrySet()) {
+                List<Relationship> relevantRels = entry.getValue().stream()
+                    .filter(r -> r.targetField.toLowerCase().contains(fieldName.toLowerCase()))
+                    .collect(Collectors.toList());
+                if (!relevantRels.isEmpty()) {
+                    candidates.put(entry.getKey(), relevantRels);
+                }
+            }
+        }
+
+        // 解析到数据库中的表和列，无法解析的引用记为未核实
+        Map<String, List<String>> schema = candidates.isEmpty()
+            ? Collections.emptyMap() : loadColumns(jdbcTemplate, candidates.keySet());
+        List<TableQuery> queries = new ArrayList<>();
+        List<Relationship> unresolved = new ArrayList<>();
+        for (Map.Entry<String, List<Relationship>> entry : candidates.entrySet()) {
+            TableQuery query = resolveTable(entry.getKey(), entry.getValue(), schema, unresolved);
+            if (query != null) {
+                queries.add(query);
+            }
+        }
+
+        // 查询失败或被中断的引用同样记为未核实，不能按未命中处理
+        List<Relationship> failed = new ArrayList<>();
+        Map<Relationship, Map<String, ReferenceHits>> hits = runQueries(jdbcTemplate, queries, values, failed);
+
+        Map<String, ImpactReport> reports = new LinkedHashMap<>();
+        for (String value : values) {
+            ImpactReport report = new ImpactReport(type, tableName, fieldName, value);
+            report.setNewValue(changes.get(value));
+            report.setVerified(unresolved.isEmpty() && failed.isEmpty());
+
+            Set<String> impactedTables = new LinkedHashSet<>();
+            long totalRows = 0;
+            for (TableQuery query : queries) {
+                for (Relationship rel : query.relationships) {
+                    ReferenceHits hit = hits.getOrDefault(rel, Collections.emptyMap()).get(value);
+                    if (hit == null || hit.count == 0) {
+                        continue;
+                    }
+                    impactedTables.add(rel.sourceTable);
+                    totalRows += hit.count;
+                    report.addImpactedReference(new ImpactedReference(
+                        rel.sourceTable, rel.sourceField, rel.confidence,
+                        suggestionFor(type, rel, value, changes.get(value)), hit.count, hit.sampleKeys));
+                }
+            }
+            for (Relationship rel : unresolved) {
+                report.addImpactedReference(new ImpactedReference(
+                    rel.sourceTable, rel.sourceField, rel.confidence,
+                    "该表或字段未导入数据库，请人工核实", -1, Collections.emptyList()));
+            }
+            for (Relationship rel : failed) {
+                report.addImpactedReference(new ImpactedReference(
+                    rel.sourceTable, rel.sourceField, rel.confidence,
+                    "核实查询失败，请人工核实", -1, Collections.emptyList()));
+            }
+
+            String action = type == ImpactType.DELETE ? "删除此数据" : "修改此字段";
+            // 每处引用单独判断是否核实：全部核实才能说“已核实”
+            String verifiedLabel = report.isVerified() ? "已核实"
+                : (queries.isEmpty() ? "未核实" : "部分核实");
+            String unresolvedNote = "";
+            if (!unresolved.isEmpty()) {
+                unresolvedNote += String.format("（另有 %d 处引用未导入数据库，无法核实）", unresolved.size());
+            }
+            if (!failed.isEmpty()) {
+                unresolvedNote += String.format("（另有 %d 处引用查询失败，无法核实）", failed.size());
+            }
+            if (impactedTables.isEmpty() && report.isVerified()) {
+                report.setSummary(String.format("已核实：没有记录引用此数据，可以安全%s",
+                    type == ImpactType.DELETE ? "删除" : "修改"));
+                report.setSeverity(Severity.SAFE);
+            } else if (impactedTables.isEmpty()) {
+                report.setSummary(String.format("%s：已核实的引用中没有记录引用此数据%s，请人工核实后再%s",
+                    verifiedLabel, unresolvedNote, type == ImpactType.DELETE ? "删除" : "修改"));
+                report.setSeverity(Severity.WARNING);
+            } else {
+                report.setSummary(String.format("%s：%s会影响 %d 张表，共 %d 条记录%s", verifiedLabel,
+                    action, impactedTables.size(), totalRows, unresolvedNote));
+                report.setSeverity(impactedTables.size() <= 3 ? Severity.WARNING : Severity.CRITICAL);
+            }
+            report.generateCascadeActions();
+            reports.put(value, report);
+        }
+
+        log.info("影响核实完成: {}.{} {} 个值, {} 张引用表, {} 处未导入, {} 处查询失败, 耗时 {}ms",
+            tableName, fieldName, values.size(), queries.size(), unresolved.size(), failed.size(),
+            System.currentTimeMillis() - start);
+        return reports;
+    }
+
+    private static String suggestionFor(ImpactType type, Relationship rel, String value, String newValue) {
+        if (type == ImpactType.DELETE) {
+            return "需要删除或清空此字段的值";
+        }
+        return String.format("需要将 %s 从 '%s' 更新为 '%s'", rel.sourceField, value, newValue);
+    }
+
+    /**
+     * 一次查出所有候选表的列（表名 -> 按定义顺序的列）
+     */
+    private static Map<String, List<String>> loadColumns(JdbcTemplate jdbcTemplate, Collection<String> tables) {
+        Set<String> names = new LinkedHashSet<>();
+        for (String table : tables) {
+            names.add(table.toLowerCase());
+            names.add(("client_" + table).toLowerCase());
+        }
+        String placeholders = String.join(", ", Collections.nCopies(names.size(), "?"));
+        String sql = "SELECT table_name, column_name FROM information_schema.columns " +
+                "WHERE table_schema = DATABASE() AND LOWER(table_name) IN (" + placeholders + ") " +
+                "ORDER BY table_name, ordinal_position";
+        Map<String, List<String>> columns = new HashMap<>();
+        jdbcTemplate.query(sql, rs -> {
+            columns.computeIfAbsent(rs.getString(1), k -> new ArrayList<>()).add(rs.getString(2));
+        }, names.toArray());
+        return columns;
+    }
+
+    /**
+     * 找到引用表在数据库中的表名、主键列（第一列）以及各引用字段对应的列
+     */
+    private static TableQuery resolveTable(String table, List<Relationship> rels,
+                                           Map<String, List<String>> schema, List<Relationship> unresolved) {
+        Map.Entry<String, List<String>> found = null;
+        for (String candidate : Arrays.asList(table, "client_" + table)) {
+            for (Map.Entry<String, List<String>> entry : schema.entrySet()) {
+                if (found == null && entry.getKey().equalsIgnoreCase(candidate)) {
+                    found = entry;
+                }
+            }
+        }
+        if (found == null || found.getValue().isEmpty()) {
+            unresolved.addAll(rels);
+            return null;
+        }
+        List<String> columns = found.getValue();
+        TableQuery query = new TableQuery(found.getKey(), columns.get(0));
+        for (Relationship rel : rels) {
+            String column = null;
+            for (int i = 0; i < columns.size() && column == null; i++) {
+                if (columns.get(i).equalsIgnoreCase(rel.sourceField)) {
+                    column = columns.get(i);
+                }
+            }
+            if (column == null) {
+                unresolved.add(rel);
+            } else {
+                query.relationships.add(rel);
+                query.columns.add(column);
+            }
+        }
+        return query.relationships.isEmpty() ? null : query;
+    }
+
+    /**
+     * 各引用表并发查询，返回 关系 -> 值 -> 命中；查询失败或被中断的表的关系加入 failed
+     */
+    private static Map<Relationship, Map<String, ReferenceHits>> runQueries(JdbcTemplate jdbcTemplate,
+                                                                           List<TableQuery> queries,
+                                                                           List<String> values,
+                                                                           List<Relationship> failed) {
+        Map<Relationship, Map<String, ReferenceHits>> hits = new HashMap<>();
+        if (queries.isEmpty() || values.isEmpty()) {
+            return hits;
+        }
+        // 数据库返回的值与传入值忽略大小写和首尾空白对应
+        Map<String, String> canonical = new HashMap<>();
+        for (String value : values) {
+            canonical.putIfAbsent(value.trim().toLowerCase(), value);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(QUERY_THREADS, queries.size()), runnable -> {
+            Thread thread = new Thread(runnable, "impact-query-" + QUERY_THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        int collected = 0;
+        try {
+            List<Future<Map<Relationship, Map<String, ReferenceHits>>>> futures = new ArrayList<>();
+            for (TableQuery query : queries) {
+                futures.add(executor.submit(() -> query.execute(jdbcTemplate, values, canonical)));
+            }
+            for (; collected < futures.size(); collected++) {
+                try {
+                    hits.putAll(futures.get(collected).get());
+                } catch (ExecutionException e) {
+                    // 查询失败的表记为未核实，不影响其他表
+                    log.warn("核实引用失败: {} - {}", queries.get(collected).table, e.getCause().getMessage());
+                    failed.addAll(queries.get(collected).relationships);
+                }
+            }
+        } catch (InterruptedException e) {
+            // 尚未取得结果的表都记为未核实
+            log.warn("核实引用被中断，{} 张表未核实", queries.size() - collected);
+            for (int i = collected; i < queries.size(); i++) {
+                failed.addAll(queries.get(i).relationships);
+            }
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        return hits;
+    }
+
+    /**
+     * 一张引用表上的核实查询
+     */
+    private static class TableQuery {
+        final String table;
+        final String keyColumn;
+        final List<Relationship> relationships = new ArrayList<>();
+        final List<String> columns = new ArrayList<>();
+
+        TableQuery(String table, String keyColumn) {
+            this.table = table;
+            this.keyColumn = keyColumn;
+        }
+
+        Map<Relationship, Map<String, ReferenceHits>> execute(JdbcTemplate jdbcTemplate, List<String> values,
+                                                             Map<String, String> canonical) {
+            Map<Relationship, Map<String, ReferenceHits>> result = new HashMap<>();
+            for (Relationship rel : relationships) {
+                result.put(rel, new HashMap<>());
+            }
+            for (int from = 0; from < values.size(); from += VALUE_BATCH_SIZE) {
+                List<String> batch = values.subList(from, Math.min(values.size(), from + VALUE_BATCH_SIZE));
+                String placeholders = String.join(", ", Collections.nCopies(batch.size(), "?"));
+                StringBuilder sql = new StringBuilder();
+                List<Object> args = new ArrayList<>();
+                for (int i = 0; i < columns.size(); i++) {
+                    if (i > 0) {
+                        sql.append(" UNION ALL ");
+                    }
+                    String column = columns.get(i);
+                    sql.append(String.format("SELECT %d AS ref_index, CAST(`%s` AS CHAR) AS ref_value, COUNT(*) AS ref_count, " +
+                            "SUBSTRING_INDEX(GROUP_CONCAT(CAST(`%s` AS CHAR) ORDER BY `%s` SEPARATOR '\n'), '\n', %d) AS sample_keys " +
+                            "FROM `%s` WHERE `%s` IN (%s) GROUP BY `%s`",
+                        i, column, keyColumn, keyColumn, SAMPLE_KEY_LIMIT, table, column, placeholders, column));
+                    args.addAll(batch);
+                }
+                jdbcTemplate.query(sql.toString(), rs -> {
+                    String value = canonical.get(String.valueOf(rs.getString("ref_value")).trim().toLowerCase());
+                    if (value == null) {
+                        return;
+                    }
+                    Relationship rel = relationships.get(rs.getInt("ref_index"));
+                    String samples = rs.getString("sample_keys");
+                    result.get(rel).merge(value,
+                        new ReferenceHits(rs.getLong("ref_count"), samples == null || samples.isEmpty()
+                            ? Collections.emptyList() : Arrays.asList(samples.split("\n"))),
+                        ReferenceHits::merge);
+                }, args.toArray());
+            }
+            return result;
+        }
+    }
+
+    /**
+     * 某个值在某个引用字段上的命中
+     */
+    private static class ReferenceHits {
+        final long count;
+        final List<String> sampleKeys;
+
+        ReferenceHits(long count, List<String> sampleKeys) {
+            this.count = count;
+            this.sampleKeys = sampleKeys;
+        }
+
+        static ReferenceHits merge(ReferenceHits a, ReferenceHits b) {
+            List<String> samples = new ArrayList<>(a.sampleKeys);
+            for (String key : b.sampleKeys) {
+                if (samples.size() < SAMPLE_KEY_LIMIT) {
+                    samples.add(key);
+                }
+            }
+            return new ReferenceHits(a.count + b.count, samples);
+        }
+    }
+
     /**
      * 构建依赖关系图
      *
@@ -310,6 +691,7 @@ public class ImpactAnalyzer {
         private String newValue;
         private String summary;
         private Severity severity;
+        private boolean verified;
         private final List<ImpactedReference> impactedReferences;
         private final List<CascadeAction> cascadeActions;
 
@@ -339,6 +721,13 @@ public class ImpactAnalyzer {
             this.newValue = newValue;
         }
 
+        /**
+         * 是否所有引用都已在数据库中核实（每处引用是否核实见 {@link ImpactedReference#isVerified()}）
+         */
+        public void setVerified(boolean verified) {
+            this.verified = verified;
+        }
+
         /**
          * 生成级联操作建议
          */
@@ -354,13 +743,21 @@ public class ImpactAnalyzer {
                 String table = entry.getKey();
                 List<ImpactedReference> refs = entry.getValue();
 
+                // 逐处引用判断：只累计已核实引用的实际行数，未核实的引用单独标出
+                long count = refs.stream().filter(ImpactedReference::isVerified)
+                    .mapToLong(r -> r.referenceCount).sum();
+                long unverified = refs.stream().filter(r -> !r.isVerified()).count();
+                String unverifiedNote = unverified == 0 ? ""
+                    : String.format("（%d 处引用未核实，请人工确认）", unverified);
+
                 String action;
                 if (type == ImpactType.DELETE) {
-                    action = String.format("删除或清空 %s 表中引用此数据的 %d 条记录",
-                        table, refs.size());
+                    action = unverified == refs.size()
+                        ? String.format("删除或清空 %s 表中引用此数据的记录%s", table, unverifiedNote)
+                        : String.format("删除或清空 %s 表中引用此数据的 %d 条记录%s", table, count, unverifiedNote);
                 } else {
-                    action = String.format("将 %s 表中的 %s 字段从 '%s' 更新为 '%s'",
-                        table, refs.get(0).fieldName, value, newValue);
+                    action = String.format("将 %s 表中的 %s 字段从 '%s' 更新为 '%s'%s",
+                        table, refs.get(0).fieldName, value, newValue, unverifiedNote);
                 }
 
                 cascadeActions.add(new CascadeAction(step++, table, refs, action));
@@ -374,6 +771,7 @@ public class ImpactAnalyzer {
         public String getNewValue() { return newValue; }
         public String getSummary() { return summary; }
         public Severity getSeverity() { return severity; }
+        public boolean isVerified() { return verified; }
         public List<ImpactedReference> getImpactedReferences() {
             return Collections.unmodifiableList(impactedReferences);
         }
@@ -409,10 +807,16 @@ public class ImpactAnalyzer {
                     .collect(Collectors.groupingBy(r -> r.tableName));
 
                 for (Map.Entry<String, List<ImpactedReference>> entry : byTable.entrySet()) {
-                    sb.append(String.format("\n【%s】%d 处引用\n", entry.getKey(), entry.getValue().size()));
+                    boolean tableVerified = entry.getValue().stream().allMatch(ImpactedReference::isVerified);
+                    sb.append(String.format("\n【%s】%d 处引用%s\n", entry.getKey(), entry.getValue().size(),
+                        tableVerified ? "" : "（含未核实引用）"));
                     for (ImpactedReference ref : entry.getValue()) {
                         sb.append(String.format("  • 字段: %s (置信度: %.1f%%)\n",
                             ref.fieldName, ref.confidence * 100));
+                        if (ref.isVerified()) {
+                            sb.append(String.format("    引用记录: %d 条，样例: %s\n",
+                                ref.referenceCount, String.join(", ", ref.sampleKeys)));
+                        }
                         sb.append(String.format("    → %s\n", ref.suggestion));
                     }
                 }
@@ -439,19 +843,31 @@ public class ImpactAnalyzer {
         public final String fieldName;
         public final double confidence;
         public final String suggestion;
+        public final long referenceCount;        // 数据库中的实际引用行数，-1 表示未核实
+        public final List<String> sampleKeys;    // 引用行的主键样例
 
         public ImpactedReference(String tableName, String fieldName,
                                double confidence, String suggestion) {
+            this(tableName, fieldName, confidence, suggestion, -1, Collections.emptyList());
+        }
+
+        public ImpactedReference(String tableName, String fieldName, double confidence,
+                               String suggestion, long referenceCount, List<String> sampleKeys) {
             this.tableName = tableName;
             this.fieldName = fieldName;
             this.confidence = confidence;
             this.suggestion = suggestion;
+            this.referenceCount = referenceCount;
+            this.sampleKeys = Collections.unmodifiableList(new ArrayList<>(sampleKeys));
         }
 
         public String getTableName() { return tableName; }
         public String getFieldName() { return fieldName; }
         public double getConfidence() { return confidence; }
         public String getSuggestion() { return suggestion; }
+        public long getReferenceCount() { return referenceCount; }
+        public List<String> getSampleKeys() { return sampleKeys; }
+        public boolean isVerified() { return referenceCount >= 0; }
     }
 
     /**
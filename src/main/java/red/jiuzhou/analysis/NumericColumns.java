@@ -0,0 +1,283 @@
+package red.jiuzhou.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * 数值列（列式存储）
+ *
+ * <p>把记录中的数值字段一次性解析成 {@code double[]} 列，缺失或非数值的单元格记为 NaN，
+ * 同一行在各列中的下标一致。相关系数、分位数、偏度、异常值等统计直接在原始类型数组上计算，
+ * 不再装箱成 {@code List<Double>}。
+ *
+ * <p>{@link #correlationMatrix()} 一次算出所有列两两之间的皮尔逊相关系数：
+ * 无缺失值的列先中心化并归一化，相关系数即两列的点积，按行分块计算以便数据留在缓存中，
+ * 并按列并行；含缺失值的列对只用两列都有值的行计算。
+ * {@link #sortedValues(int)} 每列只排序一次，分位数、分布和异常值检测共用。
+ */
+public final class NumericColumns {
+
+    // 分块计算点积时每块的行数
+    private static final int ROW_BLOCK = 4096;
+
+    private final List<String> fieldNames;
+    private final double[][] columns;
+    private final int[] validCounts;
+    private final int rowCount;
+    private final double[][] sorted;
+
+    private NumericColumns(List<String> fieldNames, double[][] columns, int[] validCounts, int rowCount) {
+        this.fieldNames = Collections.unmodifiableList(fieldNames);
+        this.columns = columns;
+        this.validCounts = validCounts;
+        this.rowCount = rowCount;
+        this.sorted = new double[columns.length][];
+    }
+
+    /**
+     * 从记录中提取数值列
+     *
+     * @param records   记录（字段名 -> 文本值）
+     * @param fields    候选字段，按此顺序排列
+     * @param minValues 有效数值少于此数的字段不保留
+     */
+    public static NumericColumns fromRecords(List<Map<String, String>> records, Collection<String> fields,
+                                             int minValues) {
+        int rows = records.size();
+        List<String> names = new ArrayList<>();
+        List<double[]> kept = new ArrayList<>();
+        List<Integer> counts = new ArrayList<>();
+        for (String field : fields) {
+            double[] column = new double[rows];
+            int valid = 0;
+            for (int r = 0; r < rows; r++) {
+                double value = parse(records.get(r).get(field));
+                column[r] = value;
+                if (!Double.isNaN(value)) {
+                    valid++;
+                }
+            }
+            if (valid >= minValues && valid > 0) {
+                names.add(field);
+                kept.add(column);
+                counts.add(valid);
+            }
+        }
+        int[] validCounts = new int[counts.size()];
+        for (int c = 0; c < validCounts.length; c++) {
+            validCounts[c] = counts.get(c);
+        }
+        return new NumericColumns(names, kept.toArray(new double[0][]), validCounts, rows);
+    }
+
+    /**
+     * 由已有的数值列构建（各列长度必须相同，缺失值用 NaN）
+     */
+    public static NumericColumns of(List<String> fieldNames, List<double[]> columns) {
+        int rows = columns.isEmpty() ? 0 : columns.get(0).length;
+        int[] validCounts = new int[columns.size()];
+        for (int c = 0; c < columns.size(); c++) {
+            if (columns.get(c).length != rows) {
+                throw new IllegalArgumentException("列长度不一致: " + fieldNames.get(c));
+            }
+            for (double value : columns.get(c)) {
+                if (!Double.isNaN(value)) {
+                    validCounts[c]++;
+                }
+            }
+        }
+        return new NumericColumns(new ArrayList<>(fieldNames), columns.toArray(new double[0][]), validCounts, rows);
+    }
+
+    /**
+     * 解析数值，空值或非数值返回 NaN
+     */
+    static double parse(String text) {
+        if (text == null) {
+            return Double.NaN;
+        }
+        String trimmed = text.trim();
+        if (trimmed.isEmpty()) {
+            return Double.NaN;
+        }
+        // 明显不是数字的文本不走异常路径
+        char first = trimmed.charAt(0);
+        if (!(first >= '0' && first <= '9') && first != '-' && first != '+' && first != '.') {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(trimmed);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    public List<String> getFieldNames() {
+        return fieldNames;
+    }
+
+    public String getFieldName(int column) {
+        return fieldNames.get(column);
+    }
+
+    /**
+     * 列数据（按行下标，缺失为 NaN）。返回内部数组，调用方不要修改
+     */
+    public double[] getColumn(int column) {
+        return columns[column];
+    }
+
+    public int getValidCount(int column) {
+        return validCounts[column];
+    }
+
+    /**
+     * 该列有效值升序排列（首次调用时排序并缓存）。返回内部数组，调用方不要修改
+     */
+    public synchronized double[] sortedValues(int column) {
+        if (sorted[column] == null) {
+            sorted[column] = sortValid(columns[column]);
+        }
+        return sorted[column];
+    }
+
+    /**
+     * 所有列两两之间的皮尔逊相关系数（对称矩阵，对角线为1）
+     */
+    public double[][] correlationMatrix() {
+        int m = columns.length;
+        double[][] result = new double[m][m];
+        double[][] normalized = new double[m][];
+        IntStream.range(0, m).parallel().forEach(c -> {
+            if (validCounts[c] == rowCount) {
+                normalized[c] = normalize(columns[c]);
+            }
+        });
+
+        IntStream.range(0, m).parallel().forEach(i -> {
+            result[i][i] = 1;
+            double[] dots = new double[m];
+            if (normalized[i] != null) {
+                // 分块：第 i 列的一块在缓存中时，依次与后面各列的同一块求点积
+                double[] zi = normalized[i];
+                for (int from = 0; from < rowCount; from += ROW_BLOCK) {
+                    int to = Math.min(rowCount, from + ROW_BLOCK);
+                    for (int j = i + 1; j < m; j++) {
+                        double[] zj = normalized[j];
+                        if (zj == null) {
+                            continue;
+                        }
+                        double sum = 0;
+                        for (int r = from; r < to; r++) {
+                            sum += zi[r] * zj[r];
+                        }
+                        dots[j] += sum;
+                    }
+                }
+            }
+            for (int j = i + 1; j < m; j++) {
+                double correlation = normalized[i] != null && normalized[j] != null
+                        ? Math.max(-1, Math.min(1, dots[j]))
+                        : pearson(columns[i], columns[j]);
+                result[i][j] = correlation;
+                result[j][i] = correlation;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 两列的皮尔逊相关系数，只使用两列都有值的行；方差为0时返回0
+     */
+    static double pearson(double[] x, double[] y) {
+        int n = Math.min(x.length, y.length);
+        int count = 0;
+        double sumX = 0;
+        double sumY = 0;
+        for (int i = 0; i < n; i++) {
+            if (!Double.isNaN(x[i]) && !Double.isNaN(y[i])) {
+                sumX += x[i];
+                sumY += y[i];
+                count++;
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+        double meanX = sumX / count;
+        double meanY = sumY / count;
+        double sxy = 0;
+        double sxx = 0;
+        double syy = 0;
+        for (int i = 0; i < n; i++) {
+            if (!Double.isNaN(x[i]) && !Double.isNaN(y[i])) {
+                double dx = x[i] - meanX;
+                double dy = y[i] - meanY;
+                sxy += dx * dy;
+                sxx += dx * dx;
+                syy += dy * dy;
+            }
+        }
+        double denominator = Math.sqrt(sxx * syy);
+        if (denominator == 0) {
+            return 0;
+        }
+        return Math.max(-1, Math.min(1, sxy / denominator));
+    }
+
+    /**
+     * 有效值（去掉 NaN）升序排列
+     */
+    static double[] sortValid(double[] values) {
+        double[] valid = new double[values.length];
+        int count = 0;
+        for (double value : values) {
+            if (!Double.isNaN(value)) {
+                valid[count++] = value;
+            }
+        }
+        double[] result = count == valid.length ? valid : Arrays.copyOf(valid, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * 中心化并归一化到单位长度，方差为0的列归一化为全0
+     */
+    private static double[] normalize(double[] column) {
+        int n = column.length;
+        double sum = 0;
+        for (double value : column) {
+            sum += value;
+        }
+        double mean = n == 0 ? 0 : sum / n;
+        double[] z = new double[n];
+        double norm = 0;
+        for (int r = 0; r < n; r++) {
+            z[r] = column[r] - mean;
+            norm += z[r] * z[r];
+        }
+        if (norm == 0) {
+            Arrays.fill(z, 0);
+            return z;
+        }
+        double scale = 1 / Math.sqrt(norm);
+        for (int r = 0; r < n; r++) {
+            z[r] *= scale;
+        }
+        return z;
+    }
+}
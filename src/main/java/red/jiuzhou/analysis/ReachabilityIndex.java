@@ -0,0 +1,301 @@
+package red.jiuzhou.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 可达性索引
+ *
+ * <p>把有向图的强连通分量缩成一个点，得到DAG后按逆拓扑序为每个分量计算传递闭包（分量编号的位集）。
+ * "从A出发能到达哪些节点 / 有多少个 / 能否到达B" 都变成一次位集查询，不必每次从头BFS，
+ * 适合给树上每个节点显示影响数量。
+ *
+ * <p>维护方式：
+ * <ul>
+ *   <li>加边且不形成新环：只把新目标的闭包并入能到达源分量的各分量，不重建</li>
+ *   <li>加边形成新环、删边：标记失效，下一次查询时整体重建（O(V+E) 缩点 + O(C·E/64) 闭包）</li>
+ * </ul>
+ *
+ * <p>同一条边可重复添加，按次数计数，删除到0次才真正移除。所有方法线程安全。
+ *
+ * @param <T> 节点类型（需正确实现 equals/hashCode）
+ */
+public class ReachabilityIndex<T> {
+
+    // 节点
+    private final Map<T, Integer> ids = new HashMap<>();
+    private final List<T> nodes = new ArrayList<>();
+
+    // 出边：目标节点 -> 重复次数
+    private final List<Map<Integer, Integer>> outgoing = new ArrayList<>();
+
+    // 缩点结果
+    private int[] component = new int[0];           // 节点 -> 分量
+    private final List<List<Integer>> members = new ArrayList<>();
+    private final List<BitSet> closure = new ArrayList<>();   // 分量 -> 可到达的其他分量（不含自身）
+    private boolean dirty = true;
+
+    public synchronized void addNode(T node) {
+        idOf(node);
+    }
+
+    /**
+     * 添加一条边 from → to
+     */
+    public synchronized void addEdge(T from, T to) {
+        int u = idOf(from);
+        int v = idOf(to);
+        Integer count = outgoing.get(u).get(v);
+        outgoing.get(u).put(v, count == null ? 1 : count + 1);
+        if (count != null || u == v || dirty) {
+            return;
+        }
+
+        int cu = component[u];
+        int cv = component[v];
+        if (cu == cv || closure.get(cu).get(cv)) {
+            return;
+        }
+        if (closure.get(cv).get(cu)) {
+            // v 已能到达 u：出现新环，分量需要合并
+            dirty = true;
+            return;
+        }
+        BitSet added = (BitSet) closure.get(cv).clone();
+        added.set(cv);
+        for (int c = 0; c < closure.size(); c++) {
+            if (c == cu || closure.get(c).get(cu)) {
+                closure.get(c).or(added);
+            }
+        }
+    }
+
+    /**
+     * 删除一条边 from → to（重复添加的边需删除同样次数）
+     */
+    public synchronized void removeEdge(T from, T to) {
+        Integer u = ids.get(from);
+        Integer v = ids.get(to);
+        if (u == null || v == null) {
+            return;
+        }
+        Integer count = outgoing.get(u).get(v);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            outgoing.get(u).put(v, count - 1);
+        } else {
+            outgoing.get(u).remove(v);
+            dirty = true;
+        }
+    }
+
+    public synchronized void clear() {
+        ids.clear();
+        nodes.clear();
+        outgoing.clear();
+        members.clear();
+        closure.clear();
+        component = new int[0];
+        dirty = true;
+    }
+
+    /**
+     * 从 node 出发可到达的所有节点（不含自身）
+     */
+    public synchronized Set<T> reachableFrom(T node) {
+        Integer id = ids.get(node);
+        if (id == null) {
+            return Collections.emptySet();
+        }
+        ensureBuilt();
+        Set<T> result = new LinkedHashSet<>();
+        int c = component[id];
+        for (int m : members.get(c)) {
+            if (m != id) {
+                result.add(nodes.get(m));
+            }
+        }
+        BitSet reach = closure.get(c);
+        for (int other = reach.nextSetBit(0); other >= 0; other = reach.nextSetBit(other + 1)) {
+            for (int m : members.get(other)) {
+                result.add(nodes.get(m));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 从 node 出发可到达的节点数（不含自身）
+     */
+    public synchronized int countReachableFrom(T node) {
+        Integer id = ids.get(node);
+        if (id == null) {
+            return 0;
+        }
+        ensureBuilt();
+        int c = component[id];
+        int count = members.get(c).size() - 1;
+        BitSet reach = closure.get(c);
+        for (int other = reach.nextSetBit(0); other >= 0; other = reach.nextSetBit(other + 1)) {
+            count += members.get(other).size();
+        }
+        return count;
+    }
+
+    /**
+     * from 是否能到达 to（from 与 to 相同时要求在环上）
+     */
+    public synchronized boolean canReach(T from, T to) {
+        Integer u = ids.get(from);
+        Integer v = ids.get(to);
+        if (u == null || v == null) {
+            return false;
+        }
+        ensureBuilt();
+        int cu = component[u];
+        int cv = component[v];
+        if (cu == cv) {
+            return !u.equals(v) || members.get(cu).size() > 1 || outgoing.get(u).containsKey(u);
+        }
+        return closure.get(cu).get(cv);
+    }
+
+    public synchronized int getNodeCount() {
+        return nodes.size();
+    }
+
+    public synchronized int getComponentCount() {
+        ensureBuilt();
+        return members.size();
+    }
+
+    private int idOf(T node) {
+        Integer id = ids.get(node);
+        if (id != null) {
+            return id;
+        }
+        id = nodes.size();
+        ids.put(node, id);
+        nodes.add(node);
+        outgoing.add(new HashMap<>());
+        if (!dirty) {
+            // 新节点自成一个分量
+            component = growTo(component, id + 1);
+            component[id] = members.size();
+            members.add(new ArrayList<>(Collections.singletonList(id)));
+            closure.add(new BitSet());
+        }
+        return id;
+    }
+
+    private static int[] growTo(int[] array, int size) {
+        if (array.length >= size) {
+            return array;
+        }
+        int[] grown = new int[Math.max(size, array.length * 2)];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private void ensureBuilt() {
+        if (!dirty) {
+            return;
+        }
+        condense();
+        // Tarjan 按逆拓扑序产出分量：后继分量的编号总是更小，按编号递增计算闭包即可
+        closure.clear();
+        for (int c = 0; c < members.size(); c++) {
+            BitSet reach = new BitSet();
+            for (int u : members.get(c)) {
+                for (int v : outgoing.get(u).keySet()) {
+                    int cv = component[v];
+                    if (cv != c && !reach.get(cv)) {
+                        reach.set(cv);
+                        reach.or(closure.get(cv));
+                    }
+                }
+            }
+            closure.add(reach);
+        }
+        dirty = false;
+    }
+
+    /**
+     * Tarjan 强连通分量（迭代实现，避免深图栈溢出）
+     */
+    private void condense() {
+        int n = nodes.size();
+        component = new int[Math.max(n, 16)];
+        members.clear();
+        int[] index = new int[n];
+        int[] low = new int[n];
+        boolean[] onStack = new boolean[n];
+        Arrays.fill(index, -1);
+        int[] stack = new int[n];
+        int stackSize = 0;
+        int[] callNode = new int[n];
+        List<List<Integer>> successors = new ArrayList<>(n);
+        for (int u = 0; u < n; u++) {
+            successors.add(new ArrayList<>(outgoing.get(u).keySet()));
+        }
+        int[] callEdge = new int[n];
+        int counter = 0;
+
+        for (int root = 0; root < n; root++) {
+            if (index[root] >= 0) {
+                continue;
+            }
+            int depth = 0;
+            callNode[0] = root;
+            callEdge[0] = 0;
+            index[root] = low[root] = counter++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+
+            while (depth >= 0) {
+                int u = callNode[depth];
+                List<Integer> next = successors.get(u);
+                if (callEdge[depth] < next.size()) {
+                    int v = next.get(callEdge[depth]++);
+                    if (index[v] < 0) {
+                        index[v] = low[v] = counter++;
+                        stack[stackSize++] = v;
+                        onStack[v] = true;
+                        depth++;
+                        callNode[depth] = v;
+                        callEdge[depth] = 0;
+                    } else if (onStack[v]) {
+                        low[u] = Math.min(low[u], index[v]);
+                    }
+                    continue;
+                }
+                if (low[u] == index[u]) {
+                    List<Integer> scc = new ArrayList<>();
+                    int c = members.size();
+                    int w;
+                    do {
+                        w = stack[--stackSize];
+                        onStack[w] = false;
+                        component[w] = c;
+                        scc.add(w);
+                    } while (w != u);
+                    members.add(scc);
+                }
+                depth--;
+                if (depth >= 0) {
+                    int parent = callNode[depth];
+                    low[parent] = Math.min(low[parent], low[u]);
+                }
+            }
+        }
+    }
+}
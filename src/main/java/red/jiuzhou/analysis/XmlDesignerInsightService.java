@@ -4,6 +4,7 @@ import org.dom4j.Document;
 import org.dom4j.DocumentException;
 import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.DataAccessException;
@@ -18,9 +19,15 @@ import red.jiuzhou.analysis.XmlDesignerInsight.Suggestion;
 import red.jiuzhou.analysis.XmlDesignerInsight.ValueCount;
 import red.jiuzhou.analysis.XmlDesignerInsight.XmlFileSummary;
 import red.jiuzhou.util.DatabaseUtil;
+import red.jiuzhou.util.XmlCharsetDetector;
 import red.jiuzhou.util.YamlUtils;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
@@ -33,9 +40,12 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.DecimalFormat;
 import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -43,12 +53,18 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Random;
 import java.util.Set;
+import java.util.StringTokenizer;
 import java.util.stream.Collectors;
 import java.util.regex.Pattern;
 
 /**
  * Service that inspects XML files and produces designer friendly insight data.
+ *
+ * <p>Files are analysed in a single streaming pass: field statistics cover every entry, while samples and the
+ * advanced analysis (correlations, distributions, balance issues) use a bounded reservoir of entries, so memory
+ * stays flat regardless of file size.
  */
 public class XmlDesignerInsightService {
 
@@ -58,6 +74,12 @@ public class XmlDesignerInsightService {
     private static final int MAX_TRACKED_UNIQUE_VALUES = 500;
     private static final int VALUE_TRUNCATE_LIMIT = 220;
     private static final int TOP_VALUE_LIMIT = 12;
+    private static final int MAX_CORRELATIONS = 45;
+    private static final int MAX_DISTRIBUTION_PROFILES = 15;
+    // 高级分析最多使用的记录数（蓄水池容量），超过时均匀抽样
+    private static final int ADVANCED_SAMPLE_LIMIT = 10000;
+    private static final long SAMPLING_SEED = 0x5EEDL;
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
     private static final Pattern NUMERIC_PATTERN = Pattern.compile("^-?\\d+(\\.\\d+)?$");
     private static final List<Charset> CHARSET_FALLBACKS = buildCharsetFallbacks();
 
@@ -114,8 +136,13 @@ public class XmlDesignerInsightService {
     }
 
     public XmlDesignerInsight analyze(Path xmlFile, int sampleLimit) {
-        Document document = safeRead(xmlFile);
-        if (document == null) {
+        int capacity = Math.max(sampleLimit, ADVANCED_SAMPLE_LIMIT);
+        EntryScan scan = streamEntries(xmlFile, capacity);
+        if (scan == null) {
+            // 流式解析失败（编码识别错误等）时退回整篇解析，逐个尝试候选编码
+            scan = readEntries(xmlFile, capacity);
+        }
+        if (scan == null) {
             TableContext tableContext = resolveTableContext(xmlFile);
             XmlFileSummary summary = new XmlFileSummary(
                     xmlFile,
@@ -137,72 +164,197 @@ public class XmlDesignerInsightService {
                     .build();
         }
 
-        Element root = document.getRootElement();
-        Element entryContainer = resolveEntryContainer(root);
-        List<Element> entries = resolveEntries(entryContainer, root);
+        EntryGroup entries = scan.entries;
+        int entryCount = entries.count;
+        XmlFileSummary summary = buildSummary(xmlFile, scan.rootName, scan.entryElementName);
+        Builder builder = XmlDesignerInsight.builder(summary).withEntryCount(entryCount);
+        AttributeAggregator aggregator = entries.aggregator;
 
-        String entryElementName = entries.isEmpty()
-                ? (entryContainer != null ? entryContainer.getName() : "")
-                : entries.get(0).getName();
+        aggregator.resolvePrimaryKeyCandidate(entryCount);
 
-        XmlFileSummary summary = buildSummary(xmlFile, root, entryElementName);
-        Builder builder = XmlDesignerInsight.builder(summary).withEntryCount(entries.size());
-        AttributeAggregator aggregator = new AttributeAggregator();
-        List<Map<String, String>> sampleRecords = new ArrayList<>();
+        appendMetrics(builder, summary, entryCount, aggregator);
+        if (entries.isSampled()) {
+            DecimalFormat format = new DecimalFormat("#,###");
+            builder.addMetric(new Metric("Analysis Sample",
+                    format.format(entries.reservoir.size()) + " / " + format.format(entryCount),
+                    "Correlations, distributions and balance checks use a uniform random sample of records; "
+                            + "field statistics cover every record."));
+        }
+        appendSuggestions(builder, summary, aggregator, entryCount);
 
-        for (Element element : entries) {
-            Map<String, String> flattened = flattenElement(element);
-            if (!flattened.isEmpty()) {
-                aggregator.accept(flattened);
-            }
-            if (sampleRecords.size() < sampleLimit) {
-                sampleRecords.add(flattened);
+        for (AttributeStats stats : aggregator.attributeStats.values()) {
+            builder.addAttributeInsight(stats.toInsight());
+            builder.addDistribution(stats.toDistribution(entryCount));
+        }
+
+        List<Map<String, String>> sampledRecords = entries.sampledRecords();
+        for (int i = 0; i < Math.min(sampleLimit, sampledRecords.size()); i++) {
+            builder.addSampleRecord(sampledRecords.get(i));
+        }
+
+        // 执行高级分析（基于抽样记录）
+        List<Map<String, String>> records = new ArrayList<>(sampledRecords.size());
+        for (Map<String, String> record : sampledRecords) {
+            if (!record.isEmpty()) {
+                records.add(record);
             }
         }
+        performAdvancedAnalysis(builder, records, aggregator);
 
-        aggregator.resolvePrimaryKeyCandidate(entries.size());
+        return builder.build();
+    }
 
-        appendMetrics(builder, summary, entries.size(), aggregator);
-        appendSuggestions(builder, summary, aggregator, entries.size());
+    /**
+     * 流式读取一遍，不构建DOM
+     *
+     * <p>条目判定与整篇解析一致：根元素下有重复出现的子元素时，出现次数最多的那一种就是条目；
+     * 没有重复时第一个子元素是包装层，条目为它的子元素。两种候选在同一遍中分别汇总，读完再选定。
+     * 条目展平为 属性 + 叶子子元素的文本。解析失败返回 null
+     */
+    private EntryScan streamEntries(Path xmlFile, int capacity) {
+        Map<String, EntryGroup> topLevel = new LinkedHashMap<>();
+        EntryGroup nested = new EntryGroup(capacity);
+        Deque<Frame> stack = new ArrayDeque<>();
+        String rootName = null;
+        String firstChildName = null;
+        int topLevelCount = 0;
+
+        try (Reader reader = XmlCharsetDetector.openReader(xmlFile)) {
+            XMLStreamReader xml = INPUT_FACTORY.createXMLStreamReader(reader);
+            try {
+                while (xml.hasNext()) {
+                    int event = xml.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        int depth = stack.size();
+                        Frame parent = stack.peek();
+                        if (parent != null) {
+                            parent.hasChildren = true;
+                        }
+                        Frame frame = new Frame(xml.getLocalName());
+                        boolean inFirstChild = topLevelCount == 1;
+                        if (depth == 0) {
+                            rootName = frame.name;
+                        } else if (depth == 1) {
+                            // 根元素的子元素：条目候选
+                            topLevelCount++;
+                            if (firstChildName == null) {
+                                firstChildName = frame.name;
+                            }
+                            frame.record = readAttributes(xml);
+                        } else if (depth == 2) {
+                            // 条目的字段；在第一个子元素内时同时是包装层下的条目候选
+                            frame.text = new StringBuilder();
+                            if (inFirstChild) {
+                                frame.record = readAttributes(xml);
+                            }
+                        } else if (depth == 3 && inFirstChild) {
+                            frame.text = new StringBuilder();
+                        }
+                        stack.push(frame);
+                    } else if (event == XMLStreamConstants.CHARACTERS
+                            || event == XMLStreamConstants.CDATA
+                            || event == XMLStreamConstants.SPACE) {
+                        Frame current = stack.peek();
+                        if (current != null && current.text != null) {
+                            current.text.append(xml.getText());
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        Frame frame = stack.pop();
+                        int depth = stack.size();
+                        Frame parent = stack.peek();
+                        if (frame.text != null && !frame.hasChildren && parent != null && parent.record != null) {
+                            parent.record.put(frame.name, truncate(normalizeSpace(frame.text)));
+                        }
+                        if (depth == 1) {
+                            topLevel.computeIfAbsent(frame.name, name -> new EntryGroup(capacity))
+                                    .accept(frame.name, frame.record);
+                        } else if (depth == 2 && frame.record != null) {
+                            nested.accept(frame.name, frame.record);
+                        }
+                    }
+                }
+            } finally {
+                xml.close();
+            }
+        } catch (IOException | XMLStreamException ex) {
+            log.warn("Streaming parse failed for {}, falling back to document parse: {}", xmlFile, ex.getMessage());
+            return null;
+        }
+        if (rootName == null) {
+            return null;
+        }
 
-        for (AttributeStats stats : aggregator.attributeStats.values()) {
-            builder.addAttributeInsight(stats.toInsight());
-            builder.addDistribution(stats.toDistribution(entries.size()));
+        EntryGroup repeated = null;
+        for (EntryGroup group : topLevel.values()) {
+            if (group.count > 1 && (repeated == null || group.count > repeated.count)) {
+                repeated = group;
+            }
         }
+        EntryGroup entries = repeated != null ? repeated : nested;
+        String entryElementName = entries.firstName != null
+                ? entries.firstName
+                : (firstChildName != null ? firstChildName : "");
+        return new EntryScan(rootName, entryElementName, entries);
+    }
 
-        for (Map<String, String> record : sampleRecords) {
-            builder.addSampleRecord(record);
+    /**
+     * 整篇解析后汇总条目（流式解析失败时使用）
+     */
+    private EntryScan readEntries(Path xmlFile, int capacity) {
+        Document document = safeRead(xmlFile);
+        if (document == null) {
+            return null;
         }
+        Element root = document.getRootElement();
+        Element entryContainer = resolveEntryContainer(root);
+        EntryGroup entries = new EntryGroup(capacity);
+        for (Element element : resolveEntries(entryContainer, root)) {
+            entries.accept(element.getName(), flattenElement(element));
+        }
+        String entryElementName = entries.firstName != null
+                ? entries.firstName
+                : (entryContainer != null ? entryContainer.getName() : "");
+        return new EntryScan(root.getName(), entryElementName, entries);
+    }
 
-        // 执行高级分析
-        performAdvancedAnalysis(builder, entries, aggregator);
+    private Map<String, String> readAttributes(XMLStreamReader xml) {
+        Map<String, String> result = new LinkedHashMap<>();
+        for (int i = 0; i < xml.getAttributeCount(); i++) {
+            result.put(xml.getAttributeLocalName(i), truncate(xml.getAttributeValue(i)));
+        }
+        return result;
+    }
 
-        return builder.build();
+    /**
+     * 去掉首尾空白并把连续空白压缩成一个空格（与 dom4j 的 getTextTrim 一致）
+     */
+    private static String normalizeSpace(CharSequence text) {
+        StringTokenizer tokenizer = new StringTokenizer(text.toString());
+        StringBuilder result = new StringBuilder(text.length());
+        while (tokenizer.hasMoreTokens()) {
+            if (result.length() > 0) {
+                result.append(' ');
+            }
+            result.append(tokenizer.nextToken());
+        }
+        return result.toString();
     }
 
     /**
      * 执行高级数据分析，包括关联性、分布特征和平衡性检测
+     *
+     * @param allRecords 展平后的非空记录（条目过多时为抽样结果）
      */
-    private void performAdvancedAnalysis(Builder builder, List<Element> entries, AttributeAggregator aggregator) {
-        if (entries.isEmpty()) {
+    private void performAdvancedAnalysis(Builder builder, List<Map<String, String>> allRecords,
+                                         AttributeAggregator aggregator) {
+        if (allRecords.isEmpty()) {
             log.debug("数据洞察: 跳过高级分析，因为没有数据记录");
             return;
         }
 
         try {
             log.debug("数据洞察: 开始执行高级分析，记录数: {}, 字段数: {}",
-                entries.size(), aggregator.attributeStats.size());
-
-            // 收集所有数据
-            List<Map<String, String>> allRecords = new ArrayList<>();
-            for (Element element : entries) {
-                Map<String, String> flattened = flattenElement(element);
-                if (!flattened.isEmpty()) {
-                    allRecords.add(flattened);
-                }
-            }
-
-            log.debug("数据洞察: 展平后的记录数: {}", allRecords.size());
+                allRecords.size(), aggregator.attributeStats.size());
 
             // 识别字段类型
             int typeCount = 0;
@@ -213,59 +365,35 @@ public class XmlDesignerInsightService {
             }
             log.debug("数据洞察: 识别了 {} 个字段类型", typeCount);
 
-            // 提取数值字段
-            Map<String, List<Double>> numericFields = new LinkedHashMap<>();
-            for (String fieldName : aggregator.attributeStats.keySet()) {
-                List<Double> values = extractNumericValuesFromRecords(allRecords, fieldName);
-                if (values.size() >= 3) { // 至少需要3个数据点
-                    numericFields.put(fieldName, values);
-                }
-            }
-            log.debug("数据洞察: 找到 {} 个数值字段", numericFields.size());
-
-            // 分析字段间相关性（只分析前10个数值字段，避免过多计算）
-            List<String> fieldNames = new ArrayList<>(numericFields.keySet());
-            int maxFields = Math.min(10, fieldNames.size());
-            int correlationCount = 0;
-            for (int i = 0; i < maxFields; i++) {
-                for (int j = i + 1; j < maxFields; j++) {
-                    String field1 = fieldNames.get(i);
-                    String field2 = fieldNames.get(j);
-                    List<Double> values1 = numericFields.get(field1);
-                    List<Double> values2 = numericFields.get(field2);
-
-                    DataCorrelationAnalyzer.FieldCorrelation correlation =
-                        DataCorrelationAnalyzer.analyzeCorrelation(field1, values1, field2, values2);
-
-                    // 只添加有意义的相关性
-                    if (Math.abs(correlation.getCorrelation()) > 0.3) {
-                        builder.addCorrelation(correlation);
-                        correlationCount++;
-                    }
-                }
+            // 提取数值字段：一次解析成按行对齐的 double[] 列（至少需要3个数据点）
+            NumericColumns numericFields = NumericColumns.fromRecords(allRecords, aggregator.attributeStats.keySet(), 3);
+            log.debug("数据洞察: 找到 {} 个数值字段", numericFields.getColumnCount());
+
+            // 分析字段间相关性：一次算出全部字段对，只保留有意义且最强的若干个
+            List<DataCorrelationAnalyzer.FieldCorrelation> correlations =
+                DataCorrelationAnalyzer.analyzeCorrelations(numericFields, 0.3, MAX_CORRELATIONS);
+            for (DataCorrelationAnalyzer.FieldCorrelation correlation : correlations) {
+                builder.addCorrelation(correlation);
             }
+            int correlationCount = correlations.size();
             log.debug("数据洞察: 发现 {} 个显著相关性", correlationCount);
 
-            // 分析数值分布特征（只分析前15个字段）
-            int count = 0;
-            for (Map.Entry<String, List<Double>> entry : numericFields.entrySet()) {
-                if (count++ >= 15) break;
-
-                DataCorrelationAnalyzer.DistributionProfile profile =
-                    DataCorrelationAnalyzer.analyzeDistribution(entry.getKey(), entry.getValue());
-                builder.addDistributionProfile(profile);
+            // 分析数值分布特征（只展示前15个字段）
+            int count = Math.min(MAX_DISTRIBUTION_PROFILES, numericFields.getColumnCount());
+            for (int c = 0; c < count; c++) {
+                builder.addDistributionProfile(DataCorrelationAnalyzer.analyzeDistribution(numericFields, c));
             }
             log.debug("数据洞察: 分析了 {} 个字段的分布特征", count);
 
             // 检测平衡性问题
             String idField = findIdField(aggregator);
-            Map<String, List<Map<String, String>>> fieldRecords = new LinkedHashMap<>();
-            for (String fieldName : numericFields.keySet()) {
-                fieldRecords.put(fieldName, allRecords);
+            String[] rowIds = new String[allRecords.size()];
+            for (int i = 0; i < rowIds.length; i++) {
+                rowIds[i] = allRecords.get(i).getOrDefault(idField != null ? idField : "id", "记录" + i);
             }
 
             List<DataCorrelationAnalyzer.BalanceIssue> issues =
-                DataCorrelationAnalyzer.detectBalanceIssues(fieldRecords, idField != null ? idField : "id");
+                DataCorrelationAnalyzer.detectBalanceIssues(numericFields, rowIds);
 
             for (DataCorrelationAnalyzer.BalanceIssue issue : issues) {
                 builder.addBalanceIssue(issue);
@@ -273,7 +401,7 @@ public class XmlDesignerInsightService {
             log.debug("数据洞察: 检测到 {} 个平衡性问题", issues.size());
 
             log.info("数据洞察: 高级分析完成 - 字段类型:{}, 数值字段:{}, 相关性:{}, 分布特征:{}, 平衡问题:{}",
-                typeCount, numericFields.size(), correlationCount, count, issues.size());
+                typeCount, numericFields.getColumnCount(), correlationCount, count, issues.size());
 
         } catch (Exception e) {
             log.error("数据洞察: 高级分析出现异常", e);
@@ -281,23 +409,6 @@ public class XmlDesignerInsightService {
         }
     }
 
-    /**
-     * 从记录中提取数值列表
-     */
-    private List<Double> extractNumericValuesFromRecords(List<Map<String, String>> records, String fieldName) {
-        List<Double> values = new ArrayList<>();
-        for (Map<String, String> record : records) {
-            String value = record.get(fieldName);
-            if (value != null && !value.trim().isEmpty()) {
-                try {
-                    values.add(Double.parseDouble(value.trim()));
-                } catch (NumberFormatException ignored) {
-                }
-            }
-        }
-        return values;
-    }
-
     /**
      * 查找ID字段
      */
@@ -323,7 +434,7 @@ public class XmlDesignerInsightService {
         }
     }
 
-    private XmlFileSummary buildSummary(Path xmlFile, Element root, String entryElementName) {
+    private XmlFileSummary buildSummary(Path xmlFile, String rootName, String entryElementName) {
         long size = readFileSize(xmlFile);
         Instant lastModified = Instant.ofEpochMilli(xmlFile.toFile().lastModified());
         TableContext tableContext = resolveTableContext(xmlFile);
@@ -332,7 +443,7 @@ public class XmlDesignerInsightService {
                 xmlFile.getFileName().toString(),
                 size,
                 lastModified,
-                root != null ? root.getName() : "",
+                rootName,
                 entryElementName,
                 tableContext.tableName,
                 tableContext.tableExists,
@@ -503,6 +614,14 @@ public class XmlDesignerInsightService {
     }
 
     private Document safeRead(Path xmlFile) {
+        // 不经过共享文档缓存：这里只做一次性汇总，不应让整篇文档常驻缓存；
+        // 按识别出的编码解析失败时再逐个尝试候选编码
+        try (Reader reader = XmlCharsetDetector.openReader(xmlFile)) {
+            return new SAXReader().read(reader);
+        } catch (IOException | DocumentException ex) {
+            log.debug("Parse failed for {}, falling back to charset probing: {}", xmlFile, ex.getMessage());
+        }
+
         byte[] bytes;
         try {
             bytes = Files.readAllBytes(xmlFile);
@@ -563,6 +682,11 @@ public class XmlDesignerInsightService {
     @SuppressWarnings("unchecked")
     private List<Element> resolveEntries(Element container, Element root) {
         if (container != null) {
+            // 容器在根元素下重复出现时，这些重复元素本身就是条目；否则容器是包装层，条目为它的子元素
+            List<Element> repeated = root.elements(container.getName());
+            if (repeated.size() > 1) {
+                return new ArrayList<>(repeated);
+            }
             return new ArrayList<>((List<Element>) container.elements());
         }
         if (root == null) {
@@ -640,6 +764,13 @@ public class XmlDesignerInsightService {
         return String.format(Locale.US, "%.2f %s", value, units[unitIndex]);
     }
 
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+
     private static List<Charset> buildCharsetFallbacks() {
         List<Charset> charsets = new ArrayList<>();
         charsets.add(StandardCharsets.UTF_8);
@@ -667,6 +798,96 @@ public class XmlDesignerInsightService {
         }
     }
 
+    /**
+     * 流式读取时一个打开的元素
+     */
+    private static class Frame {
+        private final String name;
+        private Map<String, String> record;   // 条目候选：已展平的属性和字段
+        private StringBuilder text;           // 字段候选：文本内容
+        private boolean hasChildren;
+
+        private Frame(String name) {
+            this.name = name;
+        }
+    }
+
+    private static class EntryScan {
+        private final String rootName;
+        private final String entryElementName;
+        private final EntryGroup entries;
+
+        private EntryScan(String rootName, String entryElementName, EntryGroup entries) {
+            this.rootName = rootName;
+            this.entryElementName = entryElementName;
+            this.entries = entries;
+        }
+    }
+
+    /**
+     * 一组条目的单遍汇总：字段统计覆盖全部条目，记录本身用蓄水池抽样（Algorithm R）保留
+     *
+     * <p>条目数不超过容量时保留全部记录；之后第 n 条以 容量/n 的概率替换池中随机一条，
+     * 池中始终是已读条目的均匀样本。种子固定，同一文件多次分析结果一致。
+     */
+    private static class EntryGroup {
+        private final AttributeAggregator aggregator = new AttributeAggregator();
+        private final List<SampledRecord> reservoir = new ArrayList<>();
+        private final Random random = new Random(SAMPLING_SEED);
+        private final int capacity;
+        private String firstName;
+        private int count;
+
+        private EntryGroup(int capacity) {
+            this.capacity = capacity;
+        }
+
+        void accept(String name, Map<String, String> record) {
+            if (firstName == null) {
+                firstName = name;
+            }
+            if (!record.isEmpty()) {
+                aggregator.accept(record);
+            }
+            int index = count++;
+            if (reservoir.size() < capacity) {
+                reservoir.add(new SampledRecord(index, record));
+            } else {
+                int slot = random.nextInt(count);
+                if (slot < capacity) {
+                    reservoir.set(slot, new SampledRecord(index, record));
+                }
+            }
+        }
+
+        boolean isSampled() {
+            return count > capacity;
+        }
+
+        /**
+         * 抽样记录，按文档顺序排列
+         */
+        List<Map<String, String>> sampledRecords() {
+            List<SampledRecord> ordered = new ArrayList<>(reservoir);
+            ordered.sort(Comparator.comparingInt(sample -> sample.index));
+            List<Map<String, String>> result = new ArrayList<>(ordered.size());
+            for (SampledRecord sample : ordered) {
+                result.add(sample.record);
+            }
+            return result;
+        }
+    }
+
+    private static class SampledRecord {
+        private final int index;
+        private final Map<String, String> record;
+
+        private SampledRecord(int index, Map<String, String> record) {
+            this.index = index;
+            this.record = record;
+        }
+    }
+
     private static class AttributeAggregator {
         private final Map<String, AttributeStats> attributeStats = new LinkedHashMap<>();
         private String primaryKeyCandidate;
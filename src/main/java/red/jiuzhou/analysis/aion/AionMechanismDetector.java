@@ -4,7 +4,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 
 /**
@@ -18,6 +24,9 @@ import java.util.*;
  *   <li>本地化识别 - 区分公共/China目录文件</li>
  * </ul>
  *
+ * <p>扫描时每个目录只列举一次，文件大小取自遍历时的属性；检测只看路径和文件名，
+ * 不读取文件内容。
+ *
  * @author Claude
  * @version 1.0
  */
@@ -95,6 +104,9 @@ public class AionMechanismDetector {
         LOCALIZATION_FOLDERS.add("ru");
     }
 
+    // 按优先级排序的分类（不含OTHER）
+    private static final List<AionMechanismCategory> SORTED_CATEGORIES = buildSortedCategories();
+
     private final File publicRoot;
     private final File localizedRoot;
 
@@ -114,83 +126,134 @@ public class AionMechanismDetector {
      */
     public AionMechanismView scan() {
         AionMechanismView view = new AionMechanismView();
+        long startTime = System.currentTimeMillis();
 
         log.info("开始扫描Aion XML目录: {}", publicRoot.getAbsolutePath());
 
         // 扫描公共目录
-        Set<String> publicFileNames = new HashSet<>();
-        scanDirectory(publicRoot, publicRoot, view, false, publicFileNames);
+        Map<String, ScannedFile> publicFiles = scanRoot(publicRoot, view, false);
 
         // 扫描本地化目录
         if (localizedRoot != null && localizedRoot.exists()) {
             log.info("扫描本地化目录: {}", localizedRoot.getAbsolutePath());
-            Set<String> localizedFileNames = new HashSet<>();
-            scanDirectory(localizedRoot, localizedRoot, view, true, localizedFileNames);
+            Map<String, ScannedFile> localizedFiles = scanRoot(localizedRoot, view, true);
 
             // 检测本地化覆盖
-            detectLocalizedOverrides(view, publicFileNames, localizedFileNames);
+            detectLocalizedOverrides(view, publicFiles, localizedFiles);
         }
 
         // 更新统计
         updateStatistics(view);
 
-        log.info("扫描完成: {}", view.getStatistics().getSummary());
+        log.info("扫描完成: {}，耗时 {}ms", view.getStatistics().getSummary(),
+                System.currentTimeMillis() - startTime);
         return view;
     }
 
     /**
-     * 递归扫描目录
+     * 扫描到的XML文件
      */
-    private void scanDirectory(File dir, File root, AionMechanismView view,
-                               boolean isLocalized, Set<String> fileNames) {
-        if (dir == null || !dir.exists() || !dir.isDirectory()) {
-            return;
+    private static final class ScannedFile {
+        final Path path;
+        final String relativePath;
+        final long fileSize;
+        DetectionResult result;
+
+        ScannedFile(Path path, String relativePath, long fileSize) {
+            this.path = path;
+            this.relativePath = relativePath;
+            this.fileSize = fileSize;
         }
+    }
 
-        File[] files = dir.listFiles(new FileFilter() {
-            @Override
-            public boolean accept(File f) {
-                return f.isFile() && f.getName().toLowerCase().endsWith(".xml");
-            }
-        });
-
-        File[] subDirs = dir.listFiles(new FileFilter() {
-            @Override
-            public boolean accept(File f) {
-                return f.isDirectory();
-            }
-        });
+    /**
+     * 扫描一个根目录：遍历后按遍历顺序检测并加入视图
+     *
+     * @return 小写文件名 → 首个同名文件（与逐目录查找的顺序一致）
+     */
+    private Map<String, ScannedFile> scanRoot(File root, AionMechanismView view, boolean isLocalized) {
+        Map<String, ScannedFile> byName = new HashMap<>();
+        if (root == null || !root.isDirectory()) {
+            return byName;
+        }
 
-        // 处理XML文件
-        if (files != null) {
-            for (File file : files) {
-                String relativePath = getRelativePath(root, file);
-                DetectionResult result = detect(file, relativePath, isLocalized);
-
-                AionMechanismView.FileEntry entry = new AionMechanismView.FileEntry(
-                        file.getName(),
-                        relativePath,
-                        file,
-                        result,
-                        isLocalized
-                );
-
-                view.addFile(entry);
-                fileNames.add(file.getName().toLowerCase());
-            }
+        List<ScannedFile> files = walkDirectory(root.toPath(), isLocalized);
+
+        for (ScannedFile scanned : files) {
+            File file = scanned.path.toFile();
+            scanned.result = detect(file, scanned.relativePath, isLocalized);
+            view.addFile(new AionMechanismView.FileEntry(
+                    file.getName(),
+                    scanned.relativePath,
+                    file,
+                    scanned.result,
+                    isLocalized,
+                    scanned.fileSize
+            ));
+            byName.putIfAbsent(file.getName().toLowerCase(), scanned);
         }
+        return byName;
+    }
 
-        // 递归处理子目录（跳过本地化目录避免重复扫描）
-        if (subDirs != null) {
-            for (File subDir : subDirs) {
-                String dirName = subDir.getName().toLowerCase();
-                // 如果是本地化目录，且当前不是本地化模式，则跳过（稍后单独扫描）
-                if (!isLocalized && LOCALIZATION_FOLDERS.contains(dirName)) {
-                    continue;
+    /**
+     * 遍历目录树（每个目录只列举一次），结果顺序与原先的递归扫描相同：
+     * 先是目录下的文件，再依次是各子目录
+     */
+    private List<ScannedFile> walkDirectory(Path root, boolean isLocalized) {
+        List<List<ScannedFile>> buckets = new ArrayList<>();
+        Deque<List<ScannedFile>> stack = new ArrayDeque<>();
+        try {
+            Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                    new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    // 如果是本地化目录，且当前不是本地化模式，则跳过（稍后单独扫描）
+                    if (!isLocalized && !dir.equals(root) && isLocalizationFolder(dir.getFileName().toString())) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    List<ScannedFile> bucket = new ArrayList<>();
+                    buckets.add(bucket);
+                    stack.push(bucket);
+                    return FileVisitResult.CONTINUE;
                 }
-                scanDirectory(subDir, root, view, isLocalized, fileNames);
-            }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() && file.getFileName().toString().toLowerCase().endsWith(".xml")) {
+                        stack.peek().add(new ScannedFile(file, root.relativize(file).toString(),
+                                attrs.size()));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    log.debug("无法读取: {} - {}", file, exc.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                    stack.pop();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            log.warn("扫描目录失败: {} - {}", root, e.getMessage());
+        }
+
+        List<ScannedFile> files = new ArrayList<>();
+        for (List<ScannedFile> bucket : buckets) {
+            files.addAll(bucket);
         }
+        return files;
+    }
+
+    /**
+     * 是否为本地化目录名（公共目录扫描时跳过这些子目录）
+     */
+    public static boolean isLocalizationFolder(String dirName) {
+        return dirName != null && LOCALIZATION_FOLDERS.contains(dirName.toLowerCase());
     }
 
     /**
@@ -226,8 +289,7 @@ public class AionMechanismDetector {
         }
 
         // 3. 正则模式匹配（按优先级排序）
-        List<AionMechanismCategory> sortedCategories = getSortedCategories();
-        for (AionMechanismCategory category : sortedCategories) {
+        for (AionMechanismCategory category : SORTED_CATEGORIES) {
             if (category.matches(fileName)) {
                 double confidence = 0.5 + (category.getPriority() * 0.05);
                 confidence = Math.min(confidence, 0.9);
@@ -255,7 +317,7 @@ public class AionMechanismDetector {
     /**
      * 获取按优先级排序的分类列表
      */
-    private List<AionMechanismCategory> getSortedCategories() {
+    private static List<AionMechanismCategory> buildSortedCategories() {
         List<AionMechanismCategory> categories = new ArrayList<>();
         for (AionMechanismCategory cat : AionMechanismCategory.values()) {
             if (cat != AionMechanismCategory.OTHER) {
@@ -270,87 +332,35 @@ public class AionMechanismDetector {
             }
         });
 
-        return categories;
+        return Collections.unmodifiableList(categories);
     }
 
     /**
      * 检测本地化覆盖
      */
     private void detectLocalizedOverrides(AionMechanismView view,
-                                          Set<String> publicFiles,
-                                          Set<String> localizedFiles) {
+                                          Map<String, ScannedFile> publicFiles,
+                                          Map<String, ScannedFile> localizedFiles) {
         // 找出同时存在于两个目录的文件
-        Set<String> overriddenFiles = new HashSet<>(publicFiles);
-        overriddenFiles.retainAll(localizedFiles);
-
-        for (String fileName : overriddenFiles) {
-            File publicFile = findFile(publicRoot, fileName);
-            File localizedFile = findFile(localizedRoot, fileName);
-
-            if (publicFile != null && localizedFile != null) {
-                DetectionResult result = detect(publicFile, fileName, false);
-                AionMechanismView.LocalizedOverride override =
-                        new AionMechanismView.LocalizedOverride(
-                                fileName,
-                                publicFile,
-                                localizedFile,
-                                result.getCategory()
-                        );
-                view.addLocalizedOverride(override);
-            }
-        }
-
-        log.info("检测到 {} 个本地化覆盖文件", overriddenFiles.size());
-    }
-
-    /**
-     * 在目录中查找文件（递归）
-     */
-    private File findFile(File dir, String fileName) {
-        if (dir == null || !dir.exists()) {
-            return null;
-        }
-
-        File direct = new File(dir, fileName);
-        if (direct.exists() && direct.isFile()) {
-            return direct;
-        }
-
-        File[] subDirs = dir.listFiles(new FileFilter() {
-            @Override
-            public boolean accept(File f) {
-                return f.isDirectory();
-            }
-        });
-
-        if (subDirs != null) {
-            for (File subDir : subDirs) {
-                File found = findFile(subDir, fileName);
-                if (found != null) {
-                    return found;
-                }
-            }
-        }
-
-        return null;
-    }
-
-    /**
-     * 获取相对路径
-     */
-    private String getRelativePath(File root, File file) {
-        String rootPath = root.getAbsolutePath();
-        String filePath = file.getAbsolutePath();
-
-        if (filePath.startsWith(rootPath)) {
-            String relative = filePath.substring(rootPath.length());
-            if (relative.startsWith(File.separator)) {
-                relative = relative.substring(1);
+        int overrideCount = 0;
+        for (Map.Entry<String, ScannedFile> entry : publicFiles.entrySet()) {
+            ScannedFile localizedFile = localizedFiles.get(entry.getKey());
+            if (localizedFile == null) {
+                continue;
             }
-            return relative;
+            ScannedFile publicFile = entry.getValue();
+            AionMechanismView.LocalizedOverride override =
+                    new AionMechanismView.LocalizedOverride(
+                            entry.getKey(),
+                            publicFile.path.toFile(),
+                            localizedFile.path.toFile(),
+                            publicFile.result.getCategory()
+                    );
+            view.addLocalizedOverride(override);
+            overrideCount++;
         }
 
-        return file.getName();
+        log.info("检测到 {} 个本地化覆盖文件", overrideCount);
     }
 
     /**
@@ -150,13 +150,21 @@ public class AionMechanismView {
 
         public FileEntry(String fileName, String relativePath, File file,
                         DetectionResult detectionResult, boolean localized) {
+            this(fileName, relativePath, file, detectionResult, localized, file.length());
+        }
+
+        /**
+         * 扫描时已取得文件大小，避免再次读取文件属性
+         */
+        public FileEntry(String fileName, String relativePath, File file,
+                        DetectionResult detectionResult, boolean localized, long fileSize) {
             this.fileName = fileName;
             this.relativePath = relativePath;
             this.file = file;
             this.category = detectionResult.getCategory();
             this.detectionResult = detectionResult;
             this.localized = localized;
-            this.fileSize = file.length();
+            this.fileSize = fileSize;
         }
 
         public String getFileName() {
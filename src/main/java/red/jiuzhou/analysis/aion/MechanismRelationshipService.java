@@ -8,17 +8,26 @@ import red.jiuzhou.analysis.aion.mechanism.MechanismRelationship;
 import red.jiuzhou.analysis.aion.mechanism.MechanismRelationshipGraph;
 import red.jiuzhou.analysis.aion.mechanism.MechanismRelationshipType;
 import red.jiuzhou.relationship.XmlRelationshipAnalyzer;
+import red.jiuzhou.relationship.XmlRelationshipAnalyzer.RelationshipBaseline;
 import red.jiuzhou.relationship.XmlRelationshipAnalyzer.RelationshipReport;
 import red.jiuzhou.relationship.XmlRelationshipAnalyzer.RelationshipSnapshot;
+import red.jiuzhou.util.XmlFileWatcher;
 import red.jiuzhou.util.YamlUtils;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Consumer;
 
 /**
@@ -31,6 +40,12 @@ import java.util.function.Consumer;
  *   <li>提供影响分析</li>
  * </ul>
  *
+ * <p>首次构建后监听 {@code aion.xmlPath} / {@code aion.localizedPath} 目录，文件变更时增量更新：
+ * 只重新识别变更文件的机制归属，字段级关系只重新分析变更过的文件（其余沿用上一次的结果），
+ * 再聚合成新的关系图换入；已发布的图对象不会被修改。监听无法启动时退回到定时全量重建。
+ *
+ * <p>耗时的构建和增量更新串行地在 {@code buildLock} 下进行，this 的监视器只用于短暂地读取和换入状态。
+ *
  * @author Claude
  * @version 1.0
  */
@@ -42,11 +57,133 @@ public class MechanismRelationshipService {
     // 缓存构建好的关系图
     private volatile MechanismRelationshipGraph cachedGraph;
     private volatile long cacheTimestamp;
-    private static final long CACHE_TTL_MS = 5 * 60 * 1000;  // 5分钟缓存
+    private final Object buildLock = new Object();
+    private static final long CACHE_TTL_MS = 5 * 60 * 1000;  // 5分钟缓存（仅在未能监听目录时生效）
+    private static final long WATCH_QUIET_MS = 800;           // 变更合并的静默期
 
     // 文件名到机制的映射缓存
     private final Map<String, AionMechanismCategory> fileToMechanismCache = new ConcurrentHashMap<>();
 
+    // 增量维护状态，均在 this 上同步访问；generation 在每次换入或清除时递增
+    private AionMechanismDetector detector;
+    private File publicRoot;
+    private File localizedRoot;
+    private final Map<Path, TrackedFile> trackedFiles = new LinkedHashMap<>();
+    private RelationshipBaseline baseline;
+    private long generation;
+    private volatile XmlFileWatcher watcher;
+
+    private final List<Consumer<MechanismRelationshipGraph>> updateListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * 已识别的XML文件
+     */
+    private static final class TrackedFile {
+        final String fileName;
+        final AionMechanismCategory category;
+        final boolean localized;
+
+        TrackedFile(String fileName, AionMechanismCategory category, boolean localized) {
+            this.fileName = fileName;
+            this.category = category;
+            this.localized = localized;
+        }
+    }
+
+    /**
+     * 机制边的键（源机制 → 目标机制）
+     */
+    private static final class EdgeKey {
+        final AionMechanismCategory source;
+        final AionMechanismCategory target;
+
+        EdgeKey(AionMechanismCategory source, AionMechanismCategory target) {
+            this.source = source;
+            this.target = target;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof EdgeKey)) return false;
+            EdgeKey that = (EdgeKey) o;
+            return source == that.source && target == that.target;
+        }
+
+        @Override
+        public int hashCode() {
+            return source.hashCode() * 31 + target.hashCode();
+        }
+    }
+
+    /**
+     * 预定义的机制关系（基于Aion游戏领域知识）
+     */
+    private static final class KnownRelationship {
+        final AionMechanismCategory source;
+        final AionMechanismCategory target;
+        final MechanismRelationshipType type;
+        final String description;
+
+        KnownRelationship(AionMechanismCategory source, AionMechanismCategory target,
+                          MechanismRelationshipType type, String description) {
+            this.source = source;
+            this.target = target;
+            this.type = type;
+            this.description = description;
+        }
+    }
+
+    private static final List<KnownRelationship> KNOWN_RELATIONSHIPS = Arrays.asList(
+            // NPC系统的核心依赖
+            new KnownRelationship(AionMechanismCategory.NPC, AionMechanismCategory.SKILL,
+                    MechanismRelationshipType.REFERENCES, "NPC使用技能"),
+            new KnownRelationship(AionMechanismCategory.NPC, AionMechanismCategory.DROP,
+                    MechanismRelationshipType.CONTAINS, "NPC掉落物品"),
+            new KnownRelationship(AionMechanismCategory.NPC, AionMechanismCategory.NPC_AI,
+                    MechanismRelationshipType.REFERENCES, "NPC行为AI"),
+
+            // 物品系统的核心依赖
+            new KnownRelationship(AionMechanismCategory.DROP, AionMechanismCategory.ITEM,
+                    MechanismRelationshipType.REFERENCES, "掉落表引用物品"),
+            new KnownRelationship(AionMechanismCategory.SHOP, AionMechanismCategory.ITEM,
+                    MechanismRelationshipType.REFERENCES, "商店出售物品"),
+            new KnownRelationship(AionMechanismCategory.CRAFT, AionMechanismCategory.ITEM,
+                    MechanismRelationshipType.REFERENCES, "合成产出物品"),
+
+            // 任务系统的核心依赖
+            new KnownRelationship(AionMechanismCategory.QUEST, AionMechanismCategory.NPC,
+                    MechanismRelationshipType.REFERENCES, "任务关联NPC"),
+            new KnownRelationship(AionMechanismCategory.QUEST, AionMechanismCategory.ITEM,
+                    MechanismRelationshipType.REFERENCES, "任务奖励物品"),
+            new KnownRelationship(AionMechanismCategory.QUEST, AionMechanismCategory.INSTANCE,
+                    MechanismRelationshipType.REFERENCES, "任务关联副本"),
+
+            // 技能系统
+            new KnownRelationship(AionMechanismCategory.SKILL, AionMechanismCategory.ITEM,
+                    MechanismRelationshipType.REFERENCES, "技能消耗物品"),
+            new KnownRelationship(AionMechanismCategory.STIGMA_TRANSFORM, AionMechanismCategory.SKILL,
+                    MechanismRelationshipType.CONTAINS, "烙印提供技能"),
+
+            // 副本系统
+            new KnownRelationship(AionMechanismCategory.INSTANCE, AionMechanismCategory.NPC,
+                    MechanismRelationshipType.CONTAINS, "副本包含NPC"),
+            new KnownRelationship(AionMechanismCategory.INSTANCE, AionMechanismCategory.PORTAL,
+                    MechanismRelationshipType.REFERENCES, "副本传送门"),
+
+            // 其他系统
+            new KnownRelationship(AionMechanismCategory.PET, AionMechanismCategory.SKILL,
+                    MechanismRelationshipType.REFERENCES, "宠物技能"),
+            new KnownRelationship(AionMechanismCategory.GOTCHA, AionMechanismCategory.ITEM,
+                    MechanismRelationshipType.REFERENCES, "抽卡产出物品"),
+            new KnownRelationship(AionMechanismCategory.ENCHANT, AionMechanismCategory.ITEM,
+                    MechanismRelationshipType.REFERENCES, "强化目标物品"),
+            new KnownRelationship(AionMechanismCategory.HOUSING, AionMechanismCategory.ITEM,
+                    MechanismRelationshipType.REFERENCES, "房屋家具物品"),
+            new KnownRelationship(AionMechanismCategory.ABYSS, AionMechanismCategory.ITEM,
+                    MechanismRelationshipType.REFERENCES, "深渊奖励物品")
+    );
+
     /**
      * 构建机制关系图
      *
@@ -59,63 +196,102 @@ public class MechanismRelationshipService {
     /**
      * 构建机制关系图（带进度回调）
      *
+     * <p>耗时的扫描和分析在 {@code buildLock} 下进行，不占用 this 的监视器，
+     * 界面线程调用 {@link #clearCache()} / {@link #getCachedGraph()} 不会被阻塞。
+     *
      * @param progressCallback 进度回调
      * @return 关系图
      */
     public MechanismRelationshipGraph buildRelationshipGraph(Consumer<String> progressCallback) {
-        // 检查缓存
-        if (cachedGraph != null && (System.currentTimeMillis() - cacheTimestamp) < CACHE_TTL_MS) {
-            log.info("使用缓存的机制关系图");
-            return cachedGraph;
-        }
-
-        log.info("开始构建机制关系图...");
-        long startTime = System.currentTimeMillis();
-
-        notifyProgress(progressCallback, "初始化机制检测器...");
-
-        // 1. 获取XML路径配置
-        String xmlPath = YamlUtils.getProperty("aion.xmlPath");
-        String localizedPath = YamlUtils.getProperty("aion.localizedPath");
-
-        if (xmlPath == null || xmlPath.isEmpty()) {
-            log.warn("未配置 aion.xmlPath，无法构建机制关系图");
-            return new MechanismRelationshipGraph();
-        }
+        synchronized (buildLock) {
+            // 检查缓存：目录监听中的图由变更事件保持最新
+            MechanismRelationshipGraph cached = cachedGraph;
+            if (cached != null && (isWatching() || (System.currentTimeMillis() - cacheTimestamp) < CACHE_TTL_MS)) {
+                log.info("使用缓存的机制关系图");
+                return cached;
+            }
 
-        File publicRoot = new File(xmlPath);
-        File localizedRoot = localizedPath != null && !localizedPath.isEmpty()
-                ? new File(localizedPath) : null;
+            log.info("开始构建机制关系图...");
+            long startTime = System.currentTimeMillis();
+            long generationAtStart = currentGeneration();
 
-        // 2. 扫描机制视图
-        notifyProgress(progressCallback, "扫描游戏机制分类...");
-        AionMechanismDetector detector = new AionMechanismDetector(publicRoot, localizedRoot);
-        AionMechanismView mechanismView = detector.scan();
+            notifyProgress(progressCallback, "初始化机制检测器...");
 
-        // 3. 构建文件到机制的映射
-        notifyProgress(progressCallback, "构建文件-机制映射...");
-        buildFileToMechanismMapping(mechanismView);
+            // 1. 获取XML路径配置
+            String xmlPath = YamlUtils.getProperty("aion.xmlPath");
+            String localizedPath = YamlUtils.getProperty("aion.localizedPath");
 
-        // 4. 获取字段级关系报告
-        notifyProgress(progressCallback, "分析字段级关系...");
-        RelationshipReport relationshipReport = getOrLoadRelationshipReport();
+            if (xmlPath == null || xmlPath.isEmpty()) {
+                log.warn("未配置 aion.xmlPath，无法构建机制关系图");
+                return new MechanismRelationshipGraph();
+            }
 
-        // 5. 聚合到机制级关系
-        notifyProgress(progressCallback, "聚合机制级关系...");
-        MechanismRelationshipGraph graph = aggregateToMechanismLevel(mechanismView, relationshipReport);
+            File newPublicRoot = new File(xmlPath);
+            File newLocalizedRoot = localizedPath != null && !localizedPath.isEmpty()
+                    ? new File(localizedPath) : null;
+
+            // 2. 扫描机制视图
+            notifyProgress(progressCallback, "扫描游戏机制分类...");
+            AionMechanismDetector newDetector = new AionMechanismDetector(newPublicRoot, newLocalizedRoot);
+            AionMechanismView mechanismView = newDetector.scan();
+
+            // 3. 构建文件到机制的映射
+            notifyProgress(progressCallback, "构建文件-机制映射...");
+            Map<Path, TrackedFile> tracked = trackFiles(mechanismView);
+            Map<String, AionMechanismCategory> mapping = fileMapping(tracked);
+
+            // 4. 获取字段级关系报告
+            notifyProgress(progressCallback, "分析字段级关系...");
+            RelationshipReport relationshipReport = loadRelationshipReport(null);
+
+            // 5. 聚合到机制级关系
+            notifyProgress(progressCallback, "聚合机制级关系...");
+            Map<EdgeKey, List<RelationshipSnapshot>> contributions = groupContributions(relationshipReport, mapping);
+            MechanismRelationshipGraph graph = aggregateToMechanismLevel(contributions, tracked.values());
+
+            // 6. 完成构建
+            graph.finalizeBuild();
+
+            long elapsed = System.currentTimeMillis() - startTime;
+            log.info("机制关系图构建完成，耗时 {}ms，{}个活跃机制，{}个关系",
+                    elapsed, graph.getActiveNodeCount(), graph.getTotalRelationshipCount());
+
+            // 换入新状态；构建期间缓存被清除时只返回结果，不缓存
+            synchronized (this) {
+                if (generation != generationAtStart) {
+                    log.info("构建期间缓存已被清除，本次结果不缓存");
+                    return graph;
+                }
+                detector = newDetector;
+                publicRoot = newPublicRoot;
+                localizedRoot = newLocalizedRoot;
+                install(tracked, mapping, relationshipReport, graph);
+            }
 
-        // 6. 完成构建
-        graph.finalizeBuild();
+            startWatching();
+            return graph;
+        }
+    }
 
-        long elapsed = System.currentTimeMillis() - startTime;
-        log.info("机制关系图构建完成，耗时 {}ms，{}个活跃机制，{}个关系",
-                elapsed, graph.getActiveNodeCount(), graph.getTotalRelationshipCount());
+    /**
+     * 注册关系图增量更新监听（在监听线程中回调，每次更新都是新的图对象）
+     */
+    public void addGraphUpdateListener(Consumer<MechanismRelationshipGraph> listener) {
+        updateListeners.add(listener);
+    }
 
-        // 缓存
-        cachedGraph = graph;
-        cacheTimestamp = System.currentTimeMillis();
+    public void removeGraphUpdateListener(Consumer<MechanismRelationshipGraph> listener) {
+        updateListeners.remove(listener);
+    }
 
-        return graph;
+    /**
+     * 停止目录监听（关闭界面时调用），之后的查询回到定时全量重建
+     */
+    public synchronized void stopWatching() {
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
+        }
     }
 
     /**
@@ -128,12 +304,15 @@ public class MechanismRelationshipService {
     }
 
     /**
-     * 清除缓存
+     * 清除缓存（不等待进行中的构建，其结果不会再被缓存）
      */
-    public void clearCache() {
+    public synchronized void clearCache() {
+        generation++;
         cachedGraph = null;
         cacheTimestamp = 0;
         fileToMechanismCache.clear();
+        trackedFiles.clear();
+        baseline = null;
         log.info("机制关系图缓存已清除");
     }
 
@@ -155,14 +334,11 @@ public class MechanismRelationshipService {
         }
 
         // 使用枚举的正则匹配
-        for (AionMechanismCategory category : AionMechanismCategory.values()) {
-            if (category.matches(fileName)) {
-                fileToMechanismCache.put(fileName.toLowerCase(), category);
-                return category;
-            }
+        AionMechanismCategory category = matchCategory(fileName);
+        if (category != AionMechanismCategory.OTHER) {
+            fileToMechanismCache.put(fileName.toLowerCase(), category);
         }
-
-        return AionMechanismCategory.OTHER;
+        return category;
     }
 
     /**
@@ -200,8 +376,27 @@ public class MechanismRelationshipService {
         log.debug(message);
     }
 
-    private void buildFileToMechanismMapping(AionMechanismView mechanismView) {
+    private synchronized long currentGeneration() {
+        return generation;
+    }
+
+    /**
+     * 换入新计算的状态（调用方持有 this 的监视器）
+     */
+    private void install(Map<Path, TrackedFile> tracked, Map<String, AionMechanismCategory> mapping,
+                         RelationshipReport relationshipReport, MechanismRelationshipGraph graph) {
+        trackedFiles.clear();
+        trackedFiles.putAll(tracked);
         fileToMechanismCache.clear();
+        fileToMechanismCache.putAll(mapping);
+        baseline = relationshipReport != null ? relationshipReport.toBaseline() : null;
+        generation++;
+        cachedGraph = graph;
+        cacheTimestamp = System.currentTimeMillis();
+    }
+
+    private Map<Path, TrackedFile> trackFiles(AionMechanismView mechanismView) {
+        Map<Path, TrackedFile> tracked = new LinkedHashMap<>();
 
         for (AionMechanismCategory category : AionMechanismCategory.values()) {
             AionMechanismView.MechanismGroup group = mechanismView.getGroup(category);
@@ -211,93 +406,305 @@ public class MechanismRelationshipService {
 
             // 公共文件
             for (AionMechanismView.FileEntry file : group.getPublicFiles()) {
-                fileToMechanismCache.put(file.getFileName().toLowerCase(), category);
+                tracked.put(normalize(file.getFile().toPath()),
+                        new TrackedFile(file.getFileName(), category, false));
             }
 
             // 本地化文件
             for (AionMechanismView.FileEntry file : group.getLocalizedFiles()) {
-                fileToMechanismCache.put(file.getFileName().toLowerCase(), category);
+                tracked.put(normalize(file.getFile().toPath()),
+                        new TrackedFile(file.getFileName(), category, true));
             }
         }
 
-        log.debug("文件-机制映射构建完成，共 {} 个文件", fileToMechanismCache.size());
+        log.debug("文件-机制映射构建完成，共 {} 个文件", tracked.size());
+        return tracked;
+    }
+
+    /**
+     * 文件名（小写）到机制的映射
+     */
+    private static Map<String, AionMechanismCategory> fileMapping(Map<Path, TrackedFile> tracked) {
+        Map<String, AionMechanismCategory> mapping = new HashMap<>();
+        for (TrackedFile file : tracked.values()) {
+            mapping.put(file.fileName.toLowerCase(), file.category);
+        }
+        return mapping;
     }
 
-    private RelationshipReport getOrLoadRelationshipReport() {
+    private static AionMechanismCategory matchCategory(String fileName) {
+        for (AionMechanismCategory category : AionMechanismCategory.values()) {
+            if (category.matches(fileName)) {
+                return category;
+            }
+        }
+        return AionMechanismCategory.OTHER;
+    }
+
+    /**
+     * 字段级关系报告；有上一次的报告时只重新分析变更过的文件
+     */
+    private RelationshipReport loadRelationshipReport(RelationshipBaseline previous) {
         try {
-            return XmlRelationshipAnalyzer.analyzeCurrentDatabase();
+            return XmlRelationshipAnalyzer.analyzeCurrentDatabase(
+                    XmlRelationshipAnalyzer.AnalysisOptions.create().withBaseline(previous));
         } catch (Exception e) {
             log.warn("加载关系报告失败: {}", e.getMessage());
             return null;
         }
     }
 
-    private MechanismRelationshipGraph aggregateToMechanismLevel(
-            AionMechanismView mechanismView,
-            RelationshipReport relationshipReport) {
+    private MechanismRelationshipGraph aggregateToMechanismLevel(Map<EdgeKey, List<RelationshipSnapshot>> contributions,
+                                                                 Collection<TrackedFile> files) {
 
         MechanismRelationshipGraph graph = new MechanismRelationshipGraph();
 
         // 1. 填充节点信息
         for (AionMechanismCategory category : AionMechanismCategory.values()) {
-            AionMechanismView.MechanismGroup group = mechanismView.getGroup(category);
-            if (group == null) {
+            populateNode(graph, category, files);
+        }
+
+        // 2. 聚合字段级关系到机制级
+        for (Map.Entry<EdgeKey, List<RelationshipSnapshot>> entry : contributions.entrySet()) {
+            addAnalyzedRelationship(graph, entry.getKey(), entry.getValue());
+        }
+
+        // 3. 添加预定义的机制关系（基于游戏领域知识）
+        addPredefinedRelationships(graph);
+
+        return graph;
+    }
+
+    /**
+     * 按文件统计节点的文件数和代表性文件
+     */
+    private void populateNode(MechanismRelationshipGraph graph, AionMechanismCategory category,
+                              Collection<TrackedFile> files) {
+        int fileCount = 0;
+        List<String> representativeFiles = new ArrayList<>();
+        for (TrackedFile file : files) {
+            if (file.category != category) {
                 continue;
             }
+            fileCount++;
+            // 代表性文件取前5个公共文件
+            if (!file.localized && representativeFiles.size() < 5
+                    && !representativeFiles.contains(file.fileName)) {
+                representativeFiles.add(file.fileName);
+            }
+        }
+
+        MechanismNode node = graph.getNode(category);
+        node.setRepresentativeFiles(representativeFiles);
+        node.setFileCount(fileCount);
+    }
+
+    /**
+     * 把字段级关系按 (源机制, 目标机制) 分组，保持报告中的顺序
+     */
+    private Map<EdgeKey, List<RelationshipSnapshot>> groupContributions(RelationshipReport relationshipReport,
+                                                                        Map<String, AionMechanismCategory> mapping) {
+        Map<EdgeKey, List<RelationshipSnapshot>> grouped = new LinkedHashMap<>();
+        if (relationshipReport == null) {
+            return grouped;
+        }
 
-            MechanismNode node = graph.getNode(category);
-            int fileCount = group.getPublicFiles().size() + group.getLocalizedFiles().size();
-            node.setFileCount(fileCount);
+        for (RelationshipSnapshot snapshot : relationshipReport.getRelationshipSnapshots()) {
+            // 映射到机制
+            AionMechanismCategory sourceMechanism = mechanismOf(extractFileName(snapshot.getSourceFile()), mapping);
+            AionMechanismCategory targetMechanism = mechanismOf(extractFileName(snapshot.getTargetFile()), mapping);
 
-            // 添加代表性文件
-            int maxFiles = Math.min(5, group.getPublicFiles().size());
-            for (int i = 0; i < maxFiles; i++) {
-                node.addFile(group.getPublicFiles().get(i).getFileName());
+            // 跳过自引用和OTHER
+            if (sourceMechanism == targetMechanism) {
+                continue;
+            }
+            if (sourceMechanism == AionMechanismCategory.OTHER ||
+                targetMechanism == AionMechanismCategory.OTHER) {
+                continue;
             }
+
+            grouped.computeIfAbsent(new EdgeKey(sourceMechanism, targetMechanism), k -> new ArrayList<>())
+                    .add(snapshot);
         }
+        return grouped;
+    }
 
-        // 2. 聚合字段级关系到机制级
-        if (relationshipReport != null) {
-            List<RelationshipSnapshot> snapshots = relationshipReport.getRelationshipSnapshots();
+    private static AionMechanismCategory mechanismOf(String fileName, Map<String, AionMechanismCategory> mapping) {
+        if (fileName == null || fileName.isEmpty()) {
+            return AionMechanismCategory.OTHER;
+        }
+        AionMechanismCategory category = mapping.get(fileName.toLowerCase());
+        return category != null ? category : matchCategory(fileName);
+    }
+
+    private void addAnalyzedRelationship(MechanismRelationshipGraph graph, EdgeKey key,
+                                         List<RelationshipSnapshot> snapshots) {
+        // 推断关系类型（取第一条字段关系）
+        MechanismRelationshipType type = MechanismRelationshipType.inferFromFieldName(
+                snapshots.get(0).getSourceColumn());
+
+        MechanismRelationship rel = graph.addRelationship(key.source, key.target, type);
+        if (rel == null) {
+            return;
+        }
+        rel.setRelationshipCount(snapshots.size());
+        for (RelationshipSnapshot snapshot : snapshots) {
+            rel.addExample(
+                    extractFileName(snapshot.getSourceFile()), snapshot.getSourceColumn(),
+                    extractFileName(snapshot.getTargetFile()), snapshot.getTargetColumn(),
+                    snapshot.getConfidence()
+            );
+        }
+    }
+
+    // ========== 增量更新 ==========
+
+    private boolean isWatching() {
+        XmlFileWatcher current = watcher;
+        return current != null && current.isRunning();
+    }
+
+    private void startWatching() {
+        File publicDir;
+        File localizedDir;
+        synchronized (this) {
+            publicDir = publicRoot;
+            localizedDir = localizedRoot;
+        }
+        List<Path> roots = new ArrayList<>();
+        roots.add(normalize(publicDir.toPath()));
+        if (localizedDir != null && localizedDir.isDirectory()
+                && !normalize(localizedDir.toPath()).startsWith(roots.get(0))) {
+            roots.add(normalize(localizedDir.toPath()));
+        }
+        if (isWatching() && watcher.getRoots().equals(roots)) {
+            return;
+        }
+        stopWatching();
 
-            for (RelationshipSnapshot snapshot : snapshots) {
-                // 提取文件名
-                String sourceFile = extractFileName(snapshot.getSourceFile());
-                String targetFile = extractFileName(snapshot.getTargetFile());
+        XmlFileWatcher newWatcher = new XmlFileWatcher(roots, WATCH_QUIET_MS, this::applyChanges);
+        try {
+            newWatcher.start();
+            synchronized (this) {
+                watcher = newWatcher;
+            }
+        } catch (IOException e) {
+            log.warn("无法监听XML目录，改为定时重建: {}", e.getMessage());
+            newWatcher.close();
+        }
+    }
+
+    /**
+     * 应用一批文件变更
+     *
+     * <p>在当前状态的副本上重新识别变更文件、增量重算字段级关系并生成新的关系图，
+     * 最后在 this 上短暂同步换入；已发布的图不会被修改。
+     */
+    private void applyChanges(XmlFileWatcher.ChangeBatch batch) {
+        synchronized (buildLock) {
+            long generationAtStart;
+            Map<Path, TrackedFile> tracked;
+            RelationshipBaseline previousBaseline;
+            AionMechanismDetector currentDetector;
+            File publicDir;
+            File localizedDir;
+            synchronized (this) {
+                if (cachedGraph == null) {
+                    return;
+                }
+                generationAtStart = generation;
+                tracked = new LinkedHashMap<>(trackedFiles);
+                previousBaseline = baseline;
+                currentDetector = detector;
+                publicDir = publicRoot;
+                localizedDir = localizedRoot;
+            }
+            long startTime = System.currentTimeMillis();
+
+            if (batch.overflow) {
+                log.info("目录变更事件溢出，全量重建机制关系图");
+                synchronized (this) {
+                    if (generation == generationAtStart) {
+                        cachedGraph = null;
+                    }
+                }
+                notifyGraphUpdated(buildRelationshipGraph(null));
+                return;
+            }
 
-                // 映射到机制
-                AionMechanismCategory sourceMechanism = getMechanismForFile(sourceFile);
-                AionMechanismCategory targetMechanism = getMechanismForFile(targetFile);
+            // 1. 删除的文件（或目录）
+            for (Path deleted : batch.deleted) {
+                Path prefix = normalize(deleted);
+                Iterator<Map.Entry<Path, TrackedFile>> it = tracked.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<Path, TrackedFile> entry = it.next();
+                    if (entry.getKey().startsWith(prefix)) {
+                        it.remove();
+                    }
+                }
+            }
 
-                // 跳过自引用和OTHER
-                if (sourceMechanism == targetMechanism) {
+            // 2. 新建或修改的文件：重新识别机制归属
+            Path localizedBase = localizedDir != null ? normalize(localizedDir.toPath()) : null;
+            for (Path changed : batch.changed) {
+                Path path = normalize(changed);
+                if (!Files.isRegularFile(path)) {
                     continue;
                 }
-                if (sourceMechanism == AionMechanismCategory.OTHER ||
-                    targetMechanism == AionMechanismCategory.OTHER) {
+                boolean localized = localizedBase != null && path.startsWith(localizedBase);
+                Path base = localized ? localizedBase : normalize(publicDir.toPath());
+                if (!path.startsWith(base) || (!localized && inLocalizationFolder(base.relativize(path)))) {
+                    // 公共目录下的本地化子目录在全量扫描中同样被跳过
                     continue;
                 }
 
-                // 推断关系类型
-                MechanismRelationshipType type = MechanismRelationshipType.inferFromFieldName(
-                        snapshot.getSourceColumn());
-
-                // 添加或更新关系
-                MechanismRelationship rel = graph.addRelationship(sourceMechanism, targetMechanism, type);
-                if (rel != null) {
-                    rel.addExample(
-                            sourceFile, snapshot.getSourceColumn(),
-                            targetFile, snapshot.getTargetColumn(),
-                            snapshot.getConfidence()
-                    );
+                File file = path.toFile();
+                DetectionResult result = currentDetector.detect(file, base.relativize(path).toString(), localized);
+                tracked.put(path, new TrackedFile(file.getName(), result.getCategory(), localized));
+            }
+
+            // 3. 字段级关系只重新分析变更过的文件，再按新的文件归属聚合成新图
+            Map<String, AionMechanismCategory> mapping = fileMapping(tracked);
+            RelationshipReport relationshipReport = loadRelationshipReport(previousBaseline);
+            Map<EdgeKey, List<RelationshipSnapshot>> contributions = groupContributions(relationshipReport, mapping);
+            MechanismRelationshipGraph graph = aggregateToMechanismLevel(contributions, tracked.values());
+            graph.finalizeBuild();
+
+            synchronized (this) {
+                if (generation != generationAtStart) {
+                    log.info("增量更新期间缓存已被清除，丢弃本次结果");
+                    return;
                 }
+                install(tracked, mapping, relationshipReport, graph);
             }
+            log.info("机制关系图增量更新: {} 个文件变更, {} 个文件删除, {} 个活跃机制, {} 个关系, 耗时 {}ms",
+                    batch.changed.size(), batch.deleted.size(), graph.getActiveNodeCount(),
+                    graph.getTotalRelationshipCount(), System.currentTimeMillis() - startTime);
+            notifyGraphUpdated(graph);
         }
+    }
 
-        // 3. 添加预定义的机制关系（基于游戏领域知识）
-        addPredefinedRelationships(graph);
+    private void notifyGraphUpdated(MechanismRelationshipGraph graph) {
+        for (Consumer<MechanismRelationshipGraph> listener : updateListeners) {
+            try {
+                listener.accept(graph);
+            } catch (Exception e) {
+                log.warn("关系图更新回调失败: {}", e.getMessage());
+            }
+        }
+    }
 
-        return graph;
+    private static boolean inLocalizationFolder(Path relativePath) {
+        for (int i = 0; i < relativePath.getNameCount() - 1; i++) {
+            if (AionMechanismDetector.isLocalizationFolder(relativePath.getName(i).toString())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
     }
 
     private String extractFileName(String fileKey) {
@@ -317,64 +724,16 @@ public class MechanismRelationshipService {
      * 添加预定义的机制关系（基于Aion游戏领域知识）
      */
     private void addPredefinedRelationships(MechanismRelationshipGraph graph) {
-        // NPC系统的核心依赖
-        addKnownRelationship(graph, AionMechanismCategory.NPC, AionMechanismCategory.SKILL,
-                MechanismRelationshipType.REFERENCES, "NPC使用技能");
-        addKnownRelationship(graph, AionMechanismCategory.NPC, AionMechanismCategory.DROP,
-                MechanismRelationshipType.CONTAINS, "NPC掉落物品");
-        addKnownRelationship(graph, AionMechanismCategory.NPC, AionMechanismCategory.NPC_AI,
-                MechanismRelationshipType.REFERENCES, "NPC行为AI");
-
-        // 物品系统的核心依赖
-        addKnownRelationship(graph, AionMechanismCategory.DROP, AionMechanismCategory.ITEM,
-                MechanismRelationshipType.REFERENCES, "掉落表引用物品");
-        addKnownRelationship(graph, AionMechanismCategory.SHOP, AionMechanismCategory.ITEM,
-                MechanismRelationshipType.REFERENCES, "商店出售物品");
-        addKnownRelationship(graph, AionMechanismCategory.CRAFT, AionMechanismCategory.ITEM,
-                MechanismRelationshipType.REFERENCES, "合成产出物品");
-
-        // 任务系统的核心依赖
-        addKnownRelationship(graph, AionMechanismCategory.QUEST, AionMechanismCategory.NPC,
-                MechanismRelationshipType.REFERENCES, "任务关联NPC");
-        addKnownRelationship(graph, AionMechanismCategory.QUEST, AionMechanismCategory.ITEM,
-                MechanismRelationshipType.REFERENCES, "任务奖励物品");
-        addKnownRelationship(graph, AionMechanismCategory.QUEST, AionMechanismCategory.INSTANCE,
-                MechanismRelationshipType.REFERENCES, "任务关联副本");
-
-        // 技能系统
-        addKnownRelationship(graph, AionMechanismCategory.SKILL, AionMechanismCategory.ITEM,
-                MechanismRelationshipType.REFERENCES, "技能消耗物品");
-        addKnownRelationship(graph, AionMechanismCategory.STIGMA_TRANSFORM, AionMechanismCategory.SKILL,
-                MechanismRelationshipType.CONTAINS, "烙印提供技能");
-
-        // 副本系统
-        addKnownRelationship(graph, AionMechanismCategory.INSTANCE, AionMechanismCategory.NPC,
-                MechanismRelationshipType.CONTAINS, "副本包含NPC");
-        addKnownRelationship(graph, AionMechanismCategory.INSTANCE, AionMechanismCategory.PORTAL,
-                MechanismRelationshipType.REFERENCES, "副本传送门");
-
-        // 其他系统
-        addKnownRelationship(graph, AionMechanismCategory.PET, AionMechanismCategory.SKILL,
-                MechanismRelationshipType.REFERENCES, "宠物技能");
-        addKnownRelationship(graph, AionMechanismCategory.GOTCHA, AionMechanismCategory.ITEM,
-                MechanismRelationshipType.REFERENCES, "抽卡产出物品");
-        addKnownRelationship(graph, AionMechanismCategory.ENCHANT, AionMechanismCategory.ITEM,
-                MechanismRelationshipType.REFERENCES, "强化目标物品");
-        addKnownRelationship(graph, AionMechanismCategory.HOUSING, AionMechanismCategory.ITEM,
-                MechanismRelationshipType.REFERENCES, "房屋家具物品");
-        addKnownRelationship(graph, AionMechanismCategory.ABYSS, AionMechanismCategory.ITEM,
-                MechanismRelationshipType.REFERENCES, "深渊奖励物品");
-    }
-
-    private void addKnownRelationship(MechanismRelationshipGraph graph,
-                                       AionMechanismCategory source,
-                                       AionMechanismCategory target,
-                                       MechanismRelationshipType type,
-                                       String description) {
+        for (KnownRelationship known : KNOWN_RELATIONSHIPS) {
+            addKnownRelationship(graph, known);
+        }
+    }
+
+    private void addKnownRelationship(MechanismRelationshipGraph graph, KnownRelationship known) {
         // 如果已经通过分析发现了该关系，不重复添加
-        MechanismRelationship existing = graph.findRelationship(source, target);
+        MechanismRelationship existing = graph.findRelationship(known.source, known.target);
         if (existing == null) {
-            MechanismRelationship rel = graph.addRelationship(source, target, type);
+            MechanismRelationship rel = graph.addRelationship(known.source, known.target, known.type);
             if (rel != null) {
                 // 标记为预定义关系（通过设置一个基础计数）
                 rel.setRelationshipCount(1);
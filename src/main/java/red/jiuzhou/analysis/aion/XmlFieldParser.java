@@ -6,8 +6,15 @@ import org.w3c.dom.*;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -16,6 +23,10 @@ import java.util.regex.Pattern;
  *
  * <p>解析Aion XML配置文件，提取字段结构和引用关系。
  *
+ * <p>{@link #parse} 构建完整DOM，每个属性/文本节点一个 {@link FieldInfo}；
+ * {@link #summarize} 流式读取，每个唯一路径只产生一个汇总字段（出现次数 + 少量示例值），
+ * 结果按文件大小和修改时间缓存，适合悬停预览等频繁调用的场景。
+ *
  * @author Claude
  * @version 1.0
  */
@@ -23,44 +34,79 @@ public class XmlFieldParser {
 
     private static final Logger log = LoggerFactory.getLogger(XmlFieldParser.class);
 
-    // 常见的引用字段模式
-    private static final Map<Pattern, String> REFERENCE_PATTERNS = new LinkedHashMap<>();
+    // 常见的引用字段模式（字段名中任意位置出现即匹配，按顺序取第一个）
+    private static final Map<String, String> REFERENCE_PATTERNS = new LinkedHashMap<>();
 
     static {
         // 物品引用
-        REFERENCE_PATTERNS.put(Pattern.compile("(?i).*item[_]?id.*"), "物品系统");
-        REFERENCE_PATTERNS.put(Pattern.compile("(?i).*item[_]?name.*"), "物品系统");
+        REFERENCE_PATTERNS.put("item[_]?id", "物品系统");
+        REFERENCE_PATTERNS.put("item[_]?name", "物品系统");
 
         // NPC引用
-        REFERENCE_PATTERNS.put(Pattern.compile("(?i).*npc[_]?id.*"), "NPC系统");
-        REFERENCE_PATTERNS.put(Pattern.compile("(?i).*monster[_]?id.*"), "NPC系统");
+        REFERENCE_PATTERNS.put("npc[_]?id", "NPC系统");
+        REFERENCE_PATTERNS.put("monster[_]?id", "NPC系统");
 
         // 技能引用
-        REFERENCE_PATTERNS.put(Pattern.compile("(?i).*skill[_]?id.*"), "技能系统");
-        REFERENCE_PATTERNS.put(Pattern.compile("(?i).*skill[_]?level.*"), "技能系统");
+        REFERENCE_PATTERNS.put("skill[_]?id", "技能系统");
+        REFERENCE_PATTERNS.put("skill[_]?level", "技能系统");
 
         // 任务引用
-        REFERENCE_PATTERNS.put(Pattern.compile("(?i).*quest[_]?id.*"), "任务系统");
+        REFERENCE_PATTERNS.put("quest[_]?id", "任务系统");
 
         // 地图/区域引用
-        REFERENCE_PATTERNS.put(Pattern.compile("(?i).*map[_]?id.*"), "副本区域");
-        REFERENCE_PATTERNS.put(Pattern.compile("(?i).*world[_]?id.*"), "副本区域");
-        REFERENCE_PATTERNS.put(Pattern.compile("(?i).*zone[_]?id.*"), "副本区域");
+        REFERENCE_PATTERNS.put("map[_]?id", "副本区域");
+        REFERENCE_PATTERNS.put("world[_]?id", "副本区域");
+        REFERENCE_PATTERNS.put("zone[_]?id", "副本区域");
 
         // 掉落引用
-        REFERENCE_PATTERNS.put(Pattern.compile("(?i).*drop[_]?id.*"), "掉落系统");
-        REFERENCE_PATTERNS.put(Pattern.compile("(?i).*loot[_]?id.*"), "掉落系统");
+        REFERENCE_PATTERNS.put("drop[_]?id", "掉落系统");
+        REFERENCE_PATTERNS.put("loot[_]?id", "掉落系统");
 
         // 商店引用
-        REFERENCE_PATTERNS.put(Pattern.compile("(?i).*shop[_]?id.*"), "商店交易");
-        REFERENCE_PATTERNS.put(Pattern.compile("(?i).*goods[_]?id.*"), "商店交易");
+        REFERENCE_PATTERNS.put("shop[_]?id", "商店交易");
+        REFERENCE_PATTERNS.put("goods[_]?id", "商店交易");
 
         // 称号引用
-        REFERENCE_PATTERNS.put(Pattern.compile("(?i).*title[_]?id.*"), "称号系统");
+        REFERENCE_PATTERNS.put("title[_]?id", "称号系统");
 
         // 传送引用
-        REFERENCE_PATTERNS.put(Pattern.compile("(?i).*portal[_]?id.*"), "传送系统");
-        REFERENCE_PATTERNS.put(Pattern.compile("(?i).*teleport.*"), "传送系统");
+        REFERENCE_PATTERNS.put("portal[_]?id", "传送系统");
+        REFERENCE_PATTERNS.put("teleport", "传送系统");
+    }
+
+    // 所有引用模式合并成的单个正则：每个目标系统一个前瞻分支 + 空捕获组，
+    // 分支按上面的顺序尝试，命中的捕获组即目标系统
+    private static final List<String> REFERENCE_TARGETS = new ArrayList<>();
+    private static final Pattern REFERENCE_MATCHER = compileReferenceMatcher();
+
+    // 字段名 → 引用目标（未引用时为空串）
+    private static final Map<String, String> REFERENCE_CACHE = new ConcurrentHashMap<>();
+    private static final int REFERENCE_CACHE_LIMIT = 10000;
+
+    // 汇总模式
+    private static final int MAX_DEPTH = 5;
+    private static final int MAX_SAMPLES = 3;
+    private static final int SUMMARY_CACHE_SIZE = 64;
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private static final Map<String, CachedSummary> SUMMARY_CACHE =
+            new LinkedHashMap<String, CachedSummary>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedSummary> eldest) {
+                    return size() > SUMMARY_CACHE_SIZE;
+                }
+            };
+
+    private static final class CachedSummary {
+        final long lastModified;
+        final long fileSize;
+        final ParseResult result;
+
+        CachedSummary(long lastModified, long fileSize, ParseResult result) {
+            this.lastModified = lastModified;
+            this.fileSize = fileSize;
+            this.result = result;
+        }
     }
 
     /**
@@ -89,6 +135,145 @@ public class XmlFieldParser {
         return result;
     }
 
+    /**
+     * 流式汇总XML文件的字段结构
+     *
+     * <p>与 {@link #parse} 覆盖相同的路径（同样限制深度5），但每个路径只有一个字段，
+     * 记录出现次数和最多3个不同的示例值。文件未变化时直接返回缓存的结果。
+     */
+    public static ParseResult summarize(File xmlFile) {
+        String key = xmlFile.getAbsolutePath();
+        long lastModified = xmlFile.lastModified();
+        long fileSize = xmlFile.length();
+        synchronized (SUMMARY_CACHE) {
+            CachedSummary cached = SUMMARY_CACHE.get(key);
+            if (cached != null && cached.lastModified == lastModified && cached.fileSize == fileSize) {
+                return cached.result;
+            }
+        }
+
+        ParseResult result = new ParseResult(xmlFile.getName());
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(xmlFile.toPath()))) {
+            XMLStreamReader xml = INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                summarizeStream(xml, result);
+            } finally {
+                xml.close();
+            }
+        } catch (Exception e) {
+            log.warn("解析XML失败: {} - {}", xmlFile.getName(), e.getMessage());
+            result.setError(e.getMessage());
+        }
+
+        synchronized (SUMMARY_CACHE) {
+            SUMMARY_CACHE.put(key, new CachedSummary(lastModified, fileSize, result));
+        }
+        return result;
+    }
+
+    /**
+     * 按文档顺序读取元素，路径和直接文本用栈维护
+     *
+     * <p>文本在元素结束时才能确定，每个元素开始时为其属性和文本预留序号，
+     * 输出的字段顺序与 {@link #parse} 中各路径首次出现的顺序一致。
+     */
+    private static void summarizeStream(XMLStreamReader xml, ParseResult result) throws Exception {
+        Map<String, FieldInfo> fieldsByPath = new HashMap<>();
+        TreeMap<Integer, FieldInfo> ordered = new TreeMap<>();
+        int nextSlot = 0;
+        Deque<String> paths = new ArrayDeque<>();
+        Deque<Integer> textSlots = new ArrayDeque<>();
+        Deque<StringBuilder> texts = new ArrayDeque<>();
+        StringBuilder run = new StringBuilder();
+        int skippedDepth = 0;     // 超过深度限制后嵌套的元素层数
+
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.CHARACTERS) {
+                if (skippedDepth == 0 && !texts.isEmpty()) {
+                    run.append(xml.getTextCharacters(), xml.getTextStart(), xml.getTextLength());
+                }
+                continue;
+            }
+            // 连续的字符事件构成一个文本节点，与DOM一样逐节点去除首尾空白
+            flushText(run, texts);
+
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (skippedDepth > 0 || paths.size() > MAX_DEPTH) {
+                    skippedDepth++;
+                    continue;
+                }
+                String tagName = qualifiedName(xml.getPrefix(), xml.getLocalName());
+                String currentPath = paths.isEmpty() ? tagName : paths.peek() + "/" + tagName;
+                int depth = paths.size();
+                if (depth == 0) {
+                    result.setRootElement(tagName);
+                }
+                for (int i = 0; i < xml.getAttributeCount(); i++) {
+                    String attrName = qualifiedName(xml.getAttributePrefix(i), xml.getAttributeLocalName(i));
+                    String attrPath = currentPath + "@" + attrName;
+                    FieldInfo field = fieldsByPath.get(attrPath);
+                    if (field == null) {
+                        field = new FieldInfo(attrName, attrPath, xml.getAttributeValue(i), true, depth);
+                        field.setReferenceTarget(detectReference(attrName));
+                        fieldsByPath.put(attrPath, field);
+                        ordered.put(nextSlot + i, field);
+                    } else {
+                        field.addOccurrence(xml.getAttributeValue(i), MAX_SAMPLES);
+                    }
+                }
+                nextSlot += xml.getAttributeCount();
+                paths.push(currentPath);
+                textSlots.push(nextSlot++);
+                texts.push(new StringBuilder());
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (skippedDepth > 0) {
+                    skippedDepth--;
+                    continue;
+                }
+                String currentPath = paths.pop();
+                int textSlot = textSlots.pop();
+                String textContent = texts.pop().toString();
+                if (!textContent.isEmpty()) {
+                    FieldInfo field = fieldsByPath.get(currentPath);
+                    if (field == null) {
+                        String tagName = currentPath.substring(currentPath.lastIndexOf('/') + 1);
+                        field = new FieldInfo(tagName, currentPath, textContent, false, paths.size());
+                        fieldsByPath.put(currentPath, field);
+                        ordered.put(textSlot, field);
+                    } else {
+                        field.addOccurrence(textContent, MAX_SAMPLES);
+                    }
+                }
+            }
+        }
+
+        for (FieldInfo field : ordered.values()) {
+            result.addField(field);
+        }
+    }
+
+    private static void flushText(StringBuilder run, Deque<StringBuilder> texts) {
+        if (run.length() == 0) {
+            return;
+        }
+        String text = run.toString().trim();
+        if (!text.isEmpty()) {
+            texts.peek().append(text);
+        }
+        run.setLength(0);
+    }
+
+    private static String qualifiedName(String prefix, String localName) {
+        return prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        return factory;
+    }
+
     /**
      * 递归解析节点
      */
@@ -153,15 +338,55 @@ public class XmlFieldParser {
     }
 
     /**
-     * 检测字段是否引用其他系统
+     * 检测字段是否引用其他系统（按字段名缓存）
      */
     public static String detectReference(String fieldName) {
-        for (Map.Entry<Pattern, String> entry : REFERENCE_PATTERNS.entrySet()) {
-            if (entry.getKey().matcher(fieldName).matches()) {
-                return entry.getValue();
+        String cached = REFERENCE_CACHE.get(fieldName);
+        if (cached == null) {
+            cached = "";
+            Matcher matcher = REFERENCE_MATCHER.matcher(fieldName);
+            if (matcher.lookingAt()) {
+                for (int i = 0; i < REFERENCE_TARGETS.size(); i++) {
+                    if (matcher.group(i + 1) != null) {
+                        cached = REFERENCE_TARGETS.get(i);
+                        break;
+                    }
+                }
+            }
+            if (REFERENCE_CACHE.size() < REFERENCE_CACHE_LIMIT) {
+                REFERENCE_CACHE.put(fieldName, cached);
             }
         }
-        return null;
+        return cached.isEmpty() ? null : cached;
+    }
+
+    private static Pattern compileReferenceMatcher() {
+        // 相邻且目标相同的模式合并到同一分支
+        StringBuilder regex = new StringBuilder("(?i)");
+        String currentTarget = null;
+        StringBuilder branch = null;
+        for (Map.Entry<String, String> entry : REFERENCE_PATTERNS.entrySet()) {
+            if (!entry.getValue().equals(currentTarget)) {
+                appendBranch(regex, branch);
+                currentTarget = entry.getValue();
+                REFERENCE_TARGETS.add(currentTarget);
+                branch = new StringBuilder(entry.getKey());
+            } else {
+                branch.append('|').append(entry.getKey());
+            }
+        }
+        appendBranch(regex, branch);
+        return Pattern.compile(regex.toString());
+    }
+
+    private static void appendBranch(StringBuilder regex, StringBuilder branch) {
+        if (branch == null) {
+            return;
+        }
+        if (regex.length() > "(?i)".length()) {
+            regex.append('|');
+        }
+        regex.append("(?=.*(?:").append(branch).append("))()");
     }
 
     /**
@@ -229,6 +454,17 @@ public class XmlFieldParser {
             return error != null;
         }
 
+        /**
+         * 字段总出现次数（汇总模式下为各路径出现次数之和）
+         */
+        public int getTotalOccurrences() {
+            int total = 0;
+            for (FieldInfo field : fields) {
+                total += field.getOccurrences();
+            }
+            return total;
+        }
+
         /**
          * 获取唯一字段名列表（去重）
          */
@@ -264,6 +500,8 @@ public class XmlFieldParser {
         private final boolean isAttribute;
         private final int depth;
         private String referenceTarget;
+        private int occurrences = 1;
+        private List<String> samples;       // 汇总模式下的其他示例值（不含 sampleValue）
 
         public FieldInfo(String name, String path, String sampleValue, boolean isAttribute, int depth) {
             this.name = name;
@@ -273,6 +511,24 @@ public class XmlFieldParser {
             this.depth = depth;
         }
 
+        /**
+         * 汇总模式：同一路径再次出现，最多保留 maxSamples 个不同的示例值
+         */
+        void addOccurrence(String value, int maxSamples) {
+            occurrences++;
+            if (samples != null && samples.size() >= maxSamples - 1) {
+                return;
+            }
+            String sample = truncateValue(value);
+            if (sample.isEmpty() || sample.equals(sampleValue) || (samples != null && samples.contains(sample))) {
+                return;
+            }
+            if (samples == null) {
+                samples = new ArrayList<>(maxSamples - 1);
+            }
+            samples.add(sample);
+        }
+
         private static String truncateValue(String value) {
             if (value == null) return "";
             if (value.length() > 100) {
@@ -309,6 +565,25 @@ public class XmlFieldParser {
             return referenceTarget;
         }
 
+        /**
+         * 该路径在文件中出现的次数（非汇总模式恒为1）
+         */
+        public int getOccurrences() {
+            return occurrences;
+        }
+
+        /**
+         * 所有示例值（首个示例值在前）
+         */
+        public List<String> getSamples() {
+            List<String> result = new ArrayList<>();
+            result.add(sampleValue);
+            if (samples != null) {
+                result.addAll(samples);
+            }
+            return result;
+        }
+
         public boolean hasReference() {
             return referenceTarget != null;
         }
@@ -1,5 +1,6 @@
 package red.jiuzhou.analysis.aion.mechanism;
 
+import red.jiuzhou.analysis.ReachabilityIndex;
 import red.jiuzhou.analysis.aion.AionMechanismCategory;
 
 import java.util.ArrayList;
@@ -19,6 +20,11 @@ import java.util.stream.Collectors;
  *
  * <p>表示27个游戏机制之间的关系网络，支持依赖查询、影响分析等操作。
  *
+ * <p>构建完成（{@link #finalizeBuild}）后不再修改，文件变更时由服务生成新的图对象替换。
+ *
+ * <p>影响范围（哪些机制直接或间接依赖某个机制）由 {@link ReachabilityIndex} 维护，随增删边更新，
+ * {@link #getImpactCount} / {@link #getAllImpactedMechanisms} 不再需要遍历。
+ *
  * @author Claude
  * @version 1.0
  */
@@ -36,6 +42,9 @@ public class MechanismRelationshipGraph {
     // 反向索引：目标机制 -> 依赖它的机制列表
     private final Map<AionMechanismCategory, List<MechanismRelationship>> incomingIndex;
 
+    // 影响可达性：目标机制 -> 依赖它的机制（边方向与关系相反）
+    private final ReachabilityIndex<AionMechanismCategory> impactIndex = new ReachabilityIndex<>();
+
     // 统计信息
     private int totalFileCount;
     private int totalRelationshipCount;
@@ -98,6 +107,7 @@ public class MechanismRelationshipGraph {
         relationships.add(relationship);
         outgoingIndex.get(source).add(relationship);
         incomingIndex.get(target).add(relationship);
+        impactIndex.addEdge(target, source);
         totalRelationshipCount++;
 
         return relationship;
@@ -274,10 +284,16 @@ public class MechanismRelationshipGraph {
         Map<AionMechanismCategory, Integer> depthMap = new HashMap<>();
         Queue<AionMechanismCategory> queue = new LinkedList<>();
 
+        // 全部可达机制都已找到时提前结束
+        int reachable = impactIndex.countReachableFrom(category);
+        if (reachable == 0) {
+            return impacted;
+        }
+
         queue.offer(category);
         depthMap.put(category, 0);
 
-        while (!queue.isEmpty()) {
+        while (!queue.isEmpty() && impacted.size() < reachable) {
             AionMechanismCategory current = queue.poll();
             int currentDepth = depthMap.get(current);
 
@@ -306,6 +322,30 @@ public class MechanismRelationshipGraph {
         return impacted;
     }
 
+    /**
+     * 直接或间接依赖该机制的全部机制（索引查询）
+     *
+     * @param category 被删除/修改的机制
+     * @return 受影响的机制集合
+     */
+    public Set<AionMechanismCategory> getAllImpactedMechanisms(AionMechanismCategory category) {
+        return impactIndex.reachableFrom(category);
+    }
+
+    /**
+     * 直接或间接依赖该机制的机制数量（索引查询，可用于每个节点的影响徽标）
+     */
+    public int getImpactCount(AionMechanismCategory category) {
+        return impactIndex.countReachableFrom(category);
+    }
+
+    /**
+     * source 是否直接或间接依赖 target
+     */
+    public boolean dependsOn(AionMechanismCategory source, AionMechanismCategory target) {
+        return source != target && impactIndex.canReach(target, source);
+    }
+
     // ========== 统计信息 ==========
 
     public int getTotalFileCount() {
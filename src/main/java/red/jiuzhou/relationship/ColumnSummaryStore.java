@@ -0,0 +1,230 @@
+package red.jiuzhou.relationship;
+
+import cn.hutool.crypto.SecureUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import red.jiuzhou.util.BinaryStore;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static red.jiuzhou.util.BinaryStore.readString;
+import static red.jiuzhou.util.BinaryStore.readStrings;
+import static red.jiuzhou.util.BinaryStore.writeString;
+import static red.jiuzhou.util.BinaryStore.writeStrings;
+
+/**
+ * Persisted per-file column summaries used to make relationship re-analysis incremental.
+ *
+ * <p>Each XML file gets one summary file (named after the MD5 of its absolute path) holding the
+ * file's columns in traversal order with their counts, distinct values and samples. A summary is
+ * reused while the file's modification time and size are unchanged; if only the modification
+ * time moved, the content hash decides. Summaries written under a different value-collection
+ * configuration are ignored.</p>
+ */
+final class ColumnSummaryStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ColumnSummaryStore.class);
+
+    private static final int SUMMARY_MAGIC = 0x58435353;   // "XCSS"
+    private static final int SUMMARY_VERSION = 1;
+    private static final String SUFFIX = ".sum";
+
+    /**
+     * Summary of one column within one file.
+     */
+    static final class ColumnSummary {
+        final String columnPath;
+        final String columnName;
+        final boolean attribute;
+        final int totalCount;
+        final int blankCount;
+        final boolean overflow;
+        final String[] values;              // distinct values in first-seen order
+        final String[] samples;
+
+        ColumnSummary(String columnPath, String columnName, boolean attribute, int totalCount,
+                      int blankCount, boolean overflow, String[] values, String[] samples) {
+            this.columnPath = columnPath;
+            this.columnName = columnName;
+            this.attribute = attribute;
+            this.totalCount = totalCount;
+            this.blankCount = blankCount;
+            this.overflow = overflow;
+            this.values = values;
+            this.samples = samples;
+        }
+    }
+
+    /**
+     * Modification time, size and content hash of a source file, taken before it is parsed so that an
+     * edit during the parse leaves a stale stamp (and the summary is rebuilt next time).
+     */
+    static final class Stamp {
+        final long lastModified;
+        final long fileSize;
+        final String contentHash;
+
+        Stamp(long lastModified, long fileSize, String contentHash) {
+            this.lastModified = lastModified;
+            this.fileSize = fileSize;
+            this.contentHash = contentHash;
+        }
+    }
+
+    private final Path directory;
+    private final String configFingerprint;
+
+    ColumnSummaryStore(Path directory, String configFingerprint) {
+        this.directory = directory;
+        this.configFingerprint = configFingerprint;
+    }
+
+    /**
+     * Load the summary of {@code file}, or {@code null} if it is missing or stale.
+     */
+    List<ColumnSummary> load(Path file) {
+        Path path = summaryFile(file);
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try {
+            long lastModified = Files.getLastModifiedTime(file).toMillis();
+            long fileSize = Files.size(file);
+            boolean touched;
+            String storedHash;
+            List<ColumnSummary> columns;
+            try (DataInputStream in = BinaryStore.openInput(path)) {
+                if (!BinaryStore.readHeader(in, SUMMARY_MAGIC, SUMMARY_VERSION)) {
+                    return null;
+                }
+                if (!key(file).equals(readString(in)) || !configFingerprint.equals(readString(in))) {
+                    return null;
+                }
+                long storedModified = in.readLong();
+                long storedSize = in.readLong();
+                storedHash = readString(in);
+                if (storedSize != fileSize) {
+                    return null;
+                }
+                touched = storedModified != lastModified;
+                if (touched && !storedHash.equals(SecureUtil.md5(file.toFile()))) {
+                    return null;
+                }
+                columns = readColumns(in);
+            }
+            if (touched) {
+                // same content under a new modification time: refresh the stamp so the hash is not recomputed next time
+                save(file, new Stamp(lastModified, fileSize, storedHash), columns);
+            }
+            return columns;
+        } catch (IOException e) {
+            log.debug("Failed to read column summary, file will be reparsed: {}", file);
+            return null;
+        }
+    }
+
+    /**
+     * Stamp {@code file} as it is now, or {@code null} if it cannot be read (the summary is then not saved).
+     */
+    static Stamp stamp(Path file) {
+        try {
+            long lastModified = Files.getLastModifiedTime(file).toMillis();
+            long fileSize = Files.size(file);
+            return new Stamp(lastModified, fileSize, SecureUtil.md5(file.toFile()));
+        } catch (IOException | RuntimeException e) {
+            log.debug("Failed to stamp {}, its summary will not be saved: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Persist the summary of {@code file} under the stamp taken before it was parsed.
+     */
+    void save(Path file, Stamp stamp, List<ColumnSummary> columns) {
+        try {
+            BinaryStore.write(summaryFile(file), SUMMARY_MAGIC, SUMMARY_VERSION, out -> {
+                writeString(out, key(file));
+                writeString(out, configFingerprint);
+                out.writeLong(stamp.lastModified);
+                out.writeLong(stamp.fileSize);
+                writeString(out, stamp.contentHash);
+                out.writeInt(columns.size());
+                for (ColumnSummary column : columns) {
+                    writeString(out, column.columnPath);
+                    writeString(out, column.columnName);
+                    out.writeBoolean(column.attribute);
+                    out.writeInt(column.totalCount);
+                    out.writeInt(column.blankCount);
+                    out.writeBoolean(column.overflow);
+                    writeStrings(out, column.values);
+                    writeStrings(out, column.samples);
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Failed to write column summary for {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Delete the summaries of files that are no longer part of the analysed tree.
+     */
+    void retain(Collection<Path> files) {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        Set<Path> live = new HashSet<>();
+        for (Path file : files) {
+            live.add(summaryFile(file).getFileName());
+        }
+        int removed = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path path : stream) {
+                if (!live.contains(path.getFileName())) {
+                    Files.deleteIfExists(path);
+                    removed++;
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to prune column summaries in {}: {}", directory, e.getMessage());
+        }
+        if (removed > 0) {
+            log.info("Removed {} column summaries of deleted files", removed);
+        }
+    }
+
+    private Path summaryFile(Path file) {
+        return directory.resolve(SecureUtil.md5(key(file)) + SUFFIX);
+    }
+
+    private static String key(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+    private static List<ColumnSummary> readColumns(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<ColumnSummary> columns = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String columnPath = readString(in);
+            String columnName = readString(in);
+            boolean attribute = in.readBoolean();
+            int totalCount = in.readInt();
+            int blankCount = in.readInt();
+            boolean overflow = in.readBoolean();
+            String[] values = readStrings(in);
+            String[] samples = readStrings(in);
+            columns.add(new ColumnSummary(columnPath, columnName, attribute, totalCount,
+                blankCount, overflow, values, samples));
+        }
+        return columns;
+    }
+}
@@ -15,14 +15,17 @@ import org.springframework.util.StringUtils;
 import org.xml.sax.EntityResolver;
 import org.xml.sax.InputSource;
 
+import red.jiuzhou.relationship.ColumnSummaryStore.ColumnSummary;
 import red.jiuzhou.util.DatabaseUtil;
 import red.jiuzhou.util.YamlUtils;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.StringReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -38,9 +41,16 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Analyse XML datasets to detect value-based relationships between columns across files.
@@ -53,6 +63,8 @@ public final class XmlRelationshipAnalyzer {
 
     private static final Logger log = LoggerFactory.getLogger(XmlRelationshipAnalyzer.class);
 
+    private static final String SUMMARY_DIR = "cache/relationship_summaries";
+
     private XmlRelationshipAnalyzer() {
     }
 
@@ -72,7 +84,8 @@ public final class XmlRelationshipAnalyzer {
 
         List<Path> baseDirs = parseConfiguredPaths(configuredPaths);
         AnalyzerConfig config = AnalyzerConfig.defaultConfig();
-        RelationshipReport report = analyze(baseDirs, config, null);
+        AnalysisOptions options = AnalysisOptions.create().withSummaryDirectory(summaryDirectory(dbName));
+        RelationshipReport report = analyze(baseDirs, config, options);
         persistReport(report);
         return report;
     }
@@ -90,11 +103,23 @@ public final class XmlRelationshipAnalyzer {
         }
 
         List<Path> baseDirs = parseConfiguredPaths(configuredPaths);
-        RelationshipReport report = analyze(baseDirs, config, options);
+        AnalysisOptions effective = options != null ? options : AnalysisOptions.create();
+        if (effective.getSummaryDirectory() == null) {
+            effective.withSummaryDirectory(summaryDirectory(dbName));
+        }
+        RelationshipReport report = analyze(baseDirs, config, effective);
         persistReport(report);
         return report;
     }
 
+    /**
+     * Per-database directory of persisted column summaries, so a re-analysis only reparses
+     * changed files.
+     */
+    private static Path summaryDirectory(String dbName) {
+        return Paths.get(SUMMARY_DIR, StringUtils.hasLength(dbName) ? dbName : "default");
+    }
+
     /**
      * Analyse XML files inside {@code baseDirs} with the provided configuration.
      */
@@ -110,17 +135,51 @@ public final class XmlRelationshipAnalyzer {
             return RelationshipReport.empty(Collections.emptyList(), config);
         }
 
-        Map<ColumnKey, ColumnCollector> collectors = collectColumns(baseDirs, config, options);
+        DetectionMode mode = options != null ? options.getDetectionMode() : DetectionMode.EXACT;
+        // the quick scan keeps only sketches, no exact value sets
+        ValueDictionary dictionary = mode == DetectionMode.QUICK ? null : new ValueDictionary();
+        List<SourceFile> files = listXmlFiles(baseDirs, options);
+        Map<String, String> fileStamps = fileStamps(files);
+        Map<ColumnKey, ColumnCollector> collectors = collectColumns(files, config, options, dictionary, mode);
+        if (dictionary != null) {
+            dictionary.freeze();
+        }
         List<ColumnCollector> allColumns = new ArrayList<>(collectors.values());
+        for (ColumnCollector column : allColumns) {
+            column.freeze(config);
+        }
 
         List<ColumnCollector> keyColumns = allColumns.stream()
             .filter(column -> column.isLikelyKey(config))
             .collect(Collectors.toList());
 
-        Map<String, List<ColumnCollector>> valueIndex = buildValueIndex(keyColumns, config, options);
-        List<Relationship> relationships = detectRelationships(allColumns, keyColumns, valueIndex, config, options);
+        List<Relationship> relationships;
+        if (mode == DetectionMode.EXACT) {
+            ValueIndex valueIndex = buildValueIndex(keyColumns, dictionary, options);
+            RelationshipBaseline baseline = usableBaseline(options, baseDirs, config);
+            relationships = baseline != null
+                ? detectChangedRelationships(allColumns, valueIndex, baseline, changedFiles(baseline, fileStamps),
+                    dictionary, config, options)
+                : detectRelationships(allColumns, valueIndex, dictionary, config, options);
+        } else {
+            relationships = detectSketchRelationships(allColumns, keyColumns, dictionary, config, options);
+        }
+
+        return new RelationshipReport(baseDirs, config, mode, allColumns, keyColumns, relationships, fileStamps);
+    }
 
-        return new RelationshipReport(baseDirs, config, allColumns, keyColumns, relationships);
+    /**
+     * The baseline can only be reused when the previous report came from the same directories and settings.
+     */
+    private static RelationshipBaseline usableBaseline(AnalysisOptions options, List<Path> baseDirs, AnalyzerConfig config) {
+        RelationshipBaseline baseline = options != null ? options.getBaseline() : null;
+        if (baseline == null) {
+            return null;
+        }
+        if (!baseline.baseDirectories.equals(baseDirs) || !baseline.config.equals(config.toMap())) {
+            return null;
+        }
+        return baseline;
     }
 
     /**
@@ -143,30 +202,240 @@ public final class XmlRelationshipAnalyzer {
         return paths;
     }
 
-    private static Map<ColumnKey, ColumnCollector> collectColumns(List<Path> baseDirs,
+    /**
+     * Collect column statistics for every XML file under {@code baseDirs}.
+     *
+     * <p>Files are parsed in parallel on a fork-join pool: each leaf task parses a contiguous
+     * slice of the file list into its own collector map, and sibling results are merged
+     * left-to-right, so the resulting column order is identical to a sequential walk.</p>
+     *
+     * <p>With a summary directory configured, unchanged files are replayed from their persisted
+     * column summaries instead of being parsed, and summaries of deleted files are dropped.</p>
+     */
+    private static Map<ColumnKey, ColumnCollector> collectColumns(List<SourceFile> files,
                                                                   AnalyzerConfig config,
-                                                                  AnalysisOptions options) {
-        Map<ColumnKey, ColumnCollector> collectors = new LinkedHashMap<>();
-        SAXReader reader = buildSafeSaxReader();
+                                                                  AnalysisOptions options,
+                                                                  ValueDictionary dictionary,
+                                                                  DetectionMode mode) {
+        if (files.isEmpty()) {
+            return new LinkedHashMap<>();
+        }
+
+        Path summaryDirectory = options != null ? options.getSummaryDirectory() : null;
+        ColumnSummaryStore store = summaryDirectory != null
+            ? new ColumnSummaryStore(summaryDirectory, config.summaryFingerprint())
+            : null;
 
+        Map<ColumnKey, ColumnCollector> collectors;
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors()),
+            COLLECTOR_THREAD_FACTORY, null, false);
+        try {
+            collectors = pool.invoke(new CollectTask(files, 0, files.size(), config, options, dictionary, mode, store));
+        } finally {
+            pool.shutdownNow();
+        }
+        if (store != null) {
+            store.retain(files.stream().map(source -> source.file).collect(Collectors.toList()));
+        }
+        return collectors;
+    }
+
+    private static List<SourceFile> listXmlFiles(List<Path> baseDirs, AnalysisOptions options) {
+        List<SourceFile> files = new ArrayList<>();
         for (Path baseDir : baseDirs) {
             checkCancellation(options);
-            try {
-                Files.walk(baseDir)
-                    .filter(path -> Files.isRegularFile(path) && path.toString().toLowerCase(Locale.ROOT).endsWith(".xml"))
-                    .forEach(path -> {
-                        checkCancellation(options);
-                        notifyProgress(options, path);
-                        parseFile(reader, baseDir, path, collectors, config, options);
-                    });
-            } catch (AnalysisCancelledException cancel) {
-                throw cancel;
+            try (Stream<Path> paths = Files.walk(baseDir)) {
+                paths.filter(path -> Files.isRegularFile(path) && path.toString().toLowerCase(Locale.ROOT).endsWith(".xml"))
+                    .forEach(path -> files.add(new SourceFile(baseDir, path, stampOf(path))));
             } catch (Exception e) {
                 log.warn("Failed to walk directory {}", baseDir, e);
             }
         }
+        return files;
+    }
 
-        return collectors;
+    private static final ForkJoinPool.ForkJoinWorkerThreadFactory COLLECTOR_THREAD_FACTORY = pool -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("relationship-collector-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    };
+
+    /**
+     * Size and modification time at listing time; an unreadable file gets a stamp that never matches,
+     * so it always counts as changed.
+     */
+    private static String stampOf(Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return attributes.size() + ":" + attributes.lastModifiedTime().toMillis();
+        } catch (IOException e) {
+            return "unreadable:" + System.nanoTime();
+        }
+    }
+
+    /**
+     * File key to content stamp; a relative path present under several base directories joins their stamps.
+     */
+    private static Map<String, String> fileStamps(List<SourceFile> files) {
+        Map<String, String> stamps = new LinkedHashMap<>();
+        for (SourceFile source : files) {
+            stamps.merge(buildFileKey(source.baseDir, source.file), source.stamp, (a, b) -> a + ";" + b);
+        }
+        return stamps;
+    }
+
+    /**
+     * Files added, deleted or modified since the baseline was taken, judged by the stamps recorded
+     * when each analysis listed its files (independent of which run refreshed the persisted summaries).
+     */
+    private static Set<String> changedFiles(RelationshipBaseline baseline, Map<String, String> fileStamps) {
+        Set<String> changed = new HashSet<>();
+        for (Map.Entry<String, String> entry : fileStamps.entrySet()) {
+            if (!entry.getValue().equals(baseline.fileStamps.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+        for (String fileKey : baseline.fileStamps.keySet()) {
+            if (!fileStamps.containsKey(fileKey)) {
+                changed.add(fileKey);
+            }
+        }
+        return changed;
+    }
+
+    private static final class SourceFile {
+        private final Path baseDir;
+        private final Path file;
+        private final String stamp;
+
+        SourceFile(Path baseDir, Path file, String stamp) {
+            this.baseDir = baseDir;
+            this.file = file;
+            this.stamp = stamp;
+        }
+    }
+
+    /**
+     * Parses {@code files[from, to)} into a private collector map.
+     */
+    private static final class CollectTask extends RecursiveTask<Map<ColumnKey, ColumnCollector>> {
+        private static final int FILES_PER_LEAF = 4;
+
+        private final List<SourceFile> files;
+        private final int from;
+        private final int to;
+        private final AnalyzerConfig config;
+        private final AnalysisOptions options;
+        private final ValueDictionary dictionary;
+        private final DetectionMode mode;
+        private final ColumnSummaryStore store;
+
+        CollectTask(List<SourceFile> files, int from, int to, AnalyzerConfig config,
+                    AnalysisOptions options, ValueDictionary dictionary, DetectionMode mode,
+                    ColumnSummaryStore store) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+            this.config = config;
+            this.options = options;
+            this.dictionary = dictionary;
+            this.mode = mode;
+            this.store = store;
+        }
+
+        @Override
+        protected Map<ColumnKey, ColumnCollector> compute() {
+            checkCancellation(options);
+            if (to - from <= FILES_PER_LEAF) {
+                Map<ColumnKey, ColumnCollector> collectors = new LinkedHashMap<>();
+                SAXReader reader = buildSafeSaxReader();
+                for (int i = from; i < to; i++) {
+                    SourceFile source = files.get(i);
+                    checkCancellation(options);
+                    notifyProgress(options, source.file);
+                    if (store == null) {
+                        parseFile(reader, source.baseDir, source.file, collectors, config, options, dictionary, mode);
+                        continue;
+                    }
+                    List<ColumnSummary> summary = store.load(source.file);
+                    if (summary == null) {
+                        ColumnSummaryStore.Stamp stamp = ColumnSummaryStore.stamp(source.file);
+                        summary = summarizeFile(reader, source, config, options);
+                        if (summary == null) {
+                            // parse failed (locked or half-written file): persist nothing, retry next run
+                            continue;
+                        }
+                        if (stamp != null) {
+                            store.save(source.file, stamp, summary);
+                        }
+                    }
+                    replaySummary(summary, source, collectors, dictionary, mode, config);
+                }
+                return collectors;
+            }
+
+            int mid = (from + to) >>> 1;
+            CollectTask left = new CollectTask(files, from, mid, config, options, dictionary, mode, store);
+            CollectTask right = new CollectTask(files, mid, to, config, options, dictionary, mode, store);
+            right.fork();
+            Map<ColumnKey, ColumnCollector> merged = left.compute();
+            Map<ColumnKey, ColumnCollector> rightResult = right.join();
+            for (Map.Entry<ColumnKey, ColumnCollector> entry : rightResult.entrySet()) {
+                ColumnCollector existing = merged.get(entry.getKey());
+                if (existing == null) {
+                    merged.put(entry.getKey(), entry.getValue());
+                } else {
+                    // same relative file under two base directories
+                    existing.mergeFrom(entry.getValue(), config);
+                }
+            }
+            return merged;
+        }
+    }
+
+    /**
+     * Parse one file into its column summaries (exact values, independent of the detection mode),
+     * or {@code null} if the file could not be parsed.
+     */
+    private static List<ColumnSummary> summarizeFile(SAXReader reader,
+                                                     SourceFile source,
+                                                     AnalyzerConfig config,
+                                                     AnalysisOptions options) {
+        Map<ColumnKey, ColumnCollector> fileColumns = new LinkedHashMap<>();
+        ValueDictionary fileDictionary = new ValueDictionary();
+        if (!parseFile(reader, source.baseDir, source.file, fileColumns, config, options, fileDictionary, DetectionMode.EXACT)) {
+            return null;
+        }
+        fileDictionary.freeze();
+        List<ColumnSummary> summary = new ArrayList<>(fileColumns.size());
+        for (ColumnCollector column : fileColumns.values()) {
+            summary.add(column.toSummary());
+        }
+        return summary;
+    }
+
+    /**
+     * Add a file's persisted columns to the collector map as if the file had just been parsed.
+     */
+    private static void replaySummary(List<ColumnSummary> summary,
+                                      SourceFile source,
+                                      Map<ColumnKey, ColumnCollector> collectors,
+                                      ValueDictionary dictionary,
+                                      DetectionMode mode,
+                                      AnalyzerConfig config) {
+        String fileKey = buildFileKey(source.baseDir, source.file);
+        ColumnTraversalContext context = new ColumnTraversalContext(fileKey, source.file, dictionary, mode != DetectionMode.EXACT);
+        for (ColumnSummary column : summary) {
+            ColumnKey key = new ColumnKey(fileKey, column.columnPath);
+            ColumnCollector restored = ColumnCollector.fromSummary(key, context, column);
+            ColumnCollector existing = collectors.get(key);
+            if (existing == null) {
+                collectors.put(key, restored);
+            } else {
+                existing.mergeFrom(restored, config);
+            }
+        }
     }
 
     private static SAXReader buildSafeSaxReader() {
@@ -180,24 +449,31 @@ public final class XmlRelationshipAnalyzer {
         return (publicId, systemId) -> new InputSource(new StringReader(""));
     }
 
-    private static void parseFile(SAXReader reader,
+    /**
+     * @return {@code false} if the file could not be read or parsed
+     */
+    private static boolean parseFile(SAXReader reader,
                                   Path baseDir,
                                   Path file,
                                   Map<ColumnKey, ColumnCollector> collectors,
                                   AnalyzerConfig config,
-                                  AnalysisOptions options) {
+                                  AnalysisOptions options,
+                                  ValueDictionary dictionary,
+                                  DetectionMode mode) {
         checkCancellation(options);
         try {
             Document document = reader.read(file.toFile());
             Element root = document.getRootElement();
             if (root == null) {
-                return;
+                return true;
             }
             String fileKey = buildFileKey(baseDir, file);
-            ColumnTraversalContext context = new ColumnTraversalContext(fileKey, file);
+            ColumnTraversalContext context = new ColumnTraversalContext(fileKey, file, dictionary, mode != DetectionMode.EXACT);
             traverseElement(root, root.getName(), context, collectors, config, options);
+            return true;
         } catch (DocumentException e) {
             log.warn("Failed to parse XML file: {}", file, e);
+            return false;
         }
     }
 
@@ -252,21 +528,43 @@ public final class XmlRelationshipAnalyzer {
         }
     }
 
-    private static Map<String, List<ColumnCollector>> buildValueIndex(List<ColumnCollector> keyColumns,
-                                                                     AnalyzerConfig config,
-                                                                     AnalysisOptions options) {
-        Map<String, List<ColumnCollector>> valueIndex = new HashMap<>();
+    /**
+     * Build an inverted index from value ID to the key columns containing it (CSR layout:
+     * the columns holding value {@code id} are {@code columns[offsets[id] .. offsets[id + 1])}).
+     */
+    private static ValueIndex buildValueIndex(List<ColumnCollector> keyColumns,
+                                              ValueDictionary dictionary,
+                                              AnalysisOptions options) {
+        int valueCount = dictionary.size();
+        int[] offsets = new int[valueCount + 1];
         for (ColumnCollector column : keyColumns) {
             checkCancellation(options);
             if (column.isOverflow()) {
                 continue;
             }
-            for (String value : column.getValues()) {
-                checkCancellation(options);
-                valueIndex.computeIfAbsent(value, k -> new ArrayList<>()).add(column);
+            IntValueSet values = column.getValues();
+            for (int i = 0; i < values.size(); i++) {
+                offsets[values.get(i) + 1]++;
+            }
+        }
+        for (int id = 0; id < valueCount; id++) {
+            offsets[id + 1] += offsets[id];
+        }
+
+        int[] columns = new int[offsets[valueCount]];
+        int[] cursor = Arrays.copyOf(offsets, valueCount);
+        for (int columnIndex = 0; columnIndex < keyColumns.size(); columnIndex++) {
+            ColumnCollector column = keyColumns.get(columnIndex);
+            checkCancellation(options);
+            if (column.isOverflow()) {
+                continue;
+            }
+            IntValueSet values = column.getValues();
+            for (int i = 0; i < values.size(); i++) {
+                columns[cursor[values.get(i)]++] = columnIndex;
             }
         }
-        return valueIndex;
+        return new ValueIndex(keyColumns, offsets, columns);
     }
 
     private static void notifyProgress(AnalysisOptions options, Path file) {
@@ -293,62 +591,257 @@ public final class XmlRelationshipAnalyzer {
     }
 
     private static List<Relationship> detectRelationships(List<ColumnCollector> allColumns,
-                                                           List<ColumnCollector> keyColumns,
-                                                           Map<String, List<ColumnCollector>> valueIndex,
+                                                           ValueIndex valueIndex,
+                                                           ValueDictionary dictionary,
                                                            AnalyzerConfig config,
                                                            AnalysisOptions options) {
         List<Relationship> relationships = new ArrayList<>();
+        MatchStats[] statsByColumn = new MatchStats[valueIndex.keyColumns.size()];
 
         for (ColumnCollector source : allColumns) {
             checkCancellation(options);
-            if (source.isOverflow() || source.uniqueValueCount() < config.minSourceUniqueValues) {
+            if (!isCandidateSource(source, config)) {
                 continue;
             }
+            List<Relationship> sourceRels = matchSource(source, valueIndex, statsByColumn, dictionary, config, options);
+            addTopRelationships(relationships, sourceRels, config);
+        }
+
+        relationships.sort(Comparator.comparing(Relationship::getConfidence).reversed());
+        return relationships;
+    }
+
+    /**
+     * Incremental variant of {@link #detectRelationships}: pairs of unchanged files keep their
+     * relationships from the baseline, only pairs involving a changed (added, modified or deleted) file are matched.
+     *
+     * <p>A source in an unchanged file whose previous top relationships all point to unchanged files
+     * gets the top-N of those relationships plus its matches against the changed key columns; anything
+     * below the previous cut was already outranked and cannot come back. Sources in changed files, and
+     * sources whose previous top included a changed target, are matched against every key column.</p>
+     */
+    private static List<Relationship> detectChangedRelationships(List<ColumnCollector> allColumns,
+                                                                 ValueIndex valueIndex,
+                                                                 RelationshipBaseline baseline,
+                                                                 Set<String> changedFiles,
+                                                                 ValueDictionary dictionary,
+                                                                 AnalyzerConfig config,
+                                                                 AnalysisOptions options) {
+
+        Map<ColumnKey, List<Relationship>> previousBySource = new HashMap<>();
+        for (Relationship relationship : baseline.relationships) {
+            previousBySource.computeIfAbsent(
+                new ColumnKey(relationship.getSourceFileKey(), relationship.getSourceColumnPath()),
+                key -> new ArrayList<>()).add(relationship);
+        }
+
+        List<ColumnCollector> changedKeyColumns = valueIndex.keyColumns.stream()
+            .filter(column -> changedFiles.contains(column.getFileKey()))
+            .collect(Collectors.toList());
+        ValueIndex changedIndex = buildValueIndex(changedKeyColumns, dictionary, options);
+        MatchStats[] statsByColumn = new MatchStats[valueIndex.keyColumns.size()];
+        MatchStats[] changedStatsByColumn = new MatchStats[changedKeyColumns.size()];
+
+        List<Relationship> relationships = new ArrayList<>();
+        int rematched = 0;
+        for (ColumnCollector source : allColumns) {
+            checkCancellation(options);
+            if (!isCandidateSource(source, config)) {
+                continue;
+            }
+            List<Relationship> previous = previousBySource.getOrDefault(
+                new ColumnKey(source.getFileKey(), source.getColumnPath()), Collections.emptyList());
+            List<Relationship> sourceRels;
+            if (changedFiles.contains(source.getFileKey()) || targetsAny(previous, changedFiles)) {
+                sourceRels = matchSource(source, valueIndex, statsByColumn, dictionary, config, options);
+                rematched++;
+            } else {
+                sourceRels = new ArrayList<>(previous);
+                if (!changedKeyColumns.isEmpty()) {
+                    sourceRels.addAll(matchSource(source, changedIndex, changedStatsByColumn, dictionary, config, options));
+                }
+            }
+            addTopRelationships(relationships, sourceRels, config);
+        }
+
+        relationships.sort(Comparator.comparing(Relationship::getConfidence).reversed());
+        log.info("Incremental relationship detection: {} changed files, {} changed key columns, {} sources rematched",
+            changedFiles.size(), changedKeyColumns.size(), rematched);
+        return relationships;
+    }
+
+    private static boolean isCandidateSource(ColumnCollector source, AnalyzerConfig config) {
+        return !source.isOverflow() && source.uniqueValueCount() >= config.minSourceUniqueValues;
+    }
+
+    private static boolean targetsAny(List<Relationship> relationships, Set<String> fileKeys) {
+        for (Relationship relationship : relationships) {
+            if (fileKeys.contains(relationship.getTargetFileKey())) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-            Map<ColumnCollector, MatchStats> matchMap = new HashMap<>();
-            for (String value : source.getValues()) {
+    /**
+     * All relationships of {@code source} to the key columns of {@code valueIndex}, before the per-source cut.
+     * {@code statsByColumn} is scratch space sized to the index and is left cleared.
+     */
+    private static List<Relationship> matchSource(ColumnCollector source,
+                                                  ValueIndex valueIndex,
+                                                  MatchStats[] statsByColumn,
+                                                  ValueDictionary dictionary,
+                                                  AnalyzerConfig config,
+                                                  AnalysisOptions options) {
+        List<ColumnCollector> keyColumns = valueIndex.keyColumns;
+
+        // candidate key columns in first-match order
+        List<Integer> matched = new ArrayList<>();
+        IntValueSet values = source.getValues();
+        for (int i = 0; i < values.size(); i++) {
+            if ((i & 0xFFF) == 0) {
                 checkCancellation(options);
-                List<ColumnCollector> candidates = valueIndex.get(value);
-                if (candidates == null) {
+            }
+            int id = values.get(i);
+            for (int p = valueIndex.offsets[id]; p < valueIndex.offsets[id + 1]; p++) {
+                int columnIndex = valueIndex.columns[p];
+                if (source == keyColumns.get(columnIndex)) {
                     continue;
                 }
-                for (ColumnCollector candidate : candidates) {
-                    if (source == candidate) {
-                        continue;
-                    }
-                    matchMap.computeIfAbsent(candidate, key -> new MatchStats(config.sampleSize))
-                        .record(value);
+                MatchStats stats = statsByColumn[columnIndex];
+                if (stats == null) {
+                    stats = new MatchStats(config.sampleSize);
+                    statsByColumn[columnIndex] = stats;
+                    matched.add(columnIndex);
                 }
+                stats.record(id);
             }
+        }
 
-            if (matchMap.isEmpty()) {
+        List<Relationship> sourceRels = new ArrayList<>();
+        for (int columnIndex : matched) {
+            MatchStats stats = statsByColumn[columnIndex];
+            statsByColumn[columnIndex] = null;
+            buildRelationship(source, keyColumns.get(columnIndex), stats.getMatchCount(),
+                () -> stats.getSamples(dictionary), config, options).ifPresent(sourceRels::add);
+        }
+        return sourceRels;
+    }
+
+    /**
+     * Sketch-based detection ({@link DetectionMode#QUICK} / {@link DetectionMode#QUICK_VERIFIED}).
+     *
+     * <p>All columns share one value hash, so the bottom-k sketches are coordinated samples:
+     * below {@code tau = min(threshold(A), threshold(B))} both sketches hold every hash of their
+     * column, and {@code |S(A) ∩ S(B)| / |S(A) below tau|} estimates the containment of A in B
+     * regardless of how different the two column sizes are. Candidate pairs are the key columns
+     * sharing at least one sketch hash with the source (an inverted index over sketch hashes).
+     * The quick scan reports the estimates directly; the verified mode counts exact matches,
+     * but only for the candidates.
+     */
+    private static List<Relationship> detectSketchRelationships(List<ColumnCollector> allColumns,
+                                                                 List<ColumnCollector> keyColumns,
+                                                                 ValueDictionary dictionary,
+                                                                 AnalyzerConfig config,
+                                                                 AnalysisOptions options) {
+        Map<Long, List<Integer>> sketchIndex = new HashMap<>();
+        for (int columnIndex = 0; columnIndex < keyColumns.size(); columnIndex++) {
+            ColumnCollector column = keyColumns.get(columnIndex);
+            if (column.isOverflow()) {
                 continue;
             }
+            ValueSketch sketch = column.getSketch();
+            for (int i = 0; i < sketch.size(); i++) {
+                sketchIndex.computeIfAbsent(sketch.hashAt(i), key -> new ArrayList<>(2)).add(columnIndex);
+            }
+        }
 
-            List<Relationship> sourceRels = matchMap.entrySet().stream()
-                .map(entry -> buildRelationship(source, entry.getKey(), entry.getValue(), config, options))
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .sorted(Comparator.comparing(Relationship::getConfidence).reversed())
-                .collect(Collectors.toList());
+        List<Relationship> relationships = new ArrayList<>();
+        int[] sharedByColumn = new int[keyColumns.size()];
 
-            if (config.maxRelationshipsPerSource > 0 && sourceRels.size() > config.maxRelationshipsPerSource) {
-                relationships.addAll(sourceRels.subList(0, config.maxRelationshipsPerSource));
-            } else {
-                relationships.addAll(sourceRels);
+        for (ColumnCollector source : allColumns) {
+            checkCancellation(options);
+            if (source.isOverflow() || source.uniqueValueCount() < config.minSourceUniqueValues) {
+                continue;
+            }
+
+            // candidate key columns in order of the first shared (smallest) hash
+            List<Integer> candidates = new ArrayList<>();
+            ValueSketch sourceSketch = source.getSketch();
+            for (int i = 0; i < sourceSketch.size(); i++) {
+                List<Integer> columns = sketchIndex.get(sourceSketch.hashAt(i));
+                if (columns == null) {
+                    continue;
+                }
+                for (int columnIndex : columns) {
+                    if (sharedByColumn[columnIndex]++ == 0) {
+                        candidates.add(columnIndex);
+                    }
+                }
             }
+
+            List<Relationship> sourceRels = new ArrayList<>();
+            for (int columnIndex : candidates) {
+                int shared = sharedByColumn[columnIndex];
+                sharedByColumn[columnIndex] = 0;
+                ColumnCollector target = keyColumns.get(columnIndex);
+                if (source == target) {
+                    continue;
+                }
+                // cheap rejections before any counting: sizes that cannot reach the target
+                // coverage threshold, and incompatible column semantics
+                if (source.uniqueValueCount() < config.minTargetCoverage * target.uniqueValueCount()
+                    || !assessSemanticCompatibility(source, target, config).isPresent()) {
+                    continue;
+                }
+
+                if (dictionary == null) {
+                    ValueSketch targetSketch = target.getSketch();
+                    long tau = Math.min(sourceSketch.threshold(), targetSketch.threshold());
+                    double containment = (double) shared / Math.max(1, sourceSketch.countUpTo(tau));
+                    int matchCount = (int) Math.min(
+                        Math.round(containment * source.uniqueValueCount()),
+                        Math.min(source.uniqueValueCount(), target.uniqueValueCount()));
+                    buildRelationship(source, target, matchCount,
+                        () -> sourceSketch.sharedValues(targetSketch, config.sampleSize), config, options)
+                        .ifPresent(sourceRels::add);
+                } else {
+                    checkCancellation(options);
+                    MatchStats stats = new MatchStats(config.sampleSize);
+                    IntValueSet values = source.getValues();
+                    for (int i = 0; i < values.size(); i++) {
+                        if (target.containsValue(values.get(i))) {
+                            stats.record(values.get(i));
+                        }
+                    }
+                    buildRelationship(source, target, stats.getMatchCount(),
+                        () -> stats.getSamples(dictionary), config, options).ifPresent(sourceRels::add);
+                }
+            }
+            addTopRelationships(relationships, sourceRels, config);
         }
 
         relationships.sort(Comparator.comparing(Relationship::getConfidence).reversed());
         return relationships;
     }
 
+    private static void addTopRelationships(List<Relationship> relationships,
+                                            List<Relationship> sourceRels,
+                                            AnalyzerConfig config) {
+        sourceRels.sort(Comparator.comparing(Relationship::getConfidence).reversed());
+        if (config.maxRelationshipsPerSource > 0 && sourceRels.size() > config.maxRelationshipsPerSource) {
+            relationships.addAll(sourceRels.subList(0, config.maxRelationshipsPerSource));
+        } else {
+            relationships.addAll(sourceRels);
+        }
+    }
+
     private static Optional<Relationship> buildRelationship(ColumnCollector source,
                                                             ColumnCollector target,
-                                                            MatchStats stats,
+                                                            int matchCount,
+                                                            Supplier<List<String>> samples,
                                                             AnalyzerConfig config,
                                                             AnalysisOptions options) {
-        int matchCount = stats.getMatchCount();
         if (matchCount < config.minMatchCount) {
             return Optional.empty();
         }
@@ -380,7 +873,7 @@ public final class XmlRelationshipAnalyzer {
             targetCoverage,
             confidence,
             semanticMatch.get().getNameSimilarity(),
-            stats.getSamples()
+            samples.get()
         );
 
         return Optional.of(relationship);
@@ -503,10 +996,14 @@ public final class XmlRelationshipAnalyzer {
     private static final class ColumnTraversalContext {
         private final String fileKey;
         private final Path filePath;
+        private final ValueDictionary dictionary;
+        private final boolean sketching;
 
-        ColumnTraversalContext(String fileKey, Path filePath) {
+        ColumnTraversalContext(String fileKey, Path filePath, ValueDictionary dictionary, boolean sketching) {
             this.fileKey = fileKey;
             this.filePath = filePath;
+            this.dictionary = dictionary;
+            this.sketching = sketching;
         }
 
         String getFileName() {
@@ -525,7 +1022,10 @@ public final class XmlRelationshipAnalyzer {
         private final String fileName;
         private final String columnName;
         private final boolean attribute;
-        private final LinkedHashSet<String> values = new LinkedHashSet<>();
+        private final ValueDictionary dictionary;
+        private final IntValueSet values = new IntValueSet();
+        private final ValueSketch sketch;
+        private int[] sortedValues;
         private final LinkedHashSet<String> samples = new LinkedHashSet<>();
         private int totalCount;
         private int blankCount;
@@ -537,6 +1037,8 @@ public final class XmlRelationshipAnalyzer {
             this.fileName = context.getFileName();
             this.columnName = columnName;
             this.attribute = attribute;
+            this.dictionary = context.dictionary;
+            this.sketch = context.sketching ? new ValueSketch() : null;
             this.nameTokens = Collections.unmodifiableSet(tokenizeName(columnName));
         }
 
@@ -557,27 +1059,126 @@ public final class XmlRelationshipAnalyzer {
                 return;
             }
 
+            if (sketch != null) {
+                sketch.add(value);
+            }
+            if (dictionary == null) {
+                // sketch only: the sample set de-duplicates by itself
+                if (samples.size() < config.sampleSize) {
+                    samples.add(value);
+                }
+                return;
+            }
+
             if (overflow || values.size() >= config.maxUniqueValuesPerColumn) {
                 overflow = true;
                 return;
             }
 
-            values.add(value);
-            if (samples.size() < config.sampleSize) {
+            if (values.add(dictionary.intern(value)) && samples.size() < config.sampleSize) {
                 samples.add(value);
             }
         }
 
+        /**
+         * Append another collector's values as if they had been added after this one's.
+         */
+        void mergeFrom(ColumnCollector other, AnalyzerConfig config) {
+            totalCount += other.totalCount;
+            blankCount += other.blankCount;
+            for (int i = 0; i < other.values.size(); i++) {
+                if (overflow || values.size() >= config.maxUniqueValuesPerColumn) {
+                    overflow = true;
+                    break;
+                }
+                values.add(other.values.get(i));
+            }
+            // other's values were kept up to its own overflow point; merge them before inheriting the flag
+            if (other.overflow) {
+                overflow = true;
+            }
+            if (sketch != null) {
+                sketch.merge(other.sketch);
+            }
+            for (String sample : other.samples) {
+                if (samples.size() >= config.sampleSize) {
+                    break;
+                }
+                samples.add(sample);
+            }
+        }
+
+        static ColumnCollector fromSummary(ColumnKey key, ColumnTraversalContext context, ColumnSummary summary) {
+            ColumnCollector collector = new ColumnCollector(key, context, summary.columnName, summary.attribute);
+            collector.totalCount = summary.totalCount;
+            collector.blankCount = summary.blankCount;
+            collector.overflow = summary.overflow;
+            for (String value : summary.values) {
+                if (collector.sketch != null) {
+                    collector.sketch.add(value);
+                }
+                if (collector.dictionary != null) {
+                    collector.values.add(collector.dictionary.intern(value));
+                }
+            }
+            Collections.addAll(collector.samples, summary.samples);
+            return collector;
+        }
+
+        /**
+         * Summary of an exact collector whose dictionary has been frozen.
+         */
+        ColumnSummary toSummary() {
+            String[] distinct = new String[values.size()];
+            for (int i = 0; i < distinct.length; i++) {
+                distinct[i] = dictionary.valueOf(values.get(i));
+            }
+            return new ColumnSummary(key.columnPath, columnName, attribute, totalCount, blankCount,
+                overflow, distinct, samples.toArray(new String[0]));
+        }
+
+        /**
+         * Release the de-duplication table once collection has finished.
+         */
+        void freeze(AnalyzerConfig config) {
+            values.freeze();
+            if (sketch != null) {
+                sketch.freeze();
+                if (dictionary == null && sketch.estimateDistinct() > config.maxUniqueValuesPerColumn) {
+                    overflow = true;
+                }
+            }
+        }
+
         boolean isOverflow() {
             return overflow;
         }
 
+        /**
+         * Distinct value count; a KMV estimate when only the sketch is kept.
+         */
         int uniqueValueCount() {
-            return values.size();
+            return dictionary != null ? values.size() : (int) sketch.estimateDistinct();
+        }
+
+        IntValueSet getValues() {
+            return values;
+        }
+
+        ValueSketch getSketch() {
+            return sketch;
         }
 
-        Set<String> getValues() {
-            return Collections.unmodifiableSet(values);
+        boolean containsValue(int valueId) {
+            if (sortedValues == null) {
+                int[] sorted = new int[values.size()];
+                for (int i = 0; i < sorted.length; i++) {
+                    sorted[i] = values.get(i);
+                }
+                Arrays.sort(sorted);
+                sortedValues = sorted;
+            }
+            return Arrays.binarySearch(sortedValues, valueId) >= 0;
         }
 
         String getFileKey() {
@@ -625,11 +1226,12 @@ public final class XmlRelationshipAnalyzer {
             if (populated < config.minRowsForKey) {
                 return false;
             }
-            if (values.isEmpty()) {
+            int unique = uniqueValueCount();
+            if (unique == 0) {
                 return false;
             }
 
-            double uniqueness = (double) values.size() / populated;
+            double uniqueness = (double) unique / populated;
             String lower = columnName.toLowerCase(Locale.ROOT);
 
             // 🎯 只分析name字段的关联关系 - 为游戏设计师提供最可靠的对照
@@ -804,27 +1406,248 @@ public final class XmlRelationshipAnalyzer {
     }
 
     private static final class MatchStats {
-        private final int sampleSize;
-        private final LinkedHashSet<String> samples = new LinkedHashSet<>();
+        private final int[] samples;
         private int matchCount;
 
         MatchStats(int sampleSize) {
-            this.sampleSize = sampleSize;
+            this.samples = new int[sampleSize];
         }
 
-        void record(String value) {
-            matchCount++;
-            if (samples.size() < sampleSize) {
-                samples.add(value);
+        /**
+         * Record a matched value ID (each source value is recorded at most once per target).
+         */
+        void record(int valueId) {
+            if (matchCount < samples.length) {
+                samples[matchCount] = valueId;
             }
+            matchCount++;
         }
 
         int getMatchCount() {
             return matchCount;
         }
 
-        List<String> getSamples() {
-            return new ArrayList<>(samples);
+        List<String> getSamples(ValueDictionary dictionary) {
+            int count = Math.min(matchCount, samples.length);
+            List<String> result = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                result.add(dictionary.valueOf(samples[i]));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Global value dictionary: every distinct trimmed value is interned once to a dense int ID,
+     * so collectors, the value index and match statistics work on ints instead of duplicated strings.
+     */
+    private static final class ValueDictionary {
+        private ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+        private final AtomicInteger nextId = new AtomicInteger();
+        private String[] values;
+
+        int intern(String value) {
+            Integer id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+            return ids.computeIfAbsent(value, key -> nextId.getAndIncrement());
+        }
+
+        /**
+         * Switch to the read-only ID -> value array and drop the hash map.
+         */
+        void freeze() {
+            String[] array = new String[nextId.get()];
+            ids.forEach((value, id) -> array[id] = value);
+            values = array;
+            ids = null;
+        }
+
+        int size() {
+            return nextId.get();
+        }
+
+        String valueOf(int id) {
+            return values[id];
+        }
+    }
+
+    /**
+     * Insertion-ordered set of value IDs: an open-addressing table for de-duplication while
+     * collecting, plus a plain array in first-seen order. {@link #freeze()} drops the table.
+     */
+    private static final class IntValueSet {
+        private int[] order = new int[8];
+        private int size;
+        private int[] table = new int[16];      // stores id + 1, 0 marks an empty slot
+
+        boolean add(int id) {
+            int mask = table.length - 1;
+            int slot = mix(id) & mask;
+            while (table[slot] != 0) {
+                if (table[slot] == id + 1) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id + 1;
+            if (size == order.length) {
+                order = Arrays.copyOf(order, size * 2);
+            }
+            order[size++] = id;
+            if (size * 2 > table.length) {
+                rehash(table.length * 2);
+            }
+            return true;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int get(int index) {
+            return order[index];
+        }
+
+        void freeze() {
+            table = null;
+            if (order.length != size) {
+                order = Arrays.copyOf(order, size);
+            }
+        }
+
+        private void rehash(int capacity) {
+            int[] newTable = new int[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < size; i++) {
+                int slot = mix(order[i]) & mask;
+                while (newTable[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                newTable[slot] = order[i] + 1;
+            }
+            table = newTable;
+        }
+
+        private static int mix(int id) {
+            int h = id * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * Bottom-k MinHash sketch of a column's distinct values: the k smallest 63-bit value hashes,
+     * kept sorted together with the values (for samples). It is also a KMV distinct-count
+     * estimator, and since every column uses the same hash it is a coordinated sample for
+     * containment estimates. Merging two sketches gives the sketch of the union.
+     */
+    private static final class ValueSketch {
+        private static final int CAPACITY = 256;
+
+        private long[] hashes = new long[16];
+        private String[] values = new String[16];
+        private int size;
+
+        void add(String value) {
+            add(hash(value), value);
+        }
+
+        void merge(ValueSketch other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.hashes[i], other.values[i]);
+            }
+        }
+
+        private void add(long hash, String value) {
+            if (size == CAPACITY && hash >= hashes[size - 1]) {
+                return;
+            }
+            int pos = Arrays.binarySearch(hashes, 0, size, hash);
+            if (pos >= 0) {
+                return;
+            }
+            pos = -pos - 1;
+            if (size == CAPACITY) {
+                size--;                         // drop the largest hash
+            } else if (size == hashes.length) {
+                hashes = Arrays.copyOf(hashes, Math.min(CAPACITY, size * 2));
+                values = Arrays.copyOf(values, hashes.length);
+            }
+            System.arraycopy(hashes, pos, hashes, pos + 1, size - pos);
+            System.arraycopy(values, pos, values, pos + 1, size - pos);
+            hashes[pos] = hash;
+            values[pos] = value;
+            size++;
+        }
+
+        void freeze() {
+            hashes = Arrays.copyOf(hashes, size);
+            values = Arrays.copyOf(values, size);
+        }
+
+        int size() {
+            return size;
+        }
+
+        long hashAt(int index) {
+            return hashes[index];
+        }
+
+        /**
+         * Largest hash covered completely; every hash of the column up to it is in the sketch.
+         */
+        long threshold() {
+            return size == CAPACITY ? hashes[size - 1] : Long.MAX_VALUE;
+        }
+
+        int countUpTo(long tau) {
+            int pos = Arrays.binarySearch(hashes, 0, size, tau);
+            return pos >= 0 ? pos + 1 : -pos - 1;
+        }
+
+        long estimateDistinct() {
+            if (size < CAPACITY) {
+                return size;
+            }
+            return Math.round((CAPACITY - 1) / ((double) hashes[size - 1] / Long.MAX_VALUE));
+        }
+
+        List<String> sharedValues(ValueSketch other, int limit) {
+            List<String> shared = new ArrayList<>(limit);
+            for (int i = 0; i < size && shared.size() < limit; i++) {
+                if (Arrays.binarySearch(other.hashes, 0, other.size, hashes[i]) >= 0) {
+                    shared.add(values[i]);
+                }
+            }
+            return shared;
+        }
+
+        /**
+         * FNV-1a over the chars followed by the SplitMix64 finalizer, as a non-negative long.
+         */
+        private static long hash(String value) {
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < value.length(); i++) {
+                h ^= value.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+            h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+            h ^= h >>> 31;
+            return h >>> 1;
+        }
+    }
+
+    private static final class ValueIndex {
+        private final List<ColumnCollector> keyColumns;
+        private final int[] offsets;
+        private final int[] columns;
+
+        ValueIndex(List<ColumnCollector> keyColumns, int[] offsets, int[] columns) {
+            this.keyColumns = keyColumns;
+            this.offsets = offsets;
+            this.columns = columns;
         }
     }
 
@@ -838,6 +1661,9 @@ public final class XmlRelationshipAnalyzer {
         private AnalyzerConfig config;
         private Consumer<Path> progressCallback;
         private BooleanSupplier cancellationRequested;
+        private DetectionMode detectionMode = DetectionMode.EXACT;
+        private Path summaryDirectory;
+        private RelationshipBaseline baseline;
 
         public static AnalysisOptions create() {
             return new AnalysisOptions();
@@ -858,6 +1684,30 @@ public final class XmlRelationshipAnalyzer {
             return this;
         }
 
+        /**
+         * Persist per-file column summaries under {@code directory} and reuse them for unchanged files.
+         */
+        public AnalysisOptions withSummaryDirectory(Path directory) {
+            this.summaryDirectory = directory;
+            return this;
+        }
+
+        /**
+         * Reuse the relationships of a previous report between files that are unchanged since
+         * (see {@link RelationshipReport#toBaseline()}); only changed files are matched again.
+         * Files count as changed when their size or modification time differs from the baseline's.
+         * Ignored outside {@link DetectionMode#EXACT}, or when the directories or settings differ.
+         */
+        public AnalysisOptions withBaseline(RelationshipBaseline baseline) {
+            this.baseline = baseline;
+            return this;
+        }
+
+        public AnalysisOptions withDetectionMode(DetectionMode mode) {
+            this.detectionMode = mode != null ? mode : DetectionMode.EXACT;
+            return this;
+        }
+
         AnalyzerConfig getConfig() {
             return config;
         }
@@ -869,6 +1719,49 @@ public final class XmlRelationshipAnalyzer {
         BooleanSupplier getCancellationRequested() {
             return cancellationRequested;
         }
+
+        DetectionMode getDetectionMode() {
+            return detectionMode;
+        }
+
+        Path getSummaryDirectory() {
+            return summaryDirectory;
+        }
+
+        RelationshipBaseline getBaseline() {
+            return baseline;
+        }
+    }
+
+    /**
+     * What an incremental re-analysis needs from a previous report: its inputs, the size and modification
+     * time of every file it covered and its relationships, without the column value sets.
+     */
+    public static final class RelationshipBaseline {
+        private final List<Path> baseDirectories;
+        private final Map<String, Object> config;
+        private final Map<String, String> fileStamps;
+        private final List<Relationship> relationships;
+
+        RelationshipBaseline(List<Path> baseDirectories, Map<String, Object> config,
+                             Map<String, String> fileStamps, List<Relationship> relationships) {
+            this.baseDirectories = baseDirectories;
+            this.config = config;
+            this.fileStamps = fileStamps;
+            this.relationships = relationships;
+        }
+    }
+
+    /**
+     * How value overlap between columns is measured.
+     */
+    public enum DetectionMode {
+        /** Exact matching of every source value against all key columns (default). */
+        EXACT,
+        /** Quick scan: columns keep only bottom-k MinHash sketches; counts and coverages are estimates. */
+        QUICK,
+        /** Sketches select the candidate column pairs, exact matching then runs for those pairs only. */
+        QUICK_VERIFIED
     }
 
     public static final class Relationship {
@@ -967,26 +1860,47 @@ public final class XmlRelationshipAnalyzer {
     public static final class RelationshipReport {
         private final List<Path> baseDirectories;
         private final AnalyzerConfig config;
+        private final DetectionMode detectionMode;
         private final List<ColumnCollector> columns;
         private final List<ColumnCollector> keyColumns;
         private final List<Relationship> relationships;
+        private final Map<String, String> fileStamps;
         private final Instant generatedAt;
 
         RelationshipReport(List<Path> baseDirectories,
                            AnalyzerConfig config,
+                           DetectionMode detectionMode,
                            List<ColumnCollector> columns,
                            List<ColumnCollector> keyColumns,
-                           List<Relationship> relationships) {
+                           List<Relationship> relationships,
+                           Map<String, String> fileStamps) {
             this.baseDirectories = Collections.unmodifiableList(new ArrayList<>(baseDirectories));
             this.config = config;
+            this.detectionMode = detectionMode;
             this.columns = Collections.unmodifiableList(new ArrayList<>(columns));
             this.keyColumns = Collections.unmodifiableList(new ArrayList<>(keyColumns));
             this.relationships = Collections.unmodifiableList(new ArrayList<>(relationships));
+            this.fileStamps = Collections.unmodifiableMap(fileStamps);
             this.generatedAt = Instant.now();
         }
 
         static RelationshipReport empty(List<Path> baseDirectories, AnalyzerConfig config) {
-            return new RelationshipReport(baseDirectories, config, Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+            return new RelationshipReport(baseDirectories, config, DetectionMode.EXACT, Collections.emptyList(), Collections.emptyList(), Collections.emptyList(), Collections.emptyMap());
+        }
+
+        public DetectionMode getDetectionMode() {
+            return detectionMode;
+        }
+
+        /**
+         * Baseline for {@link AnalysisOptions#withBaseline}; {@code null} for sketch-based reports,
+         * whose relationships are not comparable with exact ones.
+         */
+        public RelationshipBaseline toBaseline() {
+            if (detectionMode != DetectionMode.EXACT) {
+                return null;
+            }
+            return new RelationshipBaseline(baseDirectories, config.toMap(), fileStamps, relationships);
         }
 
         public List<Relationship> getRelationships() {
@@ -1019,6 +1933,7 @@ public final class XmlRelationshipAnalyzer {
             root.put("generated_at", generatedAt.toString());
             root.put("base_directories", baseDirectories.stream().map(Path::toString).collect(Collectors.toList()));
             root.put("relationship_count", relationships.size());
+            root.put("detection_mode", detectionMode.name());
             root.put("config", config.toMap());
             root.put("relationships", buildRelationshipArray());
             return JSON.toJSONString(root, SerializerFeature.PrettyFormat);
@@ -1104,6 +2019,13 @@ public final class XmlRelationshipAnalyzer {
             this.enumMaxSampleLength = enumMaxSampleLength;
         }
 
+        /**
+         * The settings that shape collected column values; persisted summaries are only valid for the same values.
+         */
+        String summaryFingerprint() {
+            return maxValueLength + "/" + maxUniqueValuesPerColumn + "/" + sampleSize;
+        }
+
         static AnalyzerConfig defaultConfig() {
             return new AnalyzerConfig(
                 0.6,   // minSourceCoverage
@@ -6,9 +6,8 @@ import lombok.extern.slf4j.Slf4j;
 import org.w3c.dom.*;
 import red.jiuzhou.ai.*;
 import red.jiuzhou.search.GlobalSearchEngine;
+import red.jiuzhou.util.XmlDocumentCache;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.*;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
@@ -39,6 +38,7 @@ public class EnhancedBatchRewriter {
     private final List<RewriteHistory> historyList = new ArrayList<>();
     private final Map<String, RewriteTemplate> templates = new HashMap<>();
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private final XmlDocumentCache documentCache = XmlDocumentCache.getInstance();
 
     // 改写选项
     @Data
@@ -178,29 +178,36 @@ public class EnhancedBatchRewriter {
     private List<RewriteResult> rewriteFile(String filePath, RewriteOptions options) throws Exception {
         List<RewriteResult> results = new ArrayList<>();
 
-        // 加载文档
-        Document doc = loadDocument(filePath);
-
         // 获取目标字段
         List<String> targetFields = options.getTargetFields();
         if (targetFields == null || targetFields.isEmpty()) {
             return results;
         }
 
-        // 对每个字段进行改写
-        for (String field : targetFields) {
-            List<Element> elements = findElementsByField(doc, field);
+        // 加载文档（私有副本，改写不影响其他工具的共享快照）
+        XmlDocumentCache.Checkout checkout = documentCache.checkout(Paths.get(filePath), false);
+        Document doc = checkout.getDocument();
+        boolean modified = false;
 
-            for (Element element : elements) {
-                RewriteResult result = rewriteElement(element, field, options);
-                result.setFile(filePath);
-                results.add(result);
+        try {
+            // 对每个字段进行改写
+            for (String field : targetFields) {
+                List<Element> elements = findElementsByField(doc, field);
+
+                for (Element element : elements) {
+                    RewriteResult result = rewriteElement(element, field, options);
+                    result.setFile(filePath);
+                    results.add(result);
+                }
             }
-        }
+            modified = results.stream().anyMatch(RewriteResult::isSuccess);
 
-        // 保存文档（如果不是预览模式）
-        if (!options.isPreview() && results.stream().anyMatch(RewriteResult::isSuccess)) {
-            saveDocument(doc, filePath);
+            // 保存文档（如果不是预览模式）
+            if (!options.isPreview() && modified) {
+                saveDocument(doc, filePath);
+            }
+        } finally {
+            documentCache.release(checkout, modified);
         }
 
         return results;
@@ -588,25 +595,6 @@ public class EnhancedBatchRewriter {
         }
     }
 
-    /**
-     * 加载XML文档
-     */
-    private Document loadDocument(String filePath) throws Exception {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-
-        // 处理UTF-16编码
-        try (InputStream is = Files.newInputStream(Paths.get(filePath))) {
-            byte[] bytes = readAllBytesCompat(is);
-            String content = new String(bytes, StandardCharsets.UTF_16);
-            if (!content.startsWith("<?xml")) {
-                content = new String(bytes, StandardCharsets.UTF_8);
-            }
-            return builder.parse(new ByteArrayInputStream(
-                content.getBytes(StandardCharsets.UTF_8)));
-        }
-    }
-
     /**
      * 保存XML文档
      */
@@ -660,19 +648,6 @@ public class EnhancedBatchRewriter {
         return str.substring(0, 1).toUpperCase() + str.substring(1).toLowerCase();
     }
 
-    /**
-     * Java 8兼容的readAllBytes方法
-     */
-    private byte[] readAllBytesCompat(InputStream is) throws IOException {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        int nRead;
-        byte[] data = new byte[8192];
-        while ((nRead = is.read(data, 0, data.length)) != -1) {
-            buffer.write(data, 0, nRead);
-        }
-        return buffer.toByteArray();
-    }
-
     /**
      * 关闭改写器
      */
@@ -3,18 +3,19 @@ package red.jiuzhou.search;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import red.jiuzhou.safety.DataSafetyManager;
+import red.jiuzhou.util.XmlDocumentCache;
 import org.w3c.dom.*;
-import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.*;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.xpath.*;
 import java.io.*;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 import java.util.stream.Collectors;
@@ -29,13 +30,23 @@ import java.util.stream.Collectors;
  * - 支持条件替换（如等级范围、属性条件）
  * - 自动检测关联配置
  * - 多线程并行搜索
+ * - 倒排索引（TEXT / ID / ATTRIBUTE / REGEX 模式直接查索引，见 {@link XmlSearchIndex}）
+ * - 三元组预过滤（子串和正则查询只扫描候选文件，见 {@link TrigramFilter}）
+ * - 流式搜索（非 XPath 搜索不构建 DOM，见 {@link StreamingXmlSearcher}）
+ * - 结果流式回调、前 K 条提前结束、可取消（见 {@link #searchStreaming}）
+ * - XPath 搜索和替换复用共享的已解析文档缓存（见 {@link XmlDocumentCache}）
+ * - 替换按字节区间修补原文件，未修改的内容保持原样（见 {@link XmlPatchReplacer}）
  */
 @Slf4j
 public class GlobalSearchEngine {
 
     private static final int THREAD_POOL_SIZE = 8;
+    private static final long FILE_TIMEOUT_SECONDS = 30;
     private final ExecutorService executorService = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
     private final Map<String, List<String>> relationshipMap = new HashMap<>();
+    private final XmlSearchIndex searchIndex = XmlSearchIndex.getInstance();
+    private final XmlDocumentCache documentCache = XmlDocumentCache.getInstance();
+    private volatile boolean indexEnabled = true;
 
     // 搜索模式枚举
     public enum SearchMode {
@@ -47,7 +58,7 @@ public class GlobalSearchEngine {
         SMART           // 智能搜索（自动识别）
     }
 
-    // 搜索结果
+    // 搜索结果（不持有 DOM，需要元素时按 elementOrdinal 在文档中定位）
     @Data
     public static class SearchResult {
         private String filePath;
@@ -56,7 +67,7 @@ public class GlobalSearchEngine {
         private String matchedText;      // 匹配的文本
         private String contextBefore;    // 前文
         private String contextAfter;     // 后文
-        private Element element;         // DOM元素
+        private int elementOrdinal = -1; // 元素在文档中的先序序号
         private List<String> relatedFiles; // 关联文件
         private Map<String, String> attributes; // 元素属性
 
@@ -66,6 +77,59 @@ public class GlobalSearchEngine {
         }
     }
 
+    /**
+     * 流式搜索回调（在搜索线程中调用，调用之间已串行化）
+     */
+    public interface SearchListener {
+        /**
+         * 找到一条结果
+         */
+        void onResult(SearchResult result);
+
+        /**
+         * 一个文件搜索完成
+         */
+        default void onProgress(int searchedFiles, int totalFiles) {
+        }
+
+        /**
+         * 搜索结束（正常完成、达到结果上限或被取消）
+         *
+         * @param totalResults 已回调的结果数
+         * @param truncated 是否因达到上限或取消而提前结束
+         */
+        default void onComplete(int totalResults, boolean truncated) {
+        }
+    }
+
+    /**
+     * 流式搜索句柄，用于取消和等待
+     */
+    public static class SearchHandle {
+        private final AtomicBoolean cancelled = new AtomicBoolean(false);
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        public void cancel() {
+            cancelled.set(true);
+        }
+
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
+
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        public void await() throws InterruptedException {
+            done.await();
+        }
+
+        public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+            return done.await(timeout, unit);
+        }
+    }
+
     // 替换选项
     @Data
     public static class ReplaceOptions {
@@ -184,20 +248,26 @@ public class GlobalSearchEngine {
     public List<SearchResult> searchInFiles(List<Path> files, String searchText,
                                            SearchMode mode) throws Exception {
         List<Future<List<SearchResult>>> futures = new ArrayList<>();
-
         for (Path file : files) {
-            Future<List<SearchResult>> future = executorService.submit(() ->
-                searchInFile(file, searchText, mode));
-            futures.add(future);
+            futures.add(executorService.submit(() -> searchInFile(file, searchText, mode)));
         }
 
         List<SearchResult> allResults = new ArrayList<>();
-        for (Future<List<SearchResult>> future : futures) {
-            try {
-                allResults.addAll(future.get(30, TimeUnit.SECONDS));
-            } catch (TimeoutException e) {
-                log.warn("Search timeout for file");
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                Future<List<SearchResult>> future = futures.get(i);
+                try {
+                    allResults.addAll(future.get(FILE_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+                } catch (TimeoutException e) {
+                    future.cancel(true);
+                    log.warn("Search timeout for file: {}", files.get(i));
+                } catch (ExecutionException e) {
+                    log.error("Error searching in file: " + files.get(i), e.getCause());
+                }
             }
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw e;
         }
 
         // 检测关联文件
@@ -206,6 +276,71 @@ public class GlobalSearchEngine {
         return allResults;
     }
 
+    /**
+     * 流式搜索：文件搜索完成即回调结果，不等待全部文件
+     *
+     * @param files 待搜索文件
+     * @param searchText 搜索内容
+     * @param mode 搜索模式
+     * @param maxResults 结果上限，达到后停止搜索（&lt;= 0 表示不限）
+     * @param listener 结果回调
+     * @return 搜索句柄，可取消或等待结束
+     */
+    public SearchHandle searchStreaming(List<Path> files, String searchText, SearchMode mode,
+                                        int maxResults, SearchListener listener) {
+        SearchHandle handle = new SearchHandle();
+        int totalFiles = files.size();
+        int limit = maxResults > 0 ? maxResults : Integer.MAX_VALUE;
+        AtomicInteger finishedFiles = new AtomicInteger(0);
+        int[] delivered = {0};
+        Object deliveryLock = new Object();
+
+        if (totalFiles == 0) {
+            listener.onComplete(0, false);
+            handle.done.countDown();
+            return handle;
+        }
+
+        for (Path file : files) {
+            executorService.execute(() -> {
+                try {
+                    // 已取消或已达上限时，排队中的文件直接跳过
+                    if (handle.isCancelled()) {
+                        return;
+                    }
+                    List<SearchResult> fileResults = searchInFile(file, searchText, mode);
+                    if (fileResults.isEmpty() || handle.isCancelled()) {
+                        return;
+                    }
+                    detectRelatedFiles(fileResults);
+                    synchronized (deliveryLock) {
+                        for (SearchResult result : fileResults) {
+                            if (handle.isCancelled()) {
+                                break;
+                            }
+                            listener.onResult(result);
+                            if (++delivered[0] >= limit) {
+                                handle.cancel();
+                            }
+                        }
+                    }
+                } catch (Exception e) {
+                    log.error("Error searching in file: " + file, e);
+                } finally {
+                    int finished = finishedFiles.incrementAndGet();
+                    synchronized (deliveryLock) {
+                        listener.onProgress(finished, totalFiles);
+                        if (finished == totalFiles) {
+                            listener.onComplete(delivered[0], handle.isCancelled());
+                            handle.done.countDown();
+                        }
+                    }
+                }
+            });
+        }
+        return handle;
+    }
+
     /**
      * 在单个文件中搜索
      */
@@ -213,43 +348,48 @@ public class GlobalSearchEngine {
                                            SearchMode mode) throws Exception {
         List<SearchResult> results = new ArrayList<>();
 
+        SearchMode indexMode = resolveIndexMode(searchText, mode);
+        if (indexMode != null) {
+            if (indexEnabled) {
+                try {
+                    return searchWithIndex(file, searchText, indexMode);
+                } catch (Exception e) {
+                    log.warn("索引搜索失败，改为流式搜索: {} - {}", file, e.getMessage());
+                }
+            }
+            try {
+                StreamingXmlSearcher.search(file, indexMode, searchText, results::add);
+            } catch (Exception e) {
+                log.error("Error searching in file: " + file, e);
+            }
+            return results;
+        }
+
         try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            factory.setNamespaceAware(true);
-            DocumentBuilder builder = factory.newDocumentBuilder();
-
-            // 处理UTF-16编码
-            Document doc;
-            try (InputStream is = Files.newInputStream(file)) {
-                // 检测编码
-                byte[] bytes = readAllBytesCompat(is);
-                String content = new String(bytes, StandardCharsets.UTF_16);
-                if (!content.startsWith("<?xml")) {
-                    content = new String(bytes, StandardCharsets.UTF_8);
+            // 共享快照（已 normalize），只读；Xerces DOM 并发读取也不安全，整个遍历期间持有文档锁
+            Document doc = documentCache.readNamespaceAware(file);
+            DomSearchContext context = new DomSearchContext(doc, file);
+
+            synchronized (doc) {
+                switch (mode) {
+                    case XPATH:
+                        results = searchByXPath(context, searchText);
+                        break;
+                    case REGEX:
+                        results = searchByRegex(context, searchText);
+                        break;
+                    case ID:
+                        results = searchById(context, searchText);
+                        break;
+                    case ATTRIBUTE:
+                        results = searchByAttribute(context, searchText);
+                        break;
+                    case SMART:
+                        results = smartSearch(context, searchText);
+                        break;
+                    default:
+                        results = searchByText(context, searchText);
                 }
-                doc = builder.parse(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
-            }
-
-            doc.getDocumentElement().normalize();
-
-            switch (mode) {
-                case XPATH:
-                    results = searchByXPath(doc, file, searchText);
-                    break;
-                case REGEX:
-                    results = searchByRegex(doc, file, searchText);
-                    break;
-                case ID:
-                    results = searchById(doc, file, searchText);
-                    break;
-                case ATTRIBUTE:
-                    results = searchByAttribute(doc, file, searchText);
-                    break;
-                case SMART:
-                    results = smartSearch(doc, file, searchText);
-                    break;
-                default:
-                    results = searchByText(doc, file, searchText);
             }
 
         } catch (Exception e) {
@@ -259,22 +399,151 @@ public class GlobalSearchEngine {
         return results;
     }
 
+    /**
+     * 单个文件的 DOM 搜索上下文
+     *
+     * 结果不持有 DOM 元素，只记录元素序号；序号表在第一次命中时构建。
+     */
+    private static final class DomSearchContext {
+        final Document doc;
+        final Path file;
+        private Map<Node, Integer> ordinals;
+
+        DomSearchContext(Document doc, Path file) {
+            this.doc = doc;
+            this.file = file;
+        }
+
+        int ordinalOf(Element element) {
+            if (ordinals == null) {
+                ordinals = new IdentityHashMap<>();
+                NodeList elements = doc.getElementsByTagName("*");
+                for (int i = 0; i < elements.getLength(); i++) {
+                    ordinals.put(elements.item(i), i);
+                }
+            }
+            Integer ordinal = ordinals.get(element);
+            return ordinal != null ? ordinal : -1;
+        }
+    }
+
+    /**
+     * 判断搜索能否由索引回答，返回对应的索引模式；不能时返回 null
+     */
+    private SearchMode resolveIndexMode(String searchText, SearchMode mode) {
+        switch (mode) {
+            case TEXT:
+            case REGEX:
+            case ID:
+            case ATTRIBUTE:
+                return mode;
+            case SMART:
+                // 与 smartSearch 的识别规则一致
+                if (searchText.startsWith("/")) {
+                    return null;
+                }
+                if (searchText.contains("=")) {
+                    return SearchMode.ATTRIBUTE;
+                }
+                if (searchText.matches("^\\d+$")) {
+                    return SearchMode.ID;
+                }
+                return SearchMode.TEXT;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 通过索引搜索，只有存在命中时才解析文件构建结果
+     */
+    private List<SearchResult> searchWithIndex(Path file, String searchText, SearchMode mode) throws Exception {
+        XmlSearchIndex.FileSegment segment = searchIndex.getSegment(file);
+
+        List<XmlSearchIndex.Hit> hits;
+        Pattern pattern = null;
+        switch (mode) {
+            case REGEX:
+                pattern = Pattern.compile(searchText);
+                hits = segment.findRegex(pattern, TrigramFilter.forRegex(searchText));
+                break;
+            case ID:
+                hits = segment.findId(searchText);
+                break;
+            case ATTRIBUTE:
+                String[] parts = searchText.split("=");
+                hits = segment.findAttribute(parts[0].trim(), parts.length > 1 ? parts[1].trim() : "");
+                break;
+            default:
+                hits = segment.findText(searchText);
+        }
+        if (hits.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        // 只为命中的元素流式读取行号和属性，读到最后一个命中元素即停止
+        Set<Integer> ordinals = new HashSet<>();
+        for (XmlSearchIndex.Hit hit : hits) {
+            ordinals.add(hit.ordinal);
+        }
+        Map<Integer, StreamingXmlSearcher.ElementInfo> located = StreamingXmlSearcher.locate(file, ordinals);
+
+        List<SearchResult> results = new ArrayList<>();
+        Set<Integer> seenElements = new HashSet<>();
+
+        for (XmlSearchIndex.Hit hit : hits) {
+            StreamingXmlSearcher.ElementInfo element = located.get(hit.ordinal);
+            if (element == null) {
+                continue;
+            }
+            // ID/属性搜索每个元素只返回一条结果
+            boolean perValue = mode == SearchMode.TEXT || mode == SearchMode.REGEX;
+            if (!perValue && !seenElements.add(hit.ordinal)) {
+                continue;
+            }
+            SearchResult result = new SearchResult();
+            result.setFilePath(file.toString());
+            result.setElementPath(element.path);
+            result.setElementOrdinal(element.ordinal);
+            result.setLineNumber(element.lineNumber);
+            result.setAttributes(new HashMap<>(element.attributes));
+            if (mode == SearchMode.TEXT) {
+                result.setMatchedText(hit.attrName != null
+                        ? hit.attrName + "=\"" + hit.value + "\""
+                        : extractContext(hit.value, searchText));
+            } else if (mode == SearchMode.REGEX) {
+                Matcher matcher = pattern.matcher(hit.value);
+                String matched = matcher.find() ? matcher.group() : hit.value;
+                result.setMatchedText(hit.attrName != null ? hit.attrName + "=\"" + matched + "\"" : matched);
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * 是否启用索引（关闭后所有搜索都逐个解析文件）
+     */
+    public void setIndexEnabled(boolean indexEnabled) {
+        this.indexEnabled = indexEnabled;
+    }
+
     /**
      * XPath搜索
      */
-    private List<SearchResult> searchByXPath(Document doc, Path file, String xpath)
+    private List<SearchResult> searchByXPath(DomSearchContext context, String xpath)
                                             throws Exception {
         List<SearchResult> results = new ArrayList<>();
         XPathFactory xPathFactory = XPathFactory.newInstance();
         XPath xPath = xPathFactory.newXPath();
         XPathExpression expr = xPath.compile(xpath);
 
-        NodeList nodes = (NodeList) expr.evaluate(doc, XPathConstants.NODESET);
+        NodeList nodes = (NodeList) expr.evaluate(context.doc, XPathConstants.NODESET);
 
         for (int i = 0; i < nodes.getLength(); i++) {
             Node node = nodes.item(i);
             if (node.getNodeType() == Node.ELEMENT_NODE) {
-                results.add(createSearchResult(file, (Element) node));
+                results.add(createSearchResult(context, (Element) node));
             }
         }
 
@@ -284,16 +553,16 @@ public class GlobalSearchEngine {
     /**
      * 正则表达式搜索
      */
-    private List<SearchResult> searchByRegex(Document doc, Path file, String regex) {
+    private List<SearchResult> searchByRegex(DomSearchContext context, String regex) {
         List<SearchResult> results = new ArrayList<>();
         Pattern pattern = Pattern.compile(regex);
 
-        searchNodesRecursively(doc.getDocumentElement(), element -> {
+        searchNodesRecursively(context.doc.getDocumentElement(), element -> {
             // 搜索文本内容
             String text = element.getTextContent();
             Matcher matcher = pattern.matcher(text);
             if (matcher.find()) {
-                SearchResult result = createSearchResult(file, element);
+                SearchResult result = createSearchResult(context, element);
                 result.setMatchedText(matcher.group());
                 results.add(result);
             }
@@ -304,7 +573,7 @@ public class GlobalSearchEngine {
                 Attr attr = (Attr) attrs.item(i);
                 matcher = pattern.matcher(attr.getValue());
                 if (matcher.find()) {
-                    SearchResult result = createSearchResult(file, element);
+                    SearchResult result = createSearchResult(context, element);
                     result.setMatchedText(attr.getName() + "=\"" + matcher.group() + "\"");
                     results.add(result);
                 }
@@ -317,16 +586,16 @@ public class GlobalSearchEngine {
     /**
      * ID搜索
      */
-    private List<SearchResult> searchById(Document doc, Path file, String id) {
+    private List<SearchResult> searchById(DomSearchContext context, String id) {
         List<SearchResult> results = new ArrayList<>();
 
         // 搜索id属性
-        NodeList nodes = doc.getElementsByTagName("*");
+        NodeList nodes = context.doc.getElementsByTagName("*");
         for (int i = 0; i < nodes.getLength(); i++) {
             Element element = (Element) nodes.item(i);
             String idValue = element.getAttribute("id");
             if (idValue.equals(id)) {
-                results.add(createSearchResult(file, element));
+                results.add(createSearchResult(context, element));
             }
         }
 
@@ -336,16 +605,16 @@ public class GlobalSearchEngine {
     /**
      * 属性搜索
      */
-    private List<SearchResult> searchByAttribute(Document doc, Path file, String search) {
+    private List<SearchResult> searchByAttribute(DomSearchContext context, String search) {
         List<SearchResult> results = new ArrayList<>();
         String[] parts = search.split("=");
         String attrName = parts[0].trim();
         String attrValue = parts.length > 1 ? parts[1].trim() : "";
 
-        searchNodesRecursively(doc.getDocumentElement(), element -> {
+        searchNodesRecursively(context.doc.getDocumentElement(), element -> {
             if (element.hasAttribute(attrName)) {
                 if (attrValue.isEmpty() || element.getAttribute(attrName).contains(attrValue)) {
-                    results.add(createSearchResult(file, element));
+                    results.add(createSearchResult(context, element));
                 }
             }
         });
@@ -356,40 +625,40 @@ public class GlobalSearchEngine {
     /**
      * 智能搜索 - 自动识别搜索模式
      */
-    private List<SearchResult> smartSearch(Document doc, Path file, String searchText) {
+    private List<SearchResult> smartSearch(DomSearchContext context, String searchText) {
         // 判断搜索类型
         if (searchText.startsWith("//") || searchText.startsWith("/")) {
             try {
-                return searchByXPath(doc, file, searchText);
+                return searchByXPath(context, searchText);
             } catch (Exception e) {
                 log.debug("Not a valid XPath, trying other methods");
             }
         }
 
         if (searchText.contains("=")) {
-            return searchByAttribute(doc, file, searchText);
+            return searchByAttribute(context, searchText);
         }
 
         if (searchText.matches("^\\d+$")) {
-            return searchById(doc, file, searchText);
+            return searchById(context, searchText);
         }
 
         // 默认文本搜索
-        return searchByText(doc, file, searchText);
+        return searchByText(context, searchText);
     }
 
     /**
      * 文本搜索
      */
-    private List<SearchResult> searchByText(Document doc, Path file, String searchText) {
+    private List<SearchResult> searchByText(DomSearchContext context, String searchText) {
         List<SearchResult> results = new ArrayList<>();
         String lowerSearch = searchText.toLowerCase();
 
-        searchNodesRecursively(doc.getDocumentElement(), element -> {
+        searchNodesRecursively(context.doc.getDocumentElement(), element -> {
             // 搜索文本内容
             String text = element.getTextContent();
             if (text != null && text.toLowerCase().contains(lowerSearch)) {
-                SearchResult result = createSearchResult(file, element);
+                SearchResult result = createSearchResult(context, element);
                 result.setMatchedText(extractContext(text, searchText));
                 results.add(result);
             }
@@ -399,7 +668,7 @@ public class GlobalSearchEngine {
             for (int i = 0; i < attrs.getLength(); i++) {
                 Attr attr = (Attr) attrs.item(i);
                 if (attr.getValue().toLowerCase().contains(lowerSearch)) {
-                    SearchResult result = createSearchResult(file, element);
+                    SearchResult result = createSearchResult(context, element);
                     result.setMatchedText(attr.getName() + "=\"" + attr.getValue() + "\"");
                     results.add(result);
                 }
@@ -427,10 +696,10 @@ public class GlobalSearchEngine {
     /**
      * 创建搜索结果
      */
-    private SearchResult createSearchResult(Path file, Element element) {
+    private SearchResult createSearchResult(DomSearchContext context, Element element) {
         SearchResult result = new SearchResult();
-        result.setFilePath(file.toString());
-        result.setElement(element);
+        result.setFilePath(context.file.toString());
+        result.setElementOrdinal(context.ordinalOf(element));
         result.setElementPath(getElementPath(element));
 
         // 获取所有属性
@@ -514,59 +783,152 @@ public class GlobalSearchEngine {
 
     /**
      * 批量替换功能
+     *
+     * 能按字节区间修补的文件（见 {@link XmlPatchReplacer}）只顺序拷贝一遍，替换命中元素的文本区间，
+     * 其余内容逐字节保持不变；不能安全修补的文件回退为修改 DOM 后整体序列化。
      */
     public Map<String, Integer> replaceAll(List<SearchResult> searchResults,
                                           String replaceText, ReplaceOptions options) throws Exception {
         Map<String, Integer> replaceCount = new HashMap<>();
-        Map<String, Document> documentCache = new HashMap<>();
 
         // 解析条件
         options.parseCondition();
 
+        // 按文件分组（保持结果顺序，同一元素的多条结果依次替换）
+        Map<String, List<SearchResult>> resultsByFile = new LinkedHashMap<>();
         for (SearchResult result : searchResults) {
-            String filePath = result.getFilePath();
+            resultsByFile.computeIfAbsent(result.getFilePath(), k -> new ArrayList<>()).add(result);
+        }
 
-            // 检查条件
-            if (options.getConditionEvaluator() != null &&
-                !options.getConditionEvaluator().evaluate(result.getElement())) {
+        for (Map.Entry<String, List<SearchResult>> entry : resultsByFile.entrySet()) {
+            String filePath = entry.getKey();
+            int count = replaceWithPatch(filePath, entry.getValue(), replaceText, options);
+            if (count < 0) {
+                count = replaceWithDom(filePath, entry.getValue(), replaceText, options);
+            }
+            if (count > 0) {
+                replaceCount.put(filePath, count);
+            }
+        }
+
+        return replaceCount;
+    }
+
+    /**
+     * 按字节区间修补替换；文件不能安全修补时返回 -1
+     */
+    private int replaceWithPatch(String filePath, List<SearchResult> results,
+                                 String replaceText, ReplaceOptions options) throws Exception {
+        Set<Integer> ordinals = new HashSet<>();
+        for (SearchResult result : results) {
+            if (result.getElementOrdinal() < 0) {
+                return -1;
+            }
+            ordinals.add(result.getElementOrdinal());
+        }
+
+        Path file = Paths.get(filePath);
+        XmlPatchReplacer.Plan plan = XmlPatchReplacer.scan(file, ordinals);
+        if (plan == null) {
+            log.debug("文件不能按字节区间修补，改为 DOM 替换: {}", filePath);
+            return -1;
+        }
+
+        // 条件判断用的游离元素（只有名称和属性，条件可能读取子元素时不能用于非叶子元素）
+        boolean hasCondition = options.getCondition() != null && !options.getCondition().isEmpty();
+        Document scratch = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        int count = 0;
+        for (SearchResult result : results) {
+            XmlPatchReplacer.ElementText target = plan.get(result.getElementOrdinal());
+            if (target == null) {
                 continue;
             }
 
-            // 加载或获取文档
-            Document doc = documentCache.get(filePath);
-            if (doc == null) {
-                doc = loadDocument(filePath);
-                documentCache.put(filePath, doc);
+            // 检查条件
+            if (hasCondition && !target.simple) {
+                return -1;
+            }
+            if (options.getConditionEvaluator() != null &&
+                !options.getConditionEvaluator().evaluate(target.toDetachedElement(scratch))) {
+                continue;
             }
 
             // 执行替换
-            Element element = result.getElement();
-            String originalText = element.getTextContent();
-            String newText = performReplace(originalText, result.getMatchedText(),
+            String newText = performReplace(target.currentText, result.getMatchedText(),
                                            replaceText, options);
+            if (!target.currentText.equals(newText)) {
+                target.currentText = newText;
+                count++;
+            }
+        }
+        if (!plan.isPatchable()) {
+            return -1;
+        }
 
-            if (!originalText.equals(newText)) {
-                element.setTextContent(newText);
-                replaceCount.merge(filePath, 1, Integer::sum);
+        // 保存修改
+        if (!options.isPreview() && count > 0) {
+            if (options.isBackup()) {
+                backupFile(filePath);
             }
+            XmlPatchReplacer.apply(plan);
+            searchIndex.invalidate(file);
+            documentCache.invalidate(file);
         }
+        return count;
+    }
 
-        // 保存修改的文档
-        if (!options.isPreview()) {
-            for (Map.Entry<String, Document> entry : documentCache.entrySet()) {
-                String filePath = entry.getKey();
-                Document doc = entry.getValue();
+    /**
+     * 修改 DOM 后整体序列化的替换
+     */
+    private int replaceWithDom(String filePath, List<SearchResult> results,
+                               String replaceText, ReplaceOptions options) throws Exception {
+        XmlDocumentCache.Checkout checkout = documentCache.checkout(Paths.get(filePath), false);
+        Document doc = checkout.getDocument();
+        int count = 0;
 
-                if (replaceCount.containsKey(filePath)) {
-                    if (options.isBackup()) {
-                        backupFile(filePath);
-                    }
-                    saveDocument(doc, filePath);
+        try {
+            NodeList elements = doc.getElementsByTagName("*");
+            for (SearchResult result : results) {
+                // 搜索结果按序号在文档中定位元素
+                if (result.getElementOrdinal() < 0) {
+                    continue;
+                }
+                Node node = elements.item(result.getElementOrdinal());
+                if (!(node instanceof Element)) {
+                    continue;
+                }
+                Element element = (Element) node;
+
+                // 检查条件
+                if (options.getConditionEvaluator() != null &&
+                    !options.getConditionEvaluator().evaluate(element)) {
+                    continue;
+                }
+
+                // 执行替换
+                String originalText = element.getTextContent();
+                String newText = performReplace(originalText, result.getMatchedText(),
+                                               replaceText, options);
+
+                if (!originalText.equals(newText)) {
+                    element.setTextContent(newText);
+                    count++;
+                }
+            }
+
+            // 保存修改的文档
+            if (!options.isPreview() && count > 0) {
+                if (options.isBackup()) {
+                    backupFile(filePath);
                 }
+                saveDocument(doc, filePath);
+                searchIndex.invalidate(Paths.get(filePath));
             }
+        } finally {
+            documentCache.release(checkout, count > 0);
         }
 
-        return replaceCount;
+        return count;
     }
 
     /**
@@ -597,25 +959,6 @@ public class GlobalSearchEngine {
         }
     }
 
-    /**
-     * 加载XML文档
-     */
-    private Document loadDocument(String filePath) throws Exception {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-
-        // 处理UTF-16编码
-        try (InputStream is = Files.newInputStream(Paths.get(filePath))) {
-            byte[] bytes = readAllBytesCompat(is);
-            String content = new String(bytes, StandardCharsets.UTF_16);
-            if (!content.startsWith("<?xml")) {
-                content = new String(bytes, StandardCharsets.UTF_8);
-            }
-            return builder.parse(new ByteArrayInputStream(
-                content.getBytes(StandardCharsets.UTF_8)));
-        }
-    }
-
     /**
      * 保存XML文档
      */
@@ -654,19 +997,6 @@ public class GlobalSearchEngine {
         }
     }
 
-    /**
-     * Java 8兼容的readAllBytes方法
-     */
-    private byte[] readAllBytesCompat(InputStream is) throws IOException {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        int nRead;
-        byte[] data = new byte[8192];
-        while ((nRead = is.read(data, 0, data.length)) != -1) {
-            buffer.write(data, 0, nRead);
-        }
-        return buffer.toByteArray();
-    }
-
     // 内部接口
     private interface NodeProcessor {
         void process(Element element);
@@ -0,0 +1,263 @@
+package red.jiuzhou.search;
+
+import lombok.extern.slf4j.Slf4j;
+import red.jiuzhou.util.XmlCharsetDetector;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 基于 StAX 的流式XML搜索
+ *
+ * 不构建 DOM：直接从文件输入流按 BOM / XML 声明识别编码（{@link XmlCharsetDetector}），边解析边匹配边输出结果，
+ * 每个文件只占用一个小缓冲区和当前元素栈。元素路径由解析栈维护，行号取自解析器的 Location。
+ *
+ * 匹配规则与索引一致：文本匹配元素自身文本（不含子元素文本）和属性值。
+ * 每个结果记录元素序号（先序遍历位置），需要 DOM 元素时可据此定位。
+ */
+@Slf4j
+public class StreamingXmlSearcher {
+
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    /**
+     * 流式解析过程中的元素信息
+     */
+    public static class ElementInfo {
+        public int ordinal;
+        public String path;
+        public int lineNumber;
+        public Map<String, String> attributes;
+        public String text;     // 元素自身文本，END 阶段才可用
+    }
+
+    /**
+     * 元素回调
+     */
+    public interface ElementVisitor {
+        /**
+         * 元素开始（属性已可用，文本尚未读取）
+         *
+         * @return false 表示停止解析
+         */
+        boolean onStart(ElementInfo element);
+
+        /**
+         * 元素结束（text 已填充）
+         *
+         * @return false 表示停止解析
+         */
+        boolean onEnd(ElementInfo element);
+    }
+
+    private StreamingXmlSearcher() {
+    }
+
+    /**
+     * 流式搜索单个文件，每找到一个匹配立即回调
+     *
+     * @param mode 仅支持 TEXT / REGEX / ID / ATTRIBUTE
+     */
+    public static void search(Path file, GlobalSearchEngine.SearchMode mode, String searchText,
+                              Consumer<GlobalSearchEngine.SearchResult> sink) throws IOException {
+        String lowerSearch = searchText.toLowerCase();
+        Pattern pattern = mode == GlobalSearchEngine.SearchMode.REGEX ? Pattern.compile(searchText) : null;
+        String attrName;
+        String attrValue;
+        if (mode == GlobalSearchEngine.SearchMode.ATTRIBUTE) {
+            String[] parts = searchText.split("=");
+            attrName = parts[0].trim();
+            attrValue = parts.length > 1 ? parts[1].trim() : "";
+        } else {
+            attrName = null;
+            attrValue = null;
+        }
+
+        visit(file, new ElementVisitor() {
+            @Override
+            public boolean onStart(ElementInfo element) {
+                switch (mode) {
+                    case ID:
+                        if (searchText.equals(element.attributes.get("id"))) {
+                            sink.accept(toResult(file, element, null));
+                        }
+                        break;
+                    case ATTRIBUTE:
+                        String value = element.attributes.get(attrName);
+                        if (value != null && (attrValue.isEmpty() || value.contains(attrValue))) {
+                            sink.accept(toResult(file, element, null));
+                        }
+                        break;
+                    case REGEX:
+                        for (Map.Entry<String, String> attr : element.attributes.entrySet()) {
+                            Matcher matcher = pattern.matcher(attr.getValue());
+                            if (matcher.find()) {
+                                sink.accept(toResult(file, element, attr.getKey() + "=\"" + matcher.group() + "\""));
+                            }
+                        }
+                        break;
+                    default:
+                        for (Map.Entry<String, String> attr : element.attributes.entrySet()) {
+                            if (attr.getValue().toLowerCase().contains(lowerSearch)) {
+                                sink.accept(toResult(file, element, attr.getKey() + "=\"" + attr.getValue() + "\""));
+                            }
+                        }
+                }
+                return true;
+            }
+
+            @Override
+            public boolean onEnd(ElementInfo element) {
+                if (element.text.isEmpty()) {
+                    return true;
+                }
+                if (mode == GlobalSearchEngine.SearchMode.REGEX) {
+                    Matcher matcher = pattern.matcher(element.text);
+                    if (matcher.find()) {
+                        sink.accept(toResult(file, element, matcher.group()));
+                    }
+                } else if (mode == GlobalSearchEngine.SearchMode.TEXT
+                        && element.text.toLowerCase().contains(lowerSearch)) {
+                    sink.accept(toResult(file, element, extractContext(element.text, searchText)));
+                }
+                return true;
+            }
+        });
+    }
+
+    /**
+     * 按元素序号定位元素信息（行号、路径、属性），读到最大序号后即停止解析
+     */
+    public static Map<Integer, ElementInfo> locate(Path file, Set<Integer> ordinals) throws IOException {
+        Map<Integer, ElementInfo> found = new HashMap<>();
+        if (ordinals.isEmpty()) {
+            return found;
+        }
+        int maxOrdinal = Collections.max(ordinals);
+        visit(file, new ElementVisitor() {
+            @Override
+            public boolean onStart(ElementInfo element) {
+                if (ordinals.contains(element.ordinal)) {
+                    found.put(element.ordinal, element);
+                }
+                return element.ordinal < maxOrdinal;
+            }
+
+            @Override
+            public boolean onEnd(ElementInfo element) {
+                return true;
+            }
+        });
+        return found;
+    }
+
+    /**
+     * 流式遍历文件中的所有元素
+     */
+    public static void visit(Path file, ElementVisitor visitor) throws IOException {
+        try (Reader reader = openReader(file)) {
+            XMLStreamReader xml = INPUT_FACTORY.createXMLStreamReader(reader);
+            try {
+                Deque<ElementInfo> elementStack = new ArrayDeque<>();
+                Deque<StringBuilder> textStack = new ArrayDeque<>();
+                int ordinal = 0;
+
+                while (xml.hasNext()) {
+                    int event = xml.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        ElementInfo element = new ElementInfo();
+                        element.ordinal = ordinal++;
+                        element.lineNumber = xml.getLocation().getLineNumber();
+                        element.path = (elementStack.isEmpty() ? "" : elementStack.peek().path)
+                                + "/" + qualifiedName(xml.getPrefix(), xml.getLocalName());
+
+                        int attrCount = xml.getAttributeCount();
+                        element.attributes = attrCount == 0
+                                ? Collections.<String, String>emptyMap() : new LinkedHashMap<>(attrCount * 2);
+                        for (int i = 0; i < attrCount; i++) {
+                            element.attributes.put(
+                                    qualifiedName(xml.getAttributePrefix(i), xml.getAttributeLocalName(i)),
+                                    xml.getAttributeValue(i));
+                        }
+
+                        elementStack.push(element);
+                        textStack.push(new StringBuilder());
+                        if (!visitor.onStart(element)) {
+                            return;
+                        }
+                    } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                        if (!textStack.isEmpty()) {
+                            textStack.peek().append(xml.getText());
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        ElementInfo element = elementStack.pop();
+                        element.text = textStack.pop().toString().trim();
+                        if (!visitor.onEnd(element)) {
+                            return;
+                        }
+                    }
+                }
+            } finally {
+                xml.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("解析XML失败: " + file + " - " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 打开XML文件的字符流：按 BOM 和 XML 声明识别编码，不整体读入内存
+     *
+     * @see XmlCharsetDetector#openReader(Path)
+     */
+    public static Reader openReader(Path file) throws IOException {
+        return XmlCharsetDetector.openReader(file);
+    }
+
+    private static GlobalSearchEngine.SearchResult toResult(Path file, ElementInfo element, String matchedText) {
+        GlobalSearchEngine.SearchResult result = new GlobalSearchEngine.SearchResult();
+        result.setFilePath(file.toString());
+        result.setElementPath(element.path);
+        result.setElementOrdinal(element.ordinal);
+        result.setLineNumber(element.lineNumber);
+        result.setAttributes(new HashMap<>(element.attributes));
+        result.setMatchedText(matchedText);
+        return result;
+    }
+
+    private static String qualifiedName(String prefix, String localName) {
+        return prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+    }
+
+    /**
+     * 提取匹配位置前后的上下文
+     */
+    static String extractContext(String text, String searchText) {
+        int index = text.toLowerCase().indexOf(searchText.toLowerCase());
+        if (index == -1) return text;
+
+        int start = Math.max(0, index - 50);
+        int end = Math.min(text.length(), index + searchText.length() + 50);
+
+        String context = text.substring(start, end);
+        if (start > 0) context = "..." + context;
+        if (end < text.length()) context = context + "...";
+
+        return context;
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+}
@@ -0,0 +1,346 @@
+package red.jiuzhou.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 三元组（trigram）预过滤
+ *
+ * 索引段为文件中每个文本/属性值（小写化后）出现过的三字符组合建立倒排列表。
+ * 子串或正则查询先分解出"必然出现"的三元组，只有同时出现在全部倒排列表中的值才需要逐个匹配。
+ * 三元组编码为 int：三个字符都小于 1024 时直接拼接，否则取哈希（可能误判为候选，但不会漏判）。
+ *
+ * 正则分解是保守的：只提取顶层、非可选的字面量片段；
+ * 含顶层分支（|）或无法提取出长度 ≥ 3 的片段时返回 null，调用方回退为全量扫描。
+ */
+public final class TrigramFilter {
+
+    private TrigramFilter() {
+    }
+
+    /**
+     * 计算文本（应已小写化）中所有三元组，结果排序去重
+     */
+    public static int[] trigramsOf(Iterable<String> lowerTexts) {
+        IntBuffer buffer = new IntBuffer(256);
+        for (String text : lowerTexts) {
+            for (int i = 0; i + 3 <= text.length(); i++) {
+                buffer.add(encode(text.charAt(i), text.charAt(i + 1), text.charAt(i + 2)));
+            }
+        }
+        return buffer.sortedUnique();
+    }
+
+    /**
+     * 计算单个文本（应已小写化）中的三元组，结果排序去重
+     */
+    static int[] trigramsOf(String lowerText) {
+        IntBuffer buffer = new IntBuffer(Math.max(1, lowerText.length() - 2));
+        for (int i = 0; i + 3 <= lowerText.length(); i++) {
+            buffer.add(encode(lowerText.charAt(i), lowerText.charAt(i + 1), lowerText.charAt(i + 2)));
+        }
+        return buffer.sortedUnique();
+    }
+
+    /**
+     * 子串查询所需的三元组；长度不足 3 时返回 null
+     */
+    public static int[] forLiteral(String literal) {
+        String lower = literal.toLowerCase();
+        if (lower.length() < 3) {
+            return null;
+        }
+        List<String> runs = new ArrayList<>(1);
+        runs.add(lower);
+        return trigramsOf(runs);
+    }
+
+    /**
+     * 正则查询所需的三元组；无法分解时返回 null
+     */
+    public static int[] forRegex(String regex) {
+        List<String> runs = requiredLiterals(regex);
+        if (runs == null) {
+            return null;
+        }
+        List<String> usable = new ArrayList<>();
+        for (String run : runs) {
+            if (run.length() >= 3) {
+                usable.add(run.toLowerCase());
+            }
+        }
+        return usable.isEmpty() ? null : trigramsOf(usable);
+    }
+
+    /**
+     * 候选判断：文件三元组（已排序）是否包含查询所需的全部三元组
+     */
+    public static boolean containsAll(int[] fileTrigrams, int[] required) {
+        if (required == null) {
+            return true;
+        }
+        for (int trigram : required) {
+            if (Arrays.binarySearch(fileTrigrams, trigram) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 提取正则中必然出现的字面量片段；存在顶层分支时返回 null
+     */
+    static List<String> requiredLiterals(String regex) {
+        if (regex.matches("(?s).*\\(\\?[a-zA-Z]*x.*")) {
+            // 注释模式下空白不是字面量，无法可靠分解
+            return null;
+        }
+        List<String> runs = new ArrayList<>();
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        int i = 0;
+        int n = regex.length();
+
+        while (i < n) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 >= n) {
+                    break;
+                }
+                char next = regex.charAt(i + 1);
+                i += 2;
+                if (next == 'Q') {
+                    // \Q...\E 引用段整体为字面量
+                    int end = regex.indexOf("\\E", i);
+                    String quoted = end < 0 ? regex.substring(i) : regex.substring(i, end);
+                    i = end < 0 ? n : end + 2;
+                    if (depth == 0) {
+                        run.append(quoted);
+                        i = applyQuantifier(regex, i, run, runs, quoted.length());
+                    }
+                    continue;
+                }
+                if (depth == 0 && !Character.isLetterOrDigit(next)) {
+                    run.append(next);
+                    i = applyQuantifier(regex, i, run, runs, 1);
+                } else {
+                    // \d \w \s \b 等字符类、反向引用、Unicode/十六进制等转义：连同参数整体跳过
+                    endRun(run, runs);
+                    i = skipQuantifier(regex, skipEscapeOperand(regex, next, i));
+                }
+                continue;
+            }
+
+            switch (c) {
+                case '[':
+                    endRun(run, runs);
+                    i = skipCharClass(regex, i);
+                    i = skipQuantifier(regex, i);
+                    continue;
+                case '(':
+                    endRun(run, runs);
+                    depth++;
+                    i++;
+                    continue;
+                case ')':
+                    depth = Math.max(0, depth - 1);
+                    i = skipQuantifier(regex, i + 1);
+                    continue;
+                case '|':
+                    if (depth == 0) {
+                        return null;
+                    }
+                    i++;
+                    continue;
+                case '.':
+                case '^':
+                case '$':
+                    endRun(run, runs);
+                    i = skipQuantifier(regex, i + 1);
+                    continue;
+                case '?':
+                case '*':
+                case '+':
+                case '{':
+                    // 孤立的量词（已被前面的分支处理），跳过
+                    i = skipQuantifier(regex, i);
+                    continue;
+                default:
+                    if (depth == 0) {
+                        run.append(c);
+                        i = applyQuantifier(regex, i + 1, run, runs, 1);
+                    } else {
+                        i++;
+                    }
+            }
+        }
+        endRun(run, runs);
+        return runs;
+    }
+
+    /**
+     * 处理紧跟在字面量之后的量词：可选量词去掉该字面量，+ 保留但结束片段
+     */
+    private static int applyQuantifier(String regex, int i, StringBuilder run, List<String> runs, int literalLength) {
+        if (i >= regex.length()) {
+            return i;
+        }
+        char q = regex.charAt(i);
+        if (q == '?' || q == '*' || q == '{') {
+            run.setLength(Math.max(0, run.length() - literalLength));
+            endRun(run, runs);
+            return skipQuantifier(regex, i);
+        }
+        if (q == '+') {
+            endRun(run, runs);
+            return skipQuantifier(regex, i);
+        }
+        return i;
+    }
+
+    /**
+     * 跳过字母/数字转义的参数部分（i 指向转义字母之后），返回转义结束位置
+     */
+    private static int skipEscapeOperand(String regex, char escape, int i) {
+        int n = regex.length();
+        switch (escape) {
+            case 'u':
+                return Math.min(n, i + 4);
+            case 'x':
+                if (i < n && regex.charAt(i) == '{') {
+                    return skipPast(regex, i, '}');
+                }
+                return Math.min(n, i + 2);
+            case '0':
+                // 八进制：最多 3 位
+                int end = i;
+                while (end < n && end < i + 3 && regex.charAt(end) >= '0' && regex.charAt(end) <= '7') {
+                    end++;
+                }
+                return end;
+            case 'c':
+                return Math.min(n, i + 1);
+            case 'p':
+            case 'P':
+                if (i < n && regex.charAt(i) == '{') {
+                    return skipPast(regex, i, '}');
+                }
+                return Math.min(n, i + 1);
+            case 'k':
+                if (i < n && regex.charAt(i) == '<') {
+                    return skipPast(regex, i, '>');
+                }
+                return i;
+            default:
+                if (escape >= '1' && escape <= '9') {
+                    // 反向引用会尽量多地吞掉后续数字
+                    while (i < n && Character.isDigit(regex.charAt(i))) {
+                        i++;
+                    }
+                }
+                return i;
+        }
+    }
+
+    private static int skipPast(String regex, int i, char close) {
+        int end = regex.indexOf(close, i);
+        return end < 0 ? regex.length() : end + 1;
+    }
+
+    private static int skipQuantifier(String regex, int i) {
+        int n = regex.length();
+        while (i < n) {
+            char c = regex.charAt(i);
+            if (c == '?' || c == '*' || c == '+') {
+                i++;
+            } else if (c == '{') {
+                int end = regex.indexOf('}', i);
+                i = end < 0 ? n : end + 1;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    private static int skipCharClass(String regex, int i) {
+        int n = regex.length();
+        i++;
+        if (i < n && regex.charAt(i) == '^') i++;
+        if (i < n && regex.charAt(i) == ']') i++;
+        int depth = 1;
+        while (i < n && depth > 0) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 >= n) {
+                    return n;
+                }
+                char next = regex.charAt(i + 1);
+                if (next == 'Q') {
+                    int end = regex.indexOf("\\E", i + 2);
+                    i = end < 0 ? n : end + 2;
+                } else if (Character.isLetterOrDigit(next)) {
+                    // \c[、\x{5D} 之类的参数不能被当作方括号
+                    i = skipEscapeOperand(regex, next, i + 2);
+                } else {
+                    i += 2;
+                }
+                continue;
+            }
+            if (c == '[') depth++;
+            else if (c == ']') depth--;
+            i++;
+        }
+        return i;
+    }
+
+    private static void endRun(StringBuilder run, List<String> runs) {
+        if (run.length() > 0) {
+            runs.add(run.toString());
+            run.setLength(0);
+        }
+    }
+
+    private static int encode(char a, char b, char c) {
+        if (a < 1024 && b < 1024 && c < 1024) {
+            return (a << 20) | (b << 10) | c;
+        }
+        // 非 ASCII 区字符取哈希，置最高位与直接编码区分
+        int h = a * 961 + b * 31 + c;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h | 0x80000000;
+    }
+
+    /**
+     * 简单的可增长 int 数组
+     */
+    private static final class IntBuffer {
+        private int[] data;
+        private int size;
+
+        IntBuffer(int capacity) {
+            data = new int[capacity];
+        }
+
+        void add(int value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = value;
+        }
+
+        int[] sortedUnique() {
+            Arrays.sort(data, 0, size);
+            int unique = 0;
+            for (int i = 0; i < size; i++) {
+                if (unique == 0 || data[i] != data[unique - 1]) {
+                    data[unique++] = data[i];
+                }
+            }
+            return Arrays.copyOf(data, unique);
+        }
+    }
+}
@@ -0,0 +1,598 @@
+package red.jiuzhou.search;
+
+import red.jiuzhou.util.XmlCharsetDetector;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * 基于字节区间的XML替换
+ *
+ * 替换只涉及少量元素文本时，不再"解析 → 修改 DOM → Transformer 整体序列化"：
+ * 顺序扫描一遍原始文件，按元素序号（与 DOM 先序一致）定位目标元素文本在文件中的字节区间，
+ * 把替换结果转义、编码后作为字节区间编辑，按偏移排序后一次顺序拷贝写出。
+ * 编辑区间之外的内容逐字节保持不变，不会改变缩进、换行、引号风格和编码声明。
+ *
+ * 只处理能安全修补的情况：目标元素是叶子元素（内容中没有子元素、注释、CDATA、处理指令），
+ * 文本中只有预定义实体和字符引用，文件编码为 UTF-8 / UTF-16 / 单字节编码。
+ * 不满足时 {@link #scan} 返回 null，调用方回退到 DOM 替换。
+ */
+class XmlPatchReplacer {
+
+    private static final int HEAD_SIZE = 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 目标元素的文本内容和位置
+     */
+    static final class ElementText {
+        final int ordinal;
+        final String name;
+        final Map<String, String> attributes;
+        final boolean selfClosing;
+        boolean simple = true;          // 内容只有文本（无子元素、注释、CDATA、处理指令），可按区间修补
+        long byteStart = -1;            // 文本起始字节（含）
+        long byteEnd = -1;              // 文本结束字节（不含）
+        String originalText;            // 与 DOM getTextContent() 一致的文本
+        String currentText;             // 依次应用替换后的文本
+
+        private int depth;              // 扫描时所处的子元素深度
+        private final StringBuilder raw = new StringBuilder();
+
+        ElementText(int ordinal, String name, Map<String, String> attributes, boolean selfClosing) {
+            this.ordinal = ordinal;
+            this.name = name;
+            this.attributes = attributes;
+            this.selfClosing = selfClosing;
+        }
+
+        boolean isModified() {
+            return !currentText.equals(originalText);
+        }
+
+        /**
+         * 构建仅含名称和属性的游离元素，供条件判断使用（不含子元素，只对 simple 元素等价于原元素）
+         */
+        Element toDetachedElement(Document owner) {
+            Element element = owner.createElement(name);
+            for (Map.Entry<String, String> attr : attributes.entrySet()) {
+                element.setAttribute(attr.getKey(), attr.getValue());
+            }
+            element.setTextContent(currentText);
+            return element;
+        }
+    }
+
+    /**
+     * 一个文件的修补计划
+     */
+    static final class Plan {
+        final Path file;
+        final Charset charset;          // 不含 BOM 的编码（写入替换文本用）
+        final Map<Integer, ElementText> targets;
+        final long lastModified;        // 扫描时的文件状态，写回前校验
+        final long fileSize;
+
+        Plan(Path file, Charset charset, Map<Integer, ElementText> targets, long lastModified, long fileSize) {
+            this.file = file;
+            this.charset = charset;
+            this.targets = targets;
+            this.lastModified = lastModified;
+            this.fileSize = fileSize;
+        }
+
+        ElementText get(int ordinal) {
+            return targets.get(ordinal);
+        }
+
+        /**
+         * 被修改的元素都能按区间修补（自闭合元素写入文本需要改动标签本身，也不在修补范围内）
+         */
+        boolean isPatchable() {
+            for (ElementText target : targets.values()) {
+                if (target.isModified() && (target.selfClosing || !target.simple)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        int modifiedCount() {
+            int count = 0;
+            for (ElementText target : targets.values()) {
+                if (target.isModified()) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    private XmlPatchReplacer() {
+    }
+
+    /**
+     * 扫描文件，定位目标序号元素的文本区间
+     *
+     * @return 修补计划；文件或目标元素无法安全修补时返回 null
+     */
+    static Plan scan(Path file, Set<Integer> ordinals) throws IOException {
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        long fileSize = Files.size(file);
+        byte[] head = new byte[HEAD_SIZE];
+        int headLength;
+        try (InputStream in = Files.newInputStream(file)) {
+            headLength = 0;
+            int read;
+            while (headLength < HEAD_SIZE && (read = in.read(head, headLength, HEAD_SIZE - headLength)) != -1) {
+                headLength += read;
+            }
+        }
+
+        Charset charset = XmlCharsetDetector.detectCharset(head, headLength);
+        int bomLength = 0;
+        if (headLength >= 2 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xFE) {
+            charset = StandardCharsets.UTF_16LE;
+            bomLength = 2;
+        } else if (headLength >= 2 && (head[0] & 0xFF) == 0xFE && (head[1] & 0xFF) == 0xFF) {
+            charset = StandardCharsets.UTF_16BE;
+            bomLength = 2;
+        } else if (headLength >= 3 && (head[0] & 0xFF) == 0xEF && (head[1] & 0xFF) == 0xBB
+                && (head[2] & 0xFF) == 0xBF) {
+            bomLength = 3;
+        }
+        ByteWidth width = ByteWidth.forCharset(charset);
+        if (width == null) {
+            return null;
+        }
+
+        InputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+        try {
+            if (in.skip(bomLength) != bomLength) {
+                return null;
+            }
+            // newDecoder() 遇到非法字节时报错而不是替换为 U+FFFD，保证字节偏移可信
+            CharCursor cursor = new CharCursor(new InputStreamReader(in, charset.newDecoder()), width, bomLength);
+            Map<Integer, ElementText> targets = new Scanner(cursor, ordinals).run();
+            return targets == null ? null : new Plan(file, charset, targets, lastModified, fileSize);
+        } catch (CharacterCodingException e) {
+            return null;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 按计划写回文件：编辑区间按偏移排序，一次顺序拷贝，先写临时文件再原子替换
+     */
+    static void apply(Plan plan) throws IOException {
+        List<ElementText> edits = new ArrayList<>();
+        for (ElementText target : plan.targets.values()) {
+            if (target.isModified()) {
+                edits.add(target);
+            }
+        }
+        if (edits.isEmpty()) {
+            return;
+        }
+        if (Files.getLastModifiedTime(plan.file).toMillis() != plan.lastModified || Files.size(plan.file) != plan.fileSize) {
+            throw new IOException("文件在扫描后被修改: " + plan.file);
+        }
+        edits.sort(Comparator.comparingLong(t -> t.byteStart));
+
+        CharsetEncoder encoder = plan.charset.newEncoder();
+        Path temp = plan.file.resolveSibling(plan.file.getFileName() + ".patch.tmp");
+        try (FileChannel source = FileChannel.open(plan.file, StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(temp, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long position = 0;
+            for (ElementText edit : edits) {
+                transfer(source, target, position, edit.byteStart - position);
+                ByteBuffer bytes = encoder.encode(CharBuffer.wrap(escape(edit.currentText, encoder)));
+                while (bytes.hasRemaining()) {
+                    target.write(bytes);
+                }
+                position = edit.byteEnd;
+            }
+            transfer(source, target, position, source.size() - position);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        try {
+            Files.move(temp, plan.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, plan.file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void transfer(FileChannel source, FileChannel target, long position, long count) throws IOException {
+        while (count > 0) {
+            long transferred = source.transferTo(position, count, target);
+            if (transferred <= 0) {
+                throw new EOFException("修补时源文件被截断");
+            }
+            position += transferred;
+            count -= transferred;
+        }
+    }
+
+    /**
+     * 文本转义：& 和 < 必须转义，> 只在 "]]>" 中转义；编码无法表示的字符写为字符引用
+     */
+    static String escape(String text, CharsetEncoder encoder) {
+        StringBuilder sb = new StringBuilder(text.length() + 16);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '&') {
+                sb.append("&amp;");
+            } else if (c == '<') {
+                sb.append("&lt;");
+            } else if (c == '>' && i >= 2 && text.charAt(i - 1) == ']' && text.charAt(i - 2) == ']') {
+                sb.append("&gt;");
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()) {
+                String pair = text.substring(i, i + 2);
+                if (encoder.canEncode(pair)) {
+                    sb.append(pair);
+                } else {
+                    sb.append("&#x").append(Integer.toHexString(pair.codePointAt(0))).append(';');
+                }
+                i++;
+            } else if (c >= 0x80 && !encoder.canEncode(c)) {
+                sb.append("&#x").append(Integer.toHexString(c)).append(';');
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 反转义预定义实体和字符引用；含其他实体时返回 null
+     */
+    static String unescape(String raw) {
+        int amp = raw.indexOf('&');
+        if (amp < 0) {
+            return raw;
+        }
+        StringBuilder sb = new StringBuilder(raw.length());
+        sb.append(raw, 0, amp);
+        int i = amp;
+        while (i < raw.length()) {
+            char c = raw.charAt(i);
+            if (c != '&') {
+                sb.append(c);
+                i++;
+                continue;
+            }
+            int semi = raw.indexOf(';', i);
+            if (semi < 0) {
+                return null;
+            }
+            String entity = raw.substring(i + 1, semi);
+            switch (entity) {
+                case "lt": sb.append('<'); break;
+                case "gt": sb.append('>'); break;
+                case "amp": sb.append('&'); break;
+                case "quot": sb.append('"'); break;
+                case "apos": sb.append('\''); break;
+                default:
+                    if (!entity.startsWith("#")) {
+                        return null;
+                    }
+                    try {
+                        int codePoint = entity.startsWith("#x") || entity.startsWith("#X")
+                                ? Integer.parseInt(entity.substring(2), 16)
+                                : Integer.parseInt(entity.substring(1));
+                        sb.appendCodePoint(codePoint);
+                    } catch (IllegalArgumentException e) {
+                        return null;
+                    }
+            }
+            i = semi + 1;
+        }
+        return sb.toString();
+    }
+
+    // ========== 扫描 ==========
+
+    /**
+     * 各编码下单个 char 占用的字节数
+     */
+    private abstract static class ByteWidth {
+        abstract int of(char c);
+
+        static ByteWidth forCharset(Charset charset) {
+            String name = charset.name();
+            if (name.equals("UTF-16LE") || name.equals("UTF-16BE")) {
+                return new ByteWidth() {
+                    @Override
+                    int of(char c) {
+                        return 2;
+                    }
+                };
+            }
+            if (name.equals("UTF-8")) {
+                return new ByteWidth() {
+                    @Override
+                    int of(char c) {
+                        if (c < 0x80) return 1;
+                        if (c < 0x800) return 2;
+                        if (Character.isHighSurrogate(c)) return 4;
+                        if (Character.isLowSurrogate(c)) return 0;
+                        return 3;
+                    }
+                };
+            }
+            if (charset.canEncode() && charset.newEncoder().maxBytesPerChar() == 1.0f) {
+                return new ByteWidth() {
+                    @Override
+                    int of(char c) {
+                        return 1;
+                    }
+                };
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 带字节位置的字符读取
+     */
+    private static final class CharCursor {
+        private final Reader reader;
+        private final ByteWidth width;
+        private final char[] buffer = new char[BUFFER_SIZE];
+        private int position;
+        private int limit;
+        long bytePosition;
+
+        CharCursor(Reader reader, ByteWidth width, long startByte) {
+            this.reader = reader;
+            this.width = width;
+            this.bytePosition = startByte;
+        }
+
+        int read() throws IOException {
+            if (position == limit) {
+                limit = reader.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            char c = buffer[position++];
+            bytePosition += width.of(c);
+            return c;
+        }
+
+        /**
+         * 读到指定结束标记为止（含标记），返回读到的内容（不含标记）
+         */
+        String readUntil(String terminator) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int termLength = terminator.length();
+            char last = terminator.charAt(termLength - 1);
+            int c;
+            while ((c = read()) != -1) {
+                sb.append((char) c);
+                int length = sb.length();
+                if (c == last && length >= termLength && endsWith(sb, terminator)) {
+                    sb.setLength(length - termLength);
+                    return sb.toString();
+                }
+            }
+            throw new EOFException("未找到结束标记: " + terminator);
+        }
+
+        private static boolean endsWith(StringBuilder sb, String suffix) {
+            int offset = sb.length() - suffix.length();
+            for (int i = 0; i < suffix.length(); i++) {
+                if (sb.charAt(offset + i) != suffix.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 轻量的标记扫描：统计开始标签序号，只为目标元素记录属性、文本内容和文本区间
+     */
+    private static final class Scanner {
+        private final CharCursor cursor;
+        private final Set<Integer> ordinals;
+        private final Map<Integer, ElementText> targets = new HashMap<>();
+        private final int maxOrdinal;
+        private int ordinal;
+        private boolean lastTagSelfClosing;
+
+        Scanner(CharCursor cursor, Set<Integer> ordinals) {
+            this.cursor = cursor;
+            this.ordinals = ordinals;
+            this.maxOrdinal = ordinals.isEmpty() ? -1 : Collections.max(ordinals);
+        }
+
+        Map<Integer, ElementText> run() throws IOException {
+            // 正在收集文本的目标元素（目标之间可以嵌套）
+            List<ElementText> active = new ArrayList<>();
+            long beforeChar = cursor.bytePosition;
+            int c;
+            while ((c = cursor.read()) != -1) {
+                if (c != '<') {
+                    for (ElementText target : active) {
+                        target.raw.append((char) c);
+                    }
+                    beforeChar = cursor.bytePosition;
+                    continue;
+                }
+
+                long tagStart = beforeChar;
+                int next = cursor.read();
+                if (next == '/') {
+                    cursor.readUntil(">");
+                    for (Iterator<ElementText> it = active.iterator(); it.hasNext(); ) {
+                        ElementText target = it.next();
+                        if (target.depth > 0) {
+                            target.depth--;
+                            continue;
+                        }
+                        target.byteEnd = tagStart;
+                        target.originalText = unescape(target.raw.toString());
+                        if (target.originalText == null) {
+                            return null;
+                        }
+                        target.currentText = target.originalText;
+                        target.raw.setLength(0);
+                        it.remove();
+                    }
+                } else if (next == '?') {
+                    cursor.readUntil("?>");
+                    markComplex(active);
+                } else if (next == '!') {
+                    String cdata = skipDeclaration();
+                    if (!active.isEmpty()) {
+                        markComplex(active);
+                        if (cdata != null) {
+                            // CDATA 内容按转义形式并入，和普通文本一起反转义
+                            String escaped = cdata.replace("&", "&amp;").replace("<", "&lt;");
+                            for (ElementText target : active) {
+                                target.raw.append(escaped);
+                            }
+                        }
+                    }
+                } else if (next != -1) {
+                    ElementText target = readStartTag((char) next);
+                    boolean selfClosing = target != null ? target.selfClosing : lastTagSelfClosing;
+                    for (ElementText outer : active) {
+                        outer.simple = false;
+                        if (!selfClosing) {
+                            outer.depth++;
+                        }
+                    }
+                    if (target != null) {
+                        targets.put(target.ordinal, target);
+                        if (selfClosing) {
+                            target.originalText = "";
+                            target.currentText = "";
+                        } else {
+                            target.byteStart = cursor.bytePosition;
+                            active.add(target);
+                        }
+                    } else if (ordinal > maxOrdinal && active.isEmpty()) {
+                        // 所有目标都已定位
+                        break;
+                    }
+                }
+                beforeChar = cursor.bytePosition;
+            }
+            return active.isEmpty() ? targets : null;
+        }
+
+        private static void markComplex(List<ElementText> active) {
+            for (ElementText target : active) {
+                target.simple = false;
+            }
+        }
+
+        /**
+         * 跳过 "<!" 开头的注释、CDATA 或 DOCTYPE
+         *
+         * @return CDATA 段的内容；其他情况返回 null
+         */
+        private String skipDeclaration() throws IOException {
+            StringBuilder prefix = new StringBuilder();
+            while (prefix.length() < 7) {
+                int c = cursor.read();
+                if (c == -1) {
+                    return null;
+                }
+                prefix.append((char) c);
+                if (prefix.toString().equals("--")) {
+                    cursor.readUntil("-->");
+                    return null;
+                }
+                if (prefix.toString().equals("[CDATA[")) {
+                    return cursor.readUntil("]]>");
+                }
+                if (c == '>') {
+                    return null;
+                }
+                if (c == '[') {
+                    break;
+                }
+            }
+            // DOCTYPE：跳过内部子集
+            int depth = prefix.indexOf("[") >= 0 ? 1 : 0;
+            int c;
+            while ((c = cursor.read()) != -1) {
+                if (c == '[') {
+                    depth++;
+                } else if (c == ']') {
+                    depth--;
+                } else if (c == '>' && depth <= 0) {
+                    return null;
+                } else if (c == '"' || c == '\'') {
+                    cursor.readUntil(String.valueOf((char) c));
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 读取开始标签；是目标元素时返回其信息
+         */
+        private ElementText readStartTag(char first) throws IOException {
+            int current = ordinal++;
+            boolean isTarget = ordinals.contains(current);
+            StringBuilder name = new StringBuilder().append(first);
+            Map<String, String> attributes = isTarget ? new LinkedHashMap<>() : null;
+            StringBuilder attrName = new StringBuilder();
+            boolean inName = true;
+            int previous = first;
+            int c;
+            while ((c = cursor.read()) != -1) {
+                if (c == '>') {
+                    lastTagSelfClosing = previous == '/';
+                    if (!isTarget) {
+                        return null;
+                    }
+                    return new ElementText(current, name.toString(), attributes, lastTagSelfClosing);
+                }
+                if (c == '"' || c == '\'') {
+                    String value = cursor.readUntil(String.valueOf((char) c));
+                    if (isTarget) {
+                        String unescaped = unescape(value);
+                        if (unescaped == null) {
+                            unescaped = value;
+                        }
+                        attributes.put(attrName.toString().trim(), unescaped);
+                    }
+                    attrName.setLength(0);
+                    previous = c;
+                    continue;
+                }
+                if (inName) {
+                    if (Character.isWhitespace(c) || c == '/') {
+                        inName = false;
+                    } else {
+                        name.append((char) c);
+                    }
+                } else if (c != '=' && c != '/' && !Character.isWhitespace(c)) {
+                    attrName.append((char) c);
+                }
+                previous = c;
+            }
+            throw new EOFException("标签未结束");
+        }
+    }
+}
@@ -0,0 +1,550 @@
+package red.jiuzhou.search;
+
+import cn.hutool.crypto.SecureUtil;
+import lombok.extern.slf4j.Slf4j;
+import red.jiuzhou.util.BinaryStore;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static red.jiuzhou.util.BinaryStore.readString;
+import static red.jiuzhou.util.BinaryStore.writeString;
+
+/**
+ * XML搜索倒排索引
+ *
+ * 为每个XML文件建立一个索引段，记录每个元素的自身文本和属性值，
+ * 以 (文件, 元素路径, 元素序号) 作为倒排记录。元素序号是元素在文档中的先序遍历位置，
+ * 与 DOM 的 getElementsByTagName("*") 顺序一致，命中后可直接定位到 DOM 元素。
+ *
+ * 段内为每个三元组（见 {@link TrigramFilter}）保存包含它的值的倒排列表，为每个属性名保存倒排列表。
+ * 子串和正则查询先求所需三元组倒排列表的交集，只校验交集中的值；查询太短或正则无法分解时才逐值扫描。
+ *
+ * 索引段持久化在 cache/search_index 目录下，按文件修改时间和大小判断是否过期，
+ * 过期的段在下次查询时重建。TEXT / ID / ATTRIBUTE / REGEX 搜索直接由索引回答，
+ * 只有存在命中的文件才需要打开解析以构建结果上下文。
+ * 内存中只保留最近使用的段，总量超过堆的 1/8 时按 LRU 淘汰，被淘汰的段下次从磁盘读回。
+ */
+@Slf4j
+public class XmlSearchIndex {
+
+    private static final String INDEX_DIR = "cache/search_index";
+    private static final int SEGMENT_MAGIC = 0x58534958;   // "XSIX"
+    private static final int SEGMENT_VERSION = 3;
+
+    private static volatile XmlSearchIndex instance;
+
+    private final Path indexDir;
+
+    // 访问顺序的 LinkedHashMap 即 LRU，所有访问在 loaded 上同步
+    private final LinkedHashMap<String, FileSegment> loaded = new LinkedHashMap<>(64, 0.75f, true);
+    private final long maxLoadedWeight = Runtime.getRuntime().maxMemory() / 8;
+    private long loadedWeight;
+
+    // 每个文件一个建段锁，同一文件只建一次，不同文件互不阻塞
+    private final Map<String, Object> buildLocks = new ConcurrentHashMap<>();
+
+    /**
+     * 索引命中
+     */
+    public static class Hit {
+        public final int ordinal;           // 元素在文档中的先序序号
+        public final String elementPath;
+        public final String attrName;       // 属性名；命中元素文本时为 null
+        public final String value;
+
+        Hit(int ordinal, String elementPath, String attrName, String value) {
+            this.ordinal = ordinal;
+            this.elementPath = elementPath;
+            this.attrName = attrName;
+            this.value = value;
+        }
+    }
+
+    /**
+     * 单个文件的索引段
+     */
+    public static class FileSegment {
+        final String filePath;
+        final long lastModified;
+        final long fileSize;
+        final String[] elementPaths;        // 元素路径字典
+        final int[] ordinals;
+        final int[] pathIndexes;
+        final String[] attrNames;           // 空字符串表示元素文本
+        final String[] values;
+        final int[] trigrams;               // 小写化后的三元组（排序）
+        final int[] postingStarts;          // trigrams[t] 的倒排列表为 postings[postingStarts[t], postingStarts[t + 1])
+        final int[] postings;               // 值序号，每个列表内递增
+
+        private final Map<String, int[]> attrPostings;
+        private final long weight;
+        private volatile Map<String, int[]> idIndex;
+
+        FileSegment(String filePath, long lastModified, long fileSize, String[] elementPaths,
+                    int[] ordinals, int[] pathIndexes, String[] attrNames, String[] values,
+                    int[] trigrams, int[] postingStarts, int[] postings) {
+            this.filePath = filePath;
+            this.lastModified = lastModified;
+            this.fileSize = fileSize;
+            this.elementPaths = elementPaths;
+            this.ordinals = ordinals;
+            this.pathIndexes = pathIndexes;
+            this.attrNames = attrNames;
+            this.values = values;
+            this.trigrams = trigrams;
+            this.postingStarts = postingStarts;
+            this.postings = postings;
+            this.attrPostings = groupByAttrName(attrNames);
+
+            long chars = 0;
+            for (String value : values) {
+                chars += value.length();
+            }
+            this.weight = chars * 2 + (long) values.length * 64 + (long) postings.length * 4 + (long) trigrams.length * 8;
+        }
+
+        public int size() {
+            return values.length;
+        }
+
+        /**
+         * 文本搜索：元素文本或属性值包含关键字（不区分大小写）
+         */
+        public List<Hit> findText(String searchText) {
+            String needle = searchText.toLowerCase();
+            int[] candidates = candidates(TrigramFilter.forLiteral(searchText));
+            List<Hit> hits = new ArrayList<>();
+            int count = candidates == null ? values.length : candidates.length;
+            for (int k = 0; k < count; k++) {
+                int i = candidates == null ? k : candidates[k];
+                if (values[i].toLowerCase().contains(needle)) {
+                    hits.add(hit(i));
+                }
+            }
+            return hits;
+        }
+
+        /**
+         * 正则搜索：元素文本或属性值中能找到匹配
+         *
+         * @param required 正则必然包含的三元组（{@link TrigramFilter#forRegex}），为 null 时逐值扫描
+         */
+        public List<Hit> findRegex(java.util.regex.Pattern pattern, int[] required) {
+            int[] candidates = candidates(required);
+            List<Hit> hits = new ArrayList<>();
+            int count = candidates == null ? values.length : candidates.length;
+            for (int k = 0; k < count; k++) {
+                int i = candidates == null ? k : candidates[k];
+                if (pattern.matcher(values[i]).find()) {
+                    hits.add(hit(i));
+                }
+            }
+            return hits;
+        }
+
+        /**
+         * ID搜索：id 属性精确匹配
+         */
+        public List<Hit> findId(String id) {
+            Map<String, int[]> index = idIndex;
+            if (index == null) {
+                Map<String, List<Integer>> building = new HashMap<>();
+                for (int i : attrPostings.getOrDefault("id", new int[0])) {
+                    building.computeIfAbsent(values[i], k -> new ArrayList<>()).add(i);
+                }
+                index = new HashMap<>(building.size() * 2);
+                for (Map.Entry<String, List<Integer>> entry : building.entrySet()) {
+                    index.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+                }
+                idIndex = index;
+            }
+            int[] positions = index.get(id);
+            if (positions == null) {
+                return Collections.emptyList();
+            }
+            List<Hit> hits = new ArrayList<>(positions.length);
+            for (int position : positions) {
+                hits.add(hit(position));
+            }
+            return hits;
+        }
+
+        /**
+         * 属性搜索：存在指定属性，且属性值包含给定值（值为空时只要求属性存在）
+         */
+        public List<Hit> findAttribute(String attrName, String valueContains) {
+            int[] positions = attrPostings.get(attrName);
+            if (positions == null) {
+                return Collections.emptyList();
+            }
+            if (!valueContains.isEmpty()) {
+                // 三元组按小写建立，对区分大小写的包含判断同样不会漏掉候选
+                int[] candidates = candidates(TrigramFilter.forLiteral(valueContains));
+                if (candidates != null) {
+                    positions = intersect(positions, candidates);
+                }
+            }
+            List<Hit> hits = new ArrayList<>();
+            for (int i : positions) {
+                if (valueContains.isEmpty() || values[i].contains(valueContains)) {
+                    hits.add(hit(i));
+                }
+            }
+            return hits;
+        }
+
+        /**
+         * 同时包含全部所需三元组的值序号（递增）；required 为 null 时返回 null，表示需要逐值扫描
+         */
+        int[] candidates(int[] required) {
+            if (required == null) {
+                return null;
+            }
+            int[][] lists = new int[required.length][];
+            for (int r = 0; r < required.length; r++) {
+                int t = Arrays.binarySearch(trigrams, required[r]);
+                if (t < 0) {
+                    return new int[0];
+                }
+                lists[r] = Arrays.copyOfRange(postings, postingStarts[t], postingStarts[t + 1]);
+            }
+            // 从最短的列表开始求交集
+            Arrays.sort(lists, Comparator.comparingInt(list -> list.length));
+            int[] result = lists[0];
+            for (int r = 1; r < lists.length && result.length > 0; r++) {
+                result = intersect(result, lists[r]);
+            }
+            return result;
+        }
+
+        private Hit hit(int i) {
+            return new Hit(ordinals[i], elementPaths[pathIndexes[i]],
+                    attrNames[i].isEmpty() ? null : attrNames[i], values[i]);
+        }
+
+        private static Map<String, int[]> groupByAttrName(String[] attrNames) {
+            Map<String, Integer> counts = new HashMap<>();
+            for (String attrName : attrNames) {
+                if (!attrName.isEmpty()) {
+                    counts.merge(attrName, 1, Integer::sum);
+                }
+            }
+            Map<String, int[]> grouped = new HashMap<>(counts.size() * 2);
+            Map<String, Integer> filled = new HashMap<>(counts.size() * 2);
+            for (int i = 0; i < attrNames.length; i++) {
+                String attrName = attrNames[i];
+                if (attrName.isEmpty()) {
+                    continue;
+                }
+                int[] list = grouped.computeIfAbsent(attrName, k -> new int[counts.get(k)]);
+                int n = filled.merge(attrName, 1, Integer::sum);
+                list[n - 1] = i;
+            }
+            return grouped;
+        }
+
+        private static int[] intersect(int[] a, int[] b) {
+            int[] result = new int[Math.min(a.length, b.length)];
+            int n = 0;
+            int i = 0;
+            int j = 0;
+            while (i < a.length && j < b.length) {
+                if (a[i] < b[j]) {
+                    i++;
+                } else if (a[i] > b[j]) {
+                    j++;
+                } else {
+                    result[n++] = a[i];
+                    i++;
+                    j++;
+                }
+            }
+            return Arrays.copyOf(result, n);
+        }
+    }
+
+    XmlSearchIndex(Path indexDir) {
+        this.indexDir = indexDir;
+    }
+
+    public static XmlSearchIndex getInstance() {
+        if (instance == null) {
+            synchronized (XmlSearchIndex.class) {
+                if (instance == null) {
+                    instance = new XmlSearchIndex(Paths.get(INDEX_DIR));
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 获取文件的最新索引段（内存 → 磁盘 → 重建）
+     */
+    public FileSegment getSegment(Path file) throws IOException {
+        String key = file.toAbsolutePath().normalize().toString();
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        long fileSize = Files.size(file);
+
+        FileSegment segment = loadedSegment(key);
+        if (isCurrent(segment, lastModified, fileSize)) {
+            return segment;
+        }
+
+        synchronized (buildLocks.computeIfAbsent(key, k -> new Object())) {
+            segment = loadedSegment(key);
+            if (isCurrent(segment, lastModified, fileSize)) {
+                return segment;
+            }
+            segment = readSegment(key);
+            if (!isCurrent(segment, lastModified, fileSize)) {
+                segment = buildSegment(file, key, lastModified, fileSize);
+                writeSegment(segment);
+            }
+            keepLoaded(key, segment);
+            return segment;
+        }
+    }
+
+    /**
+     * 使某个文件的索引段失效（文件被本程序改写后调用）
+     */
+    public void invalidate(Path file) {
+        String key = file.toAbsolutePath().normalize().toString();
+        synchronized (loaded) {
+            FileSegment removed = loaded.remove(key);
+            if (removed != null) {
+                loadedWeight -= removed.weight;
+            }
+        }
+        try {
+            Files.deleteIfExists(segmentFile(key));
+        } catch (IOException e) {
+            log.debug("删除索引段失败: {}", key);
+        }
+    }
+
+    /**
+     * 清空全部索引
+     */
+    public void clear() {
+        synchronized (loaded) {
+            loaded.clear();
+            loadedWeight = 0;
+        }
+        if (!Files.isDirectory(indexDir)) {
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(indexDir, "*.idx")) {
+            for (Path path : stream) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            log.warn("清空搜索索引失败: {}", e.getMessage());
+        }
+    }
+
+    private FileSegment loadedSegment(String key) {
+        synchronized (loaded) {
+            return loaded.get(key);
+        }
+    }
+
+    /**
+     * 放入内存并按 LRU 淘汰超出上限的段（刚放入的段过大时也会被淘汰，调用方仍可使用本次返回的段）
+     */
+    private void keepLoaded(String key, FileSegment segment) {
+        synchronized (loaded) {
+            FileSegment previous = loaded.put(key, segment);
+            if (previous != null) {
+                loadedWeight -= previous.weight;
+            }
+            loadedWeight += segment.weight;
+            Iterator<FileSegment> eldest = loaded.values().iterator();
+            while (loadedWeight > maxLoadedWeight && eldest.hasNext()) {
+                loadedWeight -= eldest.next().weight;
+                eldest.remove();
+            }
+        }
+    }
+
+    private static boolean isCurrent(FileSegment segment, long lastModified, long fileSize) {
+        return segment != null && segment.lastModified == lastModified && segment.fileSize == fileSize;
+    }
+
+    // ========== 建立索引 ==========
+
+    private FileSegment buildSegment(Path file, String key, long lastModified, long fileSize) throws IOException {
+        long start = System.currentTimeMillis();
+        Map<String, Integer> pathDict = new LinkedHashMap<>();
+        List<int[]> positions = new ArrayList<>();      // {ordinal, pathIndex}
+        List<String> attrNames = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+
+        StreamingXmlSearcher.visit(file, new StreamingXmlSearcher.ElementVisitor() {
+            @Override
+            public boolean onStart(StreamingXmlSearcher.ElementInfo element) {
+                int[] position = position(element);
+                for (Map.Entry<String, String> attr : element.attributes.entrySet()) {
+                    positions.add(position);
+                    attrNames.add(attr.getKey());
+                    values.add(attr.getValue());
+                }
+                return true;
+            }
+
+            @Override
+            public boolean onEnd(StreamingXmlSearcher.ElementInfo element) {
+                if (!element.text.isEmpty()) {
+                    positions.add(position(element));
+                    attrNames.add("");
+                    values.add(element.text);
+                }
+                return true;
+            }
+
+            private int[] position(StreamingXmlSearcher.ElementInfo element) {
+                Integer pathIndex = pathDict.get(element.path);
+                if (pathIndex == null) {
+                    pathIndex = pathDict.size();
+                    pathDict.put(element.path, pathIndex);
+                }
+                return new int[]{element.ordinal, pathIndex};
+            }
+        });
+
+        int count = values.size();
+        int[] ordinals = new int[count];
+        int[] pathIndexes = new int[count];
+        for (int i = 0; i < count; i++) {
+            ordinals[i] = positions.get(i)[0];
+            pathIndexes[i] = positions.get(i)[1];
+        }
+
+        // (三元组, 值序号) 排序后按三元组切分即为倒排列表，列表内的值序号自然递增
+        long[] pairs = new long[Math.max(16, count)];
+        int pairCount = 0;
+        for (int i = 0; i < count; i++) {
+            for (int trigram : TrigramFilter.trigramsOf(values.get(i).toLowerCase())) {
+                if (pairCount == pairs.length) {
+                    pairs = Arrays.copyOf(pairs, pairCount * 2);
+                }
+                pairs[pairCount++] = ((long) trigram << 32) | i;
+            }
+        }
+        Arrays.sort(pairs, 0, pairCount);
+        int[] postings = new int[pairCount];
+        int[] trigramBuffer = new int[pairCount];
+        int[] startBuffer = new int[pairCount + 1];
+        int trigramCount = 0;
+        for (int p = 0; p < pairCount; p++) {
+            int trigram = (int) (pairs[p] >> 32);
+            if (trigramCount == 0 || trigramBuffer[trigramCount - 1] != trigram) {
+                trigramBuffer[trigramCount] = trigram;
+                startBuffer[trigramCount++] = p;
+            }
+            postings[p] = (int) pairs[p];
+        }
+        startBuffer[trigramCount] = pairCount;
+
+        FileSegment segment = new FileSegment(key, lastModified, fileSize,
+                pathDict.keySet().toArray(new String[0]), ordinals, pathIndexes,
+                attrNames.toArray(new String[0]), values.toArray(new String[0]),
+                Arrays.copyOf(trigramBuffer, trigramCount), Arrays.copyOf(startBuffer, trigramCount + 1), postings);
+        log.debug("建立索引段 {}: {} 条记录, 耗时 {}ms", file.getFileName(), count, System.currentTimeMillis() - start);
+        return segment;
+    }
+
+    // ========== 持久化 ==========
+
+    private Path segmentFile(String key) {
+        return indexDir.resolve(SecureUtil.md5(key) + ".idx");
+    }
+
+    private FileSegment readSegment(String key) {
+        Path path = segmentFile(key);
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try (DataInputStream in = BinaryStore.openInput(path)) {
+            if (!BinaryStore.readHeader(in, SEGMENT_MAGIC, SEGMENT_VERSION)) {
+                return null;
+            }
+            String filePath = readString(in);
+            if (!key.equals(filePath)) {
+                return null;
+            }
+            long lastModified = in.readLong();
+            long fileSize = in.readLong();
+
+            String[] elementPaths = new String[in.readInt()];
+            for (int i = 0; i < elementPaths.length; i++) {
+                elementPaths[i] = readString(in);
+            }
+            int count = in.readInt();
+            int[] ordinals = new int[count];
+            int[] pathIndexes = new int[count];
+            String[] attrNames = new String[count];
+            String[] values = new String[count];
+            for (int i = 0; i < count; i++) {
+                ordinals[i] = in.readInt();
+                pathIndexes[i] = in.readInt();
+                attrNames[i] = readString(in).intern();
+                values[i] = readString(in);
+            }
+            int[] trigrams = new int[in.readInt()];
+            int[] postingStarts = new int[trigrams.length + 1];
+            for (int t = 0; t < trigrams.length; t++) {
+                trigrams[t] = in.readInt();
+                postingStarts[t + 1] = postingStarts[t] + in.readInt();
+            }
+            int[] postings = new int[in.readInt()];
+            if (postings.length != postingStarts[trigrams.length]) {
+                return null;
+            }
+            for (int p = 0; p < postings.length; p++) {
+                postings[p] = in.readInt();
+            }
+            return new FileSegment(filePath, lastModified, fileSize, elementPaths,
+                    ordinals, pathIndexes, attrNames, values, trigrams, postingStarts, postings);
+        } catch (IOException e) {
+            log.debug("读取索引段失败，将重建: {}", key);
+            return null;
+        }
+    }
+
+    private void writeSegment(FileSegment segment) {
+        try {
+            BinaryStore.write(segmentFile(segment.filePath), SEGMENT_MAGIC, SEGMENT_VERSION, out -> {
+                writeString(out, segment.filePath);
+                out.writeLong(segment.lastModified);
+                out.writeLong(segment.fileSize);
+                out.writeInt(segment.elementPaths.length);
+                for (String elementPath : segment.elementPaths) {
+                    writeString(out, elementPath);
+                }
+                out.writeInt(segment.values.length);
+                for (int i = 0; i < segment.values.length; i++) {
+                    out.writeInt(segment.ordinals[i]);
+                    out.writeInt(segment.pathIndexes[i]);
+                    writeString(out, segment.attrNames[i]);
+                    writeString(out, segment.values[i]);
+                }
+                out.writeInt(segment.trigrams.length);
+                for (int t = 0; t < segment.trigrams.length; t++) {
+                    out.writeInt(segment.trigrams[t]);
+                    out.writeInt(segment.postingStarts[t + 1] - segment.postingStarts[t]);
+                }
+                out.writeInt(segment.postings.length);
+                for (int posting : segment.postings) {
+                    out.writeInt(posting);
+                }
+            });
+        } catch (IOException e) {
+            log.warn("写入索引段失败: {} - {}", segment.filePath, e.getMessage());
+        }
+    }
+}
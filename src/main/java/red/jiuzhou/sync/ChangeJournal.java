@@ -0,0 +1,385 @@
+package red.jiuzhou.sync;
+
+import cn.hutool.crypto.SecureUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import red.jiuzhou.tabmapping.TableMapping;
+
+import java.sql.Timestamp;
+import java.util.*;
+
+/**
+ * 变更捕获日志（Change Data Capture）
+ *
+ * 映射表本身没有修改时间字段，因此通过触发器把每次增删改的主键和操作类型
+ * 追加到一张紧凑的日志表 sync_change_journal 中；同步时从持久化的水位（sync_watermark）
+ * 开始消费日志，只处理上次同步之后被修改过的行。同步成功后推进水位并压缩日志。
+ *
+ * 同步自身的写入不应再次进入日志（否则双向同步会来回反复），
+ * 同步连接在写入前设置会话变量 {@value #SUPPRESS_VAR}，触发器检测到后跳过记录。
+ *
+ * 自增序号在插入时分配、提交时才可见，一个较早分配序号的事务可能在快照之后才提交。
+ * 因此每次消费时回读水位之下 {@value #REREAD_WINDOW} 个序号的窗口（重复处理的主键两端一致时直接跳过），
+ * 压缩时同样保留这段窗口。
+ *
+ * 手动处理（MANUAL）策略下的冲突记入 sync_conflict 表，水位照常推进；
+ * 之后每次增量同步都会重新检查这些主键，两端一致或按方向同步后才移除。
+ *
+ * @author yanxq
+ * @date 2025-01-20
+ * @version 1.0
+ */
+public class ChangeJournal {
+
+    private static final Logger log = LoggerFactory.getLogger(ChangeJournal.class);
+
+    public static final String JOURNAL_TABLE = "sync_change_journal";
+    public static final String WATERMARK_TABLE = "sync_watermark";
+    public static final String CONFLICT_TABLE = "sync_conflict";
+
+    /**
+     * 消费时回读水位之下的序号数（覆盖快照时尚未提交的事务）
+     */
+    public static final long REREAD_WINDOW = 1000;
+
+    /**
+     * 只记录了同步时间、尚未建立日志水位的消费者（未启用变更捕获时的同步）
+     */
+    private static final long NO_WATERMARK = -1;
+
+    /**
+     * 同步连接设置此会话变量后，触发器不记录日志
+     */
+    public static final String SUPPRESS_VAR = "@sync_journal_suppress";
+
+    /**
+     * MySQL 标识符最大长度
+     */
+    private static final int MAX_IDENTIFIER_LENGTH = 64;
+
+    /**
+     * 一段日志区间内某张表被修改过的主键
+     */
+    public static class ChangeSet {
+        public final String tableName;
+        /** 主键 -> 该主键最后一次修改时间 */
+        public final Map<String, Timestamp> lastChanged = new LinkedHashMap<>();
+
+        public ChangeSet(String tableName) {
+            this.tableName = tableName;
+        }
+
+        public boolean contains(String key) {
+            return lastChanged.containsKey(key);
+        }
+
+        public int size() {
+            return lastChanged.size();
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private volatile boolean schemaReady = false;
+    private final Object schemaLock = new Object();
+
+    public ChangeJournal(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * 创建日志表、水位表和冲突表（每个实例只执行一次 DDL）
+     */
+    public void ensureSchema() {
+        if (schemaReady) {
+            return;
+        }
+        synchronized (schemaLock) {
+            if (schemaReady) {
+                return;
+            }
+            createSchema();
+            schemaReady = true;
+        }
+    }
+
+    private void createSchema() {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + JOURNAL_TABLE + " (" +
+                "seq BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY, " +
+                "table_name VARCHAR(128) NOT NULL, " +
+                "row_key VARCHAR(255) NOT NULL, " +
+                "op CHAR(1) NOT NULL, " +
+                "changed_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3), " +
+                "KEY idx_table_seq (table_name, seq)" +
+                ") ENGINE=InnoDB");
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + WATERMARK_TABLE + " (" +
+                "consumer VARCHAR(255) NOT NULL PRIMARY KEY, " +
+                "last_seq BIGINT NOT NULL DEFAULT 0, " +
+                "last_sync_time DATETIME NULL" +
+                ") ENGINE=InnoDB");
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + CONFLICT_TABLE + " (" +
+                "consumer VARCHAR(255) NOT NULL, " +
+                "row_key VARCHAR(255) NOT NULL, " +
+                "detected_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3), " +
+                "PRIMARY KEY (consumer, row_key)" +
+                ") ENGINE=InnoDB");
+    }
+
+    /**
+     * 为映射的两张表安装变更捕获触发器
+     *
+     * @param mappings 表映射（来自 tabMapping.json）
+     * @param keyField 主键字段
+     * @return 安装了触发器的表数量
+     */
+    public int installTriggers(List<TableMapping> mappings, String keyField) {
+        ensureSchema();
+        Set<String> tables = new LinkedHashSet<>();
+        for (TableMapping mapping : mappings) {
+            tables.add(mapping.svr_tab);
+            tables.add(mapping.clt_tab);
+        }
+
+        int installed = 0;
+        for (String table : tables) {
+            if (table == null || table.isEmpty()) {
+                continue;
+            }
+            try {
+                if (!hasColumn(table, keyField)) {
+                    log.warn("表 {} 不存在或缺少主键字段 {}，跳过安装触发器", table, keyField);
+                    continue;
+                }
+                installTableTriggers(table, keyField);
+                installed++;
+            } catch (Exception e) {
+                log.error("为表 {} 安装变更捕获触发器失败: {}", table, e.getMessage());
+            }
+        }
+        log.info("变更捕获触发器安装完成: {} 张表", installed);
+        return installed;
+    }
+
+    /**
+     * 移除映射表上的变更捕获触发器
+     */
+    public void uninstallTriggers(List<TableMapping> mappings) {
+        Set<String> tables = new LinkedHashSet<>();
+        for (TableMapping mapping : mappings) {
+            tables.add(mapping.svr_tab);
+            tables.add(mapping.clt_tab);
+        }
+        for (String table : tables) {
+            for (String suffix : new String[]{"ai", "au", "ad"}) {
+                jdbcTemplate.execute("DROP TRIGGER IF EXISTS `" + triggerName(table, suffix) + "`");
+            }
+        }
+    }
+
+    /**
+     * 两张表是否都已安装触发器
+     */
+    public boolean isInstalled(TableMapping mapping) {
+        String sql = "SELECT COUNT(*) FROM information_schema.TRIGGERS " +
+                "WHERE TRIGGER_SCHEMA = DATABASE() AND TRIGGER_NAME IN (?, ?)";
+        Integer count = jdbcTemplate.queryForObject(sql, Integer.class,
+                triggerName(mapping.svr_tab, "au"), triggerName(mapping.clt_tab, "au"));
+        return count != null && count == 2;
+    }
+
+    private void installTableTriggers(String table, String keyField) {
+        String journalInsert = "INSERT INTO " + JOURNAL_TABLE + " (table_name, row_key, op) VALUES ('" +
+                table + "', CAST(%s.`" + keyField + "` AS CHAR), '%s');";
+
+        String insertBody = String.format(journalInsert, "NEW", "I");
+        String deleteBody = String.format(journalInsert, "OLD", "D");
+        // 主键被修改时，旧主键按删除记录
+        String updateBody = String.format(journalInsert, "NEW", "U") +
+                " IF NOT (OLD.`" + keyField + "` <=> NEW.`" + keyField + "`) THEN " +
+                String.format(journalInsert, "OLD", "D") + " END IF;";
+
+        createTrigger(table, "ai", "AFTER INSERT", insertBody);
+        createTrigger(table, "au", "AFTER UPDATE", updateBody);
+        createTrigger(table, "ad", "AFTER DELETE", deleteBody);
+    }
+
+    private void createTrigger(String table, String suffix, String timing, String body) {
+        String name = triggerName(table, suffix);
+        jdbcTemplate.execute("DROP TRIGGER IF EXISTS `" + name + "`");
+        jdbcTemplate.execute("CREATE TRIGGER `" + name + "` " + timing + " ON `" + table + "` FOR EACH ROW " +
+                "BEGIN IF " + SUPPRESS_VAR + " IS NULL THEN " + body + " END IF; END");
+    }
+
+    private static String triggerName(String table, String suffix) {
+        String name = "sj_" + table + "_" + suffix;
+        if (name.length() > MAX_IDENTIFIER_LENGTH) {
+            name = "sj_" + SecureUtil.md5(table).substring(0, 16) + "_" + suffix;
+        }
+        return name;
+    }
+
+    private boolean hasColumn(String table, String column) {
+        String sql = "SELECT COUNT(*) FROM information_schema.COLUMNS " +
+                "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND COLUMN_NAME = ?";
+        Integer count = jdbcTemplate.queryForObject(sql, Integer.class, table, column);
+        return count != null && count > 0;
+    }
+
+    // ========== 日志消费 ==========
+
+    /**
+     * 当前日志最大序号（作为本次同步的快照上界；快照时未提交的较小序号由回读窗口覆盖）
+     */
+    public long currentSeq() {
+        ensureSchema();
+        Long seq = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(seq), 0) FROM " + JOURNAL_TABLE, Long.class);
+        return seq != null ? seq : 0L;
+    }
+
+    /**
+     * 读取 (fromExclusive, toInclusive] 区间内某张表被修改过的主键
+     */
+    public ChangeSet readChanges(String table, long fromExclusive, long toInclusive) {
+        ChangeSet changeSet = new ChangeSet(table);
+        String sql = "SELECT row_key, MAX(changed_at) AS last_changed FROM " + JOURNAL_TABLE +
+                " WHERE table_name = ? AND seq > ? AND seq <= ? GROUP BY row_key";
+        jdbcTemplate.query(sql, rs -> {
+            changeSet.lastChanged.put(rs.getString("row_key"), rs.getTimestamp("last_changed"));
+        }, table, fromExclusive, toInclusive);
+        return changeSet;
+    }
+
+    // ========== 水位 ==========
+
+    /**
+     * 映射对应的消费者标识
+     */
+    public static String consumerOf(TableMapping mapping) {
+        return mapping.svr_tab + "<->" + mapping.clt_tab;
+    }
+
+    /**
+     * 读取消费水位，从未做过基于日志的全量同步时返回 null
+     *
+     * 水位为 0 同样视为未建立：早期版本在未启用变更捕获时会写入 0 水位，
+     * 无法与真正的初始水位区分，重新做一次全量同步才能保证触发器安装前已存在的行被同步。
+     */
+    public Long getWatermark(String consumer) {
+        ensureSchema();
+        List<Long> seqs = jdbcTemplate.queryForList(
+                "SELECT last_seq FROM " + WATERMARK_TABLE + " WHERE consumer = ?", Long.class, consumer);
+        return seqs.isEmpty() || seqs.get(0) == null || seqs.get(0) <= 0 ? null : seqs.get(0);
+    }
+
+    /**
+     * 保存消费水位和同步时间
+     */
+    public void saveWatermark(String consumer, long seq, Date syncTime) {
+        ensureSchema();
+        jdbcTemplate.update("INSERT INTO " + WATERMARK_TABLE + " (consumer, last_seq, last_sync_time) VALUES (?, ?, ?) " +
+                        "ON DUPLICATE KEY UPDATE last_seq = VALUES(last_seq), last_sync_time = VALUES(last_sync_time)",
+                consumer, seq, new Timestamp(syncTime.getTime()));
+    }
+
+    /**
+     * 只保存同步时间，不建立或修改日志水位（未启用变更捕获时使用）
+     */
+    public void saveSyncTime(String consumer, Date syncTime) {
+        ensureSchema();
+        jdbcTemplate.update("INSERT INTO " + WATERMARK_TABLE + " (consumer, last_seq, last_sync_time) VALUES (?, ?, ?) " +
+                        "ON DUPLICATE KEY UPDATE last_sync_time = VALUES(last_sync_time)",
+                consumer, NO_WATERMARK, new Timestamp(syncTime.getTime()));
+    }
+
+    /**
+     * 读取所有消费者的上次同步时间
+     */
+    public Map<String, Date> loadSyncTimes() {
+        ensureSchema();
+        Map<String, Date> times = new HashMap<>();
+        jdbcTemplate.query("SELECT consumer, last_sync_time FROM " + WATERMARK_TABLE +
+                " WHERE last_sync_time IS NOT NULL", rs -> {
+            times.put(rs.getString("consumer"), rs.getTimestamp("last_sync_time"));
+        });
+        return times;
+    }
+
+    // ========== 待手动处理的冲突 ==========
+
+    /**
+     * 记录需要手动处理的冲突主键（已存在则更新发现时间）
+     */
+    public void recordConflicts(String consumer, Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        ensureSchema();
+        List<Object[]> args = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            args.add(new Object[]{consumer, key});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO " + CONFLICT_TABLE + " (consumer, row_key) VALUES (?, ?) " +
+                "ON DUPLICATE KEY UPDATE detected_at = CURRENT_TIMESTAMP(3)", args);
+    }
+
+    /**
+     * 尚未处理的冲突主键
+     */
+    public Set<String> loadConflicts(String consumer) {
+        ensureSchema();
+        return new LinkedHashSet<>(jdbcTemplate.queryForList(
+                "SELECT row_key FROM " + CONFLICT_TABLE + " WHERE consumer = ? ORDER BY detected_at",
+                String.class, consumer));
+    }
+
+    /**
+     * 移除已解决的冲突主键
+     */
+    public void clearConflicts(String consumer, Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        ensureSchema();
+        List<Object[]> args = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            args.add(new Object[]{consumer, key});
+        }
+        jdbcTemplate.batchUpdate("DELETE FROM " + CONFLICT_TABLE + " WHERE consumer = ? AND row_key = ?", args);
+    }
+
+    /**
+     * 压缩日志：删除所有相关消费者都已消费过的记录（保留水位之下的回读窗口）
+     *
+     * @param mappings 全部映射（同一张表可能出现在多个映射中）
+     * @return 删除的日志条数
+     */
+    public int compact(List<TableMapping> mappings) {
+        ensureSchema();
+        Map<String, Long> consumerSeqs = new HashMap<>();
+        jdbcTemplate.query("SELECT consumer, last_seq FROM " + WATERMARK_TABLE, rs -> {
+            consumerSeqs.put(rs.getString("consumer"), rs.getLong("last_seq"));
+        });
+
+        // 每张表只能压缩到引用它的所有映射中最小的水位
+        Map<String, Long> tableSafeSeq = new HashMap<>();
+        for (TableMapping mapping : mappings) {
+            Long seq = consumerSeqs.get(consumerOf(mapping));
+            long safe = seq != null ? seq : 0L;
+            tableSafeSeq.merge(mapping.svr_tab, safe, Math::min);
+            tableSafeSeq.merge(mapping.clt_tab, safe, Math::min);
+        }
+
+        int removed = 0;
+        for (Map.Entry<String, Long> entry : tableSafeSeq.entrySet()) {
+            long upTo = entry.getValue() - REREAD_WINDOW;
+            if (upTo > 0) {
+                removed += jdbcTemplate.update("DELETE FROM " + JOURNAL_TABLE +
+                        " WHERE table_name = ? AND seq <= ?", entry.getKey(), upTo);
+            }
+        }
+        if (removed > 0) {
+            log.info("变更日志压缩完成，删除 {} 条", removed);
+        }
+        return removed;
+    }
+}
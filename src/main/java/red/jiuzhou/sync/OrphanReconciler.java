@@ -0,0 +1,127 @@
+package red.jiuzhou.sync;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.*;
+
+/**
+ * 多余记录清理（完全同步的收尾阶段）
+ *
+ * 用反连接一次性删除目标表中源表不存在的记录：
+ * DELETE t FROM target t LEFT JOIN source s ON s.key = t.key WHERE s.key IS NULL
+ *
+ * 为控制单条语句的锁范围，按目标表主键区间分块执行：
+ * 每块只向数据库查询一个区间上界（LIMIT 1 OFFSET n），主键列表不会传回 JVM。
+ * 区间边界由数据库自身的排序规则决定，对数值和字符串主键都适用。
+ *
+ * @author yanxq
+ * @date 2025-01-20
+ * @version 1.0
+ */
+public class OrphanReconciler {
+
+    private static final Logger log = LoggerFactory.getLogger(OrphanReconciler.class);
+
+    /**
+     * 默认每块覆盖的目标表行数
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 5000;
+
+    private OrphanReconciler() {
+    }
+
+    /**
+     * 删除目标表中源表不存在的记录
+     *
+     * @param conn 数据库连接（是否逐块提交由调用方的自动提交设置决定）
+     * @param sourceTable 源表
+     * @param targetTable 目标表
+     * @param keyColumn 主键列（两表同名）
+     * @param chunkSize 每块覆盖的目标表行数
+     * @param listener 进度监听器，每块删除后回调，可为 null
+     * @return 删除的总行数
+     */
+    public static int deleteOrphans(Connection conn,
+                                    String sourceTable,
+                                    String targetTable,
+                                    String keyColumn,
+                                    int chunkSize,
+                                    TableSyncService.SyncProgressListener listener) throws SQLException {
+
+        int size = Math.max(1, chunkSize);
+        String firstBoundSql = String.format(
+                "SELECT `%s` FROM %s WHERE `%s` IS NOT NULL ORDER BY `%s` LIMIT 1 OFFSET %d",
+                keyColumn, targetTable, keyColumn, keyColumn, size - 1);
+        String nextBoundSql = String.format(
+                "SELECT `%s` FROM %s WHERE `%s` > ? ORDER BY `%s` LIMIT 1 OFFSET %d",
+                keyColumn, targetTable, keyColumn, keyColumn, size - 1);
+
+        String antiJoin = String.format(
+                "DELETE t FROM %s t LEFT JOIN %s s ON s.`%s` = t.`%s` WHERE s.`%s` IS NULL",
+                targetTable, sourceTable, keyColumn, keyColumn, keyColumn);
+        String firstChunkSql = antiJoin + String.format(" AND t.`%s` <= ?", keyColumn);
+        String middleChunkSql = antiJoin + String.format(" AND t.`%s` > ? AND t.`%s` <= ?", keyColumn, keyColumn);
+        String lastChunkSql = antiJoin + String.format(" AND t.`%s` > ?", keyColumn);
+        String wholeTableSql = antiJoin + String.format(" AND t.`%s` IS NOT NULL", keyColumn);
+
+        int totalDeleted = 0;
+        int chunkIndex = 0;
+        Object lowerBound = null;
+        boolean first = true;
+
+        while (true) {
+            Object upperBound = first
+                    ? queryBound(conn, firstBoundSql, null)
+                    : queryBound(conn, nextBoundSql, lowerBound);
+
+            int deleted;
+            if (upperBound == null) {
+                // 剩余行数不足一块：删除最后一个开区间
+                deleted = first
+                        ? executeDelete(conn, wholeTableSql)
+                        : executeDelete(conn, lastChunkSql, lowerBound);
+            } else {
+                deleted = first
+                        ? executeDelete(conn, firstChunkSql, upperBound)
+                        : executeDelete(conn, middleChunkSql, lowerBound, upperBound);
+            }
+
+            chunkIndex++;
+            totalDeleted += deleted;
+            log.debug("清理多余记录 {} 第 {} 块: 删除 {} 行", targetTable, chunkIndex, deleted);
+            if (listener != null) {
+                listener.onOrphansDeleted(targetTable, chunkIndex, deleted, totalDeleted);
+            }
+
+            if (upperBound == null) {
+                break;
+            }
+            lowerBound = upperBound;
+            first = false;
+        }
+
+        log.info("清理多余记录完成: {} 共 {} 块，删除 {} 行", targetTable, chunkIndex, totalDeleted);
+        return totalDeleted;
+    }
+
+    private static Object queryBound(Connection conn, String sql, Object lowerBound) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            if (lowerBound != null) {
+                stmt.setObject(1, lowerBound);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getObject(1) : null;
+            }
+        }
+    }
+
+    private static int executeDelete(Connection conn, String sql, Object... params) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) {
+                stmt.setObject(i + 1, params[i]);
+            }
+            return stmt.executeUpdate();
+        }
+    }
+}
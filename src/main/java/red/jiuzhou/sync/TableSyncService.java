@@ -7,12 +7,14 @@ import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.util.StringUtils;
 import red.jiuzhou.tabmapping.MappingLoader;
 import red.jiuzhou.tabmapping.TableMapping;
 import red.jiuzhou.util.DatabaseUtil;
 import red.jiuzhou.util.XmlUtil;
+import red.jiuzhou.util.YamlUtils;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -53,6 +55,7 @@ public class TableSyncService {
         public int syncedRecords;
         public int skippedRecords;
         public int conflictRecords;
+        public int deletedRecords;
         public List<String> errors;
         public long startTime;
         public long endTime;
@@ -62,8 +65,9 @@ public class TableSyncService {
         }
 
         public String getSummary() {
-            return String.format("表 %s: 总计 %d 条，同步 %d 条，跳过 %d 条，冲突 %d 条，耗时 %d ms",
-                    tableName, totalRecords, syncedRecords, skippedRecords, conflictRecords, endTime - startTime);
+            return String.format("表 %s: 总计 %d 条，同步 %d 条，跳过 %d 条，冲突 %d 条，删除 %d 条，耗时 %d ms",
+                    tableName, totalRecords, syncedRecords, skippedRecords, conflictRecords, deletedRecords,
+                    endTime - startTime);
         }
     }
 
@@ -72,15 +76,28 @@ public class TableSyncService {
         void onProgress(String tableName, int current, int total);
         void onTableComplete(String tableName, SyncResult result);
         void onSyncComplete(List<SyncResult> results);
+
+        /**
+         * 清理多余记录时每删除一块回调一次
+         */
+        default void onOrphansDeleted(String tableName, int chunkIndex, int deletedInChunk, int totalDeleted) {
+        }
     }
 
     private JdbcTemplate jdbcTemplate;
     private SyncProgressListener progressListener;
     private Map<String, DateTime> lastSyncTimes = new ConcurrentHashMap<>();
+    private boolean deleteOrphans = false;
+    // 变更日志相关的表只在启用后才创建和读写（配置 sync.changeJournal.enabled 或界面开关）
+    private final ChangeJournal changeJournal;
+    private volatile boolean useChangeJournal = false;
+    private boolean syncTimesLoaded = false;
+    private int orphanChunkSize = OrphanReconciler.DEFAULT_CHUNK_SIZE;
 
     public TableSyncService() {
         this.jdbcTemplate = DatabaseUtil.getJdbcTemplate();
-        loadLastSyncTimes();
+        this.changeJournal = new ChangeJournal(jdbcTemplate);
+        setUseChangeJournal("true".equalsIgnoreCase(YamlUtils.getProperty("sync.changeJournal.enabled")));
     }
 
     /**
@@ -102,6 +119,9 @@ public class TableSyncService {
             try {
                 SyncResult result = syncSingleTable(mapping, direction, conflictStrategy);
                 results.add(result);
+                if (result.isSuccess()) {
+                    lastSyncTimes.put(ChangeJournal.consumerOf(mapping), DateTime.now());
+                }
 
                 if (progressListener != null) {
                     progressListener.onTableComplete(mapping.svr_tab, result);
@@ -119,6 +139,15 @@ public class TableSyncService {
         // 保存同步时间
         saveLastSyncTimes();
 
+        // 所有映射都已推进水位后压缩变更日志
+        if (useChangeJournal) {
+            try {
+                changeJournal.compact(MappingLoader.loadMappings());
+            } catch (Exception e) {
+                log.warn("压缩变更日志失败: {}", e.getMessage());
+            }
+        }
+
         if (progressListener != null) {
             progressListener.onSyncComplete(results);
         }
@@ -147,6 +176,13 @@ public class TableSyncService {
             // 获取主键字段（默认使用id）
             String keyField = getKeyField(mapping);
 
+            // 已安装变更捕获时只处理上次同步后被修改过的行
+            if (useChangeJournal && changeJournal.isInstalled(mapping)) {
+                syncFromJournal(mapping, keyField, direction, conflictStrategy, result);
+                result.endTime = System.currentTimeMillis();
+                return result;
+            }
+
             // 根据同步方向执行不同的同步逻辑
             switch (direction) {
                 case SVR_TO_CLT:
@@ -228,6 +264,14 @@ public class TableSyncService {
 
         result.syncedRecords = syncedCount;
         result.skippedRecords = skippedCount;
+
+        // 删除客户端中服务端已不存在的记录（分块反连接，不在本地比对主键）
+        // JdbcTemplate 取得的连接处于自动提交状态，每块删除单独提交，不会累积行锁
+        if (deleteOrphans) {
+            result.deletedRecords = jdbcTemplate.execute((ConnectionCallback<Integer>) conn ->
+                    OrphanReconciler.deleteOrphans(conn, mapping.svr_tab, mapping.clt_tab,
+                            keyField, orphanChunkSize, progressListener));
+        }
     }
 
     /**
@@ -408,8 +452,12 @@ public class TableSyncService {
                 resolveByTimestamp(mapping, keyField, svrRecord, cltRecord, sameFields);
                 break;
             case MANUAL:
-                // 记录冲突，等待手动处理
+                // 记录冲突，等待手动处理；启用变更日志时持久化，之后的增量同步会继续检查
                 log.warn("发现冲突记录，表: {}, 主键: {}, 需要手动处理", mapping.svr_tab, svrRecord.get(keyField));
+                if (useChangeJournal) {
+                    changeJournal.recordConflicts(ChangeJournal.consumerOf(mapping),
+                            Collections.singletonList(String.valueOf(svrRecord.get(keyField))));
+                }
                 break;
         }
     }
@@ -441,18 +489,319 @@ public class TableSyncService {
         // 实现略...
     }
 
-    private void loadLastSyncTimes() {
-        // 从配置文件或数据库加载上次同步时间
-        // 实现略...
+    private synchronized void loadLastSyncTimes() {
+        // 从水位表加载上次同步时间（启用变更日志时加载一次）
+        if (syncTimesLoaded) {
+            return;
+        }
+        syncTimesLoaded = true;
+        try {
+            for (Map.Entry<String, Date> entry : changeJournal.loadSyncTimes().entrySet()) {
+                lastSyncTimes.putIfAbsent(entry.getKey(), new DateTime(entry.getValue()));
+            }
+        } catch (Exception e) {
+            log.warn("加载上次同步时间失败: {}", e.getMessage());
+        }
     }
 
     private void saveLastSyncTimes() {
-        // 保存同步时间到配置文件或数据库
-        // 实现略...
+        // 未启用变更日志时同步时间只保存在内存中，不在数据库中建表；
+        // 启用后只写同步时间，不建立或修改水位（水位随 syncFromJournal 保存）
+        if (!useChangeJournal) {
+            return;
+        }
+        try {
+            for (Map.Entry<String, DateTime> entry : lastSyncTimes.entrySet()) {
+                changeJournal.saveSyncTime(entry.getKey(), entry.getValue());
+            }
+        } catch (Exception e) {
+            log.warn("保存同步时间失败: {}", e.getMessage());
+        }
+    }
+
+    // ========== 基于变更日志的增量同步 ==========
+
+    /**
+     * 为 tabMapping.json 中的所有映射表安装变更捕获触发器，并启用日志增量同步
+     *
+     * @return 安装了触发器的表数量
+     */
+    public int installChangeCapture() {
+        int installed = changeJournal.installTriggers(MappingLoader.loadMappings(), "id");
+        setUseChangeJournal(true);
+        return installed;
+    }
+
+    /**
+     * 根据变更日志同步：只处理水位之后被修改过的主键（含回读窗口）和尚未处理的冲突主键
+     *
+     * 首次同步（没有水位）先做一次全量同步，成功后才以同步开始时的日志序号作为初始水位。
+     */
+    private void syncFromJournal(TableMapping mapping, String keyField, SyncDirection direction,
+                                 ConflictResolution conflictStrategy, SyncResult result) {
+
+        String consumer = ChangeJournal.consumerOf(mapping);
+        long snapshotSeq = changeJournal.currentSeq();
+        Long watermark = changeJournal.getWatermark(consumer);
+
+        if (watermark == null) {
+            log.info("表 {} 首次使用变更日志同步，执行全量同步", mapping.svr_tab);
+            // 全量同步的写入走连接池中的任意连接，会留下日志记录；
+            // 这些主键在下次增量同步时两端数据一致，会被直接跳过
+            switch (direction) {
+                case SVR_TO_CLT:
+                    syncSvrToClt(mapping, keyField, result);
+                    break;
+                case CLT_TO_SVR:
+                    syncCltToSvr(mapping, keyField, result);
+                    break;
+                case BI_DIRECTIONAL:
+                    syncBiDirectional(mapping, keyField, conflictStrategy, result);
+                    break;
+            }
+            if (result.isSuccess()) {
+                changeJournal.saveWatermark(consumer, snapshotSeq, new Date());
+            }
+            return;
+        }
+
+        // 回读水位之下的一段窗口：快照时尚未提交、序号较小的日志在此补上
+        long fromSeq = Math.max(0L, watermark - ChangeJournal.REREAD_WINDOW);
+        ChangeJournal.ChangeSet svrChanges = changeJournal.readChanges(mapping.svr_tab, fromSeq, snapshotSeq);
+        ChangeJournal.ChangeSet cltChanges = changeJournal.readChanges(mapping.clt_tab, fromSeq, snapshotSeq);
+        Set<String> pendingConflicts = changeJournal.loadConflicts(consumer);
+
+        Set<String> keys = new LinkedHashSet<>();
+        if (direction != SyncDirection.CLT_TO_SVR) {
+            keys.addAll(svrChanges.lastChanged.keySet());
+        }
+        if (direction != SyncDirection.SVR_TO_CLT) {
+            keys.addAll(cltChanges.lastChanged.keySet());
+        }
+        keys.addAll(pendingConflicts);
+        result.totalRecords = keys.size();
+        log.info("表 {} 变更日志: 服务端 {} 条，客户端 {} 条，待处理冲突 {} 个，共 {} 个主键",
+                mapping.svr_tab, svrChanges.size(), cltChanges.size(), pendingConflicts.size(), keys.size());
+
+        Set<String> unresolved = new LinkedHashSet<>();
+        Set<String> failed = new HashSet<>();
+
+        if (!keys.isEmpty()) {
+            List<String> fields = new ArrayList<>(mapping.getSameFieldsSet());
+            if (!fields.contains(keyField)) {
+                fields.add(keyField);
+            }
+
+            jdbcTemplate.execute((ConnectionCallback<Void>) conn -> {
+                suppressJournal(conn, true);
+                try {
+                    Map<String, Map<String, Object>> svrRows = fetchRows(conn, mapping.svr_tab, fields, keyField, keys);
+                    Map<String, Map<String, Object>> cltRows = fetchRows(conn, mapping.clt_tab, fields, keyField, keys);
+
+                    int processed = 0;
+                    for (String key : keys) {
+                        if (progressListener != null) {
+                            progressListener.onProgress(mapping.svr_tab, processed++, result.totalRecords);
+                        }
+                        try {
+                            boolean resolved = applyJournalChange(conn, mapping, keyField, fields, key,
+                                    svrRows.get(key), cltRows.get(key), svrChanges, cltChanges,
+                                    pendingConflicts.contains(key), direction, conflictStrategy, result);
+                            if (!resolved) {
+                                unresolved.add(key);
+                            }
+                        } catch (Exception e) {
+                            failed.add(key);
+                            result.errors.add("处理记录 " + key + " 时出错: " + e.getMessage());
+                            result.skippedRecords++;
+                        }
+                    }
+                } finally {
+                    suppressJournal(conn, false);
+                }
+                return null;
+            });
+        }
+
+        // 需要手动处理的冲突先持久化，再推进水位，避免这些变更随水位推进而丢失
+        changeJournal.recordConflicts(consumer, unresolved);
+        List<String> resolvedConflicts = new ArrayList<>();
+        for (String key : pendingConflicts) {
+            if (!unresolved.contains(key) && !failed.contains(key)) {
+                resolvedConflicts.add(key);
+            }
+        }
+        changeJournal.clearConflicts(consumer, resolvedConflicts);
+
+        if (result.isSuccess()) {
+            changeJournal.saveWatermark(consumer, snapshotSeq, new Date());
+        }
+    }
+
+    /**
+     * 处理单个被修改过的主键
+     *
+     * @param pendingConflict 该主键是之前记录的待手动处理冲突（视为两端都被修改）
+     * @return 是否已处理；MANUAL 策略下的冲突返回 false，由调用方持久化
+     */
+    private boolean applyJournalChange(java.sql.Connection conn, TableMapping mapping, String keyField,
+                                       List<String> fields, String key,
+                                       Map<String, Object> svrRecord, Map<String, Object> cltRecord,
+                                       ChangeJournal.ChangeSet svrChanges, ChangeJournal.ChangeSet cltChanges,
+                                       boolean pendingConflict, SyncDirection direction,
+                                       ConflictResolution conflictStrategy,
+                                       SyncResult result) throws java.sql.SQLException {
+
+        boolean svrTouched = (svrChanges.contains(key) || pendingConflict) && direction != SyncDirection.CLT_TO_SVR;
+        boolean cltTouched = (cltChanges.contains(key) || pendingConflict) && direction != SyncDirection.SVR_TO_CLT;
+
+        // 以哪一端的当前状态为准
+        boolean useServer;
+        if (svrTouched && cltTouched) {
+            if (sameRecord(svrRecord, cltRecord, fields)) {
+                result.skippedRecords++;
+                return true;
+            }
+            result.conflictRecords++;
+            switch (conflictStrategy) {
+                case SVR_PRIORITY:
+                    useServer = true;
+                    break;
+                case CLT_PRIORITY:
+                    useServer = false;
+                    break;
+                case TIMESTAMP:
+                    java.sql.Timestamp svrTime = svrChanges.lastChanged.get(key);
+                    java.sql.Timestamp cltTime = cltChanges.lastChanged.get(key);
+                    useServer = cltTime == null || (svrTime != null && !svrTime.before(cltTime));
+                    break;
+                case MANUAL:
+                default:
+                    log.warn("发现冲突记录，表: {}, 主键: {}, 需要手动处理", mapping.svr_tab, key);
+                    return false;
+            }
+        } else {
+            useServer = svrTouched;
+        }
+
+        Map<String, Object> sourceRecord = useServer ? svrRecord : cltRecord;
+        Map<String, Object> targetRecord = useServer ? cltRecord : svrRecord;
+        String targetTable = useServer ? mapping.clt_tab : mapping.svr_tab;
+
+        if (sourceRecord == null) {
+            // 源端已删除，同步删除
+            if (targetRecord != null) {
+                try (java.sql.PreparedStatement stmt = conn.prepareStatement(
+                        "DELETE FROM " + targetTable + " WHERE " + keyField + " = ?")) {
+                    stmt.setObject(1, key);
+                    stmt.executeUpdate();
+                }
+                result.deletedRecords++;
+            } else {
+                result.skippedRecords++;
+            }
+            return true;
+        }
+
+        if (targetRecord != null && sameRecord(sourceRecord, targetRecord, fields)) {
+            result.skippedRecords++;
+            return true;
+        }
+
+        String placeholders = String.join(", ", Collections.nCopies(fields.size(), "?"));
+        String updates = fields.stream()
+                .filter(f -> !f.equals(keyField))
+                .map(f -> f + " = VALUES(" + f + ")")
+                .collect(Collectors.joining(", "));
+        String upsertSql = "INSERT INTO " + targetTable + " (" + String.join(", ", fields) + ") VALUES (" +
+                placeholders + ")" + (updates.isEmpty() ? "" : " ON DUPLICATE KEY UPDATE " + updates);
+        try (java.sql.PreparedStatement stmt = conn.prepareStatement(upsertSql)) {
+            for (int i = 0; i < fields.size(); i++) {
+                stmt.setObject(i + 1, sourceRecord.get(fields.get(i)));
+            }
+            stmt.executeUpdate();
+        }
+        result.syncedRecords++;
+        return true;
+    }
+
+    /**
+     * 按主键分块读取记录
+     */
+    private Map<String, Map<String, Object>> fetchRows(java.sql.Connection conn, String tableName,
+                                                       List<String> fields, String keyField,
+                                                       Collection<String> keys) throws java.sql.SQLException {
+        Map<String, Map<String, Object>> rows = new HashMap<>();
+        List<String> keyList = new ArrayList<>(keys);
+        int chunkSize = 1000;
+        for (int from = 0; from < keyList.size(); from += chunkSize) {
+            List<String> chunk = keyList.subList(from, Math.min(from + chunkSize, keyList.size()));
+            String sql = "SELECT " + String.join(", ", fields) + " FROM " + tableName +
+                    " WHERE " + keyField + " IN (" + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+            try (java.sql.PreparedStatement stmt = conn.prepareStatement(sql)) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    stmt.setString(i + 1, chunk.get(i));
+                }
+                try (java.sql.ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        Map<String, Object> record = new HashMap<>();
+                        for (int i = 0; i < fields.size(); i++) {
+                            record.put(fields.get(i), rs.getObject(i + 1));
+                        }
+                        rows.put(String.valueOf(record.get(keyField)), record);
+                    }
+                }
+            }
+        }
+        return rows;
+    }
+
+    private boolean sameRecord(Map<String, Object> a, Map<String, Object> b, List<String> fields) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return !needsUpdate(a, b, fields);
+    }
+
+    /**
+     * 开关当前连接的变更日志记录（同步自身的写入不进入日志）
+     */
+    private void suppressJournal(java.sql.Connection conn, boolean suppress) throws java.sql.SQLException {
+        try (java.sql.Statement stmt = conn.createStatement()) {
+            stmt.execute("SET " + ChangeJournal.SUPPRESS_VAR + " = " + (suppress ? "1" : "NULL"));
+        }
     }
 
     // Setter方法
     public void setProgressListener(SyncProgressListener progressListener) {
         this.progressListener = progressListener;
     }
+
+    /**
+     * 单向同步后是否删除目标表中源表不存在的记录
+     */
+    public void setDeleteOrphans(boolean deleteOrphans) {
+        this.deleteOrphans = deleteOrphans;
+    }
+
+    /**
+     * 清理多余记录时每块覆盖的行数
+     */
+    public void setOrphanChunkSize(int orphanChunkSize) {
+        this.orphanChunkSize = orphanChunkSize;
+    }
+
+    /**
+     * 是否使用变更日志做增量同步（需先调用 installChangeCapture 安装触发器）
+     */
+    public void setUseChangeJournal(boolean useChangeJournal) {
+        this.useChangeJournal = useChangeJournal;
+        if (useChangeJournal) {
+            loadLastSyncTimes();
+        }
+    }
+
+    public boolean isUseChangeJournal() {
+        return useChangeJournal;
+    }
 }
\ No newline at end of file
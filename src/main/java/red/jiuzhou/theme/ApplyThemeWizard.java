@@ -16,7 +16,9 @@ import java.util.stream.Collectors;
 /**
  * 应用主题向导
  *
- * 引导用户安全地应用主题，提供影响预估和确认
+ * 引导用户安全地应用主题，提供影响预估和确认。
+ * 影响预估通过 {@link FileDependencyAnalyzer} 统计依赖匹配文件的其他文件，
+ * 依赖提取结果有磁盘索引，再次打开向导时几乎立即完成。
  *
  * @author Claude
  * @version 1.0
@@ -26,15 +28,22 @@ public class ApplyThemeWizard {
     private final Stage owner;
     private final Theme theme;
     private final Path targetDirectory;
+    private final FileDependencyAnalyzer dependencyAnalyzer;
 
     private Stage wizardStage;
     private List<Path> matchedFiles;
     private boolean confirmed = false;
 
     public ApplyThemeWizard(Stage owner, Theme theme, Path targetDirectory) {
+        this(owner, theme, targetDirectory, new FileDependencyAnalyzer());
+    }
+
+    public ApplyThemeWizard(Stage owner, Theme theme, Path targetDirectory,
+                            FileDependencyAnalyzer dependencyAnalyzer) {
         this.owner = owner;
         this.theme = theme;
         this.targetDirectory = targetDirectory;
+        this.dependencyAnalyzer = dependencyAnalyzer;
     }
 
     /**
@@ -192,6 +201,11 @@ public class ApplyThemeWizard {
         statsGrid.add(new Label("预计耗时:"), 0, 2);
         statsGrid.add(new Label("约 " + formatDuration(estimatedTime) + ""), 1, 2);
 
+        Label impactLabel = new Label("分析中...");
+        statsGrid.add(new Label("关联文件:"), 0, 3);
+        statsGrid.add(impactLabel, 1, 3);
+        analyzeImpact(impactLabel);
+
         // 警告信息
         if (matchedFiles.size() > 100) {
             Label warningLabel = new Label("⚠ 文件数量较多，建议分批处理");
@@ -208,6 +222,46 @@ public class ApplyThemeWizard {
         return box;
     }
 
+    /**
+     * 后台统计依赖匹配文件、但本身不在匹配范围内的文件
+     */
+    private void analyzeImpact(Label impactLabel) {
+        List<Path> files = new ArrayList<>(matchedFiles);
+        javafx.concurrent.Task<Set<Path>> impactTask = new javafx.concurrent.Task<Set<Path>>() {
+            @Override
+            protected Set<Path> call() {
+                FileDependencyAnalyzer.DependencyGraph graph = dependencyAnalyzer.analyzeDependencies(targetDirectory);
+                Set<Path> impacted = new LinkedHashSet<>();
+                for (Path file : files) {
+                    impacted.addAll(dependencyAnalyzer.analyzeImpact(file, graph));
+                }
+                impacted.removeAll(files);
+                return impacted;
+            }
+        };
+
+        impactTask.setOnSucceeded(e -> {
+            Set<Path> impacted = impactTask.getValue();
+            if (impacted.isEmpty()) {
+                impactLabel.setText("无其他文件依赖这些文件");
+                return;
+            }
+            impactLabel.setText(String.format("另有 %d 个文件依赖这些文件", impacted.size()));
+            impactLabel.setStyle("-fx-text-fill: #FF9800;");
+            impactLabel.setTooltip(new Tooltip(impacted.stream()
+                    .limit(20)
+                    .map(p -> targetDirectory.relativize(p).toString())
+                    .collect(Collectors.joining("\n"))
+                    + (impacted.size() > 20 ? "\n..." : "")));
+        });
+
+        impactTask.setOnFailed(e -> impactLabel.setText("分析失败"));
+
+        Thread thread = new Thread(impactTask, "theme-impact-preview");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
     /**
      * 文件列表标签页
      */
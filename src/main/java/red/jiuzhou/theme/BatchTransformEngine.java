@@ -3,10 +3,8 @@ package red.jiuzhou.theme;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.*;
-import org.xml.sax.InputSource;
+import red.jiuzhou.util.XmlDocumentCache;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
@@ -41,6 +39,7 @@ public class BatchTransformEngine {
 
     private final ExecutorService executorService;
     private final Map<String, String> transformCache = new ConcurrentHashMap<>();
+    private final XmlDocumentCache documentCache = XmlDocumentCache.getInstance();
 
     public BatchTransformEngine(int maxConcurrency) {
         this.executorService = Executors.newFixedThreadPool(maxConcurrency);
@@ -163,13 +162,16 @@ public class BatchTransformEngine {
                                               AtomicInteger processedCount, int totalFiles,
                                               Consumer<TransformProgress> progressCallback) {
         FileTransformResult result = new FileTransformResult(file);
+        XmlDocumentCache.Checkout checkout = null;
+        int changedCount = 0;
 
         try {
-            // 读取XML
-            Document doc = parseXmlFile(file);
+            // 读取XML（私有副本，转换不影响共享快照）
+            checkout = documentCache.checkout(file, true);
+            Document doc = checkout.getDocument();
 
             // 转换所有字段
-            int changedCount = transformDocument(doc, file, theme);
+            changedCount = transformDocument(doc, file, theme);
 
             // 写回文件
             if (changedCount > 0) {
@@ -186,6 +188,9 @@ public class BatchTransformEngine {
             result.setSuccess(false);
             result.setErrorMessage(e.getMessage());
         } finally {
+            if (checkout != null) {
+                documentCache.release(checkout, changedCount > 0);
+            }
             int processed = processedCount.incrementAndGet();
             if (progressCallback != null) {
                 progressCallback.accept(new TransformProgress(processed, totalFiles, file));
@@ -331,33 +336,6 @@ public class BatchTransformEngine {
         }
     }
 
-    /**
-     * 解析XML文件
-     * 自动检测文件编码(UTF-8或UTF-16)
-     *
-     * @param file 文件路径
-     * @return 解析后的Document对象
-     * @throws Exception 如果解析失败
-     */
-    private Document parseXmlFile(Path file) throws Exception {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        factory.setNamespaceAware(true);
-        DocumentBuilder builder = factory.newDocumentBuilder();
-
-        // 尝试检测编码
-        byte[] bytes = Files.readAllBytes(file);
-        String content = new String(bytes, StandardCharsets.UTF_8);
-
-        // 如果包含UTF-16 BOM，使用UTF-16
-        if (content.startsWith("\uFEFF") || bytes.length >= 2 &&
-                ((bytes[0] == (byte) 0xFF && bytes[1] == (byte) 0xFE) ||
-                        (bytes[0] == (byte) 0xFE && bytes[1] == (byte) 0xFF))) {
-            content = new String(bytes, StandardCharsets.UTF_16);
-        }
-
-        return builder.parse(new InputSource(new StringReader(content)));
-    }
-
     /**
      * 写入XML文件
      * 先写入临时文件再原子性移动,确保数据安全
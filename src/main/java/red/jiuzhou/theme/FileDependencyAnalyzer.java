@@ -2,14 +2,29 @@ package red.jiuzhou.theme;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.*;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import java.io.File;
+import red.jiuzhou.analysis.ReachabilityIndex;
+import red.jiuzhou.util.XmlCharsetDetector;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -21,6 +36,10 @@ import java.util.stream.Stream;
  * - 字符串引用（string_id）
  * - 文件名模式关联
  *
+ * 每个文件只流式读取一遍，同时收集定义的ID和引用的ID（多线程并行），
+ * 之后通过全局 ID→文件 映射解析引用。提取结果按文件大小、修改时间和内容MD5
+ * 持久化在 cache/file_dependencies 下，再次分析时只重新提取变化的文件。
+ *
  * @author Claude
  * @version 1.0
  */
@@ -28,6 +47,11 @@ public class FileDependencyAnalyzer {
 
     private static final Logger log = LoggerFactory.getLogger(FileDependencyAnalyzer.class);
 
+    private static final String INDEX_DIR = "cache/file_dependencies";
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+    private static final Pattern REFERENCE_SUFFIX = Pattern.compile(".*_(id|ref)$");
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
     // ID字段模式
     private static final Set<String> ID_FIELD_PATTERNS = new HashSet<>(Arrays.asList(
             "id", "item_id", "npc_id", "skill_id", "quest_id", "map_id",
@@ -46,6 +70,7 @@ public class FileDependencyAnalyzer {
      */
     public DependencyGraph analyzeDependencies(Path directory) {
         log.info("开始分析目录: {}", directory);
+        long start = System.currentTimeMillis();
 
         DependencyGraph graph = new DependencyGraph();
 
@@ -57,21 +82,55 @@ public class FileDependencyAnalyzer {
 
             log.info("找到 {} 个XML文件", xmlFiles.size());
 
-            // 第一遍：收集所有ID
-            Map<String, Set<String>> fileIdMap = new HashMap<>();
+            // 并行提取每个文件定义和引用的ID，未变化的文件直接复用索引
+            FileIdIndex index = FileIdIndex.open(Paths.get(INDEX_DIR), directory);
+            AtomicInteger reused = new AtomicInteger();
+            Map<Path, FileIdIndex.Extract> extracts = extractAll(directory, xmlFiles, index, reused);
+            index.save();
+
+            // 全局 ID -> 文件，基础名称 -> 文件
+            Map<String, List<Path>> idToFiles = new HashMap<>();
+            Map<String, List<Path>> baseNameToFiles = new HashMap<>();
             for (Path file : xmlFiles) {
-                Set<String> ids = extractIds(file);
-                fileIdMap.put(file.toString(), ids);
                 graph.addFile(file);
+                FileIdIndex.Extract extract = extracts.get(file);
+                if (extract != null) {
+                    for (String id : extract.ids) {
+                        idToFiles.computeIfAbsent(id, k -> new ArrayList<>()).add(file);
+                    }
+                }
+                baseNameToFiles.computeIfAbsent(extractBaseName(file.getFileName().toString().toLowerCase()),
+                        k -> new ArrayList<>()).add(file);
             }
 
-            // 第二遍：分析引用关系
             for (Path file : xmlFiles) {
-                analyzeFileReferences(file, graph, fileIdMap);
+                FileIdIndex.Extract extract = extracts.get(file);
+                if (extract == null) {
+                    continue;
+                }
+                for (Map.Entry<String, String> reference : extract.references.entrySet()) {
+                    String value = reference.getKey();
+                    for (Path referencedFile : idToFiles.getOrDefault(value, Collections.emptyList())) {
+                        if (!referencedFile.equals(file)) {
+                            graph.addDependency(file, referencedFile,
+                                    new Dependency(reference.getValue(), value, DependencyType.ID_REFERENCE));
+                        }
+                    }
+                }
+
+                // 分析文件名关联（如 client_items.xml 和 server_items.xml）
+                String baseName = extractBaseName(file.getFileName().toString().toLowerCase());
+                for (Path otherFile : baseNameToFiles.get(baseName)) {
+                    if (!otherFile.equals(file)) {
+                        graph.addDependency(file, otherFile,
+                                new Dependency("file_name", baseName, DependencyType.FILE_NAME_PATTERN));
+                    }
+                }
             }
 
-            log.info("依赖分析完成: {} 个文件, {} 条依赖关系",
-                    graph.getFileCount(), graph.getDependencyCount());
+            log.info("依赖分析完成: {} 个文件（复用 {} 个）, {} 条依赖关系, 耗时 {}ms",
+                    graph.getFileCount(), reused.get(), graph.getDependencyCount(),
+                    System.currentTimeMillis() - start);
 
         } catch (Exception e) {
             log.error("分析依赖关系失败", e);
@@ -81,130 +140,108 @@ public class FileDependencyAnalyzer {
     }
 
     /**
-     * 分析单个文件会影响哪些其他文件
+     * 分析单个文件会影响哪些其他文件（直接或间接依赖它的文件，查可达性索引）
      */
     public Set<Path> analyzeImpact(Path targetFile, DependencyGraph graph) {
-        Set<Path> impacted = new HashSet<>();
-        Set<Path> visited = new HashSet<>();
-        Queue<Path> queue = new LinkedList<>();
-
-        queue.offer(targetFile);
-        visited.add(targetFile);
-
-        while (!queue.isEmpty()) {
-            Path current = queue.poll();
-            Set<Path> dependents = graph.getDependents(current);
-
-            for (Path dependent : dependents) {
-                if (!visited.contains(dependent)) {
-                    visited.add(dependent);
-                    impacted.add(dependent);
-                    queue.offer(dependent);
-                }
-            }
-        }
-
-        return impacted;
+        return new HashSet<>(graph.getImpactedFiles(targetFile));
     }
 
     /**
-     * 提取文件中的所有ID
+     * 并行提取所有文件，解析失败的文件不在结果中
      */
-    private Set<String> extractIds(Path file) {
-        Set<String> ids = new HashSet<>();
-
+    private Map<Path, FileIdIndex.Extract> extractAll(Path directory, List<Path> xmlFiles,
+                                                      FileIdIndex index, AtomicInteger reused)
+            throws InterruptedException {
+        Map<Path, FileIdIndex.Extract> extracts = new ConcurrentHashMap<>();
+        if (xmlFiles.isEmpty()) {
+            return extracts;
+        }
+        int threads = Math.min(xmlFiles.size(), Math.max(1, Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "file-dependency-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
         try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(file.toFile());
-
-            NodeList elements = doc.getElementsByTagName("*");
-            for (int i = 0; i < elements.getLength(); i++) {
-                Element element = (Element) elements.item(i);
-                NamedNodeMap attributes = element.getAttributes();
-
-                for (int j = 0; j < attributes.getLength(); j++) {
-                    Attr attr = (Attr) attributes.item(j);
-                    String attrName = attr.getName().toLowerCase();
-
-                    if (ID_FIELD_PATTERNS.contains(attrName)) {
-                        ids.add(attr.getValue());
+            List<Future<?>> futures = new ArrayList<>(xmlFiles.size());
+            for (Path file : xmlFiles) {
+                futures.add(executor.submit(() -> {
+                    try {
+                        String relativePath = directory.relativize(file).toString();
+                        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                        long size = attrs.size();
+                        long lastModified = attrs.lastModifiedTime().toMillis();
+                        FileIdIndex.Extract extract = index.lookup(relativePath, file, size, lastModified);
+                        if (extract != null) {
+                            reused.incrementAndGet();
+                        } else {
+                            MessageDigest digest = FileIdIndex.newDigest();
+                            extract = extractIds(file, digest);
+                            index.put(relativePath, size, lastModified, FileIdIndex.hex(digest), extract);
+                        }
+                        extracts.put(file, extract);
+                    } catch (Exception e) {
+                        log.warn("提取ID失败: {} - {}", file, e.getMessage());
                     }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    log.warn("提取ID失败", e.getCause());
                 }
             }
-        } catch (Exception e) {
-            log.warn("提取ID失败: {}", file, e);
+        } finally {
+            executor.shutdownNow();
         }
-
-        return ids;
+        return extracts;
     }
 
     /**
-     * 分析文件的引用关系
+     * 流式读取一遍，同时收集定义的ID和引用的ID，并把读到的全部字节计入 digest
      */
-    private void analyzeFileReferences(Path file, DependencyGraph graph,
-                                       Map<String, Set<String>> fileIdMap) {
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(file.toFile());
-
-            NodeList elements = doc.getElementsByTagName("*");
-            for (int i = 0; i < elements.getLength(); i++) {
-                Element element = (Element) elements.item(i);
-                NamedNodeMap attributes = element.getAttributes();
-
-                for (int j = 0; j < attributes.getLength(); j++) {
-                    Attr attr = (Attr) attributes.item(j);
-                    String attrName = attr.getName().toLowerCase();
-                    String attrValue = attr.getValue();
-
-                    // 检查是否为引用字段
-                    if (isReferenceField(attrName)) {
-                        // 查找包含此ID的文件
-                        for (Map.Entry<String, Set<String>> entry : fileIdMap.entrySet()) {
-                            if (entry.getValue().contains(attrValue)) {
-                                Path referencedFile = new File(entry.getKey()).toPath();
-                                if (!referencedFile.equals(file)) {
-                                    graph.addDependency(file, referencedFile,
-                                            new Dependency(attrName, attrValue, DependencyType.ID_REFERENCE));
-                                }
-                            }
+    private FileIdIndex.Extract extractIds(Path file, MessageDigest digest) throws IOException {
+        Set<String> ids = new LinkedHashSet<>();
+        Map<String, String> references = new LinkedHashMap<>();
+
+        try (DigestInputStream input = new DigestInputStream(Files.newInputStream(file), digest);
+             Reader reader = XmlCharsetDetector.openReader(input, file.toString())) {
+            XMLStreamReader xml = INPUT_FACTORY.createXMLStreamReader(reader);
+            try {
+                while (xml.hasNext()) {
+                    if (xml.next() != XMLStreamConstants.START_ELEMENT) {
+                        continue;
+                    }
+                    for (int i = 0; i < xml.getAttributeCount(); i++) {
+                        String prefix = xml.getAttributePrefix(i);
+                        String attrName = (prefix == null || prefix.isEmpty()
+                                ? xml.getAttributeLocalName(i)
+                                : prefix + ":" + xml.getAttributeLocalName(i)).toLowerCase();
+                        String attrValue = xml.getAttributeValue(i);
+
+                        if (ID_FIELD_PATTERNS.contains(attrName)) {
+                            ids.add(attrValue);
+                        }
+                        // 检查是否为引用字段
+                        if (isReferenceField(attrName)) {
+                            references.putIfAbsent(attrValue, attrName);
                         }
                     }
                 }
+            } finally {
+                xml.close();
             }
-
-            // 分析文件名关联（如 client_items.xml 和 server_items.xml）
-            analyzeFileNameRelations(file, graph, fileIdMap.keySet());
-
-        } catch (Exception e) {
-            log.warn("分析文件引用失败: {}", file, e);
-        }
-    }
-
-    /**
-     * 分析基于文件名的关联
-     */
-    private void analyzeFileNameRelations(Path file, DependencyGraph graph, Set<String> allFiles) {
-        String fileName = file.getFileName().toString().toLowerCase();
-        String baseName = extractBaseName(fileName);
-
-        for (String otherFilePath : allFiles) {
-            Path otherFile = new File(otherFilePath).toPath();
-            if (otherFile.equals(file)) {
-                continue;
-            }
-
-            String otherFileName = otherFile.getFileName().toString().toLowerCase();
-            String otherBaseName = extractBaseName(otherFileName);
-
-            // 如果基础名称相同，说明可能是关联文件
-            if (baseName.equals(otherBaseName)) {
-                graph.addDependency(file, otherFile,
-                        new Dependency("file_name", baseName, DependencyType.FILE_NAME_PATTERN));
+            // 解析器读到文档结束即停止，剩余字节也要计入摘要
+            byte[] rest = new byte[8192];
+            while (input.read(rest) != -1) {
+                // 只为更新摘要
             }
+        } catch (XMLStreamException e) {
+            throw new IOException("解析XML失败: " + e.getMessage(), e);
         }
+
+        return new FileIdIndex.Extract(Collections.unmodifiableSet(ids), Collections.unmodifiableMap(references));
     }
 
     /**
@@ -234,7 +271,14 @@ public class FileDependencyAnalyzer {
         }
 
         // 模式匹配
-        return lower.matches(".*_(id|ref)$") && !lower.equals("id");
+        return REFERENCE_SUFFIX.matcher(lower).matches() && !lower.equals("id");
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
     }
 
     /**
@@ -247,15 +291,36 @@ public class FileDependencyAnalyzer {
         // 文件 -> 依赖它的文件列表（反向索引）
         private final Map<Path, Set<Path>> dependents = new HashMap<>();
 
+        // 影响可达性：文件 -> 直接或间接依赖它的文件
+        private final ReachabilityIndex<Path> impactIndex = new ReachabilityIndex<>();
+
         public void addFile(Path file) {
             dependencies.putIfAbsent(file, new HashSet<>());
             dependents.putIfAbsent(file, new HashSet<>());
+            impactIndex.addNode(file);
         }
 
         public void addDependency(Path from, Path to, Dependency dependency) {
-            dependencies.computeIfAbsent(from, k -> new HashSet<>()).add(
+            boolean added = dependencies.computeIfAbsent(from, k -> new HashSet<>()).add(
                     new DependencyEdge(to, dependency));
             dependents.computeIfAbsent(to, k -> new HashSet<>()).add(from);
+            if (added) {
+                impactIndex.addEdge(to, from);
+            }
+        }
+
+        /**
+         * 直接或间接依赖该文件的所有文件
+         */
+        public Set<Path> getImpactedFiles(Path file) {
+            return impactIndex.reachableFrom(file);
+        }
+
+        /**
+         * 直接或间接依赖该文件的文件数量（可用于文件树上的影响徽标）
+         */
+        public int getImpactCount(Path file) {
+            return impactIndex.countReachableFrom(file);
         }
 
         public Set<DependencyEdge> getDependencies(Path file) {
@@ -0,0 +1,209 @@
+package red.jiuzhou.theme;
+
+import cn.hutool.core.util.HexUtil;
+import cn.hutool.crypto.SecureUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import red.jiuzhou.util.BinaryStore;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static red.jiuzhou.util.BinaryStore.readString;
+import static red.jiuzhou.util.BinaryStore.writeString;
+
+/**
+ * 文件依赖分析的磁盘索引
+ *
+ * <p>每个分析目录一个索引文件（cache/file_dependencies 下，按目录路径的MD5命名），
+ * 记录 相对路径 → (文件大小, 修改时间, 内容MD5, 定义的ID, 引用的ID)。
+ * 大小和修改时间未变时直接复用；修改时间变了但大小相同时比较内容MD5，内容未变同样复用
+ * （例如重新检出、只更新了时间戳）。新提取的文件在提取的同一遍读取中计算MD5（见 {@link #newDigest()}），
+ * 大小和修改时间在读取之前取得。保存时只写入本次分析到的文件。
+ *
+ * <p>lookup / put 可在提取线程池中并发调用。
+ */
+final class FileIdIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(FileIdIndex.class);
+
+    private static final int INDEX_MAGIC = 0x58464458;   // "XFDX"
+    private static final int INDEX_VERSION = 1;
+
+    /**
+     * 单个文件的提取结果
+     */
+    static final class Extract {
+        final Set<String> ids;                  // 文件中定义的ID
+        final Map<String, String> references;  // 引用的ID -> 首次出现的字段名（按文档顺序）
+
+        Extract(Set<String> ids, Map<String, String> references) {
+            this.ids = ids;
+            this.references = references;
+        }
+    }
+
+    private static final class Entry {
+        final long fileSize;
+        final long lastModified;
+        final String hash;
+        final Extract extract;
+
+        Entry(long fileSize, long lastModified, String hash, Extract extract) {
+            this.fileSize = fileSize;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.extract = extract;
+        }
+    }
+
+    private final Path indexFile;
+    private final String rootKey;
+    private final Map<String, Entry> stored = new ConcurrentHashMap<>();
+    private final Map<String, Entry> current = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    private FileIdIndex(Path indexFile, String rootKey) {
+        this.indexFile = indexFile;
+        this.rootKey = rootKey;
+    }
+
+    /**
+     * 打开目录对应的索引（索引缺失或失效时为空索引）
+     */
+    static FileIdIndex open(Path indexDir, Path root) {
+        String rootKey = root.toAbsolutePath().normalize().toString();
+        FileIdIndex index = new FileIdIndex(indexDir.resolve(SecureUtil.md5(rootKey) + ".idx"), rootKey);
+        index.read();
+        return index;
+    }
+
+    /**
+     * 查找未变化文件的提取结果，未命中返回 null
+     */
+    Extract lookup(String relativePath, Path file, long fileSize, long lastModified) {
+        Entry entry = stored.get(relativePath);
+        if (entry == null || entry.fileSize != fileSize) {
+            return null;
+        }
+        if (entry.lastModified != lastModified) {
+            if (!entry.hash.equals(hash(file))) {
+                return null;
+            }
+            entry = new Entry(fileSize, lastModified, entry.hash, entry.extract);
+            dirty = true;
+        }
+        current.put(relativePath, entry);
+        return entry.extract;
+    }
+
+    /**
+     * 记录新提取的结果
+     *
+     * @param fileSize     读取前取得的文件大小
+     * @param lastModified 读取前取得的修改时间
+     * @param hash         提取时对同一遍读取计算的内容MD5（{@link #hex(MessageDigest)}）
+     */
+    void put(String relativePath, long fileSize, long lastModified, String hash, Extract extract) {
+        current.put(relativePath, new Entry(fileSize, lastModified, hash, extract));
+        dirty = true;
+    }
+
+    /**
+     * 提取时包装输入流用的MD5摘要
+     */
+    static MessageDigest newDigest() {
+        return SecureUtil.md5().getDigest();
+    }
+
+    /**
+     * 摘要的十六进制形式，与 lookup 比较用的文件MD5格式一致
+     */
+    static String hex(MessageDigest digest) {
+        return HexUtil.encodeHexStr(digest.digest());
+    }
+
+    int size() {
+        return current.size();
+    }
+
+    /**
+     * 有新增、变化或删除的记录时写回磁盘
+     */
+    void save() {
+        if (!dirty && current.size() == stored.size()) {
+            return;
+        }
+        try {
+            BinaryStore.write(indexFile, INDEX_MAGIC, INDEX_VERSION, out -> {
+                writeString(out, rootKey);
+                out.writeInt(current.size());
+                for (Map.Entry<String, Entry> e : current.entrySet()) {
+                    Entry entry = e.getValue();
+                    writeString(out, e.getKey());
+                    out.writeLong(entry.fileSize);
+                    out.writeLong(entry.lastModified);
+                    writeString(out, entry.hash);
+                    out.writeInt(entry.extract.ids.size());
+                    for (String id : entry.extract.ids) {
+                        writeString(out, id);
+                    }
+                    out.writeInt(entry.extract.references.size());
+                    for (Map.Entry<String, String> ref : entry.extract.references.entrySet()) {
+                        writeString(out, ref.getKey());
+                        writeString(out, ref.getValue());
+                    }
+                }
+            });
+        } catch (IOException e) {
+            log.warn("写入文件依赖索引失败: {} - {}", indexFile, e.getMessage());
+        }
+    }
+
+    private void read() {
+        if (!Files.isRegularFile(indexFile)) {
+            return;
+        }
+        try (DataInputStream in = BinaryStore.openInput(indexFile)) {
+            if (!BinaryStore.readHeader(in, INDEX_MAGIC, INDEX_VERSION) || !rootKey.equals(readString(in))) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String relativePath = readString(in);
+                long fileSize = in.readLong();
+                long lastModified = in.readLong();
+                String hash = readString(in);
+                int idCount = in.readInt();
+                Set<String> ids = new LinkedHashSet<>(idCount * 2);
+                for (int j = 0; j < idCount; j++) {
+                    ids.add(readString(in));
+                }
+                int refCount = in.readInt();
+                Map<String, String> references = new LinkedHashMap<>(refCount * 2);
+                for (int j = 0; j < refCount; j++) {
+                    references.put(readString(in), readString(in));
+                }
+                stored.put(relativePath, new Entry(fileSize, lastModified, hash,
+                        new Extract(Collections.unmodifiableSet(ids), Collections.unmodifiableMap(references))));
+            }
+        } catch (IOException e) {
+            log.debug("读取文件依赖索引失败，将重新提取: {}", indexFile);
+            stored.clear();
+        }
+    }
+
+    private static String hash(Path file) {
+        return SecureUtil.md5(file.toFile());
+    }
+}
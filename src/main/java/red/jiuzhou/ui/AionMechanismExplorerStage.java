@@ -805,7 +805,7 @@ public class AionMechanismExplorerStage extends Stage {
         statusLabel.setText("正在解析: " + entry.getFileName());
 
         CompletableFuture.runAsync(() -> {
-            XmlFieldParser.ParseResult result = XmlFieldParser.parse(entry.getFile());
+            XmlFieldParser.ParseResult result = XmlFieldParser.summarize(entry.getFile());
 
             Platform.runLater(() -> {
                 currentParseResult = result;
@@ -813,7 +813,8 @@ public class AionMechanismExplorerStage extends Stage {
                 updateReferenceBox(result);
                 updateDetailArea(entry, result);
                 progressIndicator.setVisible(false);
-                statusLabel.setText("已加载: " + entry.getFileName() + " (" + result.getFields().size() + " 个字段)");
+                statusLabel.setText("已加载: " + entry.getFileName() + " (" + result.getFields().size() + " 个字段, "
+                        + result.getTotalOccurrences() + " 处)");
             });
         });
     }
@@ -891,7 +892,8 @@ public class AionMechanismExplorerStage extends Stage {
             sb.append("解析错误: ").append(result.getError()).append("\n");
         } else {
             sb.append("根元素: ").append(result.getRootElement()).append("\n");
-            sb.append("字段数: ").append(result.getFields().size()).append("\n");
+            sb.append("字段数: ").append(result.getFields().size())
+                    .append(" (共出现 ").append(result.getTotalOccurrences()).append(" 次)\n");
 
             Set<String> refs = result.getReferences();
             if (!refs.isEmpty()) {
@@ -1263,7 +1265,43 @@ public class AionMechanismExplorerStage extends Stage {
 
                 setGraphic(box);
                 setText(null);
+                setTooltip(createFilePreviewTooltip(item));
             }
         }
     }
+
+    /**
+     * 文件悬停预览：显示时再汇总字段（结果按文件缓存）
+     */
+    private Tooltip createFilePreviewTooltip(AionMechanismView.FileEntry entry) {
+        Tooltip tooltip = new Tooltip(entry.getRelativePath());
+        tooltip.setOnShowing(e -> CompletableFuture
+                .supplyAsync(() -> XmlFieldParser.summarize(entry.getFile()))
+                .thenAccept(result -> Platform.runLater(() -> tooltip.setText(formatFilePreview(entry, result)))));
+        return tooltip;
+    }
+
+    private String formatFilePreview(AionMechanismView.FileEntry entry, XmlFieldParser.ParseResult result) {
+        StringBuilder sb = new StringBuilder(entry.getRelativePath());
+        if (result.hasError()) {
+            return sb.append("\n解析错误: ").append(result.getError()).toString();
+        }
+        sb.append("\n根元素: ").append(result.getRootElement())
+                .append("  字段: ").append(result.getFields().size())
+                .append("  出现: ").append(result.getTotalOccurrences());
+        int shown = 0;
+        for (XmlFieldParser.FieldInfo field : result.getFields()) {
+            if (shown++ >= 8) {
+                sb.append("\n  ...");
+                break;
+            }
+            sb.append("\n  ").append(field.isAttribute() ? "@" : "").append(field.getName())
+                    .append(" ×").append(field.getOccurrences())
+                    .append(" = ").append(String.join(", ", field.getSamples()));
+        }
+        if (!result.getReferences().isEmpty()) {
+            sb.append("\n关联系统: ").append(String.join(", ", result.getReferences()));
+        }
+        return sb.toString();
+    }
 }
@@ -50,7 +50,10 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
@@ -1025,6 +1028,22 @@ public class Dbxmltool extends Application {
      * @param triggerButton 触发分析的按钮(用于在分析过程中禁用)
      */
     private void runRelationshipAnalysis(Stage owner, Button triggerButton) {
+        // 选择检测模式：大数据量时可用快速模式
+        Map<String, XmlRelationshipAnalyzer.DetectionMode> modes = new LinkedHashMap<>();
+        modes.put("精确匹配（默认）", XmlRelationshipAnalyzer.DetectionMode.EXACT);
+        modes.put("快速估算（结果为估计值）", XmlRelationshipAnalyzer.DetectionMode.QUICK);
+        modes.put("快速筛选 + 精确验证", XmlRelationshipAnalyzer.DetectionMode.QUICK_VERIFIED);
+        ChoiceDialog<String> modeDialog = new ChoiceDialog<>(modes.keySet().iterator().next(), modes.keySet());
+        modeDialog.initOwner(owner);
+        modeDialog.setTitle("字段关联分析");
+        modeDialog.setHeaderText("选择检测模式");
+        modeDialog.setContentText("模式:");
+        Optional<String> choice = modeDialog.showAndWait();
+        if (!choice.isPresent()) {
+            return;
+        }
+        XmlRelationshipAnalyzer.DetectionMode detectionMode = modes.get(choice.get());
+
         // 禁用触发按钮,防止重复点击
         triggerButton.setDisable(true);
 
@@ -1062,7 +1081,8 @@ public class Dbxmltool extends Application {
                             Platform.runLater(() -> detailLabel.setText(path.toString()));
                         }
                     })
-                    .withCancellationSupplier(() -> cancelFlag.get());
+                    .withCancellationSupplier(() -> cancelFlag.get())
+                    .withDetectionMode(detectionMode);
                 try {
                     return XmlRelationshipAnalyzer.analyzeCurrentDatabase(options);
                 } catch (XmlRelationshipAnalyzer.AnalysisCancelledException ex) {
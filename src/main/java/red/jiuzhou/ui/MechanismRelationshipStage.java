@@ -2,6 +2,7 @@ package red.jiuzhou.ui;
 
 import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
+import javafx.concurrent.Task;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -39,7 +40,6 @@ import red.jiuzhou.ui.canvas.ForceDirectedLayout;
 
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
 
 /**
  * 机制关系图可视化窗口（优化版）
@@ -69,6 +69,8 @@ public class MechanismRelationshipStage extends Stage {
     // 数据
     private MechanismRelationshipGraph graph;
     private ForceDirectedLayout layout;
+    private ForceDirectedLayout.LayoutTask layoutTask;
+    private Task<MechanismRelationshipGraph> loadTask;
 
     // UI组件
     private Canvas canvas;
@@ -101,7 +103,9 @@ public class MechanismRelationshipStage extends Stage {
     public MechanismRelationshipStage() {
         this.relationshipService = new MechanismRelationshipService();
         initializeUI();
-        loadData();
+        relationshipService.addGraphUpdateListener(updated -> Platform.runLater(() -> onGraphUpdated(updated)));
+        setOnHidden(e -> relationshipService.stopWatching());
+        loadData(false);
     }
 
     private void initializeUI() {
@@ -149,16 +153,12 @@ public class MechanismRelationshipStage extends Stage {
         toolbar.setStyle("-fx-background-color: #161b22; -fx-border-color: #30363d; -fx-border-width: 0 0 1 0;");
 
         Button refreshBtn = createToolButton("刷新", "#238636");
-        refreshBtn.setOnAction(e -> {
-            relationshipService.clearCache();
-            loadData();
-        });
+        refreshBtn.setOnAction(e -> loadData(true));
 
         Button layoutBtn = createToolButton("重新布局", "#1f6feb");
         layoutBtn.setOnAction(e -> {
             if (graph != null && layout != null) {
-                layout.initializePositions(graph.getActiveNodes());
-                startAnimation();
+                startLayout();
             }
         });
 
@@ -344,34 +344,110 @@ public class MechanismRelationshipStage extends Stage {
         return NODE_BASE_RADIUS + Math.log1p(node.getFileCount()) * NODE_SCALE_FACTOR;
     }
 
-    private void loadData() {
+    /**
+     * 在后台线程构建关系图，完成后在界面线程换入并开始布局
+     *
+     * @param rebuild 是否先清除缓存强制重建
+     */
+    private void loadData(boolean rebuild) {
+        if (loadTask != null) {
+            loadTask.cancel();
+        }
         loadingIndicator.setVisible(true);
         statusLabel.setText("加载中...");
         needsRedraw = true;
 
-        CompletableFuture.runAsync(() -> {
-            graph = relationshipService.buildRelationshipGraph(msg ->
-                    Platform.runLater(() -> statusLabel.setText(msg)));
+        Task<MechanismRelationshipGraph> task = new Task<MechanismRelationshipGraph>() {
+            @Override
+            protected MechanismRelationshipGraph call() {
+                if (rebuild) {
+                    relationshipService.clearCache();
+                }
+                return relationshipService.buildRelationshipGraph(msg ->
+                        Platform.runLater(() -> statusLabel.setText(msg)));
+            }
+        };
 
+        task.setOnSucceeded(evt -> {
+            graph = task.getValue();
             layout = new ForceDirectedLayout(canvas.getWidth(), canvas.getHeight());
-            layout.layout(graph);
-        }).thenRun(() -> Platform.runLater(() -> {
+            selectedNode = null;
+            hoveredNode = null;
+            draggedNode = null;
             loadingIndicator.setVisible(false);
             statusLabel.setText(String.format("已加载: %d个机制, %d个关系",
                     graph.getActiveNodeCount(), graph.getTotalRelationshipCount()));
+            updateDetailPanel();
             invalidateBuffer();
-            scheduleRedraw();
-        })).exceptionally(ex -> {
-            Platform.runLater(() -> {
-                loadingIndicator.setVisible(false);
-                statusLabel.setText("加载失败: " + ex.getMessage());
-            });
-            return null;
+            startLayout();
+        });
+
+        task.setOnFailed(evt -> {
+            Throwable ex = task.getException();
+            loadingIndicator.setVisible(false);
+            statusLabel.setText("加载失败: " + (ex != null ? ex.getMessage() : "未知错误"));
         });
+
+        loadTask = task;
+        Thread worker = new Thread(task, "mechanism-graph-load");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * XML文件变更后服务生成了新的关系图：沿用旧图中节点的位置和选中状态，
+     * 新出现的机制节点放到画布中心，再在新图上继续布局动画
+     */
+    private void onGraphUpdated(MechanismRelationshipGraph updated) {
+        MechanismRelationshipGraph previous = graph;
+        graph = updated;
+        if (layout == null || previous == null) {
+            return;
+        }
+        for (MechanismNode node : graph.getNodes()) {
+            MechanismNode old = previous.getNode(node.getCategory());
+            if (old != null && (old.getX() != 0 || old.getY() != 0)) {
+                node.setX(old.getX());
+                node.setY(old.getY());
+                node.setPinned(old.isPinned());
+            } else if (node.getFileCount() > 0) {
+                node.setX(canvas.getWidth() / 2 + (Math.random() - 0.5) * 40);
+                node.setY(canvas.getHeight() / 2 + (Math.random() - 0.5) * 40);
+            }
+        }
+        selectedNode = selectedNode != null ? graph.getNode(selectedNode.getCategory()) : null;
+        hoveredNode = hoveredNode != null ? graph.getNode(hoveredNode.getCategory()) : null;
+        draggedNode = draggedNode != null ? graph.getNode(draggedNode.getCategory()) : null;
+
+        // 旧图上的后台布局不再有意义，改为在新图上继续动画
+        if (layoutTask != null && layoutTask.isRunning()) {
+            layoutTask.cancel();
+        }
+        statusLabel.setText(String.format("已更新: %d个机制, %d个关系",
+                graph.getActiveNodeCount(), graph.getTotalRelationshipCount()));
+        updateDetailPanel();
+        invalidateBuffer();
+        scheduleRedraw();
+        startAnimation();
+    }
+
+    /**
+     * 重新初始化位置并在后台布局，布局过程中逐步重绘
+     */
+    private void startLayout() {
+        if (layoutTask != null) {
+            layoutTask.cancel();
+        }
+        if (animationTimer != null) {
+            animationTimer.stop();
+            isAnimating = false;
+        }
+        layoutTask = layout.layoutAsync(graph, this::scheduleRedraw);
     }
 
     private void startAnimation() {
-        if (isAnimating) return;
+        // 后台布局进行中，由其继续发布坐标
+        if (isAnimating || (layoutTask != null && layoutTask.isRunning())) return;
 
         isAnimating = true;
         animationFrames = 0;
@@ -638,8 +714,10 @@ public class MechanismRelationshipStage extends Stage {
                 graph.getOutgoingRelationships(selectedNode.getCategory()).size()));
         VBox inStat = createStatItem("被依赖", String.valueOf(
                 graph.getIncomingRelationships(selectedNode.getCategory()).size()));
+        VBox impactStat = createStatItem("影响", String.valueOf(
+                graph.getImpactCount(selectedNode.getCategory())));
 
-        statsCard.getChildren().addAll(filesStat, outStat, inStat);
+        statsCard.getChildren().addAll(filesStat, outStat, inStat, impactStat);
 
         detailPanel.getChildren().addAll(nameLabel, descLabel, statsCard);
 
@@ -775,6 +853,10 @@ public class MechanismRelationshipStage extends Stage {
         if (animationTimer != null) {
             animationTimer.stop();
         }
+        if (layoutTask != null) {
+            layoutTask.cancel();
+        }
+        relationshipService.stopWatching();
         super.close();
     }
 }
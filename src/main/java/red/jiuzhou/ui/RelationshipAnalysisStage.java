@@ -83,6 +83,11 @@ public class RelationshipAnalysisStage extends Stage {
         // 增强的统计信息
         Label statsLabel = buildStatsLabel(rowData);
         HBox header = new HBox(12, new Label("命中关系:"), tallyLabel, new Label("|"), statsLabel);
+        if (report.getDetectionMode() == XmlRelationshipAnalyzer.DetectionMode.QUICK) {
+            Label quickLabel = new Label("快速估算：命中数与覆盖率为估计值");
+            quickLabel.setStyle("-fx-text-fill: #b26a00;");
+            header.getChildren().addAll(new Label("|"), quickLabel);
+        }
         header.setAlignment(Pos.CENTER_LEFT);
         header.setPadding(new Insets(4, 0, 6, 0));
 
@@ -25,6 +25,7 @@ import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
@@ -44,6 +45,10 @@ public class SearchReplaceDialog extends Stage {
 
     private final GlobalSearchEngine searchEngine;
     private final ObservableList<SearchResultItem> searchResults = FXCollections.observableArrayList();
+    private volatile GlobalSearchEngine.SearchHandle currentSearch;
+
+    // 单次搜索最多显示的结果数
+    private static final int MAX_SEARCH_RESULTS = 5000;
 
     // UI组件
     private TextField searchField;
@@ -423,6 +428,9 @@ public class SearchReplaceDialog extends Stage {
 
         // 关闭时清理资源
         setOnCloseRequest(e -> {
+            if (currentSearch != null) {
+                currentSearch.cancel();
+            }
             searchEngine.shutdown();
         });
     }
@@ -438,42 +446,68 @@ public class SearchReplaceDialog extends Stage {
         progressBar.setVisible(true);
         statusLabel.setText("正在搜索...");
 
-        Task<List<SearchResult>> searchTask = new Task<List<SearchResult>>() {
+        // 新的搜索开始前取消上一次未完成的搜索
+        if (currentSearch != null) {
+            currentSearch.cancel();
+        }
+
+        Task<Integer> searchTask = new Task<Integer>() {
             @Override
-            protected List<SearchResult> call() throws Exception {
+            protected Integer call() throws Exception {
                 List<Path> searchPaths = getSearchPaths();
                 GlobalSearchEngine.SearchMode mode = searchModeCombo.getValue();
-
-                List<SearchResult> results = new ArrayList<>();
-                AtomicInteger processed = new AtomicInteger(0);
-
-                for (Path path : searchPaths) {
-                    if (isCancelled()) break;
-
-                    List<SearchResult> pathResults = searchEngine.searchInFiles(
-                        Collections.singletonList(path), searchText, mode);
-                    results.addAll(pathResults);
-
-                    int current = processed.incrementAndGet();
-                    updateProgress(current, searchPaths.size());
-                    updateMessage("已搜索 " + current + "/" + searchPaths.size() + " 个文件");
+                updateMessage("正在搜索 " + searchPaths.size() + " 个文件...");
+
+                // 结果随文件完成逐条推送到表格，无需等待全部文件
+                List<SearchResultItem> pending = new ArrayList<>();
+                AtomicInteger found = new AtomicInteger(0);
+                GlobalSearchEngine.SearchHandle handle = searchEngine.searchStreaming(
+                    searchPaths, searchText, mode, MAX_SEARCH_RESULTS,
+                    new GlobalSearchEngine.SearchListener() {
+                        @Override
+                        public void onResult(SearchResult result) {
+                            found.incrementAndGet();
+                            synchronized (pending) {
+                                pending.add(new SearchResultItem(result));
+                                if (pending.size() == 1) {
+                                    Platform.runLater(() -> {
+                                        synchronized (pending) {
+                                            searchResults.addAll(pending);
+                                            pending.clear();
+                                        }
+                                    });
+                                }
+                            }
+                        }
+
+                        @Override
+                        public void onProgress(int searchedFiles, int totalFiles) {
+                            updateProgress(searchedFiles, totalFiles);
+                            updateMessage("已搜索 " + searchedFiles + "/" + totalFiles
+                                + " 个文件，找到 " + found.get() + " 个结果");
+                        }
+                    });
+                currentSearch = handle;
+
+                while (!handle.await(100, TimeUnit.MILLISECONDS)) {
+                    if (isCancelled()) {
+                        handle.cancel();
+                    }
                 }
-
-                return results;
+                return found.get();
             }
 
             @Override
             protected void succeeded() {
-                List<SearchResult> results = getValue();
+                int total = getValue();
                 Platform.runLater(() -> {
-                    searchResults.addAll(results.stream()
-                        .map(SearchResultItem::new)
-                        .collect(Collectors.toList()));
-
                     progressBar.setVisible(false);
-                    statusLabel.setText("搜索完成，找到 " + results.size() + " 个结果");
+                    statusLabel.textProperty().unbind();
+                    statusLabel.setText(total >= MAX_SEARCH_RESULTS
+                        ? "搜索完成，结果过多，仅显示前 " + MAX_SEARCH_RESULTS + " 个"
+                        : "搜索完成，找到 " + total + " 个结果");
 
-                    if (results.isEmpty()) {
+                    if (total == 0) {
                         showAlert("未找到匹配的内容", Alert.AlertType.INFORMATION);
                     }
                 });
@@ -483,6 +517,7 @@ public class SearchReplaceDialog extends Stage {
             protected void failed() {
                 Platform.runLater(() -> {
                     progressBar.setVisible(false);
+                    statusLabel.textProperty().unbind();
                     statusLabel.setText("搜索失败");
                     Throwable ex = getException();
                     log.error("Search failed", ex);
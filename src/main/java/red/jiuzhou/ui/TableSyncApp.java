@@ -38,6 +38,8 @@ public class TableSyncApp {
     private CheckComboBox<String> tableCheckComboBox;
     private ComboBox<TableSyncService.SyncDirection> directionCombo;
     private ComboBox<TableSyncService.ConflictResolution> conflictCombo;
+    private CheckBox changeJournalCheckBox;
+    private CheckBox deleteOrphansCheckBox;
     private ProgressBar progressBar;
     private Label progressLabel;
     private TextArea resultArea;
@@ -154,6 +156,23 @@ public class TableSyncApp {
 
         conflictBox.getChildren().addAll(conflictLabel, conflictCombo);
 
+        // 增量同步选项：默认关闭，开启时才安装触发器并创建变更日志表
+        HBox optionBox = new HBox(10);
+        optionBox.setAlignment(Pos.CENTER_LEFT);
+
+        Label optionLabel = new Label("增量同步:");
+        optionLabel.setPrefWidth(120);
+
+        changeJournalCheckBox = new CheckBox("使用变更日志（在映射表上安装触发器）");
+        changeJournalCheckBox.setSelected(syncService.isUseChangeJournal());
+        changeJournalCheckBox.setOnAction(e -> toggleChangeJournal());
+
+        // 单向同步（服务端→客户端）后删除客户端中服务端已不存在的记录，默认关闭
+        deleteOrphansCheckBox = new CheckBox("同步后删除目标表中多余的记录");
+        deleteOrphansCheckBox.setOnAction(e -> syncService.setDeleteOrphans(deleteOrphansCheckBox.isSelected()));
+
+        optionBox.getChildren().addAll(optionLabel, changeJournalCheckBox, deleteOrphansCheckBox);
+
         // 操作按钮
         HBox buttonBox = new HBox(10);
         buttonBox.setAlignment(Pos.CENTER);
@@ -175,7 +194,7 @@ public class TableSyncApp {
 
         buttonBox.getChildren().addAll(startSyncButton, stopSyncButton, refreshButton);
 
-        pane.getChildren().addAll(titleLabel, tableSelectionBox, directionBox, conflictBox, buttonBox);
+        pane.getChildren().addAll(titleLabel, tableSelectionBox, directionBox, conflictBox, optionBox, buttonBox);
         return pane;
     }
 
@@ -236,6 +255,54 @@ public class TableSyncApp {
         }
     }
 
+    /**
+     * 开启或关闭变更日志增量同步；开启时在后台安装触发器
+     */
+    private void toggleChangeJournal() {
+        if (!changeJournalCheckBox.isSelected()) {
+            syncService.setUseChangeJournal(false);
+            progressLabel.setText("已关闭变更日志增量同步，下次同步为全量比较");
+            return;
+        }
+
+        Alert confirm = new Alert(Alert.AlertType.CONFIRMATION);
+        confirm.setTitle("启用变更日志");
+        confirm.setHeaderText(null);
+        confirm.setContentText("将在数据库中创建变更日志表，并为所有映射表安装变更捕获触发器。是否继续？");
+        if (confirm.showAndWait().orElse(ButtonType.CANCEL) != ButtonType.OK) {
+            changeJournalCheckBox.setSelected(false);
+            return;
+        }
+
+        changeJournalCheckBox.setDisable(true);
+        startSyncButton.setDisable(true);
+        progressLabel.setText("正在安装变更捕获触发器...");
+
+        Task<Integer> installTask = new Task<Integer>() {
+            @Override
+            protected Integer call() {
+                return syncService.installChangeCapture();
+            }
+        };
+        installTask.setOnSucceeded(evt -> {
+            changeJournalCheckBox.setDisable(false);
+            startSyncButton.setDisable(false);
+            progressLabel.setText(String.format("已为 %d 张表安装变更捕获触发器，首次同步为全量同步", installTask.getValue()));
+        });
+        installTask.setOnFailed(evt -> {
+            changeJournalCheckBox.setSelected(false);
+            changeJournalCheckBox.setDisable(false);
+            startSyncButton.setDisable(false);
+            progressLabel.setText("准备就绪");
+            Throwable ex = installTask.getException();
+            showError("安装变更捕获失败: " + (ex != null ? ex.getMessage() : "未知错误"));
+        });
+
+        Thread thread = new Thread(installTask, "table-sync-capture-install");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
     /**
      * 开始同步
      */
@@ -258,6 +325,8 @@ public class TableSyncApp {
         tableCheckComboBox.setDisable(true);
         directionCombo.setDisable(true);
         conflictCombo.setDisable(true);
+        changeJournalCheckBox.setDisable(true);
+        deleteOrphansCheckBox.setDisable(true);
 
         // 清空结果区域
         resultArea.clear();
@@ -319,7 +388,10 @@ public class TableSyncApp {
         tableCheckComboBox.setDisable(false);
         directionCombo.setDisable(false);
         conflictCombo.setDisable(false);
+        changeJournalCheckBox.setDisable(false);
+        deleteOrphansCheckBox.setDisable(false);
         progressBar.progressProperty().unbind();
+        progressLabel.textProperty().unbind();
         progressBar.setProgress(0);
     }
 
@@ -455,7 +455,7 @@ public class ThemeStudioStage extends Stage {
 
         // 使用向导引导用户
         ApplyThemeWizard wizard = new ApplyThemeWizard(
-                this, currentTheme, selectedDir.toPath());
+                this, currentTheme, selectedDir.toPath(), dependencyAnalyzer);
 
         boolean confirmed = wizard.showAndWait();
         if (!confirmed) {
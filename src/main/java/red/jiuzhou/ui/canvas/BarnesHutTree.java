@@ -0,0 +1,208 @@
+package red.jiuzhou.ui.canvas;
+
+import java.util.Arrays;
+
+/**
+ * Barnes–Hut 四叉树
+ *
+ * <p>把所有节点按位置插入四叉树，每个单元记录质量（节点数）和质心。计算某个节点受到的斥力时，
+ * 足够远的单元（单元边长 / 距离 &lt; theta）整体按质心近似，斥力计算从 O(n²) 降到 O(n log n)。
+ *
+ * <p>全部数据放在数组里，每次迭代重建时复用，避免为几千个节点反复创建对象。
+ * 重合的节点在达到最大深度后挂在同一个叶子单元的链表上，叶子内部逐个精确计算。
+ */
+final class BarnesHutTree {
+
+    private static final int EMPTY = -1;
+    private static final int INTERNAL = -2;
+    private static final int MAX_DEPTH = 24;
+
+    // 单元数据
+    private int[] children = new int[0];     // 每个单元4个子单元，-1表示无
+    private int[] firstBody = new int[0];    // 叶子单元的第一个节点；EMPTY / INTERNAL
+    private double[] mass = new double[0];
+    private double[] sumX = new double[0];
+    private double[] sumY = new double[0];
+    private double[] centerX = new double[0];
+    private double[] centerY = new double[0];
+    private double[] halfSize = new double[0];
+    private int cellCount;
+
+    // 节点数据
+    private int[] nextBody = new int[0];     // 同一叶子内的下一个节点
+    private int[] stack = new int[0];
+
+    private double[] x;
+    private double[] y;
+
+    /**
+     * 按当前坐标重建四叉树
+     */
+    void build(double[] x, double[] y, int n) {
+        this.x = x;
+        this.y = y;
+        cellCount = 0;
+        if (nextBody.length < n) {
+            nextBody = new int[n];
+        }
+        if (n == 0) {
+            return;
+        }
+
+        double minX = x[0], maxX = x[0], minY = y[0], maxY = y[0];
+        for (int i = 1; i < n; i++) {
+            minX = Math.min(minX, x[i]);
+            maxX = Math.max(maxX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+        double half = Math.max(Math.max(maxX - minX, maxY - minY) / 2, 1) * 1.0001;
+        newCell((minX + maxX) / 2, (minY + maxY) / 2, half);
+
+        for (int i = 0; i < n; i++) {
+            insert(i);
+        }
+        for (int c = 0; c < cellCount; c++) {
+            // 求和改成质心，计算斥力时直接使用
+            sumX[c] /= mass[c];
+            sumY[c] /= mass[c];
+        }
+    }
+
+    /**
+     * 累加节点 i 受到的斥力（库仑力 F = k·m / d²，距离下限为 minDistance）
+     *
+     * @param force 输出 {fx, fy}，在原值上累加
+     */
+    void accumulateRepulsion(int i, double theta, double strength, double minDistance, double[] force) {
+        if (cellCount == 0) {
+            return;
+        }
+        double xi = x[i];
+        double yi = y[i];
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int c = stack[--top];
+            int body = firstBody[c];
+            if (body >= 0) {
+                // 叶子：逐个精确计算
+                for (int j = body; j != EMPTY; j = nextBody[j]) {
+                    if (j != i) {
+                        addForce(xi, yi, x[j], y[j], 1, strength, minDistance, force);
+                    }
+                }
+                continue;
+            }
+            double dx = sumX[c] - xi;
+            double dy = sumY[c] - yi;
+            double distance = Math.sqrt(dx * dx + dy * dy);
+            boolean containsSelf = Math.abs(xi - centerX[c]) <= halfSize[c]
+                    && Math.abs(yi - centerY[c]) <= halfSize[c];
+            if (!containsSelf && 2 * halfSize[c] < theta * distance) {
+                addForce(xi, yi, sumX[c], sumY[c], mass[c], strength, minDistance, force);
+                continue;
+            }
+            for (int q = 0; q < 4; q++) {
+                int child = children[c * 4 + q];
+                if (child >= 0) {
+                    stack[top++] = child;
+                }
+            }
+        }
+    }
+
+    private static void addForce(double xi, double yi, double xj, double yj, double m,
+                                 double strength, double minDistance, double[] force) {
+        double dx = xj - xi;
+        double dy = yj - yi;
+        double distance = Math.sqrt(dx * dx + dy * dy);
+        if (distance < minDistance) {
+            distance = minDistance;
+        }
+        double f = strength * m / (distance * distance);
+        force[0] -= (dx / distance) * f;
+        force[1] -= (dy / distance) * f;
+    }
+
+    private void insert(int i) {
+        nextBody[i] = EMPTY;
+        int c = 0;
+        int depth = 0;
+        while (true) {
+            int body = firstBody[c];
+            if (body == EMPTY) {
+                firstBody[c] = i;
+                addMass(c, i);
+                return;
+            }
+            if (body >= 0) {
+                if (depth >= MAX_DEPTH) {
+                    // 重合节点：挂到叶子链表
+                    nextBody[i] = body;
+                    firstBody[c] = i;
+                    addMass(c, i);
+                    return;
+                }
+                // 叶子分裂：原有节点下移到对应象限（质量已计入当前单元）
+                firstBody[c] = INTERNAL;
+                int child = childFor(c, x[body], y[body]);
+                firstBody[child] = body;
+                addMass(child, body);
+            }
+            addMass(c, i);
+            c = childFor(c, x[i], y[i]);
+            depth++;
+        }
+    }
+
+    /**
+     * 点所在象限的子单元，不存在时创建
+     */
+    private int childFor(int c, double px, double py) {
+        int q = (px >= centerX[c] ? 1 : 0) + (py >= centerY[c] ? 2 : 0);
+        int child = children[c * 4 + q];
+        if (child < 0) {
+            double h = halfSize[c] / 2;
+            child = newCell(centerX[c] + ((q & 1) != 0 ? h : -h), centerY[c] + ((q & 2) != 0 ? h : -h), h);
+            children[c * 4 + q] = child;
+        }
+        return child;
+    }
+
+    private void addMass(int c, int i) {
+        mass[c] += 1;
+        sumX[c] += x[i];
+        sumY[c] += y[i];
+    }
+
+    private int newCell(double cx, double cy, double half) {
+        if (cellCount == firstBody.length) {
+            grow();
+        }
+        int c = cellCount++;
+        Arrays.fill(children, c * 4, c * 4 + 4, -1);
+        firstBody[c] = EMPTY;
+        mass[c] = 0;
+        sumX[c] = 0;
+        sumY[c] = 0;
+        centerX[c] = cx;
+        centerY[c] = cy;
+        halfSize[c] = half;
+        return c;
+    }
+
+    private void grow() {
+        int capacity = Math.max(64, firstBody.length * 2);
+        children = Arrays.copyOf(children, capacity * 4);
+        firstBody = Arrays.copyOf(firstBody, capacity);
+        mass = Arrays.copyOf(mass, capacity);
+        sumX = Arrays.copyOf(sumX, capacity);
+        sumY = Arrays.copyOf(sumY, capacity);
+        centerX = Arrays.copyOf(centerX, capacity);
+        centerY = Arrays.copyOf(centerY, capacity);
+        halfSize = Arrays.copyOf(halfSize, capacity);
+        // 遍历时每个单元最多压入4个子单元
+        stack = new int[capacity * 4];
+    }
+}
@@ -1,11 +1,17 @@
 package red.jiuzhou.ui.canvas;
 
+import javafx.application.Platform;
+import red.jiuzhou.analysis.aion.AionMechanismCategory;
 import red.jiuzhou.analysis.aion.mechanism.MechanismNode;
 import red.jiuzhou.analysis.aion.mechanism.MechanismRelationship;
 import red.jiuzhou.analysis.aion.mechanism.MechanismRelationshipGraph;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 力导向布局算法
@@ -19,6 +25,11 @@ import java.util.Random;
  *   <li>中心力：所有节点向画布中心聚拢</li>
  * </ul>
  *
+ * <p>斥力有两种算法：节点少时逐对精确计算；节点多（默认200个以上）时用 Barnes–Hut 四叉树近似，
+ * theta 随节点数增大、在布局趋于稳定时收紧。除了移动量低于收敛阈值，
+ * 移动量长时间不再下降也视为收敛。大图用 {@link #layoutAsync} 在后台线程布局，
+ * 定期把坐标发布到 FX 线程，界面可以边布局边显示。
+ *
  * @author Claude
  * @version 1.0
  */
@@ -39,6 +50,28 @@ public class ForceDirectedLayout {
     // 迭代控制
     private int maxIterations = 300;
     private double convergenceThreshold = 0.5;  // 收敛阈值
+    private int stagnationWindow = 30;          // 移动量连续多少次迭代未下降1%视为收敛
+
+    // Barnes–Hut
+    private RepulsionMode repulsionMode = RepulsionMode.AUTO;
+    private int barnesHutMinNodes = 200;        // AUTO 模式下启用四叉树的节点数
+    private double theta = 0.5;                 // 基础精度（越小越精确）
+    private double maxTheta = 1.0;              // 大图且移动剧烈时放宽到的上限
+
+    // 后台布局发布坐标的间隔
+    private static final long PUBLISH_INTERVAL_MS = 50;
+
+    /**
+     * 斥力算法
+     */
+    public enum RepulsionMode {
+        /** 按节点数自动选择 */
+        AUTO,
+        /** 逐对精确计算 O(n²) */
+        EXACT,
+        /** Barnes–Hut 四叉树近似 O(n log n) */
+        BARNES_HUT
+    }
 
     // 随机数生成器
     private final Random random = new Random(42);
@@ -71,17 +104,42 @@ public class ForceDirectedLayout {
         initializePositions(nodes);
 
         // 迭代计算
+        Simulation sim = new Simulation(nodes, edges);
+        ConvergenceMonitor monitor = new ConvergenceMonitor();
         for (int i = 0; i < maxIterations; i++) {
-            double totalMovement = iterate(nodes, edges);
+            double totalMovement = sim.iterate(monitor.lastMovementPerNode(sim.n));
 
             // 检查收敛
-            if (totalMovement < convergenceThreshold) {
+            if (monitor.converged(totalMovement)) {
                 break;
             }
         }
 
         // 确保节点在画布内
-        constrainToCanvas(nodes);
+        sim.constrainToCanvas();
+        sim.writeBack(nodes);
+    }
+
+    /**
+     * 在后台线程执行布局，每隔约50ms把坐标发布到 FX 线程
+     *
+     * <p>后台线程只操作坐标数组；发布时在 FX 线程写回节点，并读取被拖动（固定）节点的当前位置，
+     * 因此布局期间仍可拖动节点。
+     *
+     * @param graph     关系图
+     * @param onPublish 每次坐标写回节点后在 FX 线程调用（用于重绘），可为null
+     * @return 布局任务，可取消
+     */
+    public LayoutTask layoutAsync(MechanismRelationshipGraph graph, Runnable onPublish) {
+        List<MechanismNode> nodes = graph.getActiveNodes();
+        List<MechanismRelationship> edges = graph.getSignificantRelationships(1, 0.0);
+
+        initializePositions(nodes);
+        LayoutTask task = new LayoutTask(nodes, new Simulation(nodes, edges), onPublish);
+        Thread thread = new Thread(task::run, "force-layout");
+        thread.setDaemon(true);
+        thread.start();
+        return task;
     }
 
     /**
@@ -98,8 +156,10 @@ public class ForceDirectedLayout {
             return 0;
         }
 
-        double totalMovement = iterate(nodes, edges);
-        constrainToCanvas(nodes);
+        Simulation sim = new Simulation(nodes, edges);
+        double totalMovement = sim.iterate(Double.MAX_VALUE);
+        sim.constrainToCanvas();
+        sim.writeBack(nodes);
         return totalMovement;
     }
 
@@ -126,183 +186,410 @@ public class ForceDirectedLayout {
     }
 
     /**
-     * 执行单次迭代
+     * 当前节点数下的 theta：节点越多越宽松，移动量降下来后收回基础精度
+     *
+     * @param movementPerNode 上一次迭代每个节点的平均移动量
      */
-    private double iterate(List<MechanismNode> nodes, List<MechanismRelationship> edges) {
-        // 重置力
-        for (MechanismNode node : nodes) {
-            if (!node.isPinned()) {
-                node.setVx(0);
-                node.setVy(0);
+    private double thetaFor(int n, double movementPerNode) {
+        if (n <= 1000) {
+            return theta;
+        }
+        double scale = Math.min(1, Math.log10(n / 1000.0));     // 1000个节点为0，10000个以上为1
+        double loose = theta + (maxTheta - theta) * scale;
+        double settle = Math.min(1, movementPerNode / 2);        // 平均每次移动不到2px时逐步收紧
+        return theta + (loose - theta) * settle;
+    }
+
+    private boolean useBarnesHut(int n) {
+        return repulsionMode == RepulsionMode.BARNES_HUT
+                || (repulsionMode == RepulsionMode.AUTO && n >= barnesHutMinNodes);
+    }
+
+    /**
+     * 收敛判断：移动量低于阈值，或连续 stagnationWindow 次迭代没有下降1%以上
+     */
+    private final class ConvergenceMonitor {
+        private double best = Double.MAX_VALUE;
+        private int sinceImprovement;
+        private double last = Double.MAX_VALUE;
+
+        boolean converged(double totalMovement) {
+            last = totalMovement;
+            if (totalMovement < convergenceThreshold) {
+                return true;
+            }
+            if (totalMovement < best * 0.99) {
+                best = totalMovement;
+                sinceImprovement = 0;
+                return false;
             }
+            return ++sinceImprovement >= stagnationWindow;
         }
 
-        // 计算斥力（所有节点对之间）
-        applyRepulsionForces(nodes);
+        double lastMovementPerNode(int n) {
+            return last == Double.MAX_VALUE ? Double.MAX_VALUE : last / Math.max(1, n);
+        }
+    }
 
-        // 计算引力（有边连接的节点之间）
-        applyAttractionForces(nodes, edges);
+    /**
+     * 数组形式的布局状态，迭代过程中不访问节点对象
+     */
+    private final class Simulation {
+        final int n;
+        final double[] x;
+        final double[] y;
+        final double[] vx;
+        final double[] vy;
+        final boolean[] pinned;
+        final int[] edgeSource;
+        final int[] edgeTarget;
+        final double[] edgeMultiplier;
+        private final double[] force = new double[2];
+        private BarnesHutTree tree;
+
+        Simulation(List<MechanismNode> nodes, List<MechanismRelationship> edges) {
+            n = nodes.size();
+            x = new double[n];
+            y = new double[n];
+            vx = new double[n];
+            vy = new double[n];
+            pinned = new boolean[n];
+            Map<AionMechanismCategory, Integer> index = new HashMap<>();
+            for (int i = 0; i < n; i++) {
+                MechanismNode node = nodes.get(i);
+                x[i] = node.getX();
+                y[i] = node.getY();
+                vx[i] = node.getVx();
+                vy[i] = node.getVy();
+                pinned[i] = node.isPinned();
+                index.put(node.getCategory(), i);
+            }
 
-        // 计算中心力
-        applyCenterForce(nodes);
+            List<int[]> resolved = new ArrayList<>();
+            List<Double> multipliers = new ArrayList<>();
+            for (MechanismRelationship edge : edges) {
+                Integer source = index.get(edge.getSource());
+                Integer target = index.get(edge.getTarget());
+                if (source == null || target == null) {
+                    continue;
+                }
+                resolved.add(new int[]{source, target});
+                // 根据关系强度调整引力
+                multipliers.add(1 + edge.getStrength() * 0.1);
+            }
+            edgeSource = new int[resolved.size()];
+            edgeTarget = new int[resolved.size()];
+            edgeMultiplier = new double[resolved.size()];
+            for (int e = 0; e < resolved.size(); e++) {
+                edgeSource[e] = resolved.get(e)[0];
+                edgeTarget[e] = resolved.get(e)[1];
+                edgeMultiplier[e] = multipliers.get(e);
+            }
+        }
 
-        // 应用速度，计算总移动量
-        double totalMovement = 0;
-        for (MechanismNode node : nodes) {
-            if (!node.isPinned()) {
-                // 限制最大速度
-                double speed = Math.sqrt(node.getVx() * node.getVx() + node.getVy() * node.getVy());
-                double maxSpeed = 20;
-                if (speed > maxSpeed) {
-                    node.setVx(node.getVx() * maxSpeed / speed);
-                    node.setVy(node.getVy() * maxSpeed / speed);
+        /**
+         * 执行单次迭代
+         *
+         * @return 总移动量
+         */
+        double iterate(double movementPerNode) {
+            // 重置力
+            for (int i = 0; i < n; i++) {
+                if (!pinned[i]) {
+                    vx[i] = 0;
+                    vy[i] = 0;
+                }
+            }
+
+            // 计算斥力
+            if (useBarnesHut(n)) {
+                applyRepulsionBarnesHut(thetaFor(n, movementPerNode));
+            } else {
+                applyRepulsionExact();
+            }
+
+            // 计算引力（有边连接的节点之间）
+            applyAttractionForces();
+
+            // 计算中心力
+            applyCenterForce();
+
+            // 应用速度，计算总移动量
+            double totalMovement = 0;
+            for (int i = 0; i < n; i++) {
+                if (!pinned[i]) {
+                    // 限制最大速度
+                    double speed = Math.sqrt(vx[i] * vx[i] + vy[i] * vy[i]);
+                    double maxSpeed = 20;
+                    if (speed > maxSpeed) {
+                        vx[i] = vx[i] * maxSpeed / speed;
+                        vy[i] = vy[i] * maxSpeed / speed;
+                    }
+
+                    // 更新位置
+                    double dx = vx[i] * damping;
+                    double dy = vy[i] * damping;
+                    x[i] += dx;
+                    y[i] += dy;
+
+                    totalMovement += Math.abs(dx) + Math.abs(dy);
                 }
+            }
 
-                // 更新位置
-                double dx = node.getVx() * damping;
-                double dy = node.getVy() * damping;
-                node.setX(node.getX() + dx);
-                node.setY(node.getY() + dy);
+            return totalMovement;
+        }
 
-                totalMovement += Math.abs(dx) + Math.abs(dy);
+        /**
+         * 应用斥力（库仑力模型，逐对计算）
+         */
+        private void applyRepulsionExact() {
+            for (int i = 0; i < n; i++) {
+                for (int j = i + 1; j < n; j++) {
+                    double dx = x[j] - x[i];
+                    double dy = y[j] - y[i];
+                    double distance = Math.sqrt(dx * dx + dy * dy);
+
+                    if (distance < minDistance) {
+                        distance = minDistance;
+                    }
+
+                    // 库仑力: F = k / d^2
+                    double force = repulsionStrength / (distance * distance);
+
+                    double fx = (dx / distance) * force;
+                    double fy = (dy / distance) * force;
+
+                    if (!pinned[i]) {
+                        vx[i] -= fx;
+                        vy[i] -= fy;
+                    }
+                    if (!pinned[j]) {
+                        vx[j] += fx;
+                        vy[j] += fy;
+                    }
+                }
             }
         }
 
-        return totalMovement;
-    }
+        /**
+         * 应用斥力（Barnes–Hut 近似）
+         */
+        private void applyRepulsionBarnesHut(double currentTheta) {
+            if (tree == null) {
+                tree = new BarnesHutTree();
+            }
+            tree.build(x, y, n);
+            for (int i = 0; i < n; i++) {
+                if (pinned[i]) {
+                    continue;
+                }
+                force[0] = 0;
+                force[1] = 0;
+                tree.accumulateRepulsion(i, currentTheta, repulsionStrength, minDistance, force);
+                vx[i] += force[0];
+                vy[i] += force[1];
+            }
+        }
 
-    /**
-     * 应用斥力（库仑力模型）
-     */
-    private void applyRepulsionForces(List<MechanismNode> nodes) {
-        for (int i = 0; i < nodes.size(); i++) {
-            MechanismNode node1 = nodes.get(i);
-            for (int j = i + 1; j < nodes.size(); j++) {
-                MechanismNode node2 = nodes.get(j);
+        /**
+         * 应用引力（弹簧力模型）
+         */
+        private void applyAttractionForces() {
+            for (int e = 0; e < edgeSource.length; e++) {
+                int source = edgeSource[e];
+                int target = edgeTarget[e];
 
-                double dx = node2.getX() - node1.getX();
-                double dy = node2.getY() - node1.getY();
+                double dx = x[target] - x[source];
+                double dy = y[target] - y[source];
                 double distance = Math.sqrt(dx * dx + dy * dy);
 
-                if (distance < minDistance) {
-                    distance = minDistance;
+                if (distance < 1) {
+                    distance = 1;
                 }
 
-                // 库仑力: F = k / d^2
-                double force = repulsionStrength / (distance * distance);
+                // 弹簧力: F = k * (d - L)，其中L是理想长度
+                double displacement = distance - idealEdgeLength;
+                double force = attractionStrength * displacement * edgeMultiplier[e];
 
                 double fx = (dx / distance) * force;
                 double fy = (dy / distance) * force;
 
-                if (!node1.isPinned()) {
-                    node1.setVx(node1.getVx() - fx);
-                    node1.setVy(node1.getVy() - fy);
+                if (!pinned[source]) {
+                    vx[source] += fx;
+                    vy[source] += fy;
                 }
-                if (!node2.isPinned()) {
-                    node2.setVx(node2.getVx() + fx);
-                    node2.setVy(node2.getVy() + fy);
+                if (!pinned[target]) {
+                    vx[target] -= fx;
+                    vy[target] -= fy;
                 }
             }
         }
-    }
 
-    /**
-     * 应用引力（弹簧力模型）
-     */
-    private void applyAttractionForces(List<MechanismNode> nodes,
-                                        List<MechanismRelationship> edges) {
-        for (MechanismRelationship edge : edges) {
-            MechanismNode source = findNode(nodes, edge.getSource());
-            MechanismNode target = findNode(nodes, edge.getTarget());
-
-            if (source == null || target == null) {
-                continue;
+        /**
+         * 应用中心力（防止节点飞散）
+         */
+        private void applyCenterForce() {
+            double centerX = width / 2;
+            double centerY = height / 2;
+
+            for (int i = 0; i < n; i++) {
+                if (!pinned[i]) {
+                    vx[i] += (centerX - x[i]) * centerStrength;
+                    vy[i] += (centerY - y[i]) * centerStrength;
+                }
             }
+        }
 
-            double dx = target.getX() - source.getX();
-            double dy = target.getY() - source.getY();
-            double distance = Math.sqrt(dx * dx + dy * dy);
+        /**
+         * 限制节点在画布内
+         */
+        void constrainToCanvas() {
+            double padding = 50;  // 边缘留白
+
+            for (int i = 0; i < n; i++) {
+                if (x[i] < padding) {
+                    x[i] = padding;
+                    vx[i] = 0;
+                } else if (x[i] > width - padding) {
+                    x[i] = width - padding;
+                    vx[i] = 0;
+                }
 
-            if (distance < 1) {
-                distance = 1;
+                if (y[i] < padding) {
+                    y[i] = padding;
+                    vy[i] = 0;
+                } else if (y[i] > height - padding) {
+                    y[i] = height - padding;
+                    vy[i] = 0;
+                }
             }
+        }
 
-            // 弹簧力: F = k * (d - L)，其中L是理想长度
-            double displacement = distance - idealEdgeLength;
-            double force = attractionStrength * displacement;
-
-            // 根据关系强度调整引力
-            double strengthMultiplier = 1 + edge.getStrength() * 0.1;
-            force *= strengthMultiplier;
-
-            double fx = (dx / distance) * force;
-            double fy = (dy / distance) * force;
-
-            if (!source.isPinned()) {
-                source.setVx(source.getVx() + fx);
-                source.setVy(source.getVy() + fy);
-            }
-            if (!target.isPinned()) {
-                target.setVx(target.getVx() - fx);
-                target.setVy(target.getVy() - fy);
+        /**
+         * 坐标写回节点（固定节点由用户拖动，保持不变）
+         */
+        void writeBack(List<MechanismNode> nodes) {
+            for (int i = 0; i < n; i++) {
+                MechanismNode node = nodes.get(i);
+                if (node.isPinned()) {
+                    continue;
+                }
+                node.setX(x[i]);
+                node.setY(y[i]);
+                node.setVx(vx[i]);
+                node.setVy(vy[i]);
             }
         }
-    }
-
-    /**
-     * 应用中心力（防止节点飞散）
-     */
-    private void applyCenterForce(List<MechanismNode> nodes) {
-        double centerX = width / 2;
-        double centerY = height / 2;
-
-        for (MechanismNode node : nodes) {
-            if (!node.isPinned()) {
-                double dx = centerX - node.getX();
-                double dy = centerY - node.getY();
 
-                node.setVx(node.getVx() + dx * centerStrength);
-                node.setVy(node.getVy() + dy * centerStrength);
+        /**
+         * 读取固定节点的最新状态（在 FX 线程调用）
+         */
+        void readPinned(List<MechanismNode> nodes) {
+            for (int i = 0; i < n; i++) {
+                MechanismNode node = nodes.get(i);
+                pinned[i] = node.isPinned();
+                if (pinned[i]) {
+                    x[i] = node.getX();
+                    y[i] = node.getY();
+                }
             }
         }
     }
 
     /**
-     * 限制节点在画布内
+     * 后台布局任务
      */
-    private void constrainToCanvas(List<MechanismNode> nodes) {
-        double padding = 50;  // 边缘留白
-
-        for (MechanismNode node : nodes) {
-            double x = node.getX();
-            double y = node.getY();
+    public final class LayoutTask {
+        private final List<MechanismNode> nodes;
+        private final Simulation sim;
+        private final Runnable onPublish;
+        private final AtomicBoolean publishPending = new AtomicBoolean();
+        private volatile boolean cancelled;
+        private volatile boolean done;
+        private volatile int iterations;
+
+        // 发布用的坐标快照，避免 FX 线程读到迭代中途的数组
+        private final double[] publishedX;
+        private final double[] publishedY;
+
+        private LayoutTask(List<MechanismNode> nodes, Simulation sim, Runnable onPublish) {
+            this.nodes = nodes;
+            this.sim = sim;
+            this.onPublish = onPublish;
+            this.publishedX = new double[sim.n];
+            this.publishedY = new double[sim.n];
+        }
 
-            if (x < padding) {
-                node.setX(padding);
-                node.setVx(0);
-            } else if (x > width - padding) {
-                node.setX(width - padding);
-                node.setVx(0);
+        private void run() {
+            ConvergenceMonitor monitor = new ConvergenceMonitor();
+            long lastPublish = System.currentTimeMillis();
+            try {
+                for (int i = 0; i < maxIterations && !cancelled; i++) {
+                    double totalMovement;
+                    synchronized (sim) {
+                        totalMovement = sim.iterate(monitor.lastMovementPerNode(sim.n));
+                        sim.constrainToCanvas();
+                    }
+                    iterations = i + 1;
+                    if (monitor.converged(totalMovement)) {
+                        break;
+                    }
+                    if (System.currentTimeMillis() - lastPublish >= PUBLISH_INTERVAL_MS) {
+                        publish(false);
+                        lastPublish = System.currentTimeMillis();
+                    }
+                }
+            } finally {
+                done = true;
+                if (!cancelled) {
+                    publish(true);
+                }
             }
+        }
 
-            if (y < padding) {
-                node.setY(padding);
-                node.setVy(0);
-            } else if (y > height - padding) {
-                node.setY(height - padding);
-                node.setVy(0);
+        /**
+         * 复制坐标并交给 FX 线程写回；上一次发布还未处理时跳过（最终发布除外）
+         */
+        private void publish(boolean last) {
+            if (!last && !publishPending.compareAndSet(false, true)) {
+                return;
             }
+            synchronized (sim) {
+                System.arraycopy(sim.x, 0, publishedX, 0, sim.n);
+                System.arraycopy(sim.y, 0, publishedY, 0, sim.n);
+            }
+            Platform.runLater(() -> {
+                publishPending.set(false);
+                if (cancelled) {
+                    return;
+                }
+                synchronized (sim) {
+                    for (int i = 0; i < sim.n; i++) {
+                        MechanismNode node = nodes.get(i);
+                        if (!node.isPinned()) {
+                            node.setX(publishedX[i]);
+                            node.setY(publishedY[i]);
+                        }
+                    }
+                    sim.readPinned(nodes);
+                }
+                if (onPublish != null) {
+                    onPublish.run();
+                }
+            });
         }
-    }
 
-    private MechanismNode findNode(List<MechanismNode> nodes,
-                                    red.jiuzhou.analysis.aion.AionMechanismCategory category) {
-        for (MechanismNode node : nodes) {
-            if (node.getCategory() == category) {
-                return node;
-            }
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isRunning() {
+            return !done && !cancelled;
+        }
+
+        public int getIterations() {
+            return iterations;
         }
-        return null;
     }
 
     // ========== Getters and Setters ==========
@@ -347,6 +634,46 @@ public class ForceDirectedLayout {
         this.idealEdgeLength = idealEdgeLength;
     }
 
+    public RepulsionMode getRepulsionMode() {
+        return repulsionMode;
+    }
+
+    public void setRepulsionMode(RepulsionMode repulsionMode) {
+        this.repulsionMode = repulsionMode;
+    }
+
+    public int getBarnesHutMinNodes() {
+        return barnesHutMinNodes;
+    }
+
+    public void setBarnesHutMinNodes(int barnesHutMinNodes) {
+        this.barnesHutMinNodes = barnesHutMinNodes;
+    }
+
+    public double getTheta() {
+        return theta;
+    }
+
+    public void setTheta(double theta) {
+        this.theta = theta;
+    }
+
+    public double getMaxTheta() {
+        return maxTheta;
+    }
+
+    public void setMaxTheta(double maxTheta) {
+        this.maxTheta = maxTheta;
+    }
+
+    public int getStagnationWindow() {
+        return stagnationWindow;
+    }
+
+    public void setStagnationWindow(int stagnationWindow) {
+        this.stagnationWindow = stagnationWindow;
+    }
+
     public int getMaxIterations() {
         return maxIterations;
     }
@@ -0,0 +1,485 @@
+package red.jiuzhou.ui.mapping;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * 批量同步引擎
+ *
+ * 替代逐行"SELECT COUNT(*) 存在性检查 + 单条 INSERT/UPDATE"的同步方式：
+ * 1. 同步开始前一次性预取目标表主键集合，在内存中判断记录是否存在（用于同步模式判断和计数）
+ * 2. 新记录累积为多行 INSERT INTO ... VALUES (...), (...)
+ * 3. 已存在记录累积为多行 INSERT ... ON DUPLICATE KEY UPDATE
+ *
+ * 内存中的主键比较按目标列的排序规则做了归一化（_ci 忽略大小写，PAD SPACE 忽略尾部空格），
+ * 但无法完全等同于数据库的比较（如重音不敏感），因此新记录的 INSERT 同样带 ON DUPLICATE KEY UPDATE：
+ * 被误判为新记录的行不会因主键冲突中断整批，仅新增模式下冲突行保持原样。
+ * 主键可以是复合主键，以逗号分隔，如 "fk,id"。
+ *
+ * 每条语句包含的行数由 batchSize 控制（同时受 MySQL 占位符上限约束），
+ * 各 {@link EnhancedDataSyncService.SyncMode} 的语义与新增/更新/跳过计数保持不变。
+ * 引擎不负责事务提交，由调用方统一 commit / rollback。
+ *
+ * @author yanxq
+ * @date 2025-01-20
+ * @version 1.0
+ */
+public class BatchSyncEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchSyncEngine.class);
+
+    /**
+     * 默认每批行数
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /**
+     * MySQL 单条预编译语句的占位符上限
+     */
+    private static final int MAX_PLACEHOLDERS = 65535;
+
+    /**
+     * 行转换器（用于子表外键映射等场景）
+     */
+    public interface RowTransformer {
+        /**
+         * 转换一行源数据
+         *
+         * @param row 按同步字段顺序排列的字段值
+         * @param result 同步结果（可记录警告、跳过数）
+         * @return 转换后的行；返回 null 表示跳过该行（跳过计数由转换器自行维护）
+         */
+        Object[] transform(Object[] row, EnhancedDataSyncService.EnhancedSyncResult result) throws SQLException;
+    }
+
+    private final Connection conn;
+    private final String targetTable;
+    private final List<String> keyColumns;
+    private final List<String> fields;
+    private final EnhancedDataSyncService.SyncMode syncMode;
+    private final int rowsPerStatement;
+    private final int[] keyIndexes;
+    private final boolean[] ignoreCase;
+    private final boolean[] ignoreTrailingSpace;
+
+    private final Set<String> targetKeys = new HashSet<>();
+    private boolean targetKeysLoaded = false;
+    private final List<Object[]> pendingInserts = new ArrayList<>();
+    private final List<Object[]> pendingUpdates = new ArrayList<>();
+
+    private PreparedStatement fullInsertStmt;
+    private PreparedStatement fullUpdateStmt;
+
+    /**
+     * @param conn 数据库连接（调用方管理事务）
+     * @param targetTable 目标表
+     * @param primaryKeyColumn 目标表主键列（复合主键以逗号分隔）
+     * @param fields 同步字段（与源查询的列顺序一致，必须包含全部主键列）
+     * @param syncMode 同步模式
+     * @param batchSize 每批行数
+     */
+    public BatchSyncEngine(Connection conn,
+                           String targetTable,
+                           String primaryKeyColumn,
+                           List<String> fields,
+                           EnhancedDataSyncService.SyncMode syncMode,
+                           int batchSize) throws SQLException {
+        this.conn = conn;
+        this.targetTable = targetTable;
+        this.keyColumns = parseKeyColumns(primaryKeyColumn);
+        this.fields = fields;
+        this.syncMode = syncMode;
+        if (keyColumns.isEmpty()) {
+            throw new SQLException("未指定主键列: " + targetTable);
+        }
+        this.keyIndexes = new int[keyColumns.size()];
+        for (int k = 0; k < keyIndexes.length; k++) {
+            keyIndexes[k] = indexOfIgnoreCase(fields, keyColumns.get(k));
+            if (keyIndexes[k] < 0) {
+                throw new SQLException("主键列不在同步字段中: " + keyColumns.get(k));
+            }
+        }
+        this.ignoreCase = new boolean[keyColumns.size()];
+        this.ignoreTrailingSpace = new boolean[keyColumns.size()];
+        loadKeyCollations();
+        int maxRowsByPlaceholders = Math.max(1, MAX_PLACEHOLDERS / Math.max(1, fields.size()));
+        this.rowsPerStatement = Math.max(1, Math.min(batchSize, maxRowsByPlaceholders));
+    }
+
+    /**
+     * 消费源结果集并批量写入目标表（预取主键 → 写入 → 落库剩余批次）
+     *
+     * @param rs 源数据结果集（列顺序与 fields 一致）
+     * @param result 同步结果
+     * @param transformer 行转换器，可为 null
+     */
+    public void sync(ResultSet rs,
+                     EnhancedDataSyncService.EnhancedSyncResult result,
+                     RowTransformer transformer) throws SQLException {
+        try {
+            loadTargetKeys();
+            consume(rs, result, transformer);
+            finish(result);
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * 直接指定目标表中已存在的主键，跳过预取（例如已由行摘要比对得到）
+     */
+    public void presetTargetKeys(Collection<String> existingKeys) {
+        targetKeysLoaded = true;
+        targetKeys.clear();
+        for (String key : existingKeys) {
+            targetKeys.add(keyColumns.size() == 1 ? normalizeKey(0, key) : key);
+        }
+    }
+
+    /**
+     * 消费一段源数据，可多次调用（例如按主键分块查询源表时）
+     */
+    public void consume(ResultSet rs,
+                        EnhancedDataSyncService.EnhancedSyncResult result,
+                        RowTransformer transformer) throws SQLException {
+        loadTargetKeys();
+
+        int columnCount = fields.size();
+        while (rs.next()) {
+            result.totalRows++;
+
+            Object[] row = new Object[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                row[i] = rs.getObject(i + 1);
+            }
+
+            if (transformer != null) {
+                row = transformer.transform(row, result);
+                if (row == null) {
+                    continue;
+                }
+            }
+
+            String key = keyOf(row);
+            if (key == null) {
+                result.skippedRows++;
+                continue;
+            }
+
+            boolean exists = targetKeys.contains(key);
+
+            switch (syncMode) {
+                case UPDATE_ONLY:
+                    if (exists) {
+                        queueUpdate(row, result);
+                    } else {
+                        result.skippedRows++;
+                    }
+                    break;
+
+                case INSERT_ONLY:
+                    if (exists) {
+                        result.skippedRows++;
+                    } else {
+                        queueInsert(row, key, result);
+                    }
+                    break;
+
+                case INCREMENTAL:
+                case FULL_SYNC:
+                default:
+                    // 完全同步的删除操作由调用方在之后单独处理
+                    if (exists) {
+                        queueUpdate(row, result);
+                    } else {
+                        queueInsert(row, key, result);
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * 落库剩余批次
+     */
+    public void finish(EnhancedDataSyncService.EnhancedSyncResult result) throws SQLException {
+        flushInserts();
+        flushUpdates();
+
+        log.info("批量同步完成: {} 新增={}, 更新={}, 跳过={}",
+                targetTable, result.insertedRows, result.updatedRows, result.skippedRows);
+    }
+
+    /**
+     * 释放缓存的预编译语句
+     */
+    public void close() throws SQLException {
+        if (fullInsertStmt != null) {
+            fullInsertStmt.close();
+            fullInsertStmt = null;
+        }
+        if (fullUpdateStmt != null) {
+            fullUpdateStmt.close();
+            fullUpdateStmt = null;
+        }
+    }
+
+    /**
+     * 预取目标表的主键集合（一次查询代替逐行 COUNT(*)）
+     */
+    private void loadTargetKeys() throws SQLException {
+        if (targetKeysLoaded) {
+            return;
+        }
+        targetKeysLoaded = true;
+        String sql = String.format("SELECT %s FROM %s", quotedKeyList(), targetTable);
+        int[] positions = new int[keyColumns.size()];
+        for (int k = 0; k < positions.length; k++) {
+            positions[k] = k;
+        }
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            Object[] keyRow = new Object[keyColumns.size()];
+            while (rs.next()) {
+                for (int k = 0; k < keyRow.length; k++) {
+                    keyRow[k] = rs.getObject(k + 1);
+                }
+                String key = keyOf(keyRow, positions);
+                if (key != null) {
+                    targetKeys.add(key);
+                }
+            }
+        }
+        log.debug("预取目标表 {} 主键 {} 个", targetTable, targetKeys.size());
+    }
+
+    /**
+     * 读取主键列的排序规则，决定内存比较时是否忽略大小写和尾部空格
+     *
+     * 查询失败（如非 MySQL 库）时按二进制比较，冲突由 ON DUPLICATE KEY UPDATE 兜底
+     */
+    private void loadKeyCollations() {
+        String tableName = targetTable.replace("`", "");
+        int dot = tableName.lastIndexOf('.');
+        if (dot >= 0) {
+            tableName = tableName.substring(dot + 1);
+        }
+        String sql = "SELECT COLLATION_NAME FROM information_schema.COLUMNS "
+                + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND COLUMN_NAME = ?";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (int k = 0; k < keyColumns.size(); k++) {
+                stmt.setString(1, tableName);
+                stmt.setString(2, keyColumns.get(k));
+                try (ResultSet rs = stmt.executeQuery()) {
+                    String collation = rs.next() ? rs.getString(1) : null;
+                    if (collation != null) {
+                        String lower = collation.toLowerCase(Locale.ROOT);
+                        ignoreCase[k] = lower.endsWith("_ci");
+                        // MySQL 8 的 *_0900_* 排序规则为 NO PAD，其余为 PAD SPACE
+                        ignoreTrailingSpace[k] = !lower.contains("_0900_") && !lower.endsWith("_bin");
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            log.debug("读取主键排序规则失败，按二进制比较: {} - {}", targetTable, e.getMessage());
+        }
+    }
+
+    /**
+     * 行的主键（复合主键各列以 \0 连接），任一主键列为空时返回 null
+     */
+    private String keyOf(Object[] row) {
+        return keyOf(row, keyIndexes);
+    }
+
+    private String keyOf(Object[] row, int[] positions) {
+        if (positions.length == 1) {
+            Object value = row[positions[0]];
+            return value == null ? null : normalizeKey(0, String.valueOf(value));
+        }
+        StringBuilder key = new StringBuilder();
+        for (int k = 0; k < positions.length; k++) {
+            Object value = row[positions[k]];
+            if (value == null) {
+                return null;
+            }
+            if (k > 0) {
+                key.append('\0');
+            }
+            key.append(normalizeKey(k, String.valueOf(value)));
+        }
+        return key.toString();
+    }
+
+    private String normalizeKey(int keyPosition, String value) {
+        String normalized = value;
+        if (ignoreTrailingSpace[keyPosition]) {
+            int end = normalized.length();
+            while (end > 0 && normalized.charAt(end - 1) == ' ') {
+                end--;
+            }
+            normalized = normalized.substring(0, end);
+        }
+        if (ignoreCase[keyPosition]) {
+            normalized = normalized.toLowerCase(Locale.ROOT);
+        }
+        return normalized;
+    }
+
+    private String quotedKeyList() {
+        StringBuilder list = new StringBuilder();
+        for (String column : keyColumns) {
+            if (list.length() > 0) list.append(", ");
+            list.append('`').append(column).append('`');
+        }
+        return list.toString();
+    }
+
+    private static List<String> parseKeyColumns(String primaryKeyColumn) {
+        List<String> columns = new ArrayList<>();
+        if (primaryKeyColumn == null) {
+            return columns;
+        }
+        for (String part : primaryKeyColumn.split(",")) {
+            String column = part.trim().replace("`", "");
+            if (!column.isEmpty()) {
+                columns.add(column);
+            }
+        }
+        return columns;
+    }
+
+    private boolean isKeyColumn(String field) {
+        for (String column : keyColumns) {
+            if (column.equalsIgnoreCase(field)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void queueInsert(Object[] row, String key, EnhancedDataSyncService.EnhancedSyncResult result) throws SQLException {
+        pendingInserts.add(row);
+        // 源表中重复主键的后续行应视为"已存在"，与逐行同步的行为一致
+        targetKeys.add(key);
+        result.insertedRows++;
+        if (pendingInserts.size() >= rowsPerStatement) {
+            flushInserts();
+        }
+    }
+
+    private void queueUpdate(Object[] row, EnhancedDataSyncService.EnhancedSyncResult result) throws SQLException {
+        pendingUpdates.add(row);
+        result.updatedRows++;
+        if (pendingUpdates.size() >= rowsPerStatement) {
+            flushUpdates();
+        }
+    }
+
+    private void flushInserts() throws SQLException {
+        if (pendingInserts.isEmpty()) {
+            return;
+        }
+        if (pendingInserts.size() == rowsPerStatement) {
+            if (fullInsertStmt == null) {
+                fullInsertStmt = conn.prepareStatement(buildInsertSql(rowsPerStatement, updatesExistingOnInsert()));
+            }
+            executeRows(fullInsertStmt, pendingInserts);
+        } else {
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    buildInsertSql(pendingInserts.size(), updatesExistingOnInsert()))) {
+                executeRows(stmt, pendingInserts);
+            }
+        }
+        log.debug("批量插入 {} 行 → {}", pendingInserts.size(), targetTable);
+        pendingInserts.clear();
+    }
+
+    private void flushUpdates() throws SQLException {
+        if (pendingUpdates.isEmpty()) {
+            return;
+        }
+        // 先落库待插入的行，保证源表重复主键时"先插入后更新"的顺序
+        flushInserts();
+        if (pendingUpdates.size() == rowsPerStatement) {
+            if (fullUpdateStmt == null) {
+                fullUpdateStmt = conn.prepareStatement(buildInsertSql(rowsPerStatement, true));
+            }
+            executeRows(fullUpdateStmt, pendingUpdates);
+        } else {
+            try (PreparedStatement stmt = conn.prepareStatement(buildInsertSql(pendingUpdates.size(), true))) {
+                executeRows(stmt, pendingUpdates);
+            }
+        }
+        log.debug("批量更新 {} 行 → {}", pendingUpdates.size(), targetTable);
+        pendingUpdates.clear();
+    }
+
+    /**
+     * 新记录与目标表主键冲突时是否覆盖：新增模式下保持原样，其余模式按更新处理
+     */
+    private boolean updatesExistingOnInsert() {
+        return syncMode != EnhancedDataSyncService.SyncMode.INSERT_ONLY;
+    }
+
+    private void executeRows(PreparedStatement stmt, List<Object[]> rows) throws SQLException {
+        int paramIndex = 1;
+        for (Object[] row : rows) {
+            for (Object value : row) {
+                stmt.setObject(paramIndex++, value);
+            }
+        }
+        stmt.executeUpdate();
+    }
+
+    /**
+     * 构建多行 INSERT ... ON DUPLICATE KEY UPDATE 语句
+     *
+     * @param rowCount 行数
+     * @param upsert 主键冲突时是否用新值覆盖；为 false 时冲突行保持原样
+     */
+    private String buildInsertSql(int rowCount, boolean upsert) {
+        StringBuilder fieldList = new StringBuilder();
+        for (int i = 0; i < fields.size(); i++) {
+            if (i > 0) fieldList.append(", ");
+            fieldList.append('`').append(fields.get(i)).append('`');
+        }
+
+        String rowPlaceholder = "(" + String.join(", ", Collections.nCopies(fields.size(), "?")) + ")";
+        StringBuilder sql = new StringBuilder();
+        sql.append("INSERT INTO ").append(targetTable)
+           .append(" (").append(fieldList).append(") VALUES ")
+           .append(String.join(", ", Collections.nCopies(rowCount, rowPlaceholder)));
+
+        List<String> setClauses = new ArrayList<>();
+        if (upsert) {
+            for (String field : fields) {
+                if (!isKeyColumn(field)) {
+                    setClauses.add("`" + field + "` = VALUES(`" + field + "`)");
+                }
+            }
+        }
+        if (setClauses.isEmpty()) {
+            // 不覆盖或只有主键列时：冲突行保持原样
+            String keyColumn = keyColumns.get(0);
+            setClauses.add("`" + keyColumn + "` = `" + keyColumn + "`");
+        }
+        sql.append(" ON DUPLICATE KEY UPDATE ").append(String.join(", ", setClauses));
+        return sql.toString();
+    }
+
+    private static int indexOfIgnoreCase(List<String> list, String value) {
+        if (value == null) {
+            return -1;
+        }
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i).equalsIgnoreCase(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -19,7 +19,7 @@ import java.time.format.DateTimeFormatter;
  * - 数据完整性检查
  * - 主键冲突检测
  * - 外键约束验证
- * - 同步前备份
+ * - 同步前备份（默认为增量备份，只记录变化行的前像，见 {@link SyncUndoJournal}）
  * - 详细日志记录
  * - 层级关系校验
  *
@@ -43,6 +43,7 @@ public class DataSyncService {
         public String message;
         public List<String> errors;
         public String backupTableName;  // 备份表名
+        public String undoRunId;        // 增量备份批次号
         public long durationMs;         // 同步耗时
 
         public SyncResult() {
@@ -59,6 +60,9 @@ public class DataSyncService {
             if (backupTableName != null) {
                 sb.append(String.format("备份表: %s\n", backupTableName));
             }
+            if (undoRunId != null) {
+                sb.append(String.format("增量备份: %s\n", undoRunId));
+            }
             if (!errors.isEmpty()) {
                 sb.append("\n错误信息:\n");
                 for (String error : errors) {
@@ -77,6 +81,7 @@ public class DataSyncService {
      */
     public static class SyncOptions {
         public boolean createBackup = true;         // 是否创建备份
+        public boolean deltaBackup = true;          // 增量备份（只记录变化行前像），false 时整表复制
         public boolean enableTransaction = true;    // 是否使用事务
         public boolean checkPrimaryKey = true;      // 是否检查主键
         public boolean checkDataIntegrity = true;   // 是否检查数据完整性
@@ -167,11 +172,19 @@ public class DataSyncService {
             }
 
             // 2. 建立数据库连接
+            boolean deltaBackup = options.createBackup && options.deltaBackup && !options.dryRun;
+            if (deltaBackup) {
+                // 建表语句会隐式提交，必须在开启事务之前执行
+                SyncUndoJournal.ensureSchema();
+            }
             conn = DatabaseUtil.getConnection();
             conn.setAutoCommit(false);  // 开启事务
 
             // 3. 创建备份（如果需要）
-            if (options.createBackup && !options.dryRun) {
+            SyncUndoJournal undo = null;
+            if (deltaBackup) {
+                undo = SyncUndoJournal.begin(conn, targetTable.getTableName());
+            } else if (options.createBackup && !options.dryRun) {
                 result.backupTableName = createBackupTable(conn, targetTable.getTableName());
                 log.info("已创建备份表: {}", result.backupTableName);
             }
@@ -184,9 +197,13 @@ public class DataSyncService {
             // 5. 执行数据同步
             if (options.dryRun) {
                 log.info("模拟模式：不会实际修改数据");
-                result.message = "模拟运行，未实际执行";
+                performDryRun(sourceTable, targetTable, options, result);
             } else {
-                performDataSync(conn, sourceTable, targetTable, options, result);
+                performDataSync(conn, sourceTable, targetTable, options, undo, result);
+                if (undo != null) {
+                    undo.finish();
+                    result.undoRunId = undo.getRunId();
+                }
             }
 
             // 6. 提交事务
@@ -196,7 +213,9 @@ public class DataSyncService {
             }
 
             result.success = true;
-            result.message = "数据同步成功";
+            if (!options.dryRun) {
+                result.message = "数据同步成功";
+            }
 
         } catch (Exception e) {
             log.error("数据同步失败", e);
@@ -358,31 +377,35 @@ public class DataSyncService {
             DatabaseTableScanner.TableInfo sourceTable,
             DatabaseTableScanner.TableInfo targetTable,
             SyncOptions options,
+            SyncUndoJournal undo,
             SyncResult result) throws SQLException {
 
-        // 获取共同字段
-        DatabaseTableScanner.FieldCompareResult fieldCompare =
-                DatabaseTableScanner.compareFields(sourceTable, targetTable);
+        List<String> syncFields = getSyncFields(sourceTable, targetTable, options);
+        log.info("同步字段: {}", String.join(", ", syncFields));
 
-        List<String> syncFields = new ArrayList<>();
-        for (DatabaseTableScanner.FieldPair pair : fieldCompare.commonFields) {
-            String fieldName = pair.clientField.getColumnName();
+        // 获取主键列
+        List<String> pkColumns = getPrimaryKeyColumns(sourceTable);
 
-            // 应用字段筛选
-            if (options.includeFields != null && !options.includeFields.contains(fieldName)) {
-                continue;
+        // 单列主键时先做行摘要比对，只写入变化的行
+        if (pkColumns.size() == 1 && syncFields.contains(pkColumns.get(0))) {
+            RowDigestDiff.DiffReport diff = null;
+            try {
+                // 在同步事务内比对，与随后的写入处于同一快照
+                diff = RowDigestDiff.diff(conn, sourceTable.getTableName(), targetTable.getTableName(),
+                        pkColumns.get(0), syncFields);
+            } catch (SQLException e) {
+                log.warn("行摘要比对失败，改为全量同步: {}", e.getMessage());
             }
-            if (options.excludeFields.contains(fieldName)) {
-                continue;
+            if (diff != null) {
+                performDiffSync(conn, sourceTable, targetTable, syncFields, pkColumns.get(0), options, diff, undo, result);
+                return;
             }
-
-            syncFields.add(fieldName);
         }
 
-        log.info("同步字段: {}", String.join(", ", syncFields));
-
-        // 获取主键列
-        List<String> pkColumns = getPrimaryKeyColumns(sourceTable);
+        // 无法按主键定位变化行，增量备份退化为整表前像
+        if (undo != null) {
+            undo.captureWholeTable(options.batchSize);
+        }
 
         // 清空目标表（注意：这是全量同步的简单实现）
         String deleteSql = "DELETE FROM " + targetTable.getTableName();
@@ -437,6 +460,140 @@ public class DataSyncService {
         }
     }
 
+    /**
+     * 计算需要同步的字段（共同字段 + 包含/排除筛选）
+     */
+    private static List<String> getSyncFields(
+            DatabaseTableScanner.TableInfo sourceTable,
+            DatabaseTableScanner.TableInfo targetTable,
+            SyncOptions options) {
+
+        DatabaseTableScanner.FieldCompareResult fieldCompare =
+                DatabaseTableScanner.compareFields(sourceTable, targetTable);
+
+        List<String> syncFields = new ArrayList<>();
+        for (DatabaseTableScanner.FieldPair pair : fieldCompare.commonFields) {
+            String fieldName = pair.clientField.getColumnName();
+
+            // 应用字段筛选
+            if (options.includeFields != null && !options.includeFields.contains(fieldName)) {
+                continue;
+            }
+            if (options.excludeFields.contains(fieldName)) {
+                continue;
+            }
+
+            syncFields.add(fieldName);
+        }
+        return syncFields;
+    }
+
+    /**
+     * 模拟运行：只做行摘要比对，生成同步预览报告
+     */
+    private static void performDryRun(
+            DatabaseTableScanner.TableInfo sourceTable,
+            DatabaseTableScanner.TableInfo targetTable,
+            SyncOptions options,
+            SyncResult result) throws SQLException {
+
+        List<String> syncFields = getSyncFields(sourceTable, targetTable, options);
+        List<String> pkColumns = getPrimaryKeyColumns(sourceTable);
+        if (pkColumns.size() != 1 || !syncFields.contains(pkColumns.get(0))) {
+            result.message = "模拟运行，未实际执行（非单列主键，无法生成行比对报告）";
+            return;
+        }
+
+        RowDigestDiff.DiffReport diff = RowDigestDiff.diff(sourceTable.getTableName(),
+                targetTable.getTableName(), pkColumns.get(0), syncFields);
+
+        // 按实际同步的效果填充计数：新增插入、变更更新、目标多余的行删除
+        result.insertedRows = diff.newCount;
+        result.updatedRows = diff.changedCount;
+        result.deletedRows = diff.orphanedCount;
+        result.totalRows = diff.getSourceRows();
+        result.message = "模拟运行，未实际执行\n" + diff;
+    }
+
+    /**
+     * 基于行摘要比对的同步：删除目标多余行，替换变更行，插入新增行，未变化的行不动
+     */
+    private static void performDiffSync(
+            Connection conn,
+            DatabaseTableScanner.TableInfo sourceTable,
+            DatabaseTableScanner.TableInfo targetTable,
+            List<String> syncFields,
+            String pkColumn,
+            SyncOptions options,
+            RowDigestDiff.DiffReport diff,
+            SyncUndoJournal undo,
+            SyncResult result) throws SQLException {
+
+        log.info("行摘要比对: 新增={}, 变更={}, 未变={}, 多余={}",
+                diff.newCount, diff.changedCount, diff.unchangedCount, diff.orphanedCount);
+
+        // 1. 删除目标表多余的行和需要替换的变更行
+        List<String> keysToDelete = new ArrayList<>(diff.orphanedKeys);
+        keysToDelete.addAll(diff.changedKeys);
+        if (undo != null) {
+            undo.captureRows(pkColumn, keysToDelete, options.batchSize);
+            undo.recordInsertedKeys(diff.newKeys, options.batchSize);
+        }
+        String deletePrefix = "DELETE FROM " + targetTable.getTableName() + " WHERE " + pkColumn + " IN ";
+        for (int from = 0; from < keysToDelete.size(); from += options.batchSize) {
+            List<String> chunk = keysToDelete.subList(from, Math.min(from + options.batchSize, keysToDelete.size()));
+            try (PreparedStatement deleteStmt = conn.prepareStatement(deletePrefix + placeholders(chunk.size()))) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    deleteStmt.setString(i + 1, chunk.get(i));
+                }
+                deleteStmt.executeUpdate();
+            }
+        }
+        result.deletedRows = diff.orphanedCount;
+
+        // 2. 从源表读取新增和变更的行，批量插入
+        List<String> keysToWrite = diff.getKeysToWrite();
+        String insertSql = String.format(
+                "INSERT INTO %s (%s) VALUES (%s)",
+                targetTable.getTableName(),
+                String.join(", ", syncFields),
+                String.join(", ", Collections.nCopies(syncFields.size(), "?"))
+        );
+        String selectPrefix = String.format("SELECT %s FROM %s WHERE %s IN ",
+                String.join(", ", syncFields), sourceTable.getTableName(), pkColumn);
+
+        int written = 0;
+        try (PreparedStatement insertStmt = conn.prepareStatement(insertSql)) {
+            for (int from = 0; from < keysToWrite.size(); from += options.batchSize) {
+                List<String> chunk = keysToWrite.subList(from, Math.min(from + options.batchSize, keysToWrite.size()));
+                try (PreparedStatement selectStmt = conn.prepareStatement(selectPrefix + placeholders(chunk.size()))) {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        selectStmt.setString(i + 1, chunk.get(i));
+                    }
+                    try (ResultSet rs = selectStmt.executeQuery()) {
+                        while (rs.next()) {
+                            for (int i = 0; i < syncFields.size(); i++) {
+                                insertStmt.setObject(i + 1, rs.getObject(i + 1));
+                            }
+                            insertStmt.addBatch();
+                        }
+                    }
+                }
+                written += insertStmt.executeBatch().length;
+                log.debug("批量写入 {} 行", written);
+            }
+        }
+
+        result.insertedRows = diff.newCount;
+        result.updatedRows = diff.changedCount;
+        result.totalRows = diff.getSourceRows();
+        log.info("同步完成，写入 {} 行，删除 {} 行，{} 行未变化", written, result.deletedRows, diff.unchangedCount);
+    }
+
+    private static String placeholders(int count) {
+        return "(" + String.join(", ", Collections.nCopies(count, "?")) + ")";
+    }
+
     /**
      * 获取可用的备份表列表
      */
@@ -467,6 +624,42 @@ public class DataSyncService {
         return backupTables;
     }
 
+    /**
+     * 从增量备份恢复数据（回放撤销日志）
+     *
+     * @param runId 增量备份批次号
+     */
+    public static SyncResult restoreFromUndoRun(String runId) {
+        SyncResult result = new SyncResult();
+        long startTime = System.currentTimeMillis();
+
+        try (Connection conn = DatabaseUtil.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                result.insertedRows = SyncUndoJournal.replay(conn, runId);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+
+            result.success = true;
+            result.totalRows = result.insertedRows;
+            result.message = "从增量备份恢复成功";
+
+        } catch (Exception e) {
+            log.error("从增量备份恢复失败", e);
+            result.success = false;
+            result.message = e.getMessage();
+            result.errors.add("恢复失败: " + e.getMessage());
+        }
+
+        result.durationMs = System.currentTimeMillis() - startTime;
+        return result;
+    }
+
     /**
      * 从备份表恢复数据
      */
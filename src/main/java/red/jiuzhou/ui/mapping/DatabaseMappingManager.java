@@ -2151,6 +2151,10 @@ public class DatabaseMappingManager {
             content.append(String.format("\n备份表: %s\n", result.backupTableName));
             content.append("（如需恢复，可使用恢复功能）");
         }
+        if (result.undoRunId != null) {
+            content.append(String.format("\n增量备份: %s\n", result.undoRunId));
+            content.append("（如需恢复，可使用恢复功能）");
+        }
 
         TextArea textArea = new TextArea(content.toString());
         textArea.setEditable(false);
@@ -2161,13 +2165,17 @@ public class DatabaseMappingManager {
         resultAlert.getDialogPane().setPrefSize(500, 350);
 
         // 添加恢复按钮
-        if (result.backupTableName != null) {
+        if (result.backupTableName != null || result.undoRunId != null) {
             ButtonType restoreBtn = new ButtonType("恢复备份", ButtonBar.ButtonData.LEFT);
             resultAlert.getButtonTypes().add(0, restoreBtn);
 
             resultAlert.showAndWait().ifPresent(response -> {
                 if (response == restoreBtn) {
-                    restoreFromBackup(result.backupTableName);
+                    if (result.undoRunId != null) {
+                        restoreFromUndoJournal(result.undoRunId);
+                    } else {
+                        restoreFromBackup(result.backupTableName);
+                    }
                 }
             });
         } else {
@@ -2192,6 +2200,9 @@ public class DatabaseMappingManager {
         content.append(String.format("总行数: %d\n", result.totalRows));
         content.append(String.format("插入: %d 行\n", result.insertedRows));
         content.append(String.format("更新: %d 行\n", result.updatedRows));
+        if (result.unchangedRows > 0) {
+            content.append(String.format("未变化: %d 行 (内容一致，未写入)\n", result.unchangedRows));
+        }
         content.append(String.format("跳过: %d 行 (因无主键或类型不匹配)\n", result.skippedRows));
         content.append("\n");
 
@@ -2257,6 +2268,33 @@ public class DatabaseMappingManager {
         });
     }
 
+    /**
+     * 从增量备份恢复数据
+     */
+    private void restoreFromUndoJournal(String undoRunId) {
+        Alert confirm = new Alert(Alert.AlertType.CONFIRMATION);
+        confirm.setTitle("确认恢复");
+        confirm.setHeaderText("从增量备份恢复数据");
+        confirm.setContentText(String.format(
+                "确定要撤销同步批次 %s 吗？\n\n" +
+                "本次同步修改过的行将恢复为同步前的内容！",
+                undoRunId
+        ));
+
+        confirm.showAndWait().ifPresent(response -> {
+            if (response == ButtonType.OK) {
+                DataSyncService.SyncResult restoreResult = DataSyncService.restoreFromUndoRun(undoRunId);
+
+                if (restoreResult.success) {
+                    showInfo("恢复成功",
+                            String.format("已从增量备份写回 %d 行数据", restoreResult.insertedRows));
+                } else {
+                    showError("恢复失败:\n" + restoreResult.message);
+                }
+            }
+        });
+    }
+
     private void compareData() {
         if (currentSelectedPair == null) {
             showAlert("请先选择要对比的表映射");
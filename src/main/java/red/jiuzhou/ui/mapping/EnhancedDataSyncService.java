@@ -2,10 +2,14 @@ package red.jiuzhou.ui.mapping;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import red.jiuzhou.sync.OrphanReconciler;
+import red.jiuzhou.sync.TableSyncService;
 import red.jiuzhou.util.DatabaseUtil;
 
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 增强版数据同步服务
@@ -27,6 +31,47 @@ public class EnhancedDataSyncService {
 
     private static final Logger log = LoggerFactory.getLogger(EnhancedDataSyncService.class);
 
+    /**
+     * 批量写入时每条语句包含的行数
+     */
+    private static volatile int batchSize = BatchSyncEngine.DEFAULT_BATCH_SIZE;
+
+    /**
+     * 设置批量同步的每批行数
+     */
+    public static void setBatchSize(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("批大小必须大于0: " + size);
+        }
+        batchSize = size;
+    }
+
+    public static int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * 是否在写入前先做行摘要比对，只写入新增和变化的行
+     */
+    private static volatile boolean digestDiffEnabled = true;
+
+    public static void setDigestDiffEnabled(boolean enabled) {
+        digestDiffEnabled = enabled;
+    }
+
+    public static boolean isDigestDiffEnabled() {
+        return digestDiffEnabled;
+    }
+
+    /**
+     * 完全同步清理多余记录时的进度监听器
+     */
+    private static volatile TableSyncService.SyncProgressListener orphanProgressListener;
+
+    public static void setOrphanProgressListener(TableSyncService.SyncProgressListener listener) {
+        orphanProgressListener = listener;
+    }
+
     /**
      * 同步模式
      */
@@ -88,11 +133,13 @@ public class EnhancedDataSyncService {
         public int insertedRows;        // 新增记录数
         public int updatedRows;         // 更新记录数
         public int skippedRows;         // 跳过记录数
+        public int unchangedRows;       // 未变化记录数（行摘要比对后未写入）
         public int totalRows;           // 总记录数
         public String message;
         public List<String> errors;
         public List<String> warnings;
         public long durationMs;
+        OrphanCleanup pendingOrphanCleanup;  // 完全同步模式下待数据提交后执行的多余记录清理
 
         public EnhancedSyncResult() {
             this.errors = new ArrayList<>();
@@ -100,6 +147,21 @@ public class EnhancedDataSyncService {
         }
     }
 
+    /**
+     * 完全同步模式下待清理多余记录的表（数据事务提交之后执行）
+     */
+    private static class OrphanCleanup {
+        final String sourceTable;
+        final String targetTable;
+        final String primaryKeyColumn;
+
+        OrphanCleanup(String sourceTable, String targetTable, String primaryKeyColumn) {
+            this.sourceTable = sourceTable;
+            this.targetTable = targetTable;
+            this.primaryKeyColumn = primaryKeyColumn;
+        }
+    }
+
     /**
      * 主键映射信息（用于子表同步）
      */
@@ -188,6 +250,7 @@ public class EnhancedDataSyncService {
             result.errors.add("同步失败: " + e.getMessage());
             log.error("主表同步失败", e);
         }
+        runOrphanCleanup(result);
 
         result.durationMs = System.currentTimeMillis() - startTime;
         return result;
@@ -207,6 +270,25 @@ public class EnhancedDataSyncService {
             DatabaseTableScanner.TableInfo targetMainTable,
             List<DatabaseTableScanner.TableInfo> allTables,
             SyncMode syncMode) {
+        return syncMainTableWithChildren(sourceMainTable, targetMainTable, allTables, syncMode, new CascadeOptions());
+    }
+
+    /**
+     * 级联同步主表及其所有子表（支持并行同步子表）
+     *
+     * @param sourceMainTable 源主表
+     * @param targetMainTable 目标主表
+     * @param allTables 所有表信息（用于查找子表）
+     * @param syncMode 同步模式
+     * @param options 级联选项（并行度、子表是否整体提交）
+     * @return 综合同步结果
+     */
+    public static CascadeSyncResult syncMainTableWithChildren(
+            DatabaseTableScanner.TableInfo sourceMainTable,
+            DatabaseTableScanner.TableInfo targetMainTable,
+            List<DatabaseTableScanner.TableInfo> allTables,
+            SyncMode syncMode,
+            CascadeOptions options) {
 
         CascadeSyncResult cascadeResult = new CascadeSyncResult();
         long startTime = System.currentTimeMillis();
@@ -263,44 +345,26 @@ public class EnhancedDataSyncService {
             return cascadeResult;
         }
 
-        // 步骤4：同步所有子表
-        log.info("步骤4：同步 {} 个子表...", childPairs.size());
-        for (int i = 0; i < childPairs.size(); i++) {
-            TablePair pair = childPairs.get(i);
-            log.info("  [{}/{}] 同步子表: {} → {}",
-                i + 1, childPairs.size(),
-                pair.sourceTable.getTableName(),
-                pair.targetTable.getTableName());
+        // 步骤4：同步所有子表（子表之间互不依赖，只依赖主表主键映射）
+        int parallelism = Math.max(1, Math.min(options.parallelism, childPairs.size()));
+        log.info("步骤4：同步 {} 个子表... (并行度: {}, 整体提交: {})",
+                childPairs.size(), parallelism, options.atomicChildren);
 
-            try {
-                EnhancedSyncResult subResult = syncSubTable(
-                    pair.sourceTable,
-                    pair.targetTable,
-                    parentKeyMapping,
-                    syncMode
-                );
-
-                cascadeResult.subTableResults.add(subResult);
-                cascadeResult.totalInserted += subResult.insertedRows;
-                cascadeResult.totalUpdated += subResult.updatedRows;
-
-                if (subResult.success) {
-                    cascadeResult.successfulSubTables++;
-                    log.info("    ✅ 子表同步成功！新增={}, 更新={}",
-                        subResult.insertedRows, subResult.updatedRows);
-                } else {
-                    cascadeResult.failedSubTables++;
-                    log.warn("    ❌ 子表同步失败: {}", subResult.message);
-                }
+        List<EnhancedSyncResult> subResults;
+        if (options.atomicChildren) {
+            subResults = syncChildTablesAtomically(childPairs, parentKeyMapping, syncMode, parallelism);
+        } else {
+            subResults = syncChildTablesConcurrently(childPairs, parentKeyMapping, syncMode, parallelism);
+        }
 
-            } catch (Exception e) {
+        for (EnhancedSyncResult subResult : subResults) {
+            cascadeResult.subTableResults.add(subResult);
+            cascadeResult.totalInserted += subResult.insertedRows;
+            cascadeResult.totalUpdated += subResult.updatedRows;
+            if (subResult.success) {
+                cascadeResult.successfulSubTables++;
+            } else {
                 cascadeResult.failedSubTables++;
-                log.error("    ❌ 子表同步异常", e);
-
-                EnhancedSyncResult errorResult = new EnhancedSyncResult();
-                errorResult.success = false;
-                errorResult.message = "同步异常: " + e.getMessage();
-                cascadeResult.subTableResults.add(errorResult);
             }
         }
 
@@ -416,6 +480,266 @@ public class EnhancedDataSyncService {
         }
     }
 
+    /**
+     * 级联同步选项
+     */
+    public static class CascadeOptions {
+        /**
+         * 子表同步并行度，默认 1（依次同步）。大于 1 时每个子表占用一个连接池连接，
+         * 行摘要比对在同一连接上进行，建议不超过连接池大小的一半
+         */
+        public int parallelism = DEFAULT_CASCADE_PARALLELISM;
+
+        /**
+         * 子表是否整体提交：所有子表都成功才提交，任一失败则全部回滚。
+         * 字段结构变更（ALTER TABLE）在 MySQL 中会隐式提交，因此所有子表的结构和主键先在单独的连接上对齐，
+         * 全部成功后才开启只修改数据的事务；结构对齐失败时不写入任何子表数据，但已执行的结构变更不会撤销。
+         * 注意：主表在子表之前已单独提交。
+         */
+        public boolean atomicChildren = false;
+    }
+
+    /**
+     * 默认子表同步并行度：依次同步，不额外占用连接池，需要并行时由调用方设置 {@link CascadeOptions#parallelism}
+     */
+    public static final int DEFAULT_CASCADE_PARALLELISM = 1;
+
+    /**
+     * 子表同步线程计数器
+     */
+    private static final AtomicInteger CASCADE_THREAD_COUNTER = new AtomicInteger(1);
+
+    private static ExecutorService newCascadeExecutor(int parallelism) {
+        return Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setName("cascade-sync-" + CASCADE_THREAD_COUNTER.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 并行同步子表，每个子表使用独立连接并各自提交
+     *
+     * @return 与 childPairs 顺序一致的同步结果
+     */
+    private static List<EnhancedSyncResult> syncChildTablesConcurrently(
+            List<TablePair> childPairs,
+            Map<String, String> parentKeyMapping,
+            SyncMode syncMode,
+            int parallelism) {
+
+        ExecutorService executor = newCascadeExecutor(parallelism);
+        try {
+            List<Future<EnhancedSyncResult>> futures = new ArrayList<>();
+            for (int i = 0; i < childPairs.size(); i++) {
+                TablePair pair = childPairs.get(i);
+                int index = i + 1;
+                futures.add(executor.submit(() -> {
+                    log.info("  [{}/{}] 同步子表: {} → {}", index, childPairs.size(),
+                            pair.sourceTable.getTableName(), pair.targetTable.getTableName());
+                    EnhancedSyncResult subResult = syncSubTable(
+                            pair.sourceTable, pair.targetTable, parentKeyMapping, syncMode);
+                    logSubTableResult(pair, subResult);
+                    return subResult;
+                }));
+            }
+            return collectResults(futures);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 并行同步子表并整体提交：固定数量的工作连接在所有子表完成后统一提交或回滚
+     *
+     * 先在单独的自动提交连接上依次对齐所有子表的结构和主键（DDL 会隐式提交，不能放进事务），
+     * 再在工作连接上并行执行只修改数据的同步，保证数据部分整体提交或整体回滚。
+     *
+     * @return 与 childPairs 顺序一致的同步结果
+     */
+    private static List<EnhancedSyncResult> syncChildTablesAtomically(
+            List<TablePair> childPairs,
+            Map<String, String> parentKeyMapping,
+            SyncMode syncMode,
+            int parallelism) {
+
+        // 阶段一：对齐结构（DDL），任一子表失败则不进入数据阶段
+        List<EnhancedSyncResult> prepared = new ArrayList<>();
+        List<SubTablePlan> plans = new ArrayList<>();
+        boolean allPrepared = true;
+        try (Connection ddlConn = DatabaseUtil.getConnection()) {
+            ddlConn.setAutoCommit(true);
+            for (TablePair pair : childPairs) {
+                EnhancedSyncResult subResult = new EnhancedSyncResult();
+                SubTablePlan plan = null;
+                try {
+                    plan = prepareSubTable(ddlConn, pair.sourceTable, pair.targetTable, subResult);
+                } catch (SQLException e) {
+                    subResult.errors.add("结构对齐失败: " + e.getMessage());
+                    log.error("子表结构对齐失败: {}", pair.targetTable.getTableName(), e);
+                }
+                if (plan == null) {
+                    subResult.success = false;
+                    allPrepared = false;
+                }
+                prepared.add(subResult);
+                plans.add(plan);
+            }
+        } catch (SQLException e) {
+            log.error("获取结构对齐连接失败", e);
+            return failAll(childPairs.size(), "获取数据库连接失败: " + e.getMessage());
+        }
+        if (!allPrepared) {
+            for (int i = 0; i < prepared.size(); i++) {
+                EnhancedSyncResult subResult = prepared.get(i);
+                if (plans.get(i) != null) {
+                    subResult.success = false;
+                    subResult.message = "因其他子表结构对齐失败未同步数据";
+                    subResult.errors.add(subResult.message);
+                }
+                logSubTableResult(childPairs.get(i), subResult);
+            }
+            log.warn("存在结构对齐失败的子表，未写入任何子表数据");
+            return prepared;
+        }
+
+        // 阶段二：每个工作线程固定使用一个连接，避免已完成但未提交的子表占满连接池
+        List<Connection> connections = new ArrayList<>();
+        BlockingQueue<Connection> idleConnections = new LinkedBlockingQueue<>();
+        ExecutorService executor = newCascadeExecutor(parallelism);
+        try {
+            for (int i = 0; i < parallelism; i++) {
+                Connection conn = DatabaseUtil.getConnection();
+                conn.setAutoCommit(false);
+                connections.add(conn);
+                idleConnections.add(conn);
+            }
+
+            List<Future<EnhancedSyncResult>> futures = new ArrayList<>();
+            for (int i = 0; i < childPairs.size(); i++) {
+                TablePair pair = childPairs.get(i);
+                int index = i + 1;
+                futures.add(executor.submit(() -> {
+                    log.info("  [{}/{}] 同步子表(整体提交): {} → {}", index, childPairs.size(),
+                            pair.sourceTable.getTableName(), pair.targetTable.getTableName());
+                    EnhancedSyncResult subResult = prepared.get(index - 1);
+                    SubTablePlan plan = plans.get(index - 1);
+                    long startTime = System.currentTimeMillis();
+                    Connection conn = idleConnections.take();
+                    try {
+                        syncSubTableRows(conn, pair.sourceTable, pair.targetTable, plan,
+                                parentKeyMapping, syncMode, subResult);
+                        subResult.success = true;
+                    } catch (Exception e) {
+                        subResult.success = false;
+                        subResult.errors.add("同步失败: " + e.getMessage());
+                        log.error("子表同步失败", e);
+                    } finally {
+                        idleConnections.put(conn);
+                    }
+                    subResult.durationMs = System.currentTimeMillis() - startTime;
+                    logSubTableResult(pair, subResult);
+                    return subResult;
+                }));
+            }
+
+            List<EnhancedSyncResult> results = collectResults(futures);
+            boolean allSucceeded = results.stream().allMatch(r -> r.success);
+
+            if (allSucceeded) {
+                for (Connection conn : connections) {
+                    conn.commit();
+                }
+                log.info("所有子表同步成功，已整体提交");
+                for (EnhancedSyncResult result : results) {
+                    runOrphanCleanup(result);
+                }
+            } else {
+                for (Connection conn : connections) {
+                    conn.rollback();
+                }
+                log.warn("存在失败的子表，已回滚全部子表");
+                for (EnhancedSyncResult result : results) {
+                    result.pendingOrphanCleanup = null;
+                    if (result.success) {
+                        result.success = false;
+                        result.message = "因其他子表失败已回滚";
+                        result.errors.add(result.message);
+                    }
+                    result.insertedRows = 0;
+                    result.updatedRows = 0;
+                }
+            }
+            return results;
+
+        } catch (SQLException e) {
+            log.error("子表整体提交失败", e);
+            for (Connection conn : connections) {
+                try {
+                    conn.rollback();
+                } catch (SQLException rollbackEx) {
+                    log.error("回滚失败", rollbackEx);
+                }
+            }
+            return failAll(childPairs.size(), "整体提交失败: " + e.getMessage());
+
+        } finally {
+            executor.shutdownNow();
+            for (Connection conn : connections) {
+                try {
+                    conn.setAutoCommit(true);
+                    conn.close();
+                } catch (SQLException e) {
+                    log.error("关闭连接失败", e);
+                }
+            }
+        }
+    }
+
+    private static List<EnhancedSyncResult> failAll(int count, String message) {
+        List<EnhancedSyncResult> results = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            EnhancedSyncResult errorResult = new EnhancedSyncResult();
+            errorResult.success = false;
+            errorResult.message = message;
+            errorResult.errors.add(message);
+            results.add(errorResult);
+        }
+        return results;
+    }
+
+    /**
+     * 按提交顺序收集子表结果，异常的任务转为失败结果
+     */
+    private static List<EnhancedSyncResult> collectResults(List<Future<EnhancedSyncResult>> futures) {
+        List<EnhancedSyncResult> results = new ArrayList<>();
+        for (Future<EnhancedSyncResult> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (Exception e) {
+                log.error("    ❌ 子表同步异常", e);
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                EnhancedSyncResult errorResult = new EnhancedSyncResult();
+                errorResult.success = false;
+                errorResult.message = "同步异常: " + e.getMessage();
+                results.add(errorResult);
+            }
+        }
+        return results;
+    }
+
+    private static void logSubTableResult(TablePair pair, EnhancedSyncResult subResult) {
+        if (subResult.success) {
+            log.info("    ✅ 子表 {} 同步成功！新增={}, 更新={}",
+                    pair.targetTable.getTableName(), subResult.insertedRows, subResult.updatedRows);
+        } else {
+            log.warn("    ❌ 子表 {} 同步失败: {}", pair.targetTable.getTableName(), subResult.errors);
+        }
+    }
+
     /**
      * 同步子表数据（考虑主表主键映射）
      *
@@ -443,56 +767,116 @@ public class EnhancedDataSyncService {
         try (Connection conn = DatabaseUtil.getConnection()) {
             conn.setAutoCommit(false);
 
-            // 步骤1：更新字段结构
-            result.schemaUpdates = updateTableSchema(conn, sourceTableInfo, targetTableInfo);
-
-            // 步骤2：获取外键字段（指向父表）
-            String foreignKeyColumn = inferForeignKeyColumn(sourceTableInfo);
-            if (foreignKeyColumn == null) {
-                result.warnings.add("无法推断外键字段，可能影响数据一致性");
-            }
-
-            // 步骤3：获取主键和共同字段
-            String primaryKeyColumn = getPrimaryKeyColumn(targetTableInfo);
-            if (primaryKeyColumn == null) {
-                // 子表没有主键，尝试创建复合主键（外键+子表标识字段）
-                primaryKeyColumn = createCompositePrimaryKeyForSubTable(
-                    conn, targetTableInfo, foreignKeyColumn);
-                if (primaryKeyColumn == null) {
-                    result.errors.add("子表没有主键且无法创建主键");
-                    conn.rollback();
-                    return result;
-                }
-                result.warnings.add("已为子表创建复合主键");
-            }
-
-            List<String> commonFields = getCommonFields(sourceTableInfo, targetTableInfo);
-            if (commonFields.isEmpty()) {
-                result.errors.add("没有共同字段");
+            if (syncSubTableData(conn, sourceTableInfo, targetTableInfo, parentKeyMapping, syncMode, result)) {
+                conn.commit();
+                result.success = true;
+                log.info("子表同步成功: 新增={}, 更新={}, 跳过={}",
+                        result.insertedRows, result.updatedRows, result.skippedRows);
+            } else {
                 conn.rollback();
-                return result;
             }
 
-            // 步骤4：同步数据（考虑父表主键映射）
-            syncSubTableDataWithMapping(conn, sourceTable, targetTable,
-                    primaryKeyColumn, foreignKeyColumn, commonFields,
-                    parentKeyMapping, syncMode, result);
-
-            conn.commit();
-            result.success = true;
-            log.info("子表同步成功: 新增={}, 更新={}, 跳过={}",
-                    result.insertedRows, result.updatedRows, result.skippedRows);
-
         } catch (Exception e) {
             result.success = false;
             result.errors.add("同步失败: " + e.getMessage());
             log.error("子表同步失败", e);
         }
+        runOrphanCleanup(result);
 
         result.durationMs = System.currentTimeMillis() - startTime;
         return result;
     }
 
+    /**
+     * 子表同步计划：结构对齐后确定的外键、主键和共同字段
+     */
+    private static class SubTablePlan {
+        final String foreignKeyColumn;
+        final String primaryKeyColumn;
+        final List<String> commonFields;
+
+        SubTablePlan(String foreignKeyColumn, String primaryKeyColumn, List<String> commonFields) {
+            this.foreignKeyColumn = foreignKeyColumn;
+            this.primaryKeyColumn = primaryKeyColumn;
+            this.commonFields = commonFields;
+        }
+    }
+
+    /**
+     * 在给定连接上同步子表（不提交事务，由调用方决定提交或回滚）
+     *
+     * @return 是否成功；返回 false 时错误信息已写入 result
+     */
+    private static boolean syncSubTableData(Connection conn,
+                                            DatabaseTableScanner.TableInfo sourceTableInfo,
+                                            DatabaseTableScanner.TableInfo targetTableInfo,
+                                            Map<String, String> parentKeyMapping,
+                                            SyncMode syncMode,
+                                            EnhancedSyncResult result) throws SQLException {
+        SubTablePlan plan = prepareSubTable(conn, sourceTableInfo, targetTableInfo, result);
+        if (plan == null) {
+            return false;
+        }
+        syncSubTableRows(conn, sourceTableInfo, targetTableInfo, plan, parentKeyMapping, syncMode, result);
+        return true;
+    }
+
+    /**
+     * 对齐子表结构并确定主键（可能执行 ALTER TABLE，MySQL 中会隐式提交）
+     *
+     * @return 同步计划；无法同步时返回 null，错误信息已写入 result
+     */
+    private static SubTablePlan prepareSubTable(Connection conn,
+                                                DatabaseTableScanner.TableInfo sourceTableInfo,
+                                                DatabaseTableScanner.TableInfo targetTableInfo,
+                                                EnhancedSyncResult result) throws SQLException {
+
+        // 步骤1：更新字段结构
+        result.schemaUpdates = updateTableSchema(conn, sourceTableInfo, targetTableInfo);
+
+        // 步骤2：获取外键字段（指向父表）
+        String foreignKeyColumn = inferForeignKeyColumn(sourceTableInfo);
+        if (foreignKeyColumn == null) {
+            result.warnings.add("无法推断外键字段，可能影响数据一致性");
+        }
+
+        // 步骤3：获取主键和共同字段
+        String primaryKeyColumn = getPrimaryKeyColumn(targetTableInfo);
+        if (primaryKeyColumn == null) {
+            // 子表没有主键，尝试创建复合主键（外键+子表标识字段）
+            primaryKeyColumn = createCompositePrimaryKeyForSubTable(
+                conn, targetTableInfo, foreignKeyColumn);
+            if (primaryKeyColumn == null) {
+                result.errors.add("子表没有主键且无法创建主键");
+                return null;
+            }
+            result.warnings.add("已为子表创建复合主键");
+        }
+
+        List<String> commonFields = getCommonFields(sourceTableInfo, targetTableInfo);
+        if (commonFields.isEmpty()) {
+            result.errors.add("没有共同字段");
+            return null;
+        }
+        return new SubTablePlan(foreignKeyColumn, primaryKeyColumn, commonFields);
+    }
+
+    /**
+     * 按同步计划写入子表数据（只有 DML，可在事务中回滚）
+     */
+    private static void syncSubTableRows(Connection conn,
+                                         DatabaseTableScanner.TableInfo sourceTableInfo,
+                                         DatabaseTableScanner.TableInfo targetTableInfo,
+                                         SubTablePlan plan,
+                                         Map<String, String> parentKeyMapping,
+                                         SyncMode syncMode,
+                                         EnhancedSyncResult result) throws SQLException {
+        // 步骤4：同步数据（考虑父表主键映射）
+        syncSubTableDataWithMapping(conn, sourceTableInfo.getTableName(), targetTableInfo.getTableName(),
+                plan.primaryKeyColumn, plan.foreignKeyColumn, plan.commonFields,
+                parentKeyMapping, syncMode, result);
+    }
+
     /**
      * 更新表结构（只更新类型相同的字段）
      */
@@ -542,6 +926,8 @@ public class EnhancedDataSyncService {
 
     /**
      * 增量同步数据（不删除）
+     *
+     * 使用 {@link BatchSyncEngine} 预取目标主键并批量写入，避免逐行存在性检查
      */
     private static void syncDataIncremental(Connection conn,
                                            String sourceTable,
@@ -551,173 +937,120 @@ public class EnhancedDataSyncService {
                                            SyncMode syncMode,
                                            EnhancedSyncResult result) throws SQLException {
 
-        log.info("数据同步模式: {}", syncMode.getDisplayName());
+        log.info("数据同步模式: {} (批大小: {})", syncMode.getDisplayName(), batchSize);
 
         // 构建字段列表（使用反引号保护字段名，防止与保留关键字冲突）
         String fieldList = commonFields.stream()
                 .map(f -> "`" + f + "`")
                 .collect(java.util.stream.Collectors.joining(", "));
 
-        // 查询源表数据
-        String selectSql = String.format("SELECT %s FROM %s", fieldList, sourceTable);
-        try (Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(selectSql)) {
+        // 先做行摘要比对，只写入新增和变化的行；比对失败或复合主键时退回全量写入
+        RowDigestDiff.DiffReport diff = null;
+        if (digestDiffEnabled && !primaryKeyColumn.contains(",")) {
+            try {
+                diff = RowDigestDiff.diff(conn, sourceTable, targetTable, primaryKeyColumn, commonFields);
+            } catch (SQLException e) {
+                log.warn("行摘要比对失败，改为全量写入: {}", e.getMessage());
+                result.warnings.add("行摘要比对失败，已改为全量写入: " + e.getMessage());
+            }
+        }
 
-            PreparedStatement insertStmt = null;
-            PreparedStatement updateStmt = null;
-            PreparedStatement checkStmt = null;
+        if (diff != null) {
+            syncChangedRows(conn, sourceTable, targetTable, primaryKeyColumn, commonFields,
+                    fieldList, syncMode, diff, result);
+        } else {
+            // 查询源表数据
+            String selectSql = String.format("SELECT %s FROM %s", fieldList, sourceTable);
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(selectSql)) {
 
-            try {
-                // 准备INSERT语句
-                String placeholders = String.join(", ", Collections.nCopies(commonFields.size(), "?"));
-                String insertSql = String.format("INSERT INTO %s (%s) VALUES (%s)",
-                        targetTable, fieldList, placeholders);
-                insertStmt = conn.prepareStatement(insertSql);
-
-                // 准备UPDATE语句（使用反引号保护字段名）
-                List<String> updateSetClauses = new ArrayList<>();
-                for (String field : commonFields) {
-                    if (!field.equals(primaryKeyColumn)) {
-                        updateSetClauses.add("`" + field + "` = ?");
-                    }
-                }
-                String updateSql = String.format("UPDATE %s SET %s WHERE `%s` = ?",
-                        targetTable,
-                        String.join(", ", updateSetClauses),
-                        primaryKeyColumn);
-                updateStmt = conn.prepareStatement(updateSql);
+                BatchSyncEngine engine = new BatchSyncEngine(
+                        conn, targetTable, primaryKeyColumn, commonFields, syncMode, batchSize);
+                engine.sync(rs, result, null);
+            }
+        }
 
-                // 准备CHECK语句（使用反引号保护字段名）
-                String checkSql = String.format("SELECT COUNT(*) FROM %s WHERE `%s` = ?",
-                        targetTable, primaryKeyColumn);
-                checkStmt = conn.prepareStatement(checkSql);
+        // 如果是完全同步模式，记下目标表中多余记录的清理，由调用方在数据提交后执行
+        if (syncMode == SyncMode.FULL_SYNC) {
+            result.pendingOrphanCleanup = new OrphanCleanup(sourceTable, targetTable, primaryKeyColumn);
+        }
+    }
 
-                while (rs.next()) {
-                    result.totalRows++;
+    /**
+     * 只同步行摘要比对中新增和变化的行（按主键分块读取源表）
+     */
+    private static void syncChangedRows(Connection conn,
+                                        String sourceTable,
+                                        String targetTable,
+                                        String primaryKeyColumn,
+                                        List<String> commonFields,
+                                        String fieldList,
+                                        SyncMode syncMode,
+                                        RowDigestDiff.DiffReport diff,
+                                        EnhancedSyncResult result) throws SQLException {
+
+        // 未变化的行不写入，但计入总行数
+        result.totalRows += diff.unchangedCount + diff.nullKeyCount;
+        result.unchangedRows += diff.unchangedCount;
+        result.skippedRows += diff.nullKeyCount;
+
+        List<String> keysToWrite = diff.getKeysToWrite();
+        log.info("行摘要比对: 新增={}, 变更={}, 未变={}，只写入 {} 行",
+                diff.newCount, diff.changedCount, diff.unchangedCount, keysToWrite.size());
+        if (keysToWrite.isEmpty()) {
+            return;
+        }
 
-                    // 获取主键值
-                    Object primaryKeyValue = rs.getObject(primaryKeyColumn);
-                    if (primaryKeyValue == null) {
-                        result.skippedRows++;
-                        continue;
+        BatchSyncEngine engine = new BatchSyncEngine(
+                conn, targetTable, primaryKeyColumn, commonFields, syncMode, batchSize);
+        try {
+            // 比对已知哪些主键在目标表中存在，无需再预取
+            engine.presetTargetKeys(diff.changedKeys);
+
+            for (int from = 0; from < keysToWrite.size(); from += batchSize) {
+                List<String> chunk = keysToWrite.subList(from, Math.min(from + batchSize, keysToWrite.size()));
+                String selectSql = String.format("SELECT %s FROM %s WHERE `%s` IN (%s)",
+                        fieldList, sourceTable, primaryKeyColumn,
+                        String.join(", ", Collections.nCopies(chunk.size(), "?")));
+                try (PreparedStatement pstmt = conn.prepareStatement(selectSql)) {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        pstmt.setString(i + 1, chunk.get(i));
                     }
-
-                    // 检查记录是否存在
-                    checkStmt.setObject(1, primaryKeyValue);
-                    ResultSet checkRs = checkStmt.executeQuery();
-                    checkRs.next();
-                    boolean exists = checkRs.getInt(1) > 0;
-                    checkRs.close();
-
-                    // 根据同步模式执行不同的操作
-                    switch (syncMode) {
-                        case INCREMENTAL:
-                            // 增量更新：新增 + 更新
-                            if (exists) {
-                                // 更新现有记录
-                                int paramIndex = 1;
-                                for (String field : commonFields) {
-                                    if (!field.equals(primaryKeyColumn)) {
-                                        updateStmt.setObject(paramIndex++, rs.getObject(field));
-                                    }
-                                }
-                                updateStmt.setObject(paramIndex, primaryKeyValue);
-                                updateStmt.executeUpdate();
-                                result.updatedRows++;
-                            } else {
-                                // 插入新记录
-                                for (int i = 0; i < commonFields.size(); i++) {
-                                    insertStmt.setObject(i + 1, rs.getObject(commonFields.get(i)));
-                                }
-                                insertStmt.executeUpdate();
-                                result.insertedRows++;
-                            }
-                            break;
-
-                        case UPDATE_ONLY:
-                            // 只更新匹配：只更新已存在的记录
-                            if (exists) {
-                                int paramIndex = 1;
-                                for (String field : commonFields) {
-                                    if (!field.equals(primaryKeyColumn)) {
-                                        updateStmt.setObject(paramIndex++, rs.getObject(field));
-                                    }
-                                }
-                                updateStmt.setObject(paramIndex, primaryKeyValue);
-                                updateStmt.executeUpdate();
-                                result.updatedRows++;
-                            } else {
-                                // 记录不存在，跳过
-                                result.skippedRows++;
-                            }
-                            break;
-
-                        case INSERT_ONLY:
-                            // 只新增：只插入新记录，不更新已存在的
-                            if (exists) {
-                                // 记录已存在，跳过
-                                result.skippedRows++;
-                            } else {
-                                // 插入新记录
-                                for (int i = 0; i < commonFields.size(); i++) {
-                                    insertStmt.setObject(i + 1, rs.getObject(commonFields.get(i)));
-                                }
-                                insertStmt.executeUpdate();
-                                result.insertedRows++;
-                            }
-                            break;
-
-                        case FULL_SYNC:
-                            // 完全同步：新增 + 更新（删除操作在后面单独处理）
-                            if (exists) {
-                                int paramIndex = 1;
-                                for (String field : commonFields) {
-                                    if (!field.equals(primaryKeyColumn)) {
-                                        updateStmt.setObject(paramIndex++, rs.getObject(field));
-                                    }
-                                }
-                                updateStmt.setObject(paramIndex, primaryKeyValue);
-                                updateStmt.executeUpdate();
-                                result.updatedRows++;
-                            } else {
-                                for (int i = 0; i < commonFields.size(); i++) {
-                                    insertStmt.setObject(i + 1, rs.getObject(commonFields.get(i)));
-                                }
-                                insertStmt.executeUpdate();
-                                result.insertedRows++;
-                            }
-                            break;
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        engine.consume(rs, result, null);
                     }
                 }
-
-                // 如果是完全同步模式，删除目标表中不存在于源表的记录
-                if (syncMode == SyncMode.FULL_SYNC) {
-                    int deletedCount = deleteOrphanedRecords(conn, sourceTable, targetTable, primaryKeyColumn);
-                    result.message = String.format("完全同步：删除了 %d 条目标表中多余的记录", deletedCount);
-                    log.info("完全同步模式：删除了 {} 条目标表中多余的记录", deletedCount);
-                }
-
-            } finally {
-                if (insertStmt != null) insertStmt.close();
-                if (updateStmt != null) updateStmt.close();
-                if (checkStmt != null) checkStmt.close();
             }
+            engine.finish(result);
+        } finally {
+            engine.close();
         }
     }
 
     /**
-     * 删除目标表中不存在于源表的记录（用于完全同步模式）
+     * 删除目标表中不存在于源表的记录（用于完全同步模式，数据事务提交之后调用）
+     *
+     * 按主键区间分块执行反连接删除，避免 NOT IN 子查询的整表扫描和长时间锁定。
+     * 使用单独的自动提交连接，每块删除各自提交；若放在同步事务里，所有块的行锁要到最终提交才释放，
+     * 分块也就没有意义。也不能在同步事务提交前另开连接删除——同步事务持有的行锁会让删除等待自身。
+     * 数据失败回滚时不执行清理。
      */
-    private static int deleteOrphanedRecords(Connection conn, String sourceTable,
-                                            String targetTable, String primaryKeyColumn) throws SQLException {
-        String deleteSql = String.format(
-            "DELETE FROM %s WHERE `%s` NOT IN (SELECT `%s` FROM %s)",
-            targetTable, primaryKeyColumn, primaryKeyColumn, sourceTable
-        );
-
-        try (Statement stmt = conn.createStatement()) {
-            int deletedCount = stmt.executeUpdate(deleteSql);
-            return deletedCount;
+    private static void runOrphanCleanup(EnhancedSyncResult result) {
+        OrphanCleanup cleanup = result.pendingOrphanCleanup;
+        result.pendingOrphanCleanup = null;
+        if (cleanup == null || !result.success) {
+            return;
+        }
+        try (Connection conn = DatabaseUtil.getConnection()) {
+            conn.setAutoCommit(true);
+            int deletedCount = OrphanReconciler.deleteOrphans(conn, cleanup.sourceTable, cleanup.targetTable,
+                    cleanup.primaryKeyColumn, OrphanReconciler.DEFAULT_CHUNK_SIZE, orphanProgressListener);
+            result.message = String.format("完全同步：删除了 %d 条目标表中多余的记录", deletedCount);
+            log.info("完全同步模式：删除了 {} 条目标表中多余的记录", deletedCount);
+        } catch (SQLException e) {
+            result.success = false;
+            result.errors.add("数据已提交，但删除多余记录失败: " + e.getMessage());
+            log.error("删除多余记录失败: {}", cleanup.targetTable, e);
         }
     }
 
@@ -745,109 +1078,41 @@ public class EnhancedDataSyncService {
                 .map(f -> "`" + f + "`")
                 .collect(java.util.stream.Collectors.joining(", "));
 
+        // 外键字段在同步字段中的位置
+        int fkIndex = -1;
+        if (foreignKeyColumn != null) {
+            for (int i = 0; i < commonFields.size(); i++) {
+                if (commonFields.get(i).equalsIgnoreCase(foreignKeyColumn)) {
+                    fkIndex = i;
+                    break;
+                }
+            }
+        }
+        final int foreignKeyIndex = fkIndex;
+
         // 查询源表数据
         String selectSql = String.format("SELECT %s FROM %s", fieldList, sourceTable);
         try (Statement stmt = conn.createStatement();
              ResultSet rs = stmt.executeQuery(selectSql)) {
 
-            PreparedStatement insertStmt = null;
-            PreparedStatement updateStmt = null;
-            PreparedStatement checkStmt = null;
-
-            try {
-                // 准备语句（与主表相同）
-                String placeholders = String.join(", ", Collections.nCopies(commonFields.size(), "?"));
-                String insertSql = String.format("INSERT INTO %s (%s) VALUES (%s)",
-                        targetTable, fieldList, placeholders);
-                insertStmt = conn.prepareStatement(insertSql);
-
-                // 准备UPDATE语句（使用反引号保护字段名）
-                List<String> updateSetClauses = new ArrayList<>();
-                for (String field : commonFields) {
-                    if (!field.equals(primaryKeyColumn)) {
-                        updateSetClauses.add("`" + field + "` = ?");
-                    }
+            // 子表按父表映射新增或更新（与原逐行逻辑一致，不区分同步模式）
+            BatchSyncEngine engine = new BatchSyncEngine(
+                    conn, targetTable, primaryKeyColumn, commonFields, SyncMode.INCREMENTAL, batchSize);
+            engine.sync(rs, result, (row, syncResult) -> {
+                if (foreignKeyIndex < 0 || row[foreignKeyIndex] == null) {
+                    return row;
                 }
-                String updateSql = String.format("UPDATE %s SET %s WHERE `%s` = ?",
-                        targetTable,
-                        String.join(", ", updateSetClauses),
-                        primaryKeyColumn);
-                updateStmt = conn.prepareStatement(updateSql);
-
-                // 准备CHECK语句（使用反引号保护字段名）
-                String checkSql = String.format("SELECT COUNT(*) FROM %s WHERE `%s` = ?",
-                        targetTable, primaryKeyColumn);
-                checkStmt = conn.prepareStatement(checkSql);
-
-                while (rs.next()) {
-                    result.totalRows++;
-
-                    // 获取外键值
-                    Object foreignKeyValue = null;
-                    if (foreignKeyColumn != null) {
-                        foreignKeyValue = rs.getObject(foreignKeyColumn);
-                        if (foreignKeyValue != null) {
-                            // 转换外键值（使用父表映射）
-                            String mappedKey = parentKeyMapping.get(foreignKeyValue.toString());
-                            if (mappedKey == null) {
-                                result.skippedRows++;
-                                result.warnings.add("跳过记录：外键值未在父表映射中找到: " + foreignKeyValue);
-                                continue;
-                            }
-                            foreignKeyValue = mappedKey;
-                        }
-                    }
-
-                    // 获取主键值
-                    Object primaryKeyValue = rs.getObject(primaryKeyColumn);
-                    if (primaryKeyValue == null) {
-                        result.skippedRows++;
-                        continue;
-                    }
-
-                    // 检查记录是否存在
-                    checkStmt.setObject(1, primaryKeyValue);
-                    ResultSet checkRs = checkStmt.executeQuery();
-                    checkRs.next();
-                    boolean exists = checkRs.getInt(1) > 0;
-                    checkRs.close();
-
-                    if (exists) {
-                        // 更新现有记录
-                        int paramIndex = 1;
-                        for (String field : commonFields) {
-                            if (!field.equals(primaryKeyColumn)) {
-                                Object value = rs.getObject(field);
-                                // 如果是外键字段，使用映射后的值
-                                if (field.equals(foreignKeyColumn) && foreignKeyValue != null) {
-                                    value = foreignKeyValue;
-                                }
-                                updateStmt.setObject(paramIndex++, value);
-                            }
-                        }
-                        updateStmt.setObject(paramIndex, primaryKeyValue);
-                        updateStmt.executeUpdate();
-                        result.updatedRows++;
-                    } else {
-                        // 插入新记录
-                        for (int i = 0; i < commonFields.size(); i++) {
-                            Object value = rs.getObject(commonFields.get(i));
-                            // 如果是外键字段，使用映射后的值
-                            if (commonFields.get(i).equals(foreignKeyColumn) && foreignKeyValue != null) {
-                                value = foreignKeyValue;
-                            }
-                            insertStmt.setObject(i + 1, value);
-                        }
-                        insertStmt.executeUpdate();
-                        result.insertedRows++;
-                    }
+                // 转换外键值（使用父表映射）
+                Object foreignKeyValue = row[foreignKeyIndex];
+                String mappedKey = parentKeyMapping.get(foreignKeyValue.toString());
+                if (mappedKey == null) {
+                    syncResult.skippedRows++;
+                    syncResult.warnings.add("跳过记录：外键值未在父表映射中找到: " + foreignKeyValue);
+                    return null;
                 }
-
-            } finally {
-                if (insertStmt != null) insertStmt.close();
-                if (updateStmt != null) updateStmt.close();
-                if (checkStmt != null) checkStmt.close();
-            }
+                row[foreignKeyIndex] = mappedKey;
+                return row;
+            });
         }
     }
 
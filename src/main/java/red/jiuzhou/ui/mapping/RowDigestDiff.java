@@ -0,0 +1,289 @@
+package red.jiuzhou.ui.mapping;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import red.jiuzhou.util.DatabaseUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * 行摘要比对（Digest Diff）
+ *
+ * 在数据库端为两张表的每一行计算 MD5(CONCAT_WS(...)) 摘要，
+ * 按主键排序后流式读取，在内存中做归并连接（merge-join），将行分为：
+ * - NEW：只存在于源表
+ * - CHANGED：两边都存在但摘要不同
+ * - UNCHANGED：两边都存在且摘要相同
+ * - ORPHANED：只存在于目标表
+ *
+ * 只有 NEW / CHANGED 的主键会被保留下来，供同步阶段只写入变化的行；
+ * 同样的比对结果也用于"模拟运行"报告，无需实际写库即可预览同步影响。
+ *
+ * 两侧都按主键的二进制值排序（与 Java 端无符号字节比较一致，不受表的排序规则影响），
+ * 归并时若发现主键乱序则直接报错，由调用方退回全量同步，不会产生错位的新增/删除。
+ * 同步时应传入同步事务所用的连接，使比对与随后的写入看到同一份数据快照。
+ *
+ * @author yanxq
+ * @date 2025-01-20
+ * @version 1.0
+ */
+public class RowDigestDiff {
+
+    private static final Logger log = LoggerFactory.getLogger(RowDigestDiff.class);
+
+    /**
+     * 报告中每类最多展示的主键样例数
+     */
+    private static final int SAMPLE_LIMIT = 20;
+
+    /**
+     * 行状态
+     */
+    public enum RowState {
+        NEW("新增"),
+        CHANGED("变更"),
+        UNCHANGED("未变"),
+        ORPHANED("多余");
+
+        private final String displayName;
+
+        RowState(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    /**
+     * 比对结果
+     */
+    public static class DiffReport {
+        public String sourceTable;
+        public String targetTable;
+        public String keyColumn;
+        public int newCount;
+        public int changedCount;
+        public int unchangedCount;
+        public int orphanedCount;
+        public int nullKeyCount;            // 源表中主键为空的行
+        public List<String> newKeys = new ArrayList<>();
+        public List<String> changedKeys = new ArrayList<>();
+        public List<String> orphanedKeys = new ArrayList<>();
+        public long durationMs;
+
+        /**
+         * 源表总行数
+         */
+        public int getSourceRows() {
+            return newCount + changedCount + unchangedCount + nullKeyCount;
+        }
+
+        /**
+         * 需要写入目标表的主键（新增 + 变更）
+         */
+        public List<String> getKeysToWrite() {
+            List<String> keys = new ArrayList<>(newKeys.size() + changedKeys.size());
+            keys.addAll(newKeys);
+            keys.addAll(changedKeys);
+            return keys;
+        }
+
+        public boolean hasDifferences() {
+            return newCount > 0 || changedCount > 0 || orphanedCount > 0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("行比对: %s → %s (主键: %s)\n", sourceTable, targetTable, keyColumn));
+            sb.append(String.format("新增: %d, 变更: %d, 未变: %d, 目标多余: %d\n",
+                    newCount, changedCount, unchangedCount, orphanedCount));
+            if (nullKeyCount > 0) {
+                sb.append(String.format("源表主键为空: %d\n", nullKeyCount));
+            }
+            sb.append(String.format("耗时: %d ms\n", durationMs));
+            appendSamples(sb, RowState.NEW, newKeys);
+            appendSamples(sb, RowState.CHANGED, changedKeys);
+            appendSamples(sb, RowState.ORPHANED, orphanedKeys);
+            return sb.toString();
+        }
+
+        private static void appendSamples(StringBuilder sb, RowState state, List<String> keys) {
+            if (keys.isEmpty()) {
+                return;
+            }
+            List<String> samples = keys.subList(0, Math.min(SAMPLE_LIMIT, keys.size()));
+            sb.append(String.format("%s样例: %s%s\n", state.getDisplayName(),
+                    String.join(", ", samples), keys.size() > SAMPLE_LIMIT ? " ..." : ""));
+        }
+    }
+
+    /**
+     * 比对两张表（独立连接，用于模拟运行等不写库的场景）
+     *
+     * @param sourceTable 源表
+     * @param targetTable 目标表
+     * @param keyColumn 主键列（两表同名）
+     * @param fields 参与摘要计算的共同字段
+     * @return 比对结果
+     */
+    public static DiffReport diff(String sourceTable, String targetTable,
+                                  String keyColumn, List<String> fields) throws SQLException {
+        try (Connection conn = DatabaseUtil.getConnection()) {
+            return diff(conn, sourceTable, targetTable, keyColumn, fields);
+        }
+    }
+
+    /**
+     * 在给定连接（通常是同步事务的连接）上比对两张表
+     *
+     * 同一连接上不能同时打开两个流式结果集：先流式读取源表摘要到内存（主键 + 32 字节摘要），
+     * 再流式读取目标表摘要并归并。在同步事务中执行时，比对与之后的写入处于同一事务快照，
+     * 比对期间其他会话的写入不会被遗漏或误判。
+     *
+     * @param conn 数据库连接（不关闭）
+     */
+    public static DiffReport diff(Connection conn, String sourceTable, String targetTable,
+                                  String keyColumn, List<String> fields) throws SQLException {
+        DiffReport report = new DiffReport();
+        report.sourceTable = sourceTable;
+        report.targetTable = targetTable;
+        report.keyColumn = keyColumn;
+        long startTime = System.currentTimeMillis();
+
+        List<byte[]> sourceKeys = new ArrayList<>();
+        List<String> sourceDigests = new ArrayList<>();
+        try (Statement sourceStmt = createStreamingStatement(conn);
+             ResultSet sourceRs = sourceStmt.executeQuery(buildDigestSql(sourceTable, keyColumn, fields))) {
+            byte[] previous = null;
+            byte[] key;
+            while ((key = nextKey(sourceRs, report, true)) != null) {
+                checkOrder(previous, key, sourceTable);
+                sourceKeys.add(key);
+                sourceDigests.add(sourceRs.getString(2));
+                previous = key;
+            }
+        }
+
+        try (Statement targetStmt = createStreamingStatement(conn);
+             ResultSet targetRs = targetStmt.executeQuery(buildDigestSql(targetTable, keyColumn, fields))) {
+
+            int sourceIndex = 0;
+            byte[] sourceKey = sourceKeys.isEmpty() ? null : sourceKeys.get(0);
+            byte[] targetKey = nextKey(targetRs, report, false);
+            byte[] previousTarget = null;
+
+            while (sourceKey != null || targetKey != null) {
+                if (targetKey != null && targetKey != previousTarget) {
+                    checkOrder(previousTarget, targetKey, targetTable);
+                    previousTarget = targetKey;
+                }
+                int cmp;
+                if (sourceKey == null) {
+                    cmp = 1;
+                } else if (targetKey == null) {
+                    cmp = -1;
+                } else {
+                    cmp = compareUnsigned(sourceKey, targetKey);
+                }
+
+                if (cmp < 0) {
+                    report.newCount++;
+                    report.newKeys.add(toKeyString(sourceKey));
+                    sourceKey = ++sourceIndex < sourceKeys.size() ? sourceKeys.get(sourceIndex) : null;
+                } else if (cmp > 0) {
+                    report.orphanedCount++;
+                    report.orphanedKeys.add(toKeyString(targetKey));
+                    targetKey = nextKey(targetRs, report, false);
+                } else {
+                    if (Objects.equals(sourceDigests.get(sourceIndex), targetRs.getString(2))) {
+                        report.unchangedCount++;
+                    } else {
+                        report.changedCount++;
+                        report.changedKeys.add(toKeyString(sourceKey));
+                    }
+                    sourceKey = ++sourceIndex < sourceKeys.size() ? sourceKeys.get(sourceIndex) : null;
+                    targetKey = nextKey(targetRs, report, false);
+                }
+            }
+        }
+
+        report.durationMs = System.currentTimeMillis() - startTime;
+        log.info("行比对完成: {} → {} 新增={}, 变更={}, 未变={}, 多余={}, 耗时={}ms",
+                sourceTable, targetTable, report.newCount, report.changedCount,
+                report.unchangedCount, report.orphanedCount, report.durationMs);
+        return report;
+    }
+
+    /**
+     * 归并要求主键严格递增（二进制序）；乱序或重复说明排序与比较不一致，继续归并会产生错误结果
+     */
+    private static void checkOrder(byte[] previous, byte[] key, String tableName) throws SQLException {
+        if (previous != null && compareUnsigned(previous, key) >= 0) {
+            throw new SQLException(String.format("行比对中止：%s 的主键排序与二进制比较不一致（%s 之后是 %s）",
+                    tableName, toKeyString(previous), toKeyString(key)));
+        }
+    }
+
+    /**
+     * 构建摘要查询
+     *
+     * 主键统一转为 utf8mb4 字符串后按 BINARY 排序（逐字节，无 PAD SPACE），与 Java 端的无符号字节比较一致，
+     * 不受两表各自排序规则（collation）和主键类型的影响。
+     */
+    static String buildDigestSql(String tableName, String keyColumn, List<String> fields) {
+        String keyExpr = String.format("CAST(CAST(`%s` AS CHAR CHARACTER SET utf8mb4) AS BINARY)", keyColumn);
+
+        List<String> parts = new ArrayList<>();
+        for (String field : fields) {
+            // NULL 用 \0 标记，避免 CONCAT_WS 直接跳过 NULL 导致不同行摘要相同
+            parts.add(String.format("COALESCE(CAST(`%s` AS CHAR CHARACTER SET utf8mb4), CHAR(0 USING utf8mb4))", field));
+        }
+        String digestExpr = "MD5(CONCAT_WS(CHAR(31 USING utf8mb4), " + String.join(", ", parts) + "))";
+
+        return String.format("SELECT %s AS k, %s AS d FROM %s ORDER BY %s",
+                keyExpr, digestExpr, tableName, keyExpr);
+    }
+
+    private static Statement createStreamingStatement(Connection conn) throws SQLException {
+        Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        // MySQL 驱动约定：Integer.MIN_VALUE 表示逐行流式读取
+        stmt.setFetchSize(Integer.MIN_VALUE);
+        return stmt;
+    }
+
+    /**
+     * 读取下一个非空主键，源表中主键为空的行计入 nullKeyCount
+     */
+    private static byte[] nextKey(ResultSet rs, DiffReport report, boolean source) throws SQLException {
+        while (rs.next()) {
+            byte[] key = rs.getBytes(1);
+            if (key != null) {
+                return key;
+            }
+            if (source) {
+                report.nullKeyCount++;
+            }
+        }
+        return null;
+    }
+
+    private static int compareUnsigned(byte[] a, byte[] b) {
+        int len = Math.min(a.length, b.length);
+        for (int i = 0; i < len; i++) {
+            int cmp = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    private static String toKeyString(byte[] key) {
+        return new String(key, StandardCharsets.UTF_8);
+    }
+}
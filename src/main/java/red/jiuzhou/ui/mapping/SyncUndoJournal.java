@@ -0,0 +1,485 @@
+package red.jiuzhou.ui.mapping;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import red.jiuzhou.util.DatabaseUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 同步撤销日志（增量备份）
+ *
+ * 代替"CREATE TABLE ... LIKE + INSERT ... SELECT *"的整表备份：
+ * 同步过程中只记录实际被更新或删除的行的前像（before-image），以及新插入行的主键，
+ * 按批压缩后写入共享表 sync_undo，以同步批次号（run_id）区分。
+ *
+ * 恢复时按批次回放：先删除本次插入的行，再把前像写回目标表。
+ * 撤销记录与同步写入在同一事务中提交，同步回滚时撤销记录也随之回滚。
+ *
+ * 保留策略：每张表最多保留 {@link #retainRunsPerTable} 个批次，
+ * 且超过 {@link #retainDays} 天的批次会被清理。
+ *
+ * @author yanxq
+ * @date 2025-01-20
+ * @version 1.0
+ */
+public class SyncUndoJournal {
+
+    private static final Logger log = LoggerFactory.getLogger(SyncUndoJournal.class);
+
+    public static final String UNDO_TABLE = "sync_undo";
+    public static final String RUN_TABLE = "sync_undo_run";
+
+    /**
+     * 撤销操作类型
+     */
+    private static final String OP_RESTORE_ROWS = "R";   // 写回前像
+    private static final String OP_DELETE_KEYS = "I";    // 删除本次插入的行
+
+    private static volatile int retainRunsPerTable = 10;
+    private static volatile int retainDays = 30;
+    private static volatile boolean schemaReady = false;
+
+    /**
+     * 撤销批次信息
+     */
+    public static class UndoRun {
+        public String runId;
+        public String tableName;
+        public String keyColumn;
+        public boolean fullImage;       // 是否为整表前像（回放时先清空目标表）
+        public int rowCount;
+        public Timestamp createdAt;
+
+        @Override
+        public String toString() {
+            return String.format("%s (%s, %d 行%s)", runId, createdAt, rowCount, fullImage ? ", 整表" : "");
+        }
+    }
+
+    private final Connection conn;
+    private final String runId;
+    private final String tableName;
+    private String keyColumn;
+    private boolean fullImage = false;
+    private int rowCount = 0;
+    private int chunkNo = 0;
+
+    /**
+     * 开始一个撤销批次
+     *
+     * @param conn 同步使用的连接（与同步写入同一事务）
+     * @param tableName 目标表
+     */
+    public static SyncUndoJournal begin(Connection conn, String tableName) throws SQLException {
+        ensureSchema();
+        String runId = tableName + "_" +
+                LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss_SSS"));
+        return new SyncUndoJournal(conn, runId, tableName);
+    }
+
+    private SyncUndoJournal(Connection conn, String runId, String tableName) {
+        this.conn = conn;
+        this.runId = runId;
+        this.tableName = tableName;
+    }
+
+    public String getRunId() {
+        return runId;
+    }
+
+    /**
+     * 记录目标表中指定主键行的前像（在更新或删除这些行之前调用）
+     */
+    public void captureRows(String keyColumn, List<String> keys, int chunkSize) throws SQLException {
+        this.keyColumn = keyColumn;
+        String selectPrefix = "SELECT * FROM " + tableName + " WHERE " + keyColumn + " IN ";
+        for (int from = 0; from < keys.size(); from += chunkSize) {
+            List<String> chunk = keys.subList(from, Math.min(from + chunkSize, keys.size()));
+            String sql = selectPrefix + "(" + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    stmt.setString(i + 1, chunk.get(i));
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    writeRowImages(rs, chunkSize);
+                }
+            }
+        }
+    }
+
+    /**
+     * 记录整张目标表的前像（无法按主键定位变化行时使用，回放时先清空目标表）
+     */
+    public void captureWholeTable(int chunkSize) throws SQLException {
+        fullImage = true;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT * FROM " + tableName)) {
+            writeRowImages(rs, chunkSize);
+        }
+    }
+
+    /**
+     * 记录本次同步新插入的主键（回放时删除）
+     */
+    public void recordInsertedKeys(List<String> keys, int chunkSize) throws SQLException {
+        if (fullImage) {
+            // 整表模式回放时会先清空目标表，无需逐个删除
+            return;
+        }
+        for (int from = 0; from < keys.size(); from += chunkSize) {
+            List<String> chunk = keys.subList(from, Math.min(from + chunkSize, keys.size()));
+            JSONObject payload = new JSONObject();
+            payload.put("keys", new JSONArray(new ArrayList<>(chunk)));
+            writeChunk(OP_DELETE_KEYS, payload);
+        }
+    }
+
+    /**
+     * 登记批次并应用保留策略（在同步事务提交前调用）
+     */
+    public void finish() throws SQLException {
+        String sql = "INSERT INTO " + RUN_TABLE +
+                " (run_id, table_name, key_column, full_image, row_count, created_at) VALUES (?, ?, ?, ?, ?, ?)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, runId);
+            stmt.setString(2, tableName);
+            stmt.setString(3, keyColumn);
+            stmt.setBoolean(4, fullImage);
+            stmt.setInt(5, rowCount);
+            stmt.setTimestamp(6, new Timestamp(System.currentTimeMillis()));
+            stmt.executeUpdate();
+        }
+        log.info("撤销日志 {} 已记录: {} 行前像, {} 个数据块", runId, rowCount, chunkNo);
+        purge(conn, tableName);
+    }
+
+    private void writeRowImages(ResultSet rs, int chunkSize) throws SQLException {
+        ResultSetMetaData meta = rs.getMetaData();
+        JSONArray columns = new JSONArray();
+        // 二进制列按字节读取并以 Base64 保存，按字符串读写会被字符集转换破坏
+        JSONArray binaryColumns = new JSONArray();
+        boolean[] binary = new boolean[meta.getColumnCount() + 1];
+        for (int i = 1; i <= meta.getColumnCount(); i++) {
+            columns.add(meta.getColumnName(i));
+            if (isBinaryType(meta.getColumnType(i))) {
+                binary[i] = true;
+                binaryColumns.add(i - 1);
+            }
+        }
+
+        JSONArray rows = new JSONArray();
+        while (rs.next()) {
+            JSONArray row = new JSONArray(columns.size());
+            for (int i = 1; i <= columns.size(); i++) {
+                if (binary[i]) {
+                    byte[] bytes = rs.getBytes(i);
+                    row.add(bytes == null ? null : Base64.getEncoder().encodeToString(bytes));
+                } else {
+                    row.add(rs.getString(i));
+                }
+            }
+            rows.add(row);
+            if (rows.size() >= chunkSize) {
+                writeImageChunk(columns, binaryColumns, rows);
+                rows = new JSONArray();
+            }
+        }
+        if (!rows.isEmpty()) {
+            writeImageChunk(columns, binaryColumns, rows);
+        }
+    }
+
+    private static boolean isBinaryType(int sqlType) {
+        switch (sqlType) {
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+            case Types.BLOB:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void writeImageChunk(JSONArray columns, JSONArray binaryColumns, JSONArray rows) throws SQLException {
+        JSONObject payload = new JSONObject();
+        payload.put("columns", columns);
+        payload.put("binary", binaryColumns);
+        payload.put("rows", rows);
+        writeChunk(OP_RESTORE_ROWS, payload);
+        rowCount += rows.size();
+    }
+
+    private void writeChunk(String op, JSONObject payload) throws SQLException {
+        String sql = "INSERT INTO " + UNDO_TABLE + " (run_id, chunk_no, op, payload) VALUES (?, ?, ?, ?)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, runId);
+            stmt.setInt(2, chunkNo++);
+            stmt.setString(3, op);
+            stmt.setBytes(4, compress(payload.toJSONString()));
+            stmt.executeUpdate();
+        }
+    }
+
+    // ========== 回放 ==========
+
+    /**
+     * 回放撤销批次，把目标表恢复到该次同步之前的状态
+     *
+     * @return 写回的前像行数
+     */
+    public static int replay(Connection conn, String runId) throws SQLException {
+        UndoRun run = findRun(conn, runId);
+        if (run == null) {
+            throw new SQLException("撤销批次不存在: " + runId);
+        }
+
+        if (run.fullImage) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("DELETE FROM " + run.tableName);
+            }
+        }
+
+        int restored = 0;
+        String sql = "SELECT op, payload FROM " + UNDO_TABLE + " WHERE run_id = ? ORDER BY chunk_no";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, runId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                // 先删除插入的行，再写回前像：主键被更新过的行不会在写回后又被删掉
+                List<JSONObject> images = new ArrayList<>();
+                while (rs.next()) {
+                    JSONObject payload = JSON.parseObject(decompress(rs.getBytes("payload")));
+                    if (OP_DELETE_KEYS.equals(rs.getString("op"))) {
+                        deleteKeys(conn, run, payload.getJSONArray("keys"));
+                    } else {
+                        images.add(payload);
+                    }
+                }
+                for (JSONObject payload : images) {
+                    restored += restoreRows(conn, run, payload);
+                }
+            }
+        }
+        log.info("已回放撤销日志 {}: 写回 {} 行到 {}", runId, restored, run.tableName);
+        return restored;
+    }
+
+    private static void deleteKeys(Connection conn, UndoRun run, JSONArray keys) throws SQLException {
+        if (keys.isEmpty()) {
+            return;
+        }
+        String sql = "DELETE FROM " + run.tableName + " WHERE " + run.keyColumn + " IN (" +
+                String.join(", ", Collections.nCopies(keys.size(), "?")) + ")";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < keys.size(); i++) {
+                stmt.setString(i + 1, keys.getString(i));
+            }
+            stmt.executeUpdate();
+        }
+    }
+
+    private static int restoreRows(Connection conn, UndoRun run, JSONObject payload) throws SQLException {
+        JSONArray columns = payload.getJSONArray("columns");
+        JSONArray rows = payload.getJSONArray("rows");
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        // 旧版本的前像没有 binary 字段，全部按字符串写回
+        boolean[] binary = new boolean[columns.size()];
+        JSONArray binaryColumns = payload.getJSONArray("binary");
+        if (binaryColumns != null) {
+            for (int i = 0; i < binaryColumns.size(); i++) {
+                binary[binaryColumns.getIntValue(i)] = true;
+            }
+        }
+
+        StringBuilder columnList = new StringBuilder();
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) columnList.append(", ");
+            columnList.append('`').append(columns.getString(i)).append('`');
+        }
+        String sql = "REPLACE INTO " + run.tableName + " (" + columnList + ") VALUES (" +
+                String.join(", ", Collections.nCopies(columns.size(), "?")) + ")";
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (int r = 0; r < rows.size(); r++) {
+                JSONArray row = rows.getJSONArray(r);
+                for (int i = 0; i < columns.size(); i++) {
+                    String value = row.getString(i);
+                    if (binary[i] && value != null) {
+                        stmt.setBytes(i + 1, Base64.getDecoder().decode(value));
+                    } else {
+                        stmt.setString(i + 1, value);
+                    }
+                }
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+        return rows.size();
+    }
+
+    // ========== 批次管理 ==========
+
+    /**
+     * 列出某张表的撤销批次（新的在前）
+     */
+    public static List<UndoRun> listRuns(String tableName) {
+        List<UndoRun> runs = new ArrayList<>();
+        try {
+            ensureSchema();
+            try (Connection conn = DatabaseUtil.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement("SELECT * FROM " + RUN_TABLE +
+                         " WHERE table_name = ? ORDER BY created_at DESC")) {
+                stmt.setString(1, tableName);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        runs.add(readRun(rs));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            log.error("获取撤销批次列表失败", e);
+        }
+        return runs;
+    }
+
+    /**
+     * 查找撤销批次
+     */
+    public static UndoRun findRun(Connection conn, String runId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT * FROM " + RUN_TABLE + " WHERE run_id = ?")) {
+            stmt.setString(1, runId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? readRun(rs) : null;
+            }
+        }
+    }
+
+    /**
+     * 按保留策略清理某张表的旧批次
+     *
+     * @return 清理的批次数
+     */
+    public static int purge(Connection conn, String tableName) throws SQLException {
+        List<String> expired = new ArrayList<>();
+        Timestamp cutoff = new Timestamp(System.currentTimeMillis() - retainDays * 24L * 3600_000L);
+        String sql = "SELECT run_id, created_at FROM " + RUN_TABLE + " WHERE table_name = ? ORDER BY created_at DESC";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, tableName);
+            try (ResultSet rs = stmt.executeQuery()) {
+                int index = 0;
+                while (rs.next()) {
+                    if (index++ >= retainRunsPerTable || rs.getTimestamp("created_at").before(cutoff)) {
+                        expired.add(rs.getString("run_id"));
+                    }
+                }
+            }
+        }
+
+        for (String runId : expired) {
+            dropRun(conn, runId);
+        }
+        if (!expired.isEmpty()) {
+            log.info("清理表 {} 的过期撤销批次 {} 个", tableName, expired.size());
+        }
+        return expired.size();
+    }
+
+    /**
+     * 删除撤销批次
+     */
+    public static void dropRun(Connection conn, String runId) throws SQLException {
+        for (String table : new String[]{UNDO_TABLE, RUN_TABLE}) {
+            try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM " + table + " WHERE run_id = ?")) {
+                stmt.setString(1, runId);
+                stmt.executeUpdate();
+            }
+        }
+    }
+
+    private static UndoRun readRun(ResultSet rs) throws SQLException {
+        UndoRun run = new UndoRun();
+        run.runId = rs.getString("run_id");
+        run.tableName = rs.getString("table_name");
+        run.keyColumn = rs.getString("key_column");
+        run.fullImage = rs.getBoolean("full_image");
+        run.rowCount = rs.getInt("row_count");
+        run.createdAt = rs.getTimestamp("created_at");
+        return run;
+    }
+
+    /**
+     * 创建撤销日志表（DDL 会隐式提交事务，因此使用独立连接，在同步事务开始前执行）
+     */
+    public static void ensureSchema() throws SQLException {
+        if (schemaReady) {
+            return;
+        }
+        try (Connection conn = DatabaseUtil.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + RUN_TABLE + " (" +
+                    "run_id VARCHAR(128) NOT NULL PRIMARY KEY, " +
+                    "table_name VARCHAR(128) NOT NULL, " +
+                    "key_column VARCHAR(128) NULL, " +
+                    "full_image TINYINT(1) NOT NULL DEFAULT 0, " +
+                    "row_count INT NOT NULL DEFAULT 0, " +
+                    "created_at DATETIME NOT NULL, " +
+                    "KEY idx_table_time (table_name, created_at)" +
+                    ") ENGINE=InnoDB");
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + UNDO_TABLE + " (" +
+                    "run_id VARCHAR(128) NOT NULL, " +
+                    "chunk_no INT NOT NULL, " +
+                    "op CHAR(1) NOT NULL, " +
+                    "payload LONGBLOB NOT NULL, " +
+                    "PRIMARY KEY (run_id, chunk_no)" +
+                    ") ENGINE=InnoDB");
+        }
+        schemaReady = true;
+    }
+
+    public static void setRetainRunsPerTable(int runs) {
+        retainRunsPerTable = Math.max(1, runs);
+    }
+
+    public static void setRetainDays(int days) {
+        retainDays = Math.max(1, days);
+    }
+
+    private static byte[] compress(String text) throws SQLException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(text.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new SQLException("压缩撤销数据失败", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String decompress(byte[] data) throws SQLException {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = gzip.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new SQLException("解压撤销数据失败", e);
+        }
+    }
+}
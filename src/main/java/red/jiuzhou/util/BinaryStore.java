@@ -0,0 +1,89 @@
+package red.jiuzhou.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * 磁盘缓存/索引文件的二进制读写
+ *
+ * 文件以 (魔数, 版本) 开头，格式变化时提升版本号即可让旧文件失效。
+ * 写入先落到同目录的 .tmp 文件再替换目标，中途失败不会留下半个文件。
+ * 字符串使用长度前缀的 UTF-8（writeUTF 有 64KB 上限，大段文本会超出）。
+ */
+public final class BinaryStore {
+
+    private BinaryStore() {
+    }
+
+    /**
+     * 写入文件内容（魔数和版本之后的部分）
+     */
+    @FunctionalInterface
+    public interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * 写入 (魔数, 版本) 和内容，完成后替换目标文件；父目录不存在时创建
+     */
+    public static void write(Path path, int magic, int version, Body body) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(magic);
+            out.writeInt(version);
+            body.write(out);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * 打开文件用于读取，调用方负责关闭
+     */
+    public static DataInputStream openInput(Path path) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(path)));
+    }
+
+    /**
+     * 读取并校验 (魔数, 版本)，不匹配时返回 false
+     */
+    public static boolean readHeader(DataInputStream in, int magic, int version) throws IOException {
+        return in.readInt() == magic && in.readInt() == version;
+    }
+
+    public static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static void writeStrings(DataOutputStream out, String[] values) throws IOException {
+        out.writeInt(values.length);
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    public static String[] readStrings(DataInputStream in) throws IOException {
+        String[] values = new String[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readString(in);
+        }
+        return values;
+    }
+}
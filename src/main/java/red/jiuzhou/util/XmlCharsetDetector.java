@@ -0,0 +1,116 @@
+package red.jiuzhou.util;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * XML 文件编码识别
+ *
+ * 只读取文件头部：按 BOM、UTF-16 字节特征和 XML 声明中的 encoding 判断编码，
+ * 返回流式 Reader，不整体读入内存再转码。
+ * 声明为 UTF-16 但实际字节是单字节编码的文件（游戏数据中较常见）按 UTF-8 读取。
+ */
+public final class XmlCharsetDetector {
+
+    private static final int HEAD_SIZE = 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Pattern ENCODING_PATTERN =
+            Pattern.compile("encoding\\s*=\\s*[\"']([A-Za-z0-9._-]+)[\"']");
+
+    private XmlCharsetDetector() {
+    }
+
+    /**
+     * 打开XML文件的字符流（UTF-8 BOM 已跳过）
+     */
+    public static InputStreamReader openReader(Path file) throws IOException {
+        return openReader(Files.newInputStream(file), file.toString());
+    }
+
+    /**
+     * 打开XML字节流的字符流（UTF-8 BOM 已跳过），input 中的每个字节只读取一次
+     *
+     * @param name 用于错误信息的来源名称
+     */
+    public static InputStreamReader openReader(InputStream input, String name) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(input, BUFFER_SIZE);
+        try {
+            in.mark(HEAD_SIZE);
+            byte[] head = new byte[HEAD_SIZE];
+            int length = 0;
+            int read;
+            while (length < HEAD_SIZE && (read = in.read(head, length, HEAD_SIZE - length)) != -1) {
+                length += read;
+            }
+            in.reset();
+
+            Charset charset = detectCharset(head, length);
+            if (length >= 3 && (head[0] & 0xFF) == 0xEF && (head[1] & 0xFF) == 0xBB && (head[2] & 0xFF) == 0xBF) {
+                // 跳过 UTF-8 BOM（UTF-16 解码器会自行处理 BOM）
+                long skipped = in.skip(3);
+                if (skipped != 3) {
+                    throw new IOException("跳过 BOM 失败: " + name);
+                }
+            }
+            return new InputStreamReader(in, charset);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 按文件头部字节判断编码
+     */
+    public static Charset detectCharset(byte[] head, int length) {
+        if (length >= 2) {
+            int b0 = head[0] & 0xFF;
+            int b1 = head[1] & 0xFF;
+            if ((b0 == 0xFE && b1 == 0xFF) || (b0 == 0xFF && b1 == 0xFE)) {
+                return StandardCharsets.UTF_16;
+            }
+            if (length >= 4) {
+                int b2 = head[2] & 0xFF;
+                int b3 = head[3] & 0xFF;
+                if (b0 == 0x3C && b1 == 0x00 && b2 == 0x3F && b3 == 0x00) {
+                    return StandardCharsets.UTF_16LE;
+                }
+                if (b0 == 0x00 && b1 == 0x3C && b2 == 0x00 && b3 == 0x3F) {
+                    return StandardCharsets.UTF_16BE;
+                }
+            }
+        }
+
+        // 单字节兼容编码：读取 XML 声明中的 encoding
+        String declaration = new String(head, 0, length, StandardCharsets.ISO_8859_1);
+        int end = declaration.indexOf("?>");
+        if (declaration.startsWith("<?xml") && end > 0) {
+            Matcher matcher = ENCODING_PATTERN.matcher(declaration.substring(0, end));
+            if (matcher.find()) {
+                String declared = matcher.group(1);
+                if (!declared.toUpperCase().startsWith("UTF-16") && Charset.isSupported(declared)) {
+                    return Charset.forName(declared);
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    /**
+     * Reader 使用的是否为双字节编码（用于估算解码后的字符数）
+     */
+    public static boolean isUtf16(InputStreamReader reader) {
+        String encoding = reader.getEncoding();
+        return encoding != null && Charset.isSupported(encoding)
+                && Charset.forName(encoding).name().startsWith("UTF-16");
+    }
+}
@@ -0,0 +1,352 @@
+package red.jiuzhou.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dom4j.DocumentException;
+import org.dom4j.io.SAXReader;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 共享的已解析XML文档缓存
+ *
+ * 搜索、校验、依赖分析、批量改写等工具经常在同一批文件上重复解析。
+ * 本缓存以 (文件路径, 修改时间, 大小) 为键保存解析结果，按估算的内存占用做 LRU 淘汰，
+ * 同一文件的并发加载只解析一次。
+ *
+ * 使用约定：
+ * - 分析类调用 {@link #read} / {@link #readNamespaceAware} / {@link #readDom4j}，拿到的是共享快照，不得修改；
+ *   Xerces DOM 的 NodeList 内部缓存即使只读也不是线程安全的，遍历 W3C DOM 快照（XPath、getElementsByTagName、
+ *   getChildNodes 等）的整个过程都要在文档对象上同步：{@code synchronized (doc) { ... }}
+ * - 改写类调用 {@link #checkout} 获得私有的可修改文档（重新解析，深拷贝并不比解析快），
+ *   用完后调用 {@link #release}：未修改的文档转为共享快照，修改过的文档使缓存失效
+ * - 绕过本缓存写文件后调用 {@link #invalidate}
+ *
+ * 内存估算：DOM 约为每个字符 6 字节（UTF-16 文件按 2 字节一个字符），默认上限为最大堆的 1/4。
+ */
+@Slf4j
+public class XmlDocumentCache {
+
+    private static final int BYTES_PER_CHAR = 6;
+
+    private static volatile XmlDocumentCache instance;
+
+    /**
+     * 文档类型
+     */
+    public enum Kind {
+        DOM,
+        DOM_NAMESPACE_AWARE,
+        DOM4J
+    }
+
+    /**
+     * 缓存统计
+     */
+    public static class Stats {
+        public long hits;
+        public long misses;
+        public long evictions;
+        public int entries;
+        public long weight;
+        public long maxWeight;
+
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("命中 %d / 未命中 %d (%.1f%%), 淘汰 %d, 文档 %d, 占用 %dMB / %dMB",
+                    hits, misses, hitRate() * 100, evictions, entries,
+                    weight / (1024 * 1024), maxWeight / (1024 * 1024));
+        }
+    }
+
+    /**
+     * 改写用的私有文档
+     */
+    public static final class Checkout {
+        private final Path file;
+        private final Entry entry;
+
+        private Checkout(Path file, Entry entry) {
+            this.file = file;
+            this.entry = entry;
+        }
+
+        public org.w3c.dom.Document getDocument() {
+            return (org.w3c.dom.Document) entry.document;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+    }
+
+    private static final class Entry {
+        final Kind kind;
+        final Object document;
+        final long lastModified;
+        final long fileSize;
+        final long weight;
+
+        Entry(Kind kind, Object document, long lastModified, long fileSize, long weight) {
+            this.kind = kind;
+            this.document = document;
+            this.lastModified = lastModified;
+            this.fileSize = fileSize;
+            this.weight = weight;
+        }
+
+        boolean isCurrent(long lastModified, long fileSize) {
+            return this.lastModified == lastModified && this.fileSize == fileSize;
+        }
+    }
+
+    // 访问顺序的 LinkedHashMap 即 LRU，所有访问在 this 上同步
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+
+    private long maxWeight = Runtime.getRuntime().maxMemory() / 4;
+    private long totalWeight;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public static XmlDocumentCache getInstance() {
+        if (instance == null) {
+            synchronized (XmlDocumentCache.class) {
+                if (instance == null) {
+                    instance = new XmlDocumentCache();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 读取 W3C DOM 共享快照（不感知命名空间）
+     */
+    public org.w3c.dom.Document read(Path file) throws IOException {
+        return (org.w3c.dom.Document) get(file, Kind.DOM);
+    }
+
+    /**
+     * 读取 W3C DOM 共享快照（感知命名空间，XPath 使用）
+     */
+    public org.w3c.dom.Document readNamespaceAware(Path file) throws IOException {
+        return (org.w3c.dom.Document) get(file, Kind.DOM_NAMESPACE_AWARE);
+    }
+
+    /**
+     * 读取 dom4j 共享快照
+     */
+    public org.dom4j.Document readDom4j(Path file) throws IOException {
+        return (org.dom4j.Document) get(file, Kind.DOM4J);
+    }
+
+    /**
+     * 获取可修改的私有文档；若缓存中已有同一文件的快照，快照保持不变
+     */
+    public Checkout checkout(Path file, boolean namespaceAware) throws IOException {
+        Kind kind = namespaceAware ? Kind.DOM_NAMESPACE_AWARE : Kind.DOM;
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        long fileSize = Files.size(file);
+        return new Checkout(file, parse(file, kind, lastModified, fileSize));
+    }
+
+    /**
+     * 归还改写用的文档
+     *
+     * @param modified 文档是否被修改过（无论是否已写回文件）
+     */
+    public void release(Checkout checkout, boolean modified) {
+        if (modified) {
+            invalidate(checkout.file);
+            return;
+        }
+        // 未修改的文档与文件内容一致，可直接作为共享快照
+        Entry entry = checkout.entry;
+        String key = key(checkout.file, entry.kind);
+        try {
+            if (!entry.isCurrent(Files.getLastModifiedTime(checkout.file).toMillis(), Files.size(checkout.file))) {
+                return;
+            }
+        } catch (IOException e) {
+            return;
+        }
+        synchronized (this) {
+            Entry existing = entries.get(key);
+            if (existing == null || !existing.isCurrent(entry.lastModified, entry.fileSize)) {
+                put(key, entry);
+            }
+        }
+    }
+
+    /**
+     * 使某个文件的所有缓存文档失效（文件被改写后调用）
+     */
+    public synchronized void invalidate(Path file) {
+        for (Kind kind : Kind.values()) {
+            Entry removed = entries.remove(key(file, kind));
+            if (removed != null) {
+                totalWeight -= removed.weight;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        totalWeight = 0;
+    }
+
+    /**
+     * 设置内存上限（字节），超出时立即淘汰
+     */
+    public synchronized void setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+        evict();
+    }
+
+    public Stats getStats() {
+        Stats stats = new Stats();
+        stats.hits = hits.get();
+        stats.misses = misses.get();
+        stats.evictions = evictions.get();
+        synchronized (this) {
+            stats.entries = entries.size();
+            stats.weight = totalWeight;
+            stats.maxWeight = maxWeight;
+        }
+        return stats;
+    }
+
+    // ========== 加载 ==========
+
+    private Object get(Path file, Kind kind) throws IOException {
+        String key = key(file, kind);
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        long fileSize = Files.size(file);
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.isCurrent(lastModified, fileSize)) {
+                hits.incrementAndGet();
+                return entry.document;
+            }
+        }
+
+        // 同一文件同时只有一个线程在解析，其余线程等待其结果
+        CompletableFuture<Entry> mine = new CompletableFuture<>();
+        CompletableFuture<Entry> pending = loading.putIfAbsent(key, mine);
+        if (pending != null) {
+            Entry entry = await(pending);
+            if (entry.isCurrent(lastModified, fileSize)) {
+                hits.incrementAndGet();
+                return entry.document;
+            }
+            // 等待期间文件又被修改，单独解析
+            misses.incrementAndGet();
+            return parse(file, kind, lastModified, fileSize).document;
+        }
+
+        misses.incrementAndGet();
+        try {
+            Entry entry = parse(file, kind, lastModified, fileSize);
+            synchronized (this) {
+                put(key, entry);
+            }
+            mine.complete(entry);
+            return entry.document;
+        } catch (IOException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, mine);
+        }
+    }
+
+    private static Entry await(CompletableFuture<Entry> pending) throws IOException {
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待XML解析被中断");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static Entry parse(Path file, Kind kind, long lastModified, long fileSize) throws IOException {
+        try (InputStreamReader reader = XmlCharsetDetector.openReader(file)) {
+            long chars = XmlCharsetDetector.isUtf16(reader) ? fileSize / 2 : fileSize;
+            Object document;
+            if (kind == Kind.DOM4J) {
+                document = new SAXReader().read(reader);
+            } else {
+                DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+                factory.setNamespaceAware(kind == Kind.DOM_NAMESPACE_AWARE);
+                org.w3c.dom.Document dom = factory.newDocumentBuilder().parse(new InputSource(reader));
+                dom.getDocumentElement().normalize();
+                document = dom;
+            }
+            return new Entry(kind, document, lastModified, fileSize, chars * BYTES_PER_CHAR);
+        } catch (SAXException | DocumentException | ParserConfigurationException e) {
+            throw new IOException("解析XML失败: " + file + " - " + e.getMessage(), e);
+        }
+    }
+
+    // ========== LRU ==========
+
+    private void put(String key, Entry entry) {
+        Entry previous = entries.remove(key);
+        if (previous != null) {
+            totalWeight -= previous.weight;
+        }
+        if (entry.weight > maxWeight) {
+            // 单个文档超过上限，不缓存
+            return;
+        }
+        entries.put(key, entry);
+        totalWeight += entry.weight;
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (totalWeight > maxWeight && it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            it.remove();
+            totalWeight -= eldest.weight;
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static String key(Path file, Kind kind) {
+        return kind + "|" + file.toAbsolutePath().normalize();
+    }
+}
@@ -0,0 +1,237 @@
+package red.jiuzhou.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * XML 目录监听器
+ *
+ * 递归监听若干根目录下 .xml 文件的新建、修改和删除。事件在一段静默期内合并后成批回调，
+ * 编辑器保存时的多次写入只触发一次处理；持续写入时最迟在 10 个静默期后回调。
+ * 新建的子目录自动加入监听。删除事件只上报 .xml 文件和曾被监听的目录（删除后无法再判断类型，
+ * 按名称和已监听目录判断），目录删除由调用方按路径前缀处理。事件溢出时回调 overflow=true，调用方应整体重建。
+ */
+@Slf4j
+public class XmlFileWatcher implements Closeable {
+
+    /**
+     * 一批合并后的变更
+     */
+    public static class ChangeBatch {
+        public final Set<Path> changed;     // 新建或修改的 XML 文件
+        public final Set<Path> deleted;     // 删除的 XML 文件或目录
+        public final boolean overflow;
+
+        ChangeBatch(Set<Path> changed, Set<Path> deleted, boolean overflow) {
+            this.changed = Collections.unmodifiableSet(changed);
+            this.deleted = Collections.unmodifiableSet(deleted);
+            this.overflow = overflow;
+        }
+    }
+
+    private final List<Path> roots;
+    private final long quietMillis;
+    private final Consumer<ChangeBatch> listener;
+    private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+    // 注册过的目录；目录的 WatchKey 可能先于父目录的删除事件失效，因此单独记录，收到删除事件时才移除
+    private final Set<Path> knownDirs = ConcurrentHashMap.newKeySet();
+
+    private WatchService watchService;
+    private Thread thread;
+    private volatile boolean running;
+
+    // 待回调的变更，只在监听线程中访问
+    private Set<Path> pendingChanged = new LinkedHashSet<>();
+    private Set<Path> pendingDeleted = new LinkedHashSet<>();
+    private boolean pendingOverflow;
+    private long pendingSince;
+
+    public XmlFileWatcher(List<Path> roots, long quietMillis, Consumer<ChangeBatch> listener) {
+        this.roots = new ArrayList<>(roots);
+        this.quietMillis = quietMillis;
+        this.listener = listener;
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        for (Path root : roots) {
+            if (Files.isDirectory(root)) {
+                registerTree(root);
+            }
+        }
+        running = true;
+        thread = new Thread(this::run, "xml-file-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("开始监听XML目录: {}（{} 个子目录）", roots, watchedDirs.size());
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public List<Path> getRoots() {
+        return Collections.unmodifiableList(roots);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            log.debug("关闭目录监听失败: {}", e.getMessage());
+        }
+        thread.interrupt();
+        watchedDirs.clear();
+        knownDirs.clear();
+        log.info("停止监听XML目录: {}", roots);
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                WatchKey key;
+                if (hasPending()) {
+                    key = watchService.poll(quietMillis, TimeUnit.MILLISECONDS);
+                    if (key == null || System.currentTimeMillis() - pendingSince > quietMillis * 10) {
+                        if (key != null) {
+                            collect(key);
+                        }
+                        flush();
+                        continue;
+                    }
+                } else {
+                    key = watchService.take();
+                }
+                collect(key);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // close() 结束监听
+        } finally {
+            running = false;
+        }
+    }
+
+    private void collect(WatchKey key) {
+        Path dir = watchedDirs.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            WatchEvent.Kind<?> kind = event.kind();
+            if (kind == StandardWatchEventKinds.OVERFLOW) {
+                markPending();
+                pendingOverflow = true;
+                continue;
+            }
+            if (dir == null) {
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (kind == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                // 新目录：加入监听，并把其中已有的文件视为新建
+                try {
+                    registerTree(path);
+                    try (Stream<Path> files = Files.walk(path)) {
+                        files.filter(XmlFileWatcher::isXml).forEach(this::addChanged);
+                    }
+                } catch (IOException e) {
+                    log.warn("监听新目录失败: {} - {}", path, e.getMessage());
+                }
+            } else if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+                boolean wasDir = knownDirs.remove(path);
+                if (wasDir) {
+                    knownDirs.removeIf(known -> known.startsWith(path));
+                } else if (!hasXmlName(path)) {
+                    continue;
+                }
+                markPending();
+                pendingChanged.remove(path);
+                pendingDeleted.add(path);
+            } else if (isXml(path)) {
+                addChanged(path);
+            }
+        }
+        if (!key.reset()) {
+            watchedDirs.remove(key);
+        }
+    }
+
+    private void addChanged(Path path) {
+        markPending();
+        pendingDeleted.remove(path);
+        pendingChanged.add(path);
+    }
+
+    private void markPending() {
+        if (!hasPending()) {
+            pendingSince = System.currentTimeMillis();
+        }
+    }
+
+    private boolean hasPending() {
+        return pendingOverflow || !pendingChanged.isEmpty() || !pendingDeleted.isEmpty();
+    }
+
+    private void flush() {
+        ChangeBatch batch = new ChangeBatch(pendingChanged, pendingDeleted, pendingOverflow);
+        pendingChanged = new LinkedHashSet<>();
+        pendingDeleted = new LinkedHashSet<>();
+        pendingOverflow = false;
+        try {
+            listener.accept(batch);
+        } catch (Exception e) {
+            log.warn("处理XML目录变更失败", e);
+        }
+    }
+
+    private void registerTree(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                watchedDirs.put(key, dir);
+                knownDirs.add(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static boolean isXml(Path path) {
+        return hasXmlName(path) && !Files.isDirectory(path);
+    }
+
+    private static boolean hasXmlName(Path path) {
+        return path.getFileName().toString().toLowerCase().endsWith(".xml");
+    }
+}
@@ -3,6 +3,7 @@ package red.jiuzhou.validation;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.w3c.dom.*;
+import red.jiuzhou.util.XmlDocumentCache;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.*;
@@ -229,12 +230,14 @@ public class DataConsistencyValidator {
             documents.entrySet().stream()
                 .filter(e -> e.getKey().contains("items"))
                 .forEach(e -> {
-                    NodeList items = e.getValue().getElementsByTagName("item");
-                    for (int i = 0; i < items.getLength(); i++) {
-                        Element item = (Element) items.item(i);
-                        String id = item.getAttribute("id");
-                        if (!id.isEmpty()) {
-                            itemIds.add(id);
+                    synchronized (e.getValue()) {
+                        NodeList items = e.getValue().getElementsByTagName("item");
+                        for (int i = 0; i < items.getLength(); i++) {
+                            Element item = (Element) items.item(i);
+                            String id = item.getAttribute("id");
+                            if (!id.isEmpty()) {
+                                itemIds.add(id);
+                            }
                         }
                     }
                 });
@@ -243,30 +246,32 @@ public class DataConsistencyValidator {
             documents.entrySet().stream()
                 .filter(e -> e.getKey().contains("drop"))
                 .forEach(e -> {
-                    NodeList drops = e.getValue().getElementsByTagName("drop");
-                    for (int i = 0; i < drops.getLength(); i++) {
-                        Element drop = (Element) drops.item(i);
-                        String itemId = drop.getAttribute("item_id");
-                        if (!itemId.isEmpty() && !itemIds.contains(itemId)) {
-                            ValidationResult result = new ValidationResult();
-                            result.setSeverity(ValidationResult.ValidationSeverity.ERROR);
-                            result.setType("装备引用错误");
-                            result.setMessage("掉落表引用了不存在的装备ID: " + itemId);
-                            result.setFile(e.getKey());
-                            result.setElementPath(getElementPath(drop));
-
-                            Map<String, String> details = new HashMap<>();
-                            details.put("item_id", itemId);
-                            details.put("drop_table", e.getKey());
-                            result.setDetails(details);
-
-                            result.setSuggestions(Arrays.asList(
-                                "检查装备ID是否正确",
-                                "确认装备配置文件是否已加载",
-                                "考虑移除无效的掉落配置"
-                            ));
-
-                            results.add(result);
+                    synchronized (e.getValue()) {
+                        NodeList drops = e.getValue().getElementsByTagName("drop");
+                        for (int i = 0; i < drops.getLength(); i++) {
+                            Element drop = (Element) drops.item(i);
+                            String itemId = drop.getAttribute("item_id");
+                            if (!itemId.isEmpty() && !itemIds.contains(itemId)) {
+                                ValidationResult result = new ValidationResult();
+                                result.setSeverity(ValidationResult.ValidationSeverity.ERROR);
+                                result.setType("装备引用错误");
+                                result.setMessage("掉落表引用了不存在的装备ID: " + itemId);
+                                result.setFile(e.getKey());
+                                result.setElementPath(getElementPath(drop));
+
+                                Map<String, String> details = new HashMap<>();
+                                details.put("item_id", itemId);
+                                details.put("drop_table", e.getKey());
+                                result.setDetails(details);
+
+                                result.setSuggestions(Arrays.asList(
+                                    "检查装备ID是否正确",
+                                    "确认装备配置文件是否已加载",
+                                    "考虑移除无效的掉落配置"
+                                ));
+
+                                results.add(result);
+                            }
                         }
                     }
                 });
@@ -300,43 +305,45 @@ public class DataConsistencyValidator {
             documents.entrySet().stream()
                 .filter(e -> e.getKey().contains("npc"))
                 .forEach(e -> {
-                    NodeList npcs = e.getValue().getElementsByTagName("npc");
-                    for (int i = 0; i < npcs.getLength(); i++) {
-                        Element npc = (Element) npcs.item(i);
-                        String levelStr = npc.getAttribute("level");
-                        String expStr = npc.getAttribute("exp");
-
-                        if (!levelStr.isEmpty() && !expStr.isEmpty()) {
-                            try {
-                                int level = Integer.parseInt(levelStr);
-                                long exp = Long.parseLong(expStr);
-                                Long expectedExp = expTable.get(level);
-
-                                if (expectedExp != null && Math.abs(exp - expectedExp) > expectedExp * 0.1) {
-                                    ValidationResult result = new ValidationResult();
-                                    result.setSeverity(ValidationResult.ValidationSeverity.WARNING);
-                                    result.setType("经验值不匹配");
-                                    result.setMessage(String.format("NPC等级%d的经验值(%d)与经验表(%d)不匹配",
-                                                                   level, exp, expectedExp));
-                                    result.setFile(e.getKey());
-                                    result.setElementPath(getElementPath(npc));
-
-                                    Map<String, String> details = new HashMap<>();
-                                    details.put("npc_id", npc.getAttribute("id"));
-                                    details.put("level", levelStr);
-                                    details.put("actual_exp", expStr);
-                                    details.put("expected_exp", String.valueOf(expectedExp));
-                                    result.setDetails(details);
-
-                                    result.setSuggestions(Arrays.asList(
-                                        "更新NPC经验值为: " + expectedExp,
-                                        "或检查经验表配置是否正确"
-                                    ));
-
-                                    results.add(result);
+                    synchronized (e.getValue()) {
+                        NodeList npcs = e.getValue().getElementsByTagName("npc");
+                        for (int i = 0; i < npcs.getLength(); i++) {
+                            Element npc = (Element) npcs.item(i);
+                            String levelStr = npc.getAttribute("level");
+                            String expStr = npc.getAttribute("exp");
+
+                            if (!levelStr.isEmpty() && !expStr.isEmpty()) {
+                                try {
+                                    int level = Integer.parseInt(levelStr);
+                                    long exp = Long.parseLong(expStr);
+                                    Long expectedExp = expTable.get(level);
+
+                                    if (expectedExp != null && Math.abs(exp - expectedExp) > expectedExp * 0.1) {
+                                        ValidationResult result = new ValidationResult();
+                                        result.setSeverity(ValidationResult.ValidationSeverity.WARNING);
+                                        result.setType("经验值不匹配");
+                                        result.setMessage(String.format("NPC等级%d的经验值(%d)与经验表(%d)不匹配",
+                                                                       level, exp, expectedExp));
+                                        result.setFile(e.getKey());
+                                        result.setElementPath(getElementPath(npc));
+
+                                        Map<String, String> details = new HashMap<>();
+                                        details.put("npc_id", npc.getAttribute("id"));
+                                        details.put("level", levelStr);
+                                        details.put("actual_exp", expStr);
+                                        details.put("expected_exp", String.valueOf(expectedExp));
+                                        result.setDetails(details);
+
+                                        result.setSuggestions(Arrays.asList(
+                                            "更新NPC经验值为: " + expectedExp,
+                                            "或检查经验表配置是否正确"
+                                        ));
+
+                                        results.add(result);
+                                    }
+                                } catch (NumberFormatException ex) {
+                                    // 忽略解析错误
                                 }
-                            } catch (NumberFormatException ex) {
-                                // 忽略解析错误
                             }
                         }
                     }
@@ -351,16 +358,18 @@ public class DataConsistencyValidator {
             documents.entrySet().stream()
                 .filter(e -> e.getKey().contains("exp") || e.getKey().contains("level"))
                 .forEach(e -> {
-                    NodeList levels = e.getValue().getElementsByTagName("level");
-                    for (int i = 0; i < levels.getLength(); i++) {
-                        Element level = (Element) levels.item(i);
-                        String numStr = level.getAttribute("num");
-                        String expStr = level.getAttribute("exp");
-                        if (!numStr.isEmpty() && !expStr.isEmpty()) {
-                            try {
-                                expTable.put(Integer.parseInt(numStr), Long.parseLong(expStr));
-                            } catch (NumberFormatException ex) {
-                                // 忽略
+                    synchronized (e.getValue()) {
+                        NodeList levels = e.getValue().getElementsByTagName("level");
+                        for (int i = 0; i < levels.getLength(); i++) {
+                            Element level = (Element) levels.item(i);
+                            String numStr = level.getAttribute("num");
+                            String expStr = level.getAttribute("exp");
+                            if (!numStr.isEmpty() && !expStr.isEmpty()) {
+                                try {
+                                    expTable.put(Integer.parseInt(numStr), Long.parseLong(expStr));
+                                } catch (NumberFormatException ex) {
+                                    // 忽略
+                                }
                             }
                         }
                     }
@@ -393,12 +402,14 @@ public class DataConsistencyValidator {
             documents.entrySet().stream()
                 .filter(e -> e.getKey().contains("skill"))
                 .forEach(e -> {
-                    NodeList skills = e.getValue().getElementsByTagName("skill");
-                    for (int i = 0; i < skills.getLength(); i++) {
-                        Element skill = (Element) skills.item(i);
-                        String id = skill.getAttribute("id");
-                        if (!id.isEmpty()) {
-                            skillIds.add(id);
+                    synchronized (e.getValue()) {
+                        NodeList skills = e.getValue().getElementsByTagName("skill");
+                        for (int i = 0; i < skills.getLength(); i++) {
+                            Element skill = (Element) skills.item(i);
+                            String id = skill.getAttribute("id");
+                            if (!id.isEmpty()) {
+                                skillIds.add(id);
+                            }
                         }
                     }
                 });
@@ -407,31 +418,33 @@ public class DataConsistencyValidator {
             documents.entrySet().stream()
                 .filter(e -> e.getKey().contains("learn") || e.getKey().contains("class"))
                 .forEach(e -> {
-                    NodeList learns = e.getValue().getElementsByTagName("learn");
-                    for (int i = 0; i < learns.getLength(); i++) {
-                        Element learn = (Element) learns.item(i);
-                        String skillId = learn.getAttribute("skill_id");
-                        if (!skillId.isEmpty() && !skillIds.contains(skillId)) {
-                            ValidationResult result = new ValidationResult();
-                            result.setSeverity(ValidationResult.ValidationSeverity.ERROR);
-                            result.setType("技能引用错误");
-                            result.setMessage("学习配置引用了不存在的技能ID: " + skillId);
-                            result.setFile(e.getKey());
-                            result.setElementPath(getElementPath(learn));
-
-                            Map<String, String> details = new HashMap<>();
-                            details.put("skill_id", skillId);
-                            details.put("class", learn.getAttribute("class"));
-                            details.put("level", learn.getAttribute("level"));
-                            result.setDetails(details);
-
-                            result.setSuggestions(Arrays.asList(
-                                "检查技能ID是否正确",
-                                "确认技能配置文件是否已加载",
-                                "考虑移除无效的学习配置"
-                            ));
-
-                            results.add(result);
+                    synchronized (e.getValue()) {
+                        NodeList learns = e.getValue().getElementsByTagName("learn");
+                        for (int i = 0; i < learns.getLength(); i++) {
+                            Element learn = (Element) learns.item(i);
+                            String skillId = learn.getAttribute("skill_id");
+                            if (!skillId.isEmpty() && !skillIds.contains(skillId)) {
+                                ValidationResult result = new ValidationResult();
+                                result.setSeverity(ValidationResult.ValidationSeverity.ERROR);
+                                result.setType("技能引用错误");
+                                result.setMessage("学习配置引用了不存在的技能ID: " + skillId);
+                                result.setFile(e.getKey());
+                                result.setElementPath(getElementPath(learn));
+
+                                Map<String, String> details = new HashMap<>();
+                                details.put("skill_id", skillId);
+                                details.put("class", learn.getAttribute("class"));
+                                details.put("level", learn.getAttribute("level"));
+                                result.setDetails(details);
+
+                                result.setSuggestions(Arrays.asList(
+                                    "检查技能ID是否正确",
+                                    "确认技能配置文件是否已加载",
+                                    "考虑移除无效的学习配置"
+                                ));
+
+                                results.add(result);
+                            }
                         }
                     }
                 });
@@ -490,30 +503,32 @@ public class DataConsistencyValidator {
             documents.entrySet().stream()
                 .filter(e -> e.getKey().contains("items"))
                 .forEach(e -> {
-                    NodeList items = e.getValue().getElementsByTagName("item");
-                    for (int i = 0; i < items.getLength(); i++) {
-                        Element item = (Element) items.item(i);
-                        String id = item.getAttribute("id");
-                        if (!id.isEmpty() && !reverseReferences.containsKey("item:" + id)) {
-                            ValidationResult result = new ValidationResult();
-                            result.setSeverity(ValidationResult.ValidationSeverity.INFO);
-                            result.setType("孤立数据");
-                            result.setMessage("装备 " + id + " 未被任何配置引用");
-                            result.setFile(e.getKey());
-                            result.setElementPath(getElementPath(item));
-
-                            Map<String, String> details = new HashMap<>();
-                            details.put("item_id", id);
-                            details.put("item_name", item.getAttribute("name"));
-                            result.setDetails(details);
-
-                            result.setSuggestions(Arrays.asList(
-                                "考虑将此装备添加到掉落表",
-                                "或将其添加到商店配置",
-                                "如果确实不需要，可以删除此配置"
-                            ));
-
-                            results.add(result);
+                    synchronized (e.getValue()) {
+                        NodeList items = e.getValue().getElementsByTagName("item");
+                        for (int i = 0; i < items.getLength(); i++) {
+                            Element item = (Element) items.item(i);
+                            String id = item.getAttribute("id");
+                            if (!id.isEmpty() && !reverseReferences.containsKey("item:" + id)) {
+                                ValidationResult result = new ValidationResult();
+                                result.setSeverity(ValidationResult.ValidationSeverity.INFO);
+                                result.setType("孤立数据");
+                                result.setMessage("装备 " + id + " 未被任何配置引用");
+                                result.setFile(e.getKey());
+                                result.setElementPath(getElementPath(item));
+
+                                Map<String, String> details = new HashMap<>();
+                                details.put("item_id", id);
+                                details.put("item_name", item.getAttribute("name"));
+                                result.setDetails(details);
+
+                                result.setSuggestions(Arrays.asList(
+                                    "考虑将此装备添加到掉落表",
+                                    "或将其添加到商店配置",
+                                    "如果确实不需要，可以删除此配置"
+                                ));
+
+                                results.add(result);
+                            }
                         }
                     }
                 });
@@ -590,31 +605,33 @@ public class DataConsistencyValidator {
             documents.entrySet().stream()
                 .filter(e -> e.getKey().contains("items"))
                 .forEach(e -> {
-                    NodeList items = e.getValue().getElementsByTagName("item");
-                    for (int i = 0; i < items.getLength(); i++) {
-                        Element item = (Element) items.item(i);
-                        String levelStr = item.getAttribute("level");
-                        String attackStr = item.getAttribute("attack");
-                        String defenseStr = item.getAttribute("defense");
-
-                        if (!levelStr.isEmpty()) {
-                            try {
-                                int level = Integer.parseInt(levelStr);
-                                int attack = attackStr.isEmpty() ? 0 : Integer.parseInt(attackStr);
-                                int defense = defenseStr.isEmpty() ? 0 : Integer.parseInt(defenseStr);
-
-                                ItemStats stats = new ItemStats();
-                                stats.id = item.getAttribute("id");
-                                stats.name = item.getAttribute("name");
-                                stats.level = level;
-                                stats.attack = attack;
-                                stats.defense = defense;
-                                stats.file = e.getKey();
-                                stats.element = item;
-
-                                itemsByLevel.computeIfAbsent(level, k -> new ArrayList<>()).add(stats);
-                            } catch (NumberFormatException ex) {
-                                // 忽略
+                    synchronized (e.getValue()) {
+                        NodeList items = e.getValue().getElementsByTagName("item");
+                        for (int i = 0; i < items.getLength(); i++) {
+                            Element item = (Element) items.item(i);
+                            String levelStr = item.getAttribute("level");
+                            String attackStr = item.getAttribute("attack");
+                            String defenseStr = item.getAttribute("defense");
+
+                            if (!levelStr.isEmpty()) {
+                                try {
+                                    int level = Integer.parseInt(levelStr);
+                                    int attack = attackStr.isEmpty() ? 0 : Integer.parseInt(attackStr);
+                                    int defense = defenseStr.isEmpty() ? 0 : Integer.parseInt(defenseStr);
+
+                                    ItemStats stats = new ItemStats();
+                                    stats.id = item.getAttribute("id");
+                                    stats.name = item.getAttribute("name");
+                                    stats.level = level;
+                                    stats.attack = attack;
+                                    stats.defense = defense;
+                                    stats.file = e.getKey();
+                                    stats.element = item;
+
+                                    itemsByLevel.computeIfAbsent(level, k -> new ArrayList<>()).add(stats);
+                                } catch (NumberFormatException ex) {
+                                    // 忽略
+                                }
                             }
                         }
                     }
@@ -807,22 +824,12 @@ public class DataConsistencyValidator {
     }
 
     /**
-     * 加载XML文档
+     * 加载XML文档（共享缓存中的只读快照，各规则只读取不修改）
+     *
+     * 快照可能同时被其他工具和其他规则遍历，规则遍历单个文档时在文档上同步。
      */
     private Document loadDocument(String filePath) throws Exception {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-
-        // 处理UTF-16编码
-        try (InputStream is = Files.newInputStream(Paths.get(filePath))) {
-            byte[] bytes = readAllBytesCompat(is);
-            String content = new String(bytes, StandardCharsets.UTF_16);
-            if (!content.startsWith("<?xml")) {
-                content = new String(bytes, StandardCharsets.UTF_8);
-            }
-            return builder.parse(new ByteArrayInputStream(
-                content.getBytes(StandardCharsets.UTF_8)));
-        }
+        return XmlDocumentCache.getInstance().read(Paths.get(filePath));
     }
 
     /**
@@ -913,19 +920,6 @@ public class DataConsistencyValidator {
         return html.toString();
     }
 
-    /**
-     * Java 8兼容的readAllBytes方法
-     */
-    private byte[] readAllBytesCompat(InputStream is) throws IOException {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        int nRead;
-        byte[] data = new byte[8192];
-        while ((nRead = is.read(data, 0, data.length)) != -1) {
-            buffer.write(data, 0, nRead);
-        }
-        return buffer.toByteArray();
-    }
-
     /**
      * 关闭验证器
      */
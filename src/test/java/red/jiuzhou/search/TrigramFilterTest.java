@@ -0,0 +1,83 @@
+package red.jiuzhou.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * TrigramFilter 正则分解测试：转义参数不能被当作必然出现的字面量
+ */
+class TrigramFilterTest {
+
+    @Test
+    void plainLiteralsAreExtracted() {
+        assertEquals(Arrays.asList("item", "_name"), TrigramFilter.requiredLiterals("item\\d+_name"));
+        assertEquals(Collections.singletonList("a.b"), TrigramFilter.requiredLiterals("a\\.b"));
+    }
+
+    @Test
+    void topLevelAlternationIsNotDecomposed() {
+        assertNull(TrigramFilter.requiredLiterals("abc|def"));
+    }
+
+    @Test
+    void unicodeEscapeOperandIsSkipped() {
+        assertEquals(Arrays.asList("abc", "def"), TrigramFilter.requiredLiterals("abc\\u0041def"));
+    }
+
+    @Test
+    void hexEscapeOperandIsSkipped() {
+        assertEquals(Arrays.asList("abc", "def"), TrigramFilter.requiredLiterals("abc\\x41def"));
+        assertEquals(Arrays.asList("abc", "def"), TrigramFilter.requiredLiterals("abc\\x{1F600}def"));
+    }
+
+    @Test
+    void octalEscapeOperandIsSkipped() {
+        assertEquals(Arrays.asList("abc", "def"), TrigramFilter.requiredLiterals("abc\\0101def"));
+        assertEquals(Arrays.asList("abc", "9def"), TrigramFilter.requiredLiterals("abc\\0129def"));
+    }
+
+    @Test
+    void controlEscapeOperandIsSkipped() {
+        assertEquals(Arrays.asList("abc", "def"), TrigramFilter.requiredLiterals("abc\\cJdef"));
+    }
+
+    @Test
+    void propertyEscapeOperandIsSkipped() {
+        assertEquals(Arrays.asList("abc", "def"), TrigramFilter.requiredLiterals("abc\\p{Lu}def"));
+        assertEquals(Arrays.asList("abc", "def"), TrigramFilter.requiredLiterals("abc\\PLdef"));
+    }
+
+    @Test
+    void namedBackReferenceOperandIsSkipped() {
+        assertEquals(Arrays.asList("abc", "def"), TrigramFilter.requiredLiterals("(?<id>x)abc\\k<id>def"));
+    }
+
+    @Test
+    void escapesInsideCharClassDoNotEndTheClass() {
+        assertEquals(Arrays.asList("abc", "def"), TrigramFilter.requiredLiterals("abc[\\c[x]def"));
+        assertEquals(Arrays.asList("abc", "def"), TrigramFilter.requiredLiterals("abc[\\Q]\\E]def"));
+    }
+
+    @Test
+    void requiredTrigramsMatchTheTextTheRegexMatches() {
+        String[] regexes = {
+                "item\\u005Fname", "item\\x5Fname", "item\\0137name", "level\\p{Digit}\\d_max",
+                "(?<n>a)item\\k<n>_name"
+        };
+        String[] texts = {"item_name", "item_name", "item_name", "level12_max", "aitema_name"};
+        for (int i = 0; i < regexes.length; i++) {
+            assertTrue(Pattern.compile(regexes[i]).matcher(texts[i]).find(), regexes[i]);
+            List<String> lower = Collections.singletonList(texts[i].toLowerCase());
+            assertTrue(TrigramFilter.containsAll(TrigramFilter.trigramsOf(lower), TrigramFilter.forRegex(regexes[i])),
+                    regexes[i]);
+        }
+    }
+}